@@ -29,6 +29,9 @@ public class CentralServer {
 
     @Bean
     public List<String> consumerStreams(final AppConfig appConfig, final EventStreams streams) {
-        return appConfig.stores().stream().map(streams::storeToCentral).toList();
+        return appConfig.stores().stream()
+            .map(streams::storeToCentral)
+            .flatMap(stream -> EventStreams.prioritized(stream).stream())
+            .toList();
     }
 }
@@ -4,9 +4,13 @@ import com.tobiasbrandy.meli.inventory.central.config.AppConfig;
 import com.tobiasbrandy.meli.inventory.central.service.InventoryService;
 import com.tobiasbrandy.meli.inventory.exceptions.InvalidStoreIdException;
 import com.tobiasbrandy.meli.inventory.model.InventoryItem;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemRemotePurchaseEvent;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
@@ -24,6 +28,7 @@ import java.util.List;
  * <li>GET /inventory — paginated list (defaults: page=0, size=20; maxsize=1000)</li>
  * <li>GET /inventory/{storeId}/{productId} — fetch item</li>
  * <li>POST /purchase/{storeId}/{productId} — process a remote purchase</li>
+ * <li>POST /purchase — process a cart of remote purchases across stores, all or nothing (max lines=100, max quantity per line=1000000)</li>
  * </ul>
  */
 @Slf4j
@@ -33,6 +38,8 @@ import java.util.List;
 public class InventoryController {
     public static final int MAX_PAGE_SIZE = 1000;
     public static final int DEFAULT_PAGE_SIZE = 20;
+    public static final int MAX_CART_LINES = 100;
+    public static final int MAX_LINE_QUANTITY = 1_000_000; // So a whole cart can't overflow an int
 
     private final AppConfig appConfig;
     private final InventoryService inventoryService;
@@ -74,4 +81,14 @@ public class InventoryController {
     ) {
         return ResponseEntity.ok(inventoryService.processPurchase(validateStoreId(storeId), productId, body.quantity()));
     }
+
+    public record CartLine(@NotBlank String storeId, @NotBlank String productId, @Min(1) @Max(MAX_LINE_QUANTITY) int quantity) {}
+    public record CartBody(@NotEmpty @Size(max = MAX_CART_LINES) List<@Valid CartLine> lines) {}
+    @PostMapping("/purchase")
+    public ResponseEntity<List<InventoryItem>> purchaseCart(@RequestBody @Valid final CartBody body) {
+        return ResponseEntity.ok(inventoryService.processPurchases(body.lines().stream()
+            .map(line -> new InventoryItemRemotePurchaseEvent(validateStoreId(line.storeId()), line.productId(), line.quantity()))
+            .toList()
+        ));
+    }
 }
@@ -30,10 +30,10 @@ public class InventoryEventHandler {
 
     @Bean
     public EventHandler<InventoryItemUpdateEvent> itemUpdated() {
-        return EventHandler.ofPayload(
+        return EventHandler.ofPayloads(
             EventType.INVENTORY_ITEM_UPDATED,
             InventoryItemUpdateEvent.class,
-            event -> inventoryService.setInventoryItemQuantity(event.storeId(), event.productId(), event.quantity())
+            inventoryService::setInventoryItemQuantities
         );
     }
 }
@@ -0,0 +1,27 @@
+package com.tobiasbrandy.meli.inventory.central.api;
+
+import com.tobiasbrandy.meli.inventory.central.service.HeartbeatService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * REST API for store availability.
+ * <p>
+ * Endpoints:
+ * <ul>
+ * <li>GET /stores — availability and last heartbeat of every store, served from memory</li>
+ * </ul>
+ */
+@RestController
+@RequiredArgsConstructor
+public class StoreController {
+    private final HeartbeatService heartbeatService;
+
+    @GetMapping("/stores")
+    public Map<String, HeartbeatService.StoreStatus> stores() {
+        return heartbeatService.statuses();
+    }
+}
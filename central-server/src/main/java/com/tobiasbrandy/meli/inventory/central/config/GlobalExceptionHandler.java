@@ -2,6 +2,7 @@ package com.tobiasbrandy.meli.inventory.central.config;
 
 import com.tobiasbrandy.meli.inventory.exceptions.*;
 import lombok.val;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ProblemDetail;
 import org.springframework.web.ErrorResponse;
@@ -42,6 +43,11 @@ public final class GlobalExceptionHandler {
         return errorResponse(HttpStatus.INTERNAL_SERVER_ERROR, "Store Unavailable", e);
     }
 
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ProblemDetail concurrentUpdate(final OptimisticLockingFailureException e) {
+        return errorResponse(HttpStatus.CONFLICT, "Concurrent Update", e);
+    }
+
     @ExceptionHandler(Exception.class)
     public ProblemDetail fallbackHandler(final Exception e) {
         if (e instanceof ErrorResponse) {
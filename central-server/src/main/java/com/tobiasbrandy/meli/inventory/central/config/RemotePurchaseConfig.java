@@ -0,0 +1,43 @@
+package com.tobiasbrandy.meli.inventory.central.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * How central applies remote purchases.
+ * <ul>
+ *     <li>{@link Mode#TRANSACTIONAL}: each purchase runs its own transaction, which decrements the item and stores
+ *     its event.</li>
+ *     <li>{@link Mode#STOCK_ENGINE}: purchases are decided against in-memory stock counters, and accepted ones are
+ *     group committed across items in batches of up to {@code maxBatchSize} purchases, completing once written, see
+ *     {@link com.tobiasbrandy.meli.inventory.central.service.impl.StockEngine}.</li>
+ *     <li>{@link Mode#GROUP_COMMIT}: concurrent purchases of an item are collected for up to {@code groupCommitWindow},
+ *     or until there are {@code maxBatchSize} of them, and applied together in a single transaction, see
+ *     {@link com.tobiasbrandy.meli.inventory.central.service.impl.PurchaseGroupCommit}.</li>
+ * </ul>
+ */
+@ConfigurationProperties(prefix = "remote-purchase")
+public record RemotePurchaseConfig(
+    Mode mode,
+    int maxBatchSize,
+    Duration groupCommitWindow
+) {
+    public enum Mode {
+        TRANSACTIONAL,
+        STOCK_ENGINE,
+        GROUP_COMMIT,
+    }
+
+    public RemotePurchaseConfig {
+        if (mode == null) {
+            throw new IllegalArgumentException("Remote purchase mode must be set");
+        }
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Remote purchase max batch size must be positive");
+        }
+        if (groupCommitWindow == null || groupCommitWindow.isNegative() || groupCommitWindow.isZero()) {
+            throw new IllegalArgumentException("Remote purchase group commit window must be positive");
+        }
+    }
+}
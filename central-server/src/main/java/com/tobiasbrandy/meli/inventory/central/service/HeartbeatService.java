@@ -1,5 +1,20 @@
 package com.tobiasbrandy.meli.inventory.central.service;
 
+import java.time.Instant;
+import java.util.Map;
+
 public interface HeartbeatService {
+    /**
+     * Availability of a store, as last known by this instance.
+     *
+     * @param lastHeartbeat null if the store has no heartbeat, e.g. it's disconnected.
+     */
+    record StoreStatus(boolean alive, Instant lastHeartbeat) {}
+
     boolean isAlive(String storeId);
+
+    /**
+     * Status of every store, by store id.
+     */
+    Map<String, StoreStatus> statuses();
 }
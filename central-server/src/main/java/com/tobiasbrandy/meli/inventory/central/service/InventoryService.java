@@ -4,6 +4,8 @@ import com.tobiasbrandy.meli.inventory.exceptions.InsufficientStockException;
 import com.tobiasbrandy.meli.inventory.exceptions.ProductAlreadyExistsException;
 import com.tobiasbrandy.meli.inventory.exceptions.ProductNotFoundException;
 import com.tobiasbrandy.meli.inventory.model.InventoryItem;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemRemotePurchaseEvent;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemUpdateEvent;
 
 import java.util.List;
 
@@ -15,7 +17,21 @@ public interface InventoryService {
 
     void setInventoryItemQuantity(String storeId, String productId, int quantity) throws ProductNotFoundException;
 
+    /**
+     * Applies every update in a single transaction, the last update of an item wins.
+     * If any item doesn't exist, none is updated.
+     */
+    void setInventoryItemQuantities(List<InventoryItemUpdateEvent> updates) throws ProductNotFoundException;
+
     List<InventoryItem> listInventoryItems(int page, int size);
 
     InventoryItem processPurchase(String storeId, String productId, final int quantity) throws ProductNotFoundException, InsufficientStockException;
+
+    /**
+     * Applies every purchase in a single transaction, all or none: if any store is unavailable, or any item doesn't
+     * exist or hasn't got enough stock, none is applied. Each store gets a single event with all of its purchases.
+     *
+     * @return the purchased items, with their resulting quantities, ordered by store and product.
+     */
+    List<InventoryItem> processPurchases(List<InventoryItemRemotePurchaseEvent> purchases) throws ProductNotFoundException, InsufficientStockException;
 }
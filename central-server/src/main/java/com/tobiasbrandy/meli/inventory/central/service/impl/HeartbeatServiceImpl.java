@@ -1,29 +1,148 @@
 package com.tobiasbrandy.meli.inventory.central.service.impl;
 
+import com.tobiasbrandy.meli.inventory.central.config.AppConfig;
 import com.tobiasbrandy.meli.inventory.central.service.HeartbeatService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
- * Reads store heartbeat timestamps from Redis to determine availability.
+ * Keeps the last heartbeat of every store in memory, so availability checks never reach Redis.
+ * <p>
+ * Stores write their heartbeat timestamp into the {@value #HEARTBEATS_KEY} hash, and publish it to the
+ * {@value #HEARTBEATS_CHANNEL} channel as {@code <timestamp>:<storeId>}, or {@code :<storeId>} once they disconnect.
+ * Published heartbeats are applied as they arrive, and the whole hash is read back every REFRESH_INTERVAL_MS,
+ * so heartbeats missed while unsubscribed are caught up.
  * <p>
- * A store is considered alive if its last heartbeat is within
- * HEARTBEAT_TIMEOUT_MS.
+ * A store is considered alive if its last heartbeat is within HEARTBEAT_TIMEOUT_MS.
  */
 @Slf4j
 @Service
 @RequiredArgsConstructor
-public class HeartbeatServiceImpl implements HeartbeatService {
+public class HeartbeatServiceImpl implements HeartbeatService, MessageListener, SmartLifecycle {
+    public static final String HEARTBEATS_KEY = "store:heartbeats";
+    public static final String HEARTBEATS_CHANNEL = "store:heartbeats";
     private static final long HEARTBEAT_TIMEOUT_MS = 50_000;
+    private static final long REFRESH_INTERVAL_MS = 10_000;
 
+    private final AppConfig appConfig;
     private final StringRedisTemplate redis;
+    private final Map<String, Long> heartbeats = new ConcurrentHashMap<>();
+    private volatile RedisMessageListenerContainer subscription;
+    private volatile boolean running;
 
+    @Override
     public boolean isAlive(final String storeId) {
-        val key = "store:" + storeId + ":heartbeat";
-        val heartbeat = redis.opsForValue().get(key);
-        return heartbeat != null && (System.currentTimeMillis() - Long.parseLong(heartbeat)) <= HEARTBEAT_TIMEOUT_MS;
+        val heartbeat = heartbeats.get(storeId);
+        return heartbeat != null && (System.currentTimeMillis() - heartbeat) <= HEARTBEAT_TIMEOUT_MS;
+    }
+
+    @Override
+    public Map<String, StoreStatus> statuses() {
+        final Map<String, StoreStatus> statuses = new LinkedHashMap<>();
+        for (val storeId : appConfig.stores()) {
+            val heartbeat = heartbeats.get(storeId);
+            statuses.put(storeId, new StoreStatus(isAlive(storeId), heartbeat == null ? null : Instant.ofEpochMilli(heartbeat)));
+        }
+        return statuses;
+    }
+
+    /**
+     * Reads back the heartbeat of every store at once.
+     */
+    @Scheduled(fixedRate = REFRESH_INTERVAL_MS)
+    public void refresh() {
+        val readAt = System.currentTimeMillis();
+        final Map<Object, Object> stored;
+        try {
+            stored = redis.opsForHash().entries(HEARTBEATS_KEY);
+        } catch (final RuntimeException e) {
+            // Heartbeats we have time out on their own, as they would if stores couldn't reach Redis either
+            log.warn("Failed to refresh store heartbeats", e);
+            return;
+        }
+
+        for (val entry : stored.entrySet()) {
+            try {
+                heartbeats.merge((String) entry.getKey(), Long.parseLong((String) entry.getValue()), Math::max);
+            } catch (final NumberFormatException e) {
+                log.warn("Invalid heartbeat of store {}: {}", entry.getKey(), entry.getValue());
+            }
+        }
+        // Stores that disconnected. Heartbeats published after the read are kept
+        heartbeats.entrySet().removeIf(e -> !stored.containsKey(e.getKey()) && e.getValue() < readAt);
+    }
+
+    @Override
+    public void onMessage(final Message message, final byte[] pattern) {
+        val body = new String(message.getBody(), StandardCharsets.UTF_8);
+        val separator = body.indexOf(':');
+        if (separator < 0) {
+            log.warn("Invalid heartbeat notification {}", body);
+            return;
+        }
+
+        val storeId = body.substring(separator + 1);
+        if (separator == 0) {
+            heartbeats.remove(storeId);
+            log.info("Store {} disconnected", storeId);
+            return;
+        }
+        try {
+            heartbeats.merge(storeId, Long.parseLong(body.substring(0, separator)), Math::max);
+        } catch (final NumberFormatException e) {
+            log.warn("Invalid heartbeat notification {}", body);
+        }
+    }
+
+    @Override
+    public void start() {
+        val container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redis.getRequiredConnectionFactory());
+        container.addMessageListener(this, new ChannelTopic(HEARTBEATS_CHANNEL));
+        try {
+            container.afterPropertiesSet();
+            container.start();
+            subscription = container;
+        } catch (final RuntimeException e) {
+            // Heartbeats are still caught up by each refresh, just later
+            log.warn("Failed to subscribe to store heartbeats", e);
+        }
+        running = true;
+        // Subscribed first, so no heartbeat falls in between
+        refresh();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        val container = subscription;
+        subscription = null;
+        if (container != null) {
+            try {
+                container.destroy();
+            } catch (final Exception e) {
+                log.warn("Failed to unsubscribe from store heartbeats", e);
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
     }
 }
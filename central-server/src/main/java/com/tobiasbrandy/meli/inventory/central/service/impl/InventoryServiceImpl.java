@@ -1,5 +1,6 @@
 package com.tobiasbrandy.meli.inventory.central.service.impl;
 
+import com.tobiasbrandy.meli.inventory.central.config.RemotePurchaseConfig;
 import com.tobiasbrandy.meli.inventory.central.service.HeartbeatService;
 import com.tobiasbrandy.meli.inventory.central.service.InventoryService;
 import com.tobiasbrandy.meli.inventory.exceptions.InsufficientStockException;
@@ -11,6 +12,9 @@ import com.tobiasbrandy.meli.inventory.messaging.EventStreams;
 import com.tobiasbrandy.meli.inventory.model.EventType;
 import com.tobiasbrandy.meli.inventory.model.InventoryItem;
 import com.tobiasbrandy.meli.inventory.model.InventoryItemRemotePurchaseEvent;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemUpdateEvent;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemsRemotePurchaseEvent;
+import com.tobiasbrandy.meli.inventory.repository.InventoryPurchases;
 import com.tobiasbrandy.meli.inventory.repository.InventoryRepository;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
@@ -19,8 +23,13 @@ import lombok.val;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Central inventory service implementation.
@@ -28,7 +37,9 @@ import java.util.List;
  * Responsibilities:
  * <ul>
  * <li>CRUD operations on central inventory</li>
- * <li>Remote purchase processing with heartbeat-based availability checks</li>
+ * <li>Remote purchase processing with heartbeat-based availability checks, through the {@link StockEngine} or
+ * {@link PurchaseGroupCommit} if enabled (see {@link RemotePurchaseConfig})</li>
+ * <li>All-or-nothing processing of several remote purchases, across stores</li>
  * <li>Emission of domain events via {@link EventPublisher}</li>
  * </ul>
  */
@@ -37,9 +48,14 @@ import java.util.List;
 @RequiredArgsConstructor
 public class InventoryServiceImpl implements InventoryService {
     private final InventoryRepository inventoryRepository;
+    private final InventoryPurchases inventoryPurchases;
+    private final StockEngine stockEngine;
+    private final PurchaseGroupCommit purchaseGroupCommit;
     private final HeartbeatService heartbeatService;
     private final EventPublisher eventPublisher;
     private final EventStreams eventStreams;
+    private final TransactionTemplate transactionTemplate;
+    private final RemotePurchaseConfig remotePurchaseConfig;
 
     @Override
     public InventoryItem getInventoryItem(final String storeId, final String productId) throws ProductNotFoundException {
@@ -52,7 +68,8 @@ public class InventoryServiceImpl implements InventoryService {
     public InventoryItem createInventoryItem(final String storeId, final String productId) throws ProductAlreadyExistsException {
         log.info("Creating product {}", productId);
         try {
-            return inventoryRepository.save(new InventoryItem(storeId, productId, 0));
+            // Flushed right away, so a duplicate fails here rather than at commit
+            return inventoryRepository.saveAndFlush(new InventoryItem(storeId, productId, 0));
         } catch (DataIntegrityViolationException e) {
             log.error("Error creating product {}", productId, e);
             throw new ProductAlreadyExistsException(storeId, productId);
@@ -65,37 +82,124 @@ public class InventoryServiceImpl implements InventoryService {
         if (inventoryRepository.updateQuantity(storeId, productId, quantity) == 0) {
             throw new ProductNotFoundException(storeId, productId);
         }
+        stockEngine.evictAfterCommit(storeId, productId);
     }
 
     @Override
     @Transactional
+    public void setInventoryItemQuantities(final List<InventoryItemUpdateEvent> updates) throws ProductNotFoundException {
+        // Updates carry the absolute quantity, so only the last one of each item matters
+        final Map<String, Map<String, Integer>> quantitiesByStore = new LinkedHashMap<>();
+        for (val update : updates) {
+            quantitiesByStore.computeIfAbsent(update.storeId(), s -> new LinkedHashMap<>()).put(update.productId(), update.quantity());
+        }
+
+        for (val entry : quantitiesByStore.entrySet()) {
+            val storeId = entry.getKey();
+            val quantities = entry.getValue();
+            val items = inventoryRepository.findByStoreIdAndProductIdIn(storeId, quantities.keySet());
+            if (items.size() < quantities.size()) {
+                val found = items.stream().map(InventoryItem::getProductId).toList();
+                val missing = quantities.keySet().stream().filter(p -> !found.contains(p)).findFirst().orElseThrow();
+                throw new ProductNotFoundException(storeId, missing);
+            }
+            // Dirty items are flushed on commit, as JDBC batched updates
+            for (val item : items) {
+                item.setQuantity(quantities.get(item.getProductId()));
+                stockEngine.evictAfterCommit(storeId, item.getProductId());
+            }
+        }
+        log.info("Updated quantities of {} items", updates.size());
+    }
+
+    @Override
     public InventoryItem processPurchase(final String storeId, final String productId, final int quantity) throws ProductNotFoundException, InsufficientStockException {
         if (!heartbeatService.isAlive(storeId)) {
             throw new StoreUnavailableException(storeId);
         }
 
-        val item = inventoryRepository.findByStoreIdAndProductId(storeId, productId)
-            .orElseThrow(() -> new ProductNotFoundException(storeId, productId));
+        val savedItem = switch (remotePurchaseConfig.mode()) {
+            case TRANSACTIONAL -> transactionTemplate.execute(status -> purchase(storeId, productId, quantity));
+            // Decided in memory, then written and published along with other purchases
+            case STOCK_ENGINE -> stockEngine.purchase(storeId, productId, quantity);
+            // Decided and written along with concurrent purchases of the item
+            case GROUP_COMMIT -> purchaseGroupCommit.purchase(storeId, productId, quantity);
+        };
 
-        if (item.getQuantity() < quantity) {
-            throw new InsufficientStockException(storeId, productId, item.getQuantity(), quantity);
-        }
+        log.info(
+            "Processed remote purchase: storeId={}, productId={}, quantityDelta={}, resultingQuantity={}",
+            storeId, productId, quantity, savedItem.getQuantity()
+        );
 
-        item.setQuantity(item.getQuantity() - quantity);
-        val savedItem = inventoryRepository.save(item);
+        return savedItem;
+    }
 
+    private InventoryItem purchase(final String storeId, final String productId, final int quantity) {
+        val item = inventoryPurchases.purchase(storeId, productId, quantity);
         eventPublisher.publishEvent(
             eventStreams.centralToStore(storeId),
             EventType.INVENTORY_ITEM_REMOTE_PURCHASE,
             new InventoryItemRemotePurchaseEvent(storeId, productId, quantity)
         );
+        return item;
+    }
 
-        log.info(
-            "Processed remote purchase: storeId={}, productId={}, quantityDelta={}, resultingQuantity={}",
-            storeId, productId, quantity, savedItem.getQuantity()
-        );
+    @Override
+    public List<InventoryItem> processPurchases(final List<InventoryItemRemotePurchaseEvent> purchases) throws ProductNotFoundException, InsufficientStockException {
+        // Stores and their items in a fixed order, so concurrent calls lock shared items in the same order.
+        // Purchases of the same item are added up, failing rather than wrapping around
+        final Map<String, Map<String, Integer>> quantitiesByStore = new TreeMap<>();
+        for (val purchase : purchases) {
+            quantitiesByStore.computeIfAbsent(purchase.storeId(), s -> new TreeMap<>())
+                .merge(purchase.productId(), purchase.quantityDelta(), Math::addExact);
+        }
 
-        return savedItem;
+        // Once per store, and before locking anything
+        for (val storeId : quantitiesByStore.keySet()) {
+            if (!heartbeatService.isAlive(storeId)) {
+                throw new StoreUnavailableException(storeId);
+            }
+        }
+
+        val items = transactionTemplate.execute(status -> purchase(quantitiesByStore));
+
+        log.info("Processed {} remote purchases of {} products across {} stores", purchases.size(), items.size(), quantitiesByStore.size());
+        return items;
+    }
+
+    private List<InventoryItem> purchase(final Map<String, Map<String, Integer>> quantitiesByStore) {
+        final List<InventoryItem> purchased = new ArrayList<>();
+        for (val entry : quantitiesByStore.entrySet()) {
+            val storeId = entry.getKey();
+            val quantities = entry.getValue();
+            val items = inventoryRepository.findForUpdate(storeId, quantities.keySet());
+            if (items.size() < quantities.size()) {
+                val found = items.stream().map(InventoryItem::getProductId).toList();
+                val missing = quantities.keySet().stream().filter(p -> !found.contains(p)).findFirst().orElseThrow();
+                throw new ProductNotFoundException(storeId, missing);
+            }
+
+            // Throwing rolls back the purchases of every store.
+            // Dirty items are flushed on commit, as JDBC batched updates
+            final List<InventoryItemRemotePurchaseEvent> events = new ArrayList<>(items.size());
+            for (val item : items) {
+                val quantity = quantities.get(item.getProductId());
+                if (item.getQuantity() < quantity) {
+                    throw new InsufficientStockException(storeId, item.getProductId(), item.getQuantity(), quantity);
+                }
+                item.setQuantity(item.getQuantity() - quantity);
+                stockEngine.evictAfterCommit(storeId, item.getProductId());
+                events.add(new InventoryItemRemotePurchaseEvent(storeId, item.getProductId(), quantity));
+            }
+
+            eventPublisher.publishEvent(
+                eventStreams.centralToStore(storeId),
+                EventType.INVENTORY_ITEMS_REMOTE_PURCHASE,
+                new InventoryItemsRemotePurchaseEvent(storeId, events)
+            );
+            purchased.addAll(items);
+        }
+        return purchased;
     }
 
     @Override
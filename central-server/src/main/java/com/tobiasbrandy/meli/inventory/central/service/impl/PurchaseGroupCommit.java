@@ -0,0 +1,223 @@
+package com.tobiasbrandy.meli.inventory.central.service.impl;
+
+import com.tobiasbrandy.meli.inventory.central.config.RemotePurchaseConfig;
+import com.tobiasbrandy.meli.inventory.exceptions.InsufficientStockException;
+import com.tobiasbrandy.meli.inventory.exceptions.ProductNotFoundException;
+import com.tobiasbrandy.meli.inventory.messaging.EventPublisher;
+import com.tobiasbrandy.meli.inventory.messaging.EventStreams;
+import com.tobiasbrandy.meli.inventory.model.EventType;
+import com.tobiasbrandy.meli.inventory.model.InventoryItem;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemRemotePurchaseEvent;
+import com.tobiasbrandy.meli.inventory.repository.InventoryRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group commit of concurrent purchases of the same item, so a hot item costs a transaction per group of purchases
+ * instead of one per purchase.
+ * <p>
+ * The first purchase of an item opens a group, and leads it: it waits up to
+ * {@link RemotePurchaseConfig#groupCommitWindow()} for other purchases of the item to join, or until there are
+ * {@link RemotePurchaseConfig#maxBatchSize()} of them, and then applies the group in a single transaction.
+ * The item is read once, locked, and purchases are decided against it in arrival order, so each one is accepted or
+ * rejected as if applied one after the other. The item is then updated once, with a single remote purchase event
+ * for the units purchased by the whole group, and every purchase completes with its own result.
+ * <p>
+ * Purchases arriving while a group is being applied open the next one, which waits on the item lock for the previous
+ * one to commit, so groups grow with the load.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PurchaseGroupCommit {
+    private final InventoryRepository inventoryRepository;
+    private final EventPublisher eventPublisher;
+    private final EventStreams eventStreams;
+    private final TransactionTemplate transactionTemplate;
+    private final RemotePurchaseConfig config;
+    private final Map<Key, Group> groups = new ConcurrentHashMap<>();
+
+    private record Key(String storeId, String productId) {
+    }
+
+    /**
+     * The purchase that opens a group leads it, applying it for every purchase in it.
+     */
+    private enum Role {
+        LEADER,
+        FOLLOWER,
+    }
+
+    private record Purchase(int quantity, CompletableFuture<InventoryItem> result) {
+    }
+
+    /**
+     * Result of a purchase within its group: the item right after it, or why it was rejected.
+     */
+    private record Outcome(InventoryItem item, RuntimeException error) {
+    }
+
+    /**
+     * Purchases of an item collected so far, open until its leader closes it, or it's full.
+     * Guarded by its own monitor.
+     */
+    private static final class Group {
+        private final List<Purchase> purchases = new ArrayList<>();
+        private boolean closed;
+    }
+
+    /**
+     * Purchases {@code quantity} units of the item, along with other concurrent purchases of it.
+     *
+     * @return the item, with its quantity right after the purchase.
+     */
+    public InventoryItem purchase(final String storeId, final String productId, final int quantity) throws ProductNotFoundException, InsufficientStockException {
+        val key = new Key(storeId, productId);
+        val purchase = new Purchase(quantity, new CompletableFuture<>());
+
+        Group group;
+        Role role;
+        do {
+            group = groups.computeIfAbsent(key, k -> new Group());
+            role = join(key, group, purchase);
+        } while (role == null);
+
+        if (role == Role.LEADER) {
+            lead(key, group);
+        }
+
+        try {
+            return purchase.result().join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Adds the purchase to the group, unless it's closed already.
+     *
+     * @return the role of the purchase in the group, or null if it's closed.
+     */
+    private Role join(final Key key, final Group group, final Purchase purchase) {
+        synchronized (group) {
+            if (group.closed) {
+                return null;
+            }
+            group.purchases.add(purchase);
+            val role = group.purchases.size() == 1 ? Role.LEADER : Role.FOLLOWER;
+            if (group.purchases.size() >= config.maxBatchSize()) {
+                // Full, so the leader applies it right away, and later purchases open the next one
+                close(key, group);
+            }
+            return role;
+        }
+    }
+
+    private void close(final Key key, final Group group) {
+        group.closed = true;
+        groups.remove(key, group);
+        group.notifyAll();
+    }
+
+    private void lead(final Key key, final Group group) {
+        final List<Purchase> purchases;
+        synchronized (group) {
+            val deadline = System.nanoTime() + config.groupCommitWindow().toNanos();
+            long remaining;
+            while (!group.closed && (remaining = deadline - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(group, remaining);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (!group.closed) {
+                close(key, group);
+            }
+            purchases = List.copyOf(group.purchases);
+        }
+        apply(key, purchases);
+    }
+
+    /**
+     * Applies the purchases of a group in a single transaction, and completes them once it commits.
+     */
+    private void apply(final Key key, final List<Purchase> purchases) {
+        final List<Outcome> outcomes;
+        try {
+            outcomes = transactionTemplate.execute(status -> decide(key, purchases));
+        } catch (final RuntimeException e) {
+            log.error("Error applying {} purchases of product {} of store {}", purchases.size(), key.productId(), key.storeId(), e);
+            for (val purchase : purchases) {
+                purchase.result().completeExceptionally(e);
+            }
+            return;
+        }
+
+        for (int i = 0; i < purchases.size(); i++) {
+            val outcome = outcomes.get(i);
+            if (outcome.error() != null) {
+                purchases.get(i).result().completeExceptionally(outcome.error());
+            } else {
+                purchases.get(i).result().complete(outcome.item());
+            }
+        }
+    }
+
+    private List<Outcome> decide(final Key key, final List<Purchase> purchases) {
+        final List<Outcome> outcomes = new ArrayList<>(purchases.size());
+        // Locked, so groups of other instances wait for this one instead of failing
+        val item = inventoryRepository.findForUpdate(key.storeId(), key.productId()).orElse(null);
+        if (item == null) {
+            for (int i = 0; i < purchases.size(); i++) {
+                outcomes.add(new Outcome(null, new ProductNotFoundException(key.storeId(), key.productId())));
+            }
+            return outcomes;
+        }
+
+        int available = item.getQuantity();
+        int purchased = 0;
+        for (val purchase : purchases) {
+            if (purchase.quantity() > available) {
+                outcomes.add(new Outcome(null, new InsufficientStockException(key.storeId(), key.productId(), available, purchase.quantity())));
+                continue;
+            }
+            available -= purchase.quantity();
+            purchased += purchase.quantity();
+            outcomes.add(new Outcome(snapshot(item, available), null));
+        }
+
+        if (purchased > 0) {
+            // Flushed on commit, as the single update of the group
+            item.setQuantity(available);
+            eventPublisher.publishEvent(
+                eventStreams.centralToStore(key.storeId()),
+                EventType.INVENTORY_ITEM_REMOTE_PURCHASE,
+                new InventoryItemRemotePurchaseEvent(key.storeId(), key.productId(), purchased)
+            );
+        }
+        log.debug("Applied {} purchases of product {} of store {}: {} units", purchases.size(), key.productId(), key.storeId(), purchased);
+        return outcomes;
+    }
+
+    private static InventoryItem snapshot(final InventoryItem item, final int quantity) {
+        val snapshot = new InventoryItem(item.getStoreId(), item.getProductId(), quantity);
+        snapshot.setId(item.getId());
+        return snapshot;
+    }
+}
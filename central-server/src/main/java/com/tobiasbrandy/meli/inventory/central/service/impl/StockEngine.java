@@ -0,0 +1,345 @@
+package com.tobiasbrandy.meli.inventory.central.service.impl;
+
+import com.tobiasbrandy.meli.inventory.central.config.RemotePurchaseConfig;
+import com.tobiasbrandy.meli.inventory.exceptions.InsufficientStockException;
+import com.tobiasbrandy.meli.inventory.exceptions.ProductNotFoundException;
+import com.tobiasbrandy.meli.inventory.messaging.EventPublisher;
+import com.tobiasbrandy.meli.inventory.messaging.EventStreams;
+import com.tobiasbrandy.meli.inventory.model.EventType;
+import com.tobiasbrandy.meli.inventory.model.InventoryItem;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemRemotePurchaseEvent;
+import com.tobiasbrandy.meli.inventory.repository.InventoryRepository;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory stock of central inventory items, so remote purchases are decided without a database round trip,
+ * and accepted ones are written in a group commit across every item.
+ * <p>
+ * Each item loaded so far has a counter of its available stock, and a purchase reserves its units with a lock-free
+ * compare-and-set on it, so purchases of an item never wait on each other nor on a row lock to be decided.
+ * Purchases without enough stock are rejected right there. Reserved purchases are written by a single flusher,
+ * in batches of up to {@link RemotePurchaseConfig#maxBatchSize()} purchases: a batch costs one transaction, with a
+ * single conditional decrement (see {@link InventoryRepository#decrementQuantity}) and a single remote purchase event
+ * per item.
+ * <p>
+ * This is not a write-behind cache: an accepted purchase only completes once its batch commits, so its commit is still
+ * on the request's critical path, shared with every purchase in the batch. It can't complete any earlier, as stores
+ * write their items too, so a counter may be ahead of the database until the write that evicts it commits, and only
+ * the conditional decrement can tell whether the purchase really had stock. In exchange, a crash loses nothing that
+ * was confirmed: reservations not yet written were never confirmed, and counters are loaded back from the database
+ * on first use. Unlike {@link PurchaseGroupCommit}, rejections never reach the database, no row is locked to decide,
+ * and a single transaction writes purchases of many items.
+ * <p>
+ * The database stays the source of truth. A counter is dropped, and loaded again on next use, whenever its item is
+ * written by someone else (see {@link #evictAfterCommit}) or a batch of it fails. As purchases are written with
+ * a conditional decrement, a counter ahead of the database can't oversell: purchases the database doesn't have stock
+ * for are rejected when written.
+ */
+@Slf4j
+@Component
+public class StockEngine implements SmartLifecycle {
+    private static final long POLL_TIMEOUT_MS = 100;
+    private static final int EPOCH_STRIPES = 1024;
+
+    private final InventoryRepository inventoryRepository;
+    private final EventPublisher eventPublisher;
+    private final EventStreams eventStreams;
+    private final TransactionTemplate transactionTemplate;
+    private final RemotePurchaseConfig config;
+    private final Map<Key, Stock> stocks = new ConcurrentHashMap<>();
+    // Evictions of the items of each stripe, so counters loaded across an eviction are discarded
+    private final AtomicLongArray epochs = new AtomicLongArray(EPOCH_STRIPES);
+    private final BlockingQueue<Reservation> reservations = new LinkedBlockingQueue<>();
+    private volatile boolean running;
+    private Thread flusher;
+
+    private record Key(String storeId, String productId) {
+    }
+
+    /**
+     * Available stock of an item: its quantity in the database, minus the reservations not yet written.
+     */
+    private record Stock(Key key, long id, AtomicInteger available) {
+    }
+
+    /**
+     * @param remaining available stock of the item right after the reservation.
+     */
+    private record Reservation(Stock stock, int quantity, int remaining, CompletableFuture<InventoryItem> result) {
+    }
+
+    public StockEngine(
+        final InventoryRepository inventoryRepository,
+        final EventPublisher eventPublisher,
+        final EventStreams eventStreams,
+        final TransactionTemplate transactionTemplate,
+        final RemotePurchaseConfig config
+    ) {
+        this.inventoryRepository = inventoryRepository;
+        this.eventPublisher = eventPublisher;
+        this.eventStreams = eventStreams;
+        this.transactionTemplate = transactionTemplate;
+        this.config = config;
+    }
+
+    /**
+     * Purchases {@code quantity} units of the item, waiting until the purchase is written.
+     *
+     * @return the item, with its quantity right after the purchase.
+     */
+    public InventoryItem purchase(final String storeId, final String productId, final int quantity) throws ProductNotFoundException, InsufficientStockException {
+        val result = reserve(storeId, productId, quantity);
+        if (!running) {
+            // Nobody is flushing, so write it ourselves
+            flush();
+        }
+        try {
+            return result.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Reserves {@code quantity} units of the item, to be written by the next flush.
+     *
+     * @return completed with the item once written, with its quantity right after the purchase.
+     * @throws InsufficientStockException right away, if the item doesn't have enough available stock.
+     */
+    public CompletableFuture<InventoryItem> reserve(final String storeId, final String productId, final int quantity) throws ProductNotFoundException, InsufficientStockException {
+        val stock = stock(storeId, productId);
+        int available;
+        do {
+            available = stock.available().get();
+            if (available < quantity) {
+                throw new InsufficientStockException(storeId, productId, available, quantity);
+            }
+        } while (!stock.available().compareAndSet(available, available - quantity));
+
+        val reservation = new Reservation(stock, quantity, available - quantity, new CompletableFuture<>());
+        reservations.add(reservation);
+        return reservation.result();
+    }
+
+    private Stock stock(final String storeId, final String productId) {
+        val key = new Key(storeId, productId);
+        while (true) {
+            val epoch = epochs.get(stripe(key));
+            final Stock[] loaded = new Stock[1];
+            // Loaded at most once per item, and without blocking other items
+            val stock = stocks.computeIfAbsent(key, k -> {
+                val item = inventoryRepository.findByStoreIdAndProductId(storeId, productId)
+                    .orElseThrow(() -> new ProductNotFoundException(storeId, productId));
+                return loaded[0] = new Stock(key, item.getId(), new AtomicInteger(item.getQuantity()));
+            });
+            if (stock != loaded[0] || epochs.get(stripe(key)) == epoch) {
+                return stock;
+            }
+            // Evicted while loading, so it may have been read before the write that evicted it
+            stocks.remove(key, stock);
+        }
+    }
+
+    private static int stripe(final Key key) {
+        return Math.floorMod(key.hashCode(), EPOCH_STRIPES);
+    }
+
+    private void evict(final Key key) {
+        // Bumped first, so a load in progress either sees it, or gets removed here
+        epochs.incrementAndGet(stripe(key));
+        stocks.remove(key);
+    }
+
+    /**
+     * Drops the counter of the item once the current transaction commits, as it wrote the item.
+     * Without a transaction the write is already committed, so it's dropped right away.
+     */
+    public void evictAfterCommit(final String storeId, final String productId) {
+        val key = new Key(storeId, productId);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            evict(key);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                evict(key);
+            }
+        });
+    }
+
+    /**
+     * Writes up to {@link RemotePurchaseConfig#maxBatchSize()} reserved purchases, and completes them.
+     *
+     * @return how many purchases were written or rejected.
+     */
+    public int flush() {
+        final List<Reservation> batch = new ArrayList<>();
+        reservations.drainTo(batch, config.maxBatchSize());
+        if (!batch.isEmpty()) {
+            write(batch);
+        }
+        return batch.size();
+    }
+
+    private void write(final List<Reservation> batch) {
+        final Map<Stock, List<Reservation>> byItem = new LinkedHashMap<>();
+        for (val reservation : batch) {
+            byItem.computeIfAbsent(reservation.stock(), s -> new ArrayList<>()).add(reservation);
+        }
+
+        final Map<Reservation, InsufficientStockException> rejected = new HashMap<>();
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                rejected.clear();
+                final Map<Stock, Integer> purchased = new LinkedHashMap<>();
+                for (val entry : byItem.entrySet()) {
+                    val key = entry.getKey().key();
+                    val total = entry.getValue().stream().mapToInt(Reservation::quantity).sum();
+                    if (inventoryRepository.decrementQuantity(key.storeId(), key.productId(), total) == 1) {
+                        purchased.put(entry.getKey(), total);
+                    } else {
+                        purchased.put(entry.getKey(), writeEach(entry.getValue(), rejected));
+                    }
+                }
+
+                // Events are stored after every update, so the outbox inserts are batched together
+                for (val entry : purchased.entrySet()) {
+                    if (entry.getValue() > 0) {
+                        val key = entry.getKey().key();
+                        eventPublisher.publishEvent(
+                            eventStreams.centralToStore(key.storeId()),
+                            EventType.INVENTORY_ITEM_REMOTE_PURCHASE,
+                            new InventoryItemRemotePurchaseEvent(key.storeId(), key.productId(), entry.getValue())
+                        );
+                    }
+                }
+            });
+        } catch (final RuntimeException e) {
+            log.error("Error writing {} purchases of {} items", batch.size(), byItem.size(), e);
+            // Whether anything was written is unknown, so counters are loaded back from the database
+            for (val stock : byItem.keySet()) {
+                stocks.remove(stock.key(), stock);
+            }
+            for (val reservation : batch) {
+                reservation.result().completeExceptionally(e);
+            }
+            return;
+        }
+
+        for (val reservation : batch) {
+            val rejection = rejected.get(reservation);
+            if (rejection != null) {
+                reservation.result().completeExceptionally(rejection);
+            } else {
+                reservation.result().complete(item(reservation));
+            }
+        }
+        if (!rejected.isEmpty()) {
+            log.warn("Rejected {} of {} purchases, as the database had less stock than reserved", rejected.size(), batch.size());
+        }
+    }
+
+    /**
+     * Writes the purchases of an item one by one, as the database doesn't have stock for all of them.
+     * This happens when the item was written by someone else since its counter was loaded, so the counter is dropped.
+     *
+     * @return units purchased.
+     */
+    private int writeEach(final List<Reservation> reservations, final Map<Reservation, InsufficientStockException> rejected) {
+        val stock = reservations.getFirst().stock();
+        val key = stock.key();
+        stocks.remove(key, stock);
+
+        int purchased = 0;
+        for (val reservation : reservations) {
+            if (inventoryRepository.decrementQuantity(key.storeId(), key.productId(), reservation.quantity()) == 1) {
+                purchased += reservation.quantity();
+            } else {
+                val current = inventoryRepository.findByStoreIdAndProductId(key.storeId(), key.productId())
+                    .map(InventoryItem::getQuantity)
+                    .orElse(0);
+                rejected.put(reservation, new InsufficientStockException(key.storeId(), key.productId(), current, reservation.quantity()));
+            }
+        }
+        return purchased;
+    }
+
+    private static InventoryItem item(final Reservation reservation) {
+        val key = reservation.stock().key();
+        val item = new InventoryItem(key.storeId(), key.productId(), reservation.remaining());
+        item.setId(reservation.stock().id());
+        return item;
+    }
+
+    private void runFlusher() {
+        // Keeps flushing after stop, until every reservation made before it is written
+        while (running || !reservations.isEmpty()) {
+            try {
+                val first = reservations.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                // Whatever piled up while the last batch was written goes in this one
+                final List<Reservation> batch = new ArrayList<>();
+                batch.add(first);
+                reservations.drainTo(batch, config.maxBatchSize() - 1);
+                write(batch);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (final Exception e) {
+                log.error("Error flushing purchases", e);
+            }
+        }
+    }
+
+    @Override
+    public void start() {
+        if (config.mode() != RemotePurchaseConfig.Mode.STOCK_ENGINE) {
+            return;
+        }
+        running = true;
+        flusher = Thread.ofPlatform().name("stock-engine-flusher").daemon().start(this::runFlusher);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (flusher != null) {
+            try {
+                flusher.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
@@ -5,6 +5,7 @@ import com.tobiasbrandy.meli.inventory.central.config.AppConfig;
 import com.tobiasbrandy.meli.inventory.central.config.GlobalExceptionHandler;
 import com.tobiasbrandy.meli.inventory.central.service.InventoryService;
 import com.tobiasbrandy.meli.inventory.exceptions.InvalidStoreIdException;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemRemotePurchaseEvent;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.http.MediaType;
@@ -83,4 +84,42 @@ class InventoryControllerTest {
     void methodNotAllowed_returnsProblem() throws Exception {
         mvc.perform(put("/inventory")).andExpect(status().isMethodNotAllowed());
     }
+
+    @Test
+    void purchaseCart_purchasesEveryLine() throws Exception {
+        when(inventoryService.processPurchases(anyList())).thenReturn(List.of(
+                new com.tobiasbrandy.meli.inventory.model.InventoryItem("store-1", "p1", 5),
+                new com.tobiasbrandy.meli.inventory.model.InventoryItem("store-1", "p2", 3)));
+        var body = mapper.writeValueAsString(new InventoryController.CartBody(List.of(
+                new InventoryController.CartLine("store-1", "p1", 1),
+                new InventoryController.CartLine("store-1", "p2", 2))));
+        mvc.perform(post("/purchase").contentType(MediaType.APPLICATION_JSON).content(body))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[1].productId", is("p2")));
+        verify(inventoryService).processPurchases(List.of(
+                new InventoryItemRemotePurchaseEvent("store-1", "p1", 1),
+                new InventoryItemRemotePurchaseEvent("store-1", "p2", 2)));
+    }
+
+    @Test
+    void purchaseCart_invalidLines() throws Exception {
+        var empty = mapper.writeValueAsString(new InventoryController.CartBody(List.of()));
+        mvc.perform(post("/purchase").contentType(MediaType.APPLICATION_JSON).content(empty))
+                .andExpect(status().isBadRequest());
+        var invalidQuantity = mapper.writeValueAsString(new InventoryController.CartBody(List.of(
+                new InventoryController.CartLine("store-1", "p1", 0))));
+        mvc.perform(post("/purchase").contentType(MediaType.APPLICATION_JSON).content(invalidQuantity))
+                .andExpect(status().isBadRequest());
+        var overflowingQuantity = mapper.writeValueAsString(new InventoryController.CartBody(List.of(
+                new InventoryController.CartLine("store-1", "p1", Integer.MAX_VALUE),
+                new InventoryController.CartLine("store-1", "p1", Integer.MAX_VALUE))));
+        mvc.perform(post("/purchase").contentType(MediaType.APPLICATION_JSON).content(overflowingQuantity))
+                .andExpect(status().isBadRequest());
+        var invalidStore = mapper.writeValueAsString(new InventoryController.CartBody(List.of(
+                new InventoryController.CartLine("store-1", "p1", 1),
+                new InventoryController.CartLine("bad-store", "p1", 1))));
+        mvc.perform(post("/purchase").contentType(MediaType.APPLICATION_JSON).content(invalidStore))
+                .andExpect(status().isBadRequest());
+        verify(inventoryService, never()).processPurchases(anyList());
+    }
 }
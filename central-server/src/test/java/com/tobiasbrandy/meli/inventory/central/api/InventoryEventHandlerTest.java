@@ -5,7 +5,8 @@ import com.tobiasbrandy.meli.inventory.model.InventoryItemUpdateEvent;
 import com.tobiasbrandy.meli.inventory.central.service.InventoryService;
 import org.junit.jupiter.api.Test;
 
-import static org.mockito.ArgumentMatchers.eq;
+import java.util.List;
+
 import static org.mockito.Mockito.*;
 
 class InventoryEventHandlerTest {
@@ -24,6 +25,20 @@ class InventoryEventHandlerTest {
                 "s", "id", java.time.Instant.now(),
                 com.tobiasbrandy.meli.inventory.model.EventType.INVENTORY_ITEM_UPDATED,
                 new InventoryItemUpdateEvent("store-1", "p1", 7)));
-        verify(service).setInventoryItemQuantity(eq("store-1"), eq("p1"), eq(7));
+        verify(service).setInventoryItemQuantities(List.of(new InventoryItemUpdateEvent("store-1", "p1", 7)));
+    }
+
+    @Test
+    void updatedHandlerAppliesWholeBatchAtOnce() {
+        var service = mock(InventoryService.class);
+        var handler = new InventoryEventHandler(service).itemUpdated();
+
+        var updates = List.of(new InventoryItemUpdateEvent("store-1", "p1", 7), new InventoryItemUpdateEvent("store-1", "p2", 3));
+        handler.handleEvents(updates.stream().map(u -> new com.tobiasbrandy.meli.inventory.model.Event<>(
+                "s", "id-" + u.productId(), java.time.Instant.now(),
+                com.tobiasbrandy.meli.inventory.model.EventType.INVENTORY_ITEM_UPDATED, u)).toList());
+
+        verify(service).setInventoryItemQuantities(updates);
+        verifyNoMoreInteractions(service);
     }
 }
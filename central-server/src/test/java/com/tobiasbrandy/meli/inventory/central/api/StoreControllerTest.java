@@ -0,0 +1,44 @@
+package com.tobiasbrandy.meli.inventory.central.api;
+
+import com.tobiasbrandy.meli.inventory.central.config.GlobalExceptionHandler;
+import com.tobiasbrandy.meli.inventory.central.service.HeartbeatService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.time.Instant;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class StoreControllerTest {
+
+    private MockMvc mvc;
+    private HeartbeatService heartbeatService;
+
+    @BeforeEach
+    void setUp() {
+        heartbeatService = mock(HeartbeatService.class);
+        mvc = MockMvcBuilders.standaloneSetup(new StoreController(heartbeatService))
+            .setControllerAdvice(new GlobalExceptionHandler())
+            .build();
+    }
+
+    @Test
+    void listsEveryStoreStatus() throws Exception {
+        when(heartbeatService.statuses()).thenReturn(Map.of(
+                "store-1", new HeartbeatService.StoreStatus(true, Instant.now()),
+                "store-2", new HeartbeatService.StoreStatus(false, null)));
+        mvc.perform(get("/stores"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$['store-1'].alive", is(true)))
+                .andExpect(jsonPath("$['store-2'].alive", is(false)))
+                .andExpect(jsonPath("$['store-2'].lastHeartbeat", nullValue()));
+    }
+}
@@ -1,35 +1,102 @@
 package com.tobiasbrandy.meli.inventory.central.service;
 
+import com.tobiasbrandy.meli.inventory.central.config.AppConfig;
 import com.tobiasbrandy.meli.inventory.central.service.impl.HeartbeatServiceImpl;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.HashOperations;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.ValueOperations;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
-import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 class HeartbeatServiceImplTest {
+    private StringRedisTemplate redis;
+    private HashOperations<String, Object, Object> hashOps;
+    private HeartbeatServiceImpl svc;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        redis = mock(StringRedisTemplate.class);
+        hashOps = mock(HashOperations.class);
+        when(redis.<Object, Object>opsForHash()).thenReturn(hashOps);
+        svc = new HeartbeatServiceImpl(new AppConfig(List.of("store-1", "store-2")), redis);
+    }
+
+    private void notify(final String body) {
+        svc.onMessage(new DefaultMessage("store:heartbeats".getBytes(StandardCharsets.UTF_8), body.getBytes(StandardCharsets.UTF_8)), null);
+    }
 
     @Test
     void isAlive_trueWhenRecentTimestamp() {
-        var redis = mock(StringRedisTemplate.class);
-        var valueOps = mock(ValueOperations.class);
-        when(redis.opsForValue()).thenReturn(valueOps);
-        when(valueOps.get(eq("store:store-1:heartbeat"))).thenReturn(String.valueOf(System.currentTimeMillis()));
+        when(hashOps.entries("store:heartbeats")).thenReturn(Map.of("store-1", String.valueOf(System.currentTimeMillis())));
+        svc.refresh();
 
-        var svc = new HeartbeatServiceImpl(redis);
         assertTrue(svc.isAlive("store-1"));
+        // Answered from memory
+        verify(hashOps, times(1)).entries("store:heartbeats");
+        verifyNoMoreInteractions(hashOps);
     }
 
     @Test
     void isAlive_falseWhenMissingOrStale() {
-        var redis = mock(StringRedisTemplate.class);
-        var valueOps = mock(ValueOperations.class);
-        when(redis.opsForValue()).thenReturn(valueOps);
-        when(valueOps.get(eq("store:store-1:heartbeat"))).thenReturn(null);
+        when(hashOps.entries("store:heartbeats")).thenReturn(Map.of("store-1", String.valueOf(System.currentTimeMillis() - 60_000)));
+        svc.refresh();
+
+        assertFalse(svc.isAlive("store-1"));
+        assertFalse(svc.isAlive("store-2"));
+    }
+
+    @Test
+    void publishedHeartbeatsAreAppliedAsTheyArrive() {
+        notify(System.currentTimeMillis() + ":store-1");
+        assertTrue(svc.isAlive("store-1"));
 
-        var svc = new HeartbeatServiceImpl(redis);
+        notify(":store-1");
         assertFalse(svc.isAlive("store-1"));
+        verifyNoInteractions(hashOps);
+    }
+
+    @Test
+    void refreshDropsDisconnectedStoresButKeepsNewerHeartbeats() {
+        final long now = System.currentTimeMillis();
+        when(hashOps.entries("store:heartbeats")).thenReturn(Map.of("store-1", String.valueOf(now - 1_000), "store-2", String.valueOf(now - 1_000)));
+        svc.refresh();
+
+        // store-1 disconnected, and store-2 heartbeat is newer than the read
+        when(hashOps.entries("store:heartbeats")).thenReturn(Map.of("store-2", String.valueOf(now - 1_000)));
+        notify((now + 60_000) + ":store-2");
+        svc.refresh();
+
+        assertFalse(svc.isAlive("store-1"));
+        assertEquals(Instant.ofEpochMilli(now + 60_000), svc.statuses().get("store-2").lastHeartbeat());
+    }
+
+    @Test
+    void statusesListEveryStore() {
+        final long now = System.currentTimeMillis();
+        notify(now + ":store-1");
+
+        assertEquals(Map.of(
+                "store-1", new HeartbeatService.StoreStatus(true, Instant.ofEpochMilli(now)),
+                "store-2", new HeartbeatService.StoreStatus(false, null)
+        ), svc.statuses());
+    }
+
+    @Test
+    void failedRefreshKeepsKnownHeartbeats() {
+        notify(System.currentTimeMillis() + ":store-1");
+        when(hashOps.entries("store:heartbeats")).thenThrow(new IllegalStateException("redis down"));
+
+        svc.refresh();
+
+        assertTrue(svc.isAlive("store-1"));
     }
 }
@@ -1,6 +1,9 @@
 package com.tobiasbrandy.meli.inventory.central.service;
 
+import com.tobiasbrandy.meli.inventory.central.config.RemotePurchaseConfig;
 import com.tobiasbrandy.meli.inventory.central.service.impl.InventoryServiceImpl;
+import com.tobiasbrandy.meli.inventory.central.service.impl.PurchaseGroupCommit;
+import com.tobiasbrandy.meli.inventory.central.service.impl.StockEngine;
 import com.tobiasbrandy.meli.inventory.exceptions.InsufficientStockException;
 import com.tobiasbrandy.meli.inventory.exceptions.ProductAlreadyExistsException;
 import com.tobiasbrandy.meli.inventory.exceptions.ProductNotFoundException;
@@ -10,15 +13,22 @@ import com.tobiasbrandy.meli.inventory.messaging.EventStreams;
 import com.tobiasbrandy.meli.inventory.model.EventType;
 import com.tobiasbrandy.meli.inventory.model.InventoryItem;
 import com.tobiasbrandy.meli.inventory.model.InventoryItemRemotePurchaseEvent;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemUpdateEvent;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemsRemotePurchaseEvent;
+import com.tobiasbrandy.meli.inventory.repository.InventoryPurchases;
 import com.tobiasbrandy.meli.inventory.repository.InventoryRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -26,6 +36,9 @@ import static org.mockito.Mockito.*;
 
 class InventoryServiceImplTest {
     private InventoryRepository repository;
+    private InventoryPurchases purchases;
+    private StockEngine stockEngine;
+    private PurchaseGroupCommit groupCommit;
     private HeartbeatService heartbeatService;
     private EventPublisher publisher;
     private EventStreams streams;
@@ -34,12 +47,21 @@ class InventoryServiceImplTest {
     @BeforeEach
     void setUp() {
         repository = mock(InventoryRepository.class);
+        purchases = mock(InventoryPurchases.class);
+        stockEngine = mock(StockEngine.class);
+        groupCommit = mock(PurchaseGroupCommit.class);
         heartbeatService = mock(HeartbeatService.class);
         publisher = mock(EventPublisher.class);
         streams = mock(EventStreams.class);
         when(streams.centralToStore("store-1")).thenReturn("centralTo:store-1");
+        when(streams.centralToStore("store-2")).thenReturn("centralTo:store-2");
 
-        service = new InventoryServiceImpl(repository, heartbeatService, publisher, streams);
+        service = service(RemotePurchaseConfig.Mode.TRANSACTIONAL);
+    }
+
+    private InventoryService service(final RemotePurchaseConfig.Mode mode) {
+        return new InventoryServiceImpl(repository, purchases, stockEngine, groupCommit, heartbeatService, publisher, streams,
+                new TransactionTemplate(mock(PlatformTransactionManager.class)), new RemotePurchaseConfig(mode, 10, Duration.ofMillis(1)));
     }
 
     @Test
@@ -58,13 +80,13 @@ class InventoryServiceImplTest {
     @Test
     void createInventoryItem_saves() {
         var saved = new InventoryItem("store-1", "p1", 0);
-        when(repository.save(any(InventoryItem.class))).thenReturn(saved);
+        when(repository.saveAndFlush(any(InventoryItem.class))).thenReturn(saved);
         assertSame(saved, service.createInventoryItem("store-1", "p1"));
     }
 
     @Test
     void createInventoryItem_duplicateThrows() {
-        when(repository.save(any(InventoryItem.class))).thenThrow(new DataIntegrityViolationException("dup"));
+        when(repository.saveAndFlush(any(InventoryItem.class))).thenThrow(new DataIntegrityViolationException("dup"));
         assertThrows(ProductAlreadyExistsException.class, () -> service.createInventoryItem("store-1", "p1"));
     }
 
@@ -72,6 +94,7 @@ class InventoryServiceImplTest {
     void setInventoryItemQuantity_updatesOrThrows() {
         when(repository.updateQuantity("store-1", "p1", 7)).thenReturn(1);
         service.setInventoryItemQuantity("store-1", "p1", 7);
+        verify(stockEngine).evictAfterCommit("store-1", "p1");
         when(repository.updateQuantity("store-1", "p1", 7)).thenReturn(0);
         assertThrows(ProductNotFoundException.class, () -> service.setInventoryItemQuantity("store-1", "p1", 7));
     }
@@ -85,24 +108,23 @@ class InventoryServiceImplTest {
     @Test
     void processPurchase_notFoundThrows() {
         when(heartbeatService.isAlive("store-1")).thenReturn(true);
-        when(repository.findByStoreIdAndProductId("store-1", "p1")).thenReturn(Optional.empty());
+        when(purchases.purchase("store-1", "p1", 1)).thenThrow(new ProductNotFoundException("store-1", "p1"));
         assertThrows(ProductNotFoundException.class, () -> service.processPurchase("store-1", "p1", 1));
+        verifyNoInteractions(publisher);
     }
 
     @Test
     void processPurchase_insufficientThrows() {
         when(heartbeatService.isAlive("store-1")).thenReturn(true);
-        var item = new InventoryItem("store-1", "p1", 1);
-        when(repository.findByStoreIdAndProductId("store-1", "p1")).thenReturn(Optional.of(item));
+        when(purchases.purchase("store-1", "p1", 2)).thenThrow(new InsufficientStockException("store-1", "p1", 1, 2));
         assertThrows(InsufficientStockException.class, () -> service.processPurchase("store-1", "p1", 2));
+        verifyNoInteractions(publisher);
     }
 
     @Test
     void processPurchase_successDecrementsAndPublishesRemote() {
         when(heartbeatService.isAlive("store-1")).thenReturn(true);
-        var item = new InventoryItem("store-1", "p1", 5);
-        when(repository.findByStoreIdAndProductId("store-1", "p1")).thenReturn(Optional.of(item));
-        when(repository.save(any(InventoryItem.class))).thenAnswer(inv -> inv.getArgument(0));
+        when(purchases.purchase("store-1", "p1", 3)).thenReturn(new InventoryItem("store-1", "p1", 2));
 
         var saved = service.processPurchase("store-1", "p1", 3);
         assertEquals(2, saved.getQuantity());
@@ -115,10 +137,134 @@ class InventoryServiceImplTest {
         assertEquals(3, payload.getValue().quantityDelta());
     }
 
+    @Test
+    void processPurchase_goesThroughTheStockEngineWhenEnabled() {
+        when(heartbeatService.isAlive("store-1")).thenReturn(true);
+        when(stockEngine.purchase("store-1", "p1", 3)).thenReturn(new InventoryItem("store-1", "p1", 2));
+
+        var saved = service(RemotePurchaseConfig.Mode.STOCK_ENGINE).processPurchase("store-1", "p1", 3);
+
+        assertEquals(2, saved.getQuantity());
+        verifyNoInteractions(purchases, publisher);
+    }
+
+    @Test
+    void processPurchase_joinsAGroupCommitWhenEnabled() {
+        when(heartbeatService.isAlive("store-1")).thenReturn(true);
+        when(groupCommit.purchase("store-1", "p1", 3)).thenReturn(new InventoryItem("store-1", "p1", 2));
+
+        var saved = service(RemotePurchaseConfig.Mode.GROUP_COMMIT).processPurchase("store-1", "p1", 3);
+
+        assertEquals(2, saved.getQuantity());
+        verifyNoInteractions(purchases, stockEngine, publisher);
+    }
+
     @Test
     void listInventoryItems_delegates() {
         when(repository.findAll(PageRequest.of(0, 10)))
                 .thenReturn(new org.springframework.data.domain.PageImpl<>(List.of()));
         assertNotNull(service.listInventoryItems(0, 10));
     }
+
+    @Test
+    void setInventoryItemQuantities_appliesLastUpdateOfEachItem() {
+        var p1 = new InventoryItem("store-1", "p1", 1);
+        var p2 = new InventoryItem("store-1", "p2", 1);
+        when(repository.findByStoreIdAndProductIdIn(eq("store-1"), anyCollection())).thenReturn(List.of(p1, p2));
+
+        service.setInventoryItemQuantities(List.of(
+                new InventoryItemUpdateEvent("store-1", "p1", 5),
+                new InventoryItemUpdateEvent("store-1", "p2", 8),
+                new InventoryItemUpdateEvent("store-1", "p1", 6)));
+
+        assertEquals(6, p1.getQuantity());
+        assertEquals(8, p2.getQuantity());
+        verify(repository, never()).updateQuantity(anyString(), anyString(), anyInt());
+    }
+
+    @Test
+    void setInventoryItemQuantities_missingItemThrows() {
+        when(repository.findByStoreIdAndProductIdIn(eq("store-1"), anyCollection()))
+                .thenReturn(List.of(new InventoryItem("store-1", "p1", 1)));
+
+        var e = assertThrows(ProductNotFoundException.class, () -> service.setInventoryItemQuantities(List.of(
+                new InventoryItemUpdateEvent("store-1", "p1", 5),
+                new InventoryItemUpdateEvent("store-1", "p2", 8))));
+        assertTrue(e.getMessage().contains("p2"));
+    }
+
+    @Test
+    void processPurchases_appliesEveryLineWithOneEventPerStore() {
+        when(heartbeatService.isAlive(anyString())).thenReturn(true);
+        var s1p1 = new InventoryItem("store-1", "p1", 10);
+        var s1p2 = new InventoryItem("store-1", "p2", 10);
+        var s2p1 = new InventoryItem("store-2", "p1", 10);
+        when(repository.findForUpdate("store-1", Set.of("p1", "p2"))).thenReturn(List.of(s1p1, s1p2));
+        when(repository.findForUpdate("store-2", Set.of("p1"))).thenReturn(List.of(s2p1));
+
+        var items = service.processPurchases(List.of(
+                new InventoryItemRemotePurchaseEvent("store-2", "p1", 4),
+                new InventoryItemRemotePurchaseEvent("store-1", "p2", 1),
+                new InventoryItemRemotePurchaseEvent("store-1", "p1", 2),
+                new InventoryItemRemotePurchaseEvent("store-1", "p1", 3)));
+
+        assertEquals(List.of(s1p1, s1p2, s2p1), items);
+        assertEquals(5, s1p1.getQuantity());
+        assertEquals(9, s1p2.getQuantity());
+        assertEquals(6, s2p1.getQuantity());
+        verify(heartbeatService, times(1)).isAlive("store-1");
+        verify(publisher).publishEvent("centralTo:store-1", EventType.INVENTORY_ITEMS_REMOTE_PURCHASE,
+                new InventoryItemsRemotePurchaseEvent("store-1", List.of(
+                        new InventoryItemRemotePurchaseEvent("store-1", "p1", 5),
+                        new InventoryItemRemotePurchaseEvent("store-1", "p2", 1))));
+        verify(publisher).publishEvent("centralTo:store-2", EventType.INVENTORY_ITEMS_REMOTE_PURCHASE,
+                new InventoryItemsRemotePurchaseEvent("store-2", List.of(new InventoryItemRemotePurchaseEvent("store-2", "p1", 4))));
+        verify(stockEngine).evictAfterCommit("store-1", "p1");
+        verify(repository, never()).decrementQuantity(anyString(), anyString(), anyInt());
+    }
+
+    @Test
+    void processPurchases_unavailableStoreThrowsBeforeTouchingAnyItem() {
+        when(heartbeatService.isAlive("store-1")).thenReturn(true);
+        when(heartbeatService.isAlive("store-2")).thenReturn(false);
+
+        assertThrows(StoreUnavailableException.class, () -> service.processPurchases(List.of(
+                new InventoryItemRemotePurchaseEvent("store-1", "p1", 1),
+                new InventoryItemRemotePurchaseEvent("store-2", "p1", 1))));
+        verifyNoInteractions(repository, publisher);
+    }
+
+    @Test
+    void processPurchases_insufficientStockOnAnyLineThrows() {
+        when(heartbeatService.isAlive(anyString())).thenReturn(true);
+        when(repository.findForUpdate("store-1", Set.of("p1", "p2")))
+                .thenReturn(List.of(new InventoryItem("store-1", "p1", 10), new InventoryItem("store-1", "p2", 1)));
+
+        var e = assertThrows(InsufficientStockException.class, () -> service.processPurchases(List.of(
+                new InventoryItemRemotePurchaseEvent("store-1", "p1", 1),
+                new InventoryItemRemotePurchaseEvent("store-1", "p2", 2))));
+        assertTrue(e.getMessage().contains("p2"));
+        verifyNoInteractions(publisher);
+    }
+
+    @Test
+    void processPurchases_missingItemThrows() {
+        when(heartbeatService.isAlive(anyString())).thenReturn(true);
+        when(repository.findForUpdate("store-1", Set.of("p1", "p2"))).thenReturn(List.of(new InventoryItem("store-1", "p1", 10)));
+
+        var e = assertThrows(ProductNotFoundException.class, () -> service.processPurchases(List.of(
+                new InventoryItemRemotePurchaseEvent("store-1", "p1", 1),
+                new InventoryItemRemotePurchaseEvent("store-1", "p2", 1))));
+        assertTrue(e.getMessage().contains("p2"));
+    }
+
+    @Test
+    void processPurchases_overflowingQuantityThrows() {
+        when(heartbeatService.isAlive(anyString())).thenReturn(true);
+
+        assertThrows(ArithmeticException.class, () -> service.processPurchases(List.of(
+                new InventoryItemRemotePurchaseEvent("store-1", "p1", Integer.MAX_VALUE),
+                new InventoryItemRemotePurchaseEvent("store-1", "p1", Integer.MAX_VALUE))));
+        verifyNoInteractions(repository, publisher);
+    }
 }
@@ -0,0 +1,125 @@
+package com.tobiasbrandy.meli.inventory.central.service;
+
+import com.tobiasbrandy.meli.inventory.central.config.RemotePurchaseConfig;
+import com.tobiasbrandy.meli.inventory.central.service.impl.PurchaseGroupCommit;
+import com.tobiasbrandy.meli.inventory.exceptions.InsufficientStockException;
+import com.tobiasbrandy.meli.inventory.exceptions.ProductNotFoundException;
+import com.tobiasbrandy.meli.inventory.messaging.EventPublisher;
+import com.tobiasbrandy.meli.inventory.messaging.EventStreams;
+import com.tobiasbrandy.meli.inventory.model.EventType;
+import com.tobiasbrandy.meli.inventory.model.InventoryItem;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemRemotePurchaseEvent;
+import com.tobiasbrandy.meli.inventory.repository.InventoryRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PurchaseGroupCommitTest {
+    private InventoryRepository repository;
+    private EventPublisher publisher;
+    private EventStreams streams;
+    private InventoryItem item;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(InventoryRepository.class);
+        publisher = mock(EventPublisher.class);
+        streams = mock(EventStreams.class);
+        when(streams.centralToStore("store-1")).thenReturn("centralTo:store-1");
+        item = new InventoryItem("store-1", "p1", 10);
+        when(repository.findForUpdate("store-1", "p1")).thenReturn(Optional.of(item));
+    }
+
+    private PurchaseGroupCommit groupCommit(final int maxBatchSize, final Duration window) {
+        return new PurchaseGroupCommit(repository, publisher, streams, new TransactionTemplate(mock(PlatformTransactionManager.class)),
+                new RemotePurchaseConfig(RemotePurchaseConfig.Mode.GROUP_COMMIT, maxBatchSize, window));
+    }
+
+    /**
+     * Runs the purchases concurrently, counting the rejected ones.
+     *
+     * @return resulting quantity of each accepted purchase, in ascending order.
+     */
+    private static List<Integer> purchaseConcurrently(final PurchaseGroupCommit groupCommit, final AtomicInteger rejected,
+                                                      final int... quantities) throws InterruptedException {
+        final Set<Integer> results = ConcurrentHashMap.newKeySet();
+        final List<Thread> buyers = new ArrayList<>();
+        for (final int quantity : quantities) {
+            buyers.add(Thread.ofPlatform().start(() -> {
+                try {
+                    results.add(groupCommit.purchase("store-1", "p1", quantity).getQuantity());
+                } catch (final InsufficientStockException e) {
+                    rejected.incrementAndGet();
+                }
+            }));
+        }
+        for (final var buyer : buyers) {
+            buyer.join();
+        }
+        return results.stream().sorted().toList();
+    }
+
+    @Test
+    void fullGroupIsAppliedWithOneReadAndOneEvent() throws InterruptedException {
+        final var rejected = new AtomicInteger();
+
+        final var results = purchaseConcurrently(groupCommit(4, Duration.ofSeconds(30)), rejected, 1, 1, 1, 1);
+
+        assertEquals(List.of(6, 7, 8, 9), results);
+        assertEquals(0, rejected.get());
+        assertEquals(6, item.getQuantity());
+        verify(repository, times(1)).findForUpdate("store-1", "p1");
+        verify(publisher).publishEvent("centralTo:store-1", EventType.INVENTORY_ITEM_REMOTE_PURCHASE,
+                new InventoryItemRemotePurchaseEvent("store-1", "p1", 4));
+    }
+
+    @Test
+    void purchasesBeyondTheStockAreRejectedOneByOne() throws InterruptedException {
+        item.setQuantity(5);
+        final var rejected = new AtomicInteger();
+
+        final var results = purchaseConcurrently(groupCommit(3, Duration.ofSeconds(30)), rejected, 2, 2, 2);
+
+        assertEquals(List.of(1, 3), results);
+        assertEquals(1, rejected.get());
+        assertEquals(1, item.getQuantity());
+        verify(publisher).publishEvent("centralTo:store-1", EventType.INVENTORY_ITEM_REMOTE_PURCHASE,
+                new InventoryItemRemotePurchaseEvent("store-1", "p1", 4));
+    }
+
+    @Test
+    void loneGroupIsAppliedOnceItsWindowEnds() {
+        assertEquals(7, groupCommit(100, Duration.ofMillis(5)).purchase("store-1", "p1", 3).getQuantity());
+        verify(publisher).publishEvent("centralTo:store-1", EventType.INVENTORY_ITEM_REMOTE_PURCHASE,
+                new InventoryItemRemotePurchaseEvent("store-1", "p1", 3));
+    }
+
+    @Test
+    void missingItemIsRejected() {
+        when(repository.findForUpdate("store-1", "missing")).thenReturn(Optional.empty());
+
+        assertThrows(ProductNotFoundException.class, () -> groupCommit(1, Duration.ofMillis(5)).purchase("store-1", "missing", 1));
+        verifyNoInteractions(publisher);
+    }
+
+    @Test
+    void failedGroupFailsEveryPurchase() {
+        when(repository.findForUpdate(anyString(), anyString())).thenThrow(new IllegalStateException("db down"));
+
+        assertThrows(IllegalStateException.class, () -> groupCommit(1, Duration.ofMillis(5)).purchase("store-1", "p1", 1));
+        assertEquals(10, item.getQuantity());
+    }
+}
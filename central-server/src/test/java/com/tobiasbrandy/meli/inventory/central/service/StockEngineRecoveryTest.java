@@ -0,0 +1,191 @@
+package com.tobiasbrandy.meli.inventory.central.service;
+
+import com.tobiasbrandy.meli.inventory.central.config.RemotePurchaseConfig;
+import com.tobiasbrandy.meli.inventory.central.service.impl.StockEngine;
+import com.tobiasbrandy.meli.inventory.exceptions.InsufficientStockException;
+import com.tobiasbrandy.meli.inventory.messaging.EventPublisher;
+import com.tobiasbrandy.meli.inventory.messaging.EventStreams;
+import com.tobiasbrandy.meli.inventory.model.Event;
+import com.tobiasbrandy.meli.inventory.model.EventType;
+import com.tobiasbrandy.meli.inventory.model.InventoryItem;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemRemotePurchaseEvent;
+import com.tobiasbrandy.meli.inventory.repository.InventoryRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Crashes of the {@link StockEngine}, against the in-memory database: confirmed purchases are never lost,
+ * and unconfirmed ones never take stock, so stock is neither lost nor oversold once the engine comes back.
+ * <p>
+ * A crash before a write is a fresh engine over the same database, a crash mid-write is a write that fails after
+ * decrementing the item.
+ */
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED) // Purchases are written in their own transactions
+@ContextConfiguration(classes = StockEngineRecoveryTest.TestApplication.class)
+class StockEngineRecoveryTest {
+    private static final String STORE = "store-1";
+
+    @SpringBootConfiguration
+    @EntityScan(basePackages = "com.tobiasbrandy.meli.inventory.model")
+    @EnableJpaRepositories(basePackages = "com.tobiasbrandy.meli.inventory.repository")
+    static class TestApplication {
+    }
+
+    /**
+     * Keeps remote purchase events once their transaction commits, as the outbox would.
+     */
+    private static final class CommittedEvents implements EventPublisher {
+        private final List<InventoryItemRemotePurchaseEvent> events = new CopyOnWriteArrayList<>();
+        private volatile boolean crashing;
+
+        @Override
+        public <T> Event<T> publishEvent(final String stream, final EventType type, final T payload) {
+            if (crashing) {
+                throw new IllegalStateException("Crashed mid-write");
+            }
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    events.add((InventoryItemRemotePurchaseEvent) payload);
+                }
+            });
+            return new Event<>(stream, UUID.randomUUID().toString(), Instant.now(), type, payload);
+        }
+
+        @Override
+        public void setDisconnected(final boolean disconnected) {
+        }
+
+        int purchased(final String productId) {
+            return events.stream().filter(e -> e.productId().equals(productId)).mapToInt(InventoryItemRemotePurchaseEvent::quantityDelta).sum();
+        }
+    }
+
+    @Autowired
+    private InventoryRepository repository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private CommittedEvents events;
+
+    @BeforeEach
+    void setUp() {
+        repository.deleteAll();
+        events = new CommittedEvents();
+    }
+
+    private StockEngine engine() {
+        final var streams = mock(EventStreams.class);
+        when(streams.centralToStore(STORE)).thenReturn("centralTo:" + STORE);
+        return new StockEngine(repository, events, streams, new TransactionTemplate(transactionManager),
+                new RemotePurchaseConfig(RemotePurchaseConfig.Mode.STOCK_ENGINE, 100, Duration.ofMillis(1)));
+    }
+
+    private int quantity(final String productId) {
+        return repository.findByStoreIdAndProductId(STORE, productId).orElseThrow().getQuantity();
+    }
+
+    @Test
+    void crashBeforeWriteLosesNoStock() {
+        repository.save(new InventoryItem(STORE, "p1", 10));
+        final var crashed = engine();
+        final var confirmed = crashed.reserve(STORE, "p1", 3);
+        crashed.flush();
+        assertEquals(7, confirmed.join().getQuantity());
+
+        // Reserved but never written, so never confirmed
+        final var unconfirmed = crashed.reserve(STORE, "p1", 4);
+
+        final var recovered = engine();
+        assertEquals(0, recovered.purchase(STORE, "p1", 7).getQuantity());
+        assertThrows(InsufficientStockException.class, () -> recovered.purchase(STORE, "p1", 1));
+
+        assertFalse(unconfirmed.isDone());
+        assertEquals(0, quantity("p1"));
+        assertEquals(10, events.purchased("p1"));
+    }
+
+    @Test
+    void crashMidWriteRollsBackTheWholeBatch() {
+        repository.save(new InventoryItem(STORE, "p1", 10));
+        repository.save(new InventoryItem(STORE, "p2", 10));
+        final var engine = engine();
+        final var first = engine.reserve(STORE, "p1", 4);
+        final var second = engine.reserve(STORE, "p2", 6);
+
+        events.crashing = true;
+        engine.flush();
+        events.crashing = false;
+
+        assertThrows(CompletionException.class, first::join);
+        assertThrows(CompletionException.class, second::join);
+        assertEquals(10, quantity("p1"));
+        assertEquals(10, quantity("p2"));
+        assertEquals(0, events.purchased("p1") + events.purchased("p2"));
+
+        // Failed reservations are given back, as counters are loaded again
+        assertEquals(0, engine.purchase(STORE, "p1", 10).getQuantity());
+        assertEquals(0, engine().purchase(STORE, "p2", 10).getQuantity());
+        assertEquals(10, events.purchased("p1"));
+        assertEquals(10, events.purchased("p2"));
+    }
+
+    @Test
+    void concurrentBuyersSellEveryUnitExactlyOnce() throws InterruptedException {
+        repository.save(new InventoryItem(STORE, "p1", 100));
+        final var engine = engine();
+        engine.start();
+
+        final var sold = new AtomicInteger();
+        final var rejected = new AtomicInteger();
+        final List<Thread> buyers = new ArrayList<>();
+        for (int b = 0; b < 8; b++) {
+            buyers.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 20; i++) {
+                    try {
+                        engine.purchase(STORE, "p1", 1);
+                        sold.incrementAndGet();
+                    } catch (final InsufficientStockException e) {
+                        rejected.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (final var buyer : buyers) {
+            buyer.join();
+        }
+        engine.stop();
+
+        assertEquals(100, sold.get());
+        assertEquals(60, rejected.get());
+        assertEquals(0, quantity("p1"));
+        assertEquals(100, events.purchased("p1"));
+    }
+}
@@ -0,0 +1,168 @@
+package com.tobiasbrandy.meli.inventory.central.service;
+
+import com.tobiasbrandy.meli.inventory.central.config.RemotePurchaseConfig;
+import com.tobiasbrandy.meli.inventory.central.service.impl.StockEngine;
+import com.tobiasbrandy.meli.inventory.exceptions.InsufficientStockException;
+import com.tobiasbrandy.meli.inventory.exceptions.ProductNotFoundException;
+import com.tobiasbrandy.meli.inventory.messaging.EventPublisher;
+import com.tobiasbrandy.meli.inventory.messaging.EventStreams;
+import com.tobiasbrandy.meli.inventory.model.EventType;
+import com.tobiasbrandy.meli.inventory.model.InventoryItem;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemRemotePurchaseEvent;
+import com.tobiasbrandy.meli.inventory.repository.InventoryRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class StockEngineTest {
+    private InventoryRepository repository;
+    private EventPublisher publisher;
+    private StockEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(InventoryRepository.class);
+        publisher = mock(EventPublisher.class);
+        final var streams = mock(EventStreams.class);
+        when(streams.centralToStore("store-1")).thenReturn("centralTo:store-1");
+        when(repository.findByStoreIdAndProductId("store-1", "p1")).thenReturn(Optional.of(new InventoryItem("store-1", "p1", 10)));
+
+        engine = new StockEngine(repository, publisher, streams, new TransactionTemplate(mock(PlatformTransactionManager.class)),
+                new RemotePurchaseConfig(RemotePurchaseConfig.Mode.STOCK_ENGINE, 100, Duration.ofMillis(1)));
+    }
+
+    @Test
+    void concurrentReservationsNeverOversell() throws InterruptedException {
+        final var reserved = new AtomicInteger();
+        final var rejected = new AtomicInteger();
+        final var go = new CountDownLatch(1);
+        final List<Thread> buyers = new ArrayList<>();
+        for (int b = 0; b < 8; b++) {
+            buyers.add(Thread.ofPlatform().start(() -> {
+                try {
+                    go.await();
+                } catch (final InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 5; i++) {
+                    try {
+                        engine.reserve("store-1", "p1", 1);
+                        reserved.incrementAndGet();
+                    } catch (final InsufficientStockException e) {
+                        rejected.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        go.countDown();
+        for (final var buyer : buyers) {
+            buyer.join();
+        }
+
+        assertEquals(10, reserved.get());
+        assertEquals(30, rejected.get());
+        verify(repository, times(1)).findByStoreIdAndProductId("store-1", "p1");
+        verify(repository, never()).decrementQuantity(anyString(), anyString(), anyInt());
+    }
+
+    @Test
+    void missingItemIsRejectedRightAway() {
+        when(repository.findByStoreIdAndProductId("store-1", "missing")).thenReturn(Optional.empty());
+        assertThrows(ProductNotFoundException.class, () -> engine.reserve("store-1", "missing", 1));
+    }
+
+    @Test
+    void flushWritesOneDecrementAndEventPerItem() {
+        when(repository.decrementQuantity("store-1", "p1", 5)).thenReturn(1);
+        final var first = engine.reserve("store-1", "p1", 2);
+        final var second = engine.reserve("store-1", "p1", 3);
+        assertFalse(first.isDone());
+
+        assertEquals(2, engine.flush());
+
+        assertEquals(8, first.join().getQuantity());
+        assertEquals(5, second.join().getQuantity());
+        verify(repository).decrementQuantity("store-1", "p1", 5);
+        verify(publisher).publishEvent("centralTo:store-1", EventType.INVENTORY_ITEM_REMOTE_PURCHASE,
+                new InventoryItemRemotePurchaseEvent("store-1", "p1", 5));
+    }
+
+    @Test
+    void purchasesTheDatabaseHasNoStockForAreRejectedWhenWritten() {
+        // The item was set to 3 by a store update after its counter was loaded
+        when(repository.decrementQuantity("store-1", "p1", 6)).thenReturn(0);
+        when(repository.decrementQuantity("store-1", "p1", 2)).thenReturn(1);
+        when(repository.decrementQuantity("store-1", "p1", 4)).thenReturn(0);
+        final var first = engine.reserve("store-1", "p1", 2);
+        final var second = engine.reserve("store-1", "p1", 4);
+
+        engine.flush();
+
+        assertEquals(8, first.join().getQuantity());
+        final var e = assertThrows(CompletionException.class, second::join);
+        assertInstanceOf(InsufficientStockException.class, e.getCause());
+        verify(publisher).publishEvent("centralTo:store-1", EventType.INVENTORY_ITEM_REMOTE_PURCHASE,
+                new InventoryItemRemotePurchaseEvent("store-1", "p1", 2));
+
+        // Counter dropped, so it's loaded back
+        engine.reserve("store-1", "p1", 1);
+        verify(repository, times(3)).findByStoreIdAndProductId("store-1", "p1");
+    }
+
+    @Test
+    void failedBatchFailsItsPurchasesAndReloadsTheirItems() {
+        when(repository.decrementQuantity("store-1", "p1", 2)).thenThrow(new RuntimeException("db down"));
+        final CompletableFuture<InventoryItem> purchase = engine.reserve("store-1", "p1", 2);
+
+        engine.flush();
+
+        assertThrows(CompletionException.class, purchase::join);
+        verifyNoInteractions(publisher);
+        // The reserved units are back, as the counter is loaded from the database again
+        assertDoesNotThrow(() -> engine.reserve("store-1", "p1", 10));
+        verify(repository, times(2)).findByStoreIdAndProductId("store-1", "p1");
+    }
+
+    @Test
+    void purchaseWritesItselfWhileTheFlusherIsStopped() {
+        when(repository.decrementQuantity("store-1", "p1", 4)).thenReturn(1);
+
+        assertEquals(6, engine.purchase("store-1", "p1", 4).getQuantity());
+        assertThrows(InsufficientStockException.class, () -> engine.purchase("store-1", "p1", 7));
+    }
+
+    @Test
+    void counterLoadedAcrossAnEvictionIsLoadedAgain() throws InterruptedException {
+        // A store update commits, and evicts the item, between the read and the caching of its counter
+        final Thread[] evicter = new Thread[1];
+        when(repository.findByStoreIdAndProductId("store-1", "p1"))
+                .thenAnswer(invocation -> {
+                    evicter[0] = Thread.ofPlatform().start(() -> engine.evictAfterCommit("store-1", "p1"));
+                    // Waits on the counter being cached
+                    while (evicter[0].getState() != Thread.State.BLOCKED && evicter[0].isAlive()) {
+                        Thread.onSpinWait();
+                    }
+                    return Optional.of(new InventoryItem("store-1", "p1", 0));
+                })
+                .thenReturn(Optional.of(new InventoryItem("store-1", "p1", 10)));
+
+        assertDoesNotThrow(() -> engine.reserve("store-1", "p1", 5));
+        evicter[0].join();
+        assertDoesNotThrow(() -> engine.reserve("store-1", "p1", 5));
+        verify(repository, atLeast(2)).findByStoreIdAndProductId("store-1", "p1");
+    }
+}
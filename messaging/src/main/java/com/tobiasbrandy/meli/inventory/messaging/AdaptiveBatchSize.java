@@ -0,0 +1,39 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+/**
+ * Batch size that doubles while batches come back full and halves when they come back mostly empty,
+ * always staying within {@code [min, max]}.
+ * <p>
+ * Not thread safe, each worker owns its own instance.
+ */
+final class AdaptiveBatchSize {
+    private final int min;
+    private final int max;
+    private int current;
+
+    AdaptiveBatchSize(final int min, final int max) {
+        this.min = min;
+        this.max = max;
+        this.current = min;
+    }
+
+    int get() {
+        return current;
+    }
+
+    /**
+     * Adjusts the batch size given how many items the last batch of size {@link #get()} returned.
+     *
+     * @return whether the last batch was full, meaning there is probably more backlog.
+     */
+    boolean record(final int fetched) {
+        if (fetched >= current) {
+            current = Math.min(max, current * 2);
+            return true;
+        }
+        if (fetched < current / 2) {
+            current = Math.max(min, current / 2);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,374 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import com.tobiasbrandy.meli.inventory.model.Event;
+import com.tobiasbrandy.meli.inventory.model.EventType;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemCreateEvent;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemRemotePurchaseEvent;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemUpdateEvent;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemsRemotePurchaseEvent;
+import lombok.val;
+
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact binary codec.
+ * <p>
+ * A payload is a marker byte followed by the fields of its {@link EventType}, in declaration order.
+ * Strings are a varint length plus UTF-8 bytes, and integers are zigzag varints. Payloads of at least
+ * {@code compressionThreshold} bytes are deflated, as long as that makes them smaller.
+ * Marker bytes are control characters that can't start a JSON document, so binary payloads can be told apart
+ * from {@link JsonEventCodec} ones.
+ * <p>
+ * A stream entry is a single {@value #ENTRY_FIELD} field holding a flags byte, the {@link EventType#getCode()},
+ * the creation time as epoch seconds and nanos, the event id (16 raw bytes when it's a UUID) and the payload.
+ */
+final class BinaryEventCodec implements EventCodec {
+    static final String ENTRY_FIELD = "e";
+
+    private static final byte PLAIN = 0x00;
+    private static final byte DEFLATED = 0x01;
+    private static final int UUID_EVENT_ID = 0x01;
+    private static final int MAX_INFLATED_BYTES = 64 * 1024 * 1024;
+
+    private final int compressionThreshold;
+
+    BinaryEventCodec(final int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    static boolean isBinaryPayload(final byte[] payload) {
+        return payload.length > 0 && (payload[0] == PLAIN || payload[0] == DEFLATED);
+    }
+
+    @Override
+    public byte[] encodePayload(final EventType type, final Object payload) {
+        if (!type.getPayloadType().isInstance(payload)) {
+            throw new IllegalArgumentException("Payload of event " + type.name() + " must be of type " + type.getPayloadType().getSimpleName());
+        }
+
+        val out = new Output(32);
+        out.writeByte(PLAIN);
+        switch (type) {
+            case ECHO -> out.writeString((String) payload);
+            case INVENTORY_ITEM_CREATED -> {
+                val e = (InventoryItemCreateEvent) payload;
+                out.writeString(e.storeId());
+                out.writeString(e.productId());
+            }
+            case INVENTORY_ITEM_UPDATED -> {
+                val e = (InventoryItemUpdateEvent) payload;
+                out.writeString(e.storeId());
+                out.writeString(e.productId());
+                out.writeZigZag(e.quantity());
+            }
+            case INVENTORY_ITEM_REMOTE_PURCHASE -> {
+                val e = (InventoryItemRemotePurchaseEvent) payload;
+                out.writeString(e.storeId());
+                out.writeString(e.productId());
+                out.writeZigZag(e.quantityDelta());
+            }
+            case INVENTORY_ITEMS_REMOTE_PURCHASE -> {
+                // The store once, then the product and quantity of each purchase
+                val e = (InventoryItemsRemotePurchaseEvent) payload;
+                out.writeString(e.storeId());
+                out.writeVarInt(e.purchases().size());
+                for (val purchase : e.purchases()) {
+                    out.writeString(purchase.productId());
+                    out.writeZigZag(purchase.quantityDelta());
+                }
+            }
+        }
+
+        val plain = out.toByteArray();
+        return plain.length >= compressionThreshold ? deflate(plain) : plain;
+    }
+
+    /**
+     * Deflates the plain payload fields, or returns the payload as is when it doesn't get smaller.
+     */
+    private static byte[] deflate(final byte[] plain) {
+        val deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(plain, 1, plain.length - 1);
+            deflater.finish();
+            val compressed = new byte[plain.length];
+            val compressedLength = deflater.deflate(compressed);
+            if (!deflater.finished()) {
+                return plain;
+            }
+
+            val out = new Output(compressedLength + 6);
+            out.writeByte(DEFLATED);
+            out.writeVarInt(plain.length - 1);
+            out.writeBytes(compressed, 0, compressedLength);
+            return out.size() < plain.length ? out.toByteArray() : plain;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public Object decodePayload(final EventType type, final byte[] payload) {
+        return readPayload(type, payload, 0);
+    }
+
+    private static Object readPayload(final EventType type, final byte[] buf, final int offset) {
+        if (offset >= buf.length || (buf[offset] != PLAIN && buf[offset] != DEFLATED)) {
+            throw new IllegalArgumentException("Not a binary event payload");
+        }
+
+        try {
+            val in = buf[offset] == DEFLATED
+                ? inflate(buf, offset + 1)
+                : new Input(buf, offset + 1, buf.length);
+            return switch (type) {
+                case ECHO -> in.readString();
+                case INVENTORY_ITEM_CREATED -> new InventoryItemCreateEvent(in.readString(), in.readString());
+                case INVENTORY_ITEM_UPDATED -> new InventoryItemUpdateEvent(in.readString(), in.readString(), (int) in.readZigZag());
+                case INVENTORY_ITEM_REMOTE_PURCHASE -> new InventoryItemRemotePurchaseEvent(in.readString(), in.readString(), (int) in.readZigZag());
+                case INVENTORY_ITEMS_REMOTE_PURCHASE -> readPurchases(in);
+            };
+        } catch (final IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated event payload", e);
+        }
+    }
+
+    private static InventoryItemsRemotePurchaseEvent readPurchases(final Input in) {
+        val storeId = in.readString();
+        val count = in.readVarInt();
+        if (count < 0) {
+            throw new IllegalArgumentException("Invalid purchase count " + count);
+        }
+        final List<InventoryItemRemotePurchaseEvent> purchases = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            purchases.add(new InventoryItemRemotePurchaseEvent(storeId, in.readString(), (int) in.readZigZag()));
+        }
+        return new InventoryItemsRemotePurchaseEvent(storeId, purchases);
+    }
+
+    private static Input inflate(final byte[] buf, final int offset) {
+        val in = new Input(buf, offset, buf.length);
+        val length = in.readVarInt();
+        if (length < 0 || length > MAX_INFLATED_BYTES) {
+            throw new IllegalArgumentException("Invalid inflated event payload length " + length);
+        }
+
+        val plain = new byte[length];
+        val inflater = new Inflater();
+        try {
+            inflater.setInput(buf, in.position(), buf.length - in.position());
+            int inflated = 0;
+            while (inflated < length) {
+                val n = inflater.inflate(plain, inflated, length - inflated);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated deflated event payload");
+                }
+                inflated += n;
+            }
+        } catch (final DataFormatException e) {
+            throw new IllegalArgumentException("Corrupted deflated event payload", e);
+        } finally {
+            inflater.end();
+        }
+        return new Input(plain, 0, length);
+    }
+
+    @Override
+    public Map<String, byte[]> encodeEntry(final String eventId, final Instant createdAt, final EventType type, final byte[] payload) {
+        val uuid = parseUuid(eventId);
+        val out = new Output(payload.length + 40);
+        out.writeByte(uuid != null ? UUID_EVENT_ID : 0);
+        out.writeVarInt(type.getCode());
+        out.writeZigZag(createdAt.getEpochSecond());
+        out.writeVarInt(createdAt.getNano());
+        if (uuid != null) {
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+        } else {
+            out.writeString(eventId);
+        }
+        out.writeBytes(payload, 0, payload.length);
+        return Map.of(ENTRY_FIELD, out.toByteArray());
+    }
+
+    /**
+     * The event id as a UUID, only if it round trips to the exact same string.
+     */
+    private static UUID parseUuid(final String eventId) {
+        try {
+            val uuid = UUID.fromString(eventId);
+            return uuid.toString().equals(eventId) ? uuid : null;
+        } catch (final IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Event<Object> decodeEntry(final String stream, final Map<String, byte[]> entry) {
+        val value = entry.get(ENTRY_FIELD);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing event field " + ENTRY_FIELD);
+        }
+        return decodeEntry(stream, value);
+    }
+
+    /**
+     * Decodes the {@value #ENTRY_FIELD} field of a stream entry.
+     */
+    Event<Object> decodeEntry(final String stream, final byte[] value) {
+        try {
+            val in = new Input(value, 0, value.length);
+            val flags = in.readByte();
+            val type = EventType.fromCode(in.readVarInt());
+            val createdAt = Instant.ofEpochSecond(in.readZigZag(), in.readVarInt());
+            val eventId = (flags & UUID_EVENT_ID) != 0
+                ? new UUID(in.readLong(), in.readLong()).toString()
+                : in.readString();
+            return new Event<>(stream, eventId, createdAt, type, readPayload(type, value, in.position()));
+        } catch (final IndexOutOfBoundsException | DateTimeException e) {
+            throw new IllegalArgumentException("Malformed event entry", e);
+        }
+    }
+
+    /**
+     * Minimal growable byte buffer, cheaper than a DataOutputStream for the few fields of an event.
+     */
+    private static final class Output {
+        private byte[] buf;
+        private int size;
+
+        Output(final int capacity) {
+            this.buf = new byte[Math.max(16, capacity)];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void writeByte(final int b) {
+            ensureCapacity(1);
+            buf[size++] = (byte) b;
+        }
+
+        void writeVarLong(long v) {
+            ensureCapacity(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[size++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[size++] = (byte) v;
+        }
+
+        void writeVarInt(final int v) {
+            writeVarLong(v & 0xFFFFFFFFL);
+        }
+
+        void writeZigZag(final long v) {
+            writeVarLong((v << 1) ^ (v >> 63));
+        }
+
+        void writeLong(final long v) {
+            ensureCapacity(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[size++] = (byte) (v >>> shift);
+            }
+        }
+
+        void writeBytes(final byte[] bytes, final int offset, final int length) {
+            ensureCapacity(length);
+            System.arraycopy(bytes, offset, buf, size, length);
+            size += length;
+        }
+
+        void writeString(final String s) {
+            val bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            writeBytes(bytes, 0, bytes.length);
+        }
+
+        private void ensureCapacity(final int extra) {
+            if (size + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+            }
+        }
+
+        byte[] toByteArray() {
+            return size == buf.length ? buf : Arrays.copyOf(buf, size);
+        }
+    }
+
+    /**
+     * Reader of {@link Output} encoded values. Throws {@link IndexOutOfBoundsException} when running out of bytes.
+     */
+    private static final class Input {
+        private final byte[] buf;
+        private final int end;
+        private int pos;
+
+        Input(final byte[] buf, final int offset, final int end) {
+            this.buf = buf;
+            this.pos = offset;
+            this.end = end;
+        }
+
+        int position() {
+            return pos;
+        }
+
+        int readByte() {
+            if (pos >= end) {
+                throw new IndexOutOfBoundsException("End of event data");
+            }
+            return buf[pos++] & 0xFF;
+        }
+
+        long readVarLong() {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                val b = readByte();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return v;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint in event data");
+        }
+
+        int readVarInt() {
+            return (int) readVarLong();
+        }
+
+        long readZigZag() {
+            val v = readVarLong();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        long readLong() {
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | readByte();
+            }
+            return v;
+        }
+
+        String readString() {
+            val length = readVarInt();
+            if (length < 0 || length > end - pos) {
+                throw new IndexOutOfBoundsException("String longer than the remaining event data");
+            }
+            val s = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+    }
+}
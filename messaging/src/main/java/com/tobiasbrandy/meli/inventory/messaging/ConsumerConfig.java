@@ -0,0 +1,76 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Stream consumption settings.
+ * <p>
+ * Every poll reads between {@code minBatchSize} and {@code maxBatchSize} entries of a stream, blocking up to
+ * {@code pollTimeout} while there are none. The batch grows while polls come back full, as the consumer lags behind,
+ * and shrinks back once caught up, to keep latency low.
+ * <p>
+ * Streams are consumed as set by {@code mode}:
+ * <ul>
+ *     <li>{@link Mode#PLATFORM_THREADS}: each stream is polled and handled by its own platform thread.</li>
+ *     <li>{@link Mode#VIRTUAL_THREADS}: a single thread polls every stream at once and hands each batch to
+ *     a virtual thread, so threads stay flat as streams are added.</li>
+ *     <li>{@link Mode#REACTIVE}: streams are read on demand by a reactive receiver, with at most {@code maxInFlight}
+ *     batches handled at a time. A slow handler stops reads instead of piling up work.</li>
+ * </ul>
+ * <p>
+ * Events of a batch are applied by up to {@code dispatchParallelism} workers, spread by inventory item, so events of
+ * an item keep their stream order while different items are applied in parallel.
+ * <p>
+ * Entries are acknowledged once handled. Entries left pending for at least {@code reclaimMinIdle}, because they failed
+ * or their consumer died, are claimed and handled again.
+ * <p>
+ * Several instances may share a consumer group, each one under its own consumer {@code name}, generated if blank.
+ * A stable name, like the host name, lets a restarted instance pick up its own pending entries right away.
+ * Each stream is consumed by a single instance at a time, the one holding its lease. Leases of a crashed instance are
+ * taken over by others once they go {@code leaseTimeout} without being renewed.
+ */
+@ConfigurationProperties(prefix = "consumer")
+public record ConsumerConfig(
+    int minBatchSize,
+    int maxBatchSize,
+    Duration pollTimeout,
+    Duration reclaimMinIdle,
+    String name,
+    Duration leaseTimeout,
+    Mode mode,
+    int maxInFlight,
+    int dispatchParallelism
+) {
+    public enum Mode {
+        PLATFORM_THREADS,
+        VIRTUAL_THREADS,
+        REACTIVE,
+    }
+
+    public ConsumerConfig {
+        if (minBatchSize < 1 || maxBatchSize < minBatchSize) {
+            throw new IllegalArgumentException("Consumer batch sizes must satisfy 1 <= minBatchSize <= maxBatchSize");
+        }
+        if (pollTimeout == null || pollTimeout.isNegative() || pollTimeout.isZero()) {
+            throw new IllegalArgumentException("Consumer poll timeout must be positive");
+        }
+        if (reclaimMinIdle == null || reclaimMinIdle.isNegative() || reclaimMinIdle.isZero()) {
+            throw new IllegalArgumentException("Consumer reclaim min idle time must be positive");
+        }
+        // Leases are renewed between polls, past half their timeout
+        if (leaseTimeout == null || leaseTimeout.compareTo(pollTimeout.multipliedBy(4)) < 0) {
+            throw new IllegalArgumentException("Consumer lease timeout must be at least 4 times the poll timeout");
+        }
+        if (mode == null) {
+            throw new IllegalArgumentException("Consumer mode is required");
+        }
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Consumer max in flight batches must be positive");
+        }
+        if (dispatchParallelism < 1) {
+            throw new IllegalArgumentException("Consumer dispatch parallelism must be positive");
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-stream leases that let several instances share a consumer group.
+ * <p>
+ * Redis hands the entries of a stream to whichever consumer of the group reads first, so two instances reading the
+ * same stream would apply its events out of order. Instead, a stream is only read by the instance holding its lease,
+ * while different streams are read by different instances. As every event of an inventory item goes through the
+ * same stream, items are always updated in order.
+ * <p>
+ * Leases are Redis keys with an expiration, renewed as the stream is consumed and released on shutdown.
+ * If its owner dies, the lease is claimable again after {@link ConsumerConfig#leaseTimeout()}.
+ * An owner stalled for longer than that may still be handling a batch when the new owner takes over.
+ * <p>
+ * Consumers also heartbeat into a sorted set of the group, so each one knows how many are alive and can keep to
+ * its fair share of the streams, leaving the rest to the others.
+ */
+@Slf4j
+@Component
+class ConsumerLeases {
+    static final RedisScript<Long> ACQUIRE_SCRIPT = new DefaultRedisScript<>("""
+        local owner = redis.call('GET', KEYS[1])
+        if owner == false or owner == ARGV[1] then
+            redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[2])
+            return 1
+        end
+        return 0
+        """, Long.class);
+    static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>("""
+        if redis.call('GET', KEYS[1]) == ARGV[1] then
+            return redis.call('DEL', KEYS[1])
+        end
+        return 0
+        """, Long.class);
+    static final RedisScript<Long> HEARTBEAT_SCRIPT = new DefaultRedisScript<>("""
+        redis.call('ZADD', KEYS[1], ARGV[2], ARGV[1])
+        redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', ARGV[3])
+        redis.call('PEXPIRE', KEYS[1], ARGV[4])
+        return redis.call('ZCARD', KEYS[1])
+        """, Long.class);
+
+    private final StringRedisTemplate redis;
+    private final ConsumerConfig config;
+    private final String keyPrefix;
+    private final String membersKey;
+    private final Map<String, Instant> held = new ConcurrentHashMap<>();
+    private volatile int liveConsumers = 1;
+    private volatile Instant nextHeartbeat = Instant.MIN;
+
+    ConsumerLeases(
+        final StringRedisTemplate redis,
+        final ConsumerConfig config,
+        @Qualifier("consumerGroup") final String consumerGroup
+    ) {
+        this.redis = redis;
+        this.config = config;
+        this.keyPrefix = "consumer:lease:" + consumerGroup + ":";
+        this.membersKey = "consumer:members:" + consumerGroup;
+    }
+
+    /**
+     * Heartbeats the consumer, at most every half lease timeout.
+     *
+     * @return how many consumers of the group heartbeat within the last lease timeout, at least 1.
+     */
+    int liveConsumers(final String consumer) {
+        val now = Instant.now();
+        if (now.isBefore(nextHeartbeat)) {
+            return liveConsumers;
+        }
+
+        try {
+            val timeout = config.leaseTimeout().toMillis();
+            val live = redis.execute(HEARTBEAT_SCRIPT, List.of(membersKey), consumer,
+                String.valueOf(now.toEpochMilli()), String.valueOf(now.toEpochMilli() - timeout), String.valueOf(timeout));
+            liveConsumers = live == null ? 1 : (int) Math.max(1, live);
+            nextHeartbeat = now.plus(config.leaseTimeout().dividedBy(2));
+        } catch (final Exception e) {
+            log.warn("Failed to heartbeat consumer {}", consumer, e);
+        }
+        return liveConsumers;
+    }
+
+    /**
+     * Removes the consumer from the live ones, so the others take over its share right away.
+     */
+    void leave(final String consumer) {
+        nextHeartbeat = Instant.MIN;
+        try {
+            redis.opsForZSet().remove(membersKey, consumer);
+        } catch (final Exception e) {
+            log.warn("Error removing consumer {}, it will expire on its own", consumer, e);
+        }
+    }
+
+    /**
+     * Acquires the lease of the stream for the consumer, or renews it if already held and past half its timeout.
+     *
+     * @return whether the lease is held, false if another consumer owns it.
+     */
+    boolean acquire(final String stream, final String consumer) {
+        val now = Instant.now();
+        val renewAt = held.get(stream);
+        if (renewAt != null && now.isBefore(renewAt)) {
+            return true;
+        }
+
+        boolean claimed;
+        try {
+            claimed = Long.valueOf(1).equals(redis.execute(ACQUIRE_SCRIPT, List.of(keyPrefix + stream),
+                consumer, String.valueOf(config.leaseTimeout().toMillis())));
+        } catch (final Exception e) {
+            log.warn("Failed to claim lease of stream {}", stream, e);
+            claimed = false;
+        }
+        if (!claimed) {
+            held.remove(stream);
+            return false;
+        }
+
+        held.put(stream, now.plus(config.leaseTimeout().dividedBy(2)));
+        return true;
+    }
+
+    /**
+     * Releases the lease of the stream, if held, so another consumer can claim it right away.
+     */
+    void release(final String stream, final String consumer) {
+        if (held.remove(stream) == null) {
+            return;
+        }
+        try {
+            redis.execute(RELEASE_SCRIPT, List.of(keyPrefix + stream), consumer);
+        } catch (final Exception e) {
+            log.warn("Error releasing lease of stream {}, it will expire on its own", stream, e);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Retry budget of failed stream entries, and dead-letter settings.
+ * <p>
+ * A failed entry is retried once pending for {@link ConsumerConfig#reclaimMinIdle()}, doubling the wait on every
+ * delivery up to {@code maxBackoff}. After {@code maxDeliveries} deliveries, it's moved to the dead-letter stream of
+ * its stream, capped to about {@code maxLength} entries. Entries that can't be decoded are moved there right away.
+ */
+@ConfigurationProperties(prefix = "consumer.dead-letter")
+public record DeadLetterConfig(
+    int maxDeliveries,
+    Duration maxBackoff,
+    long maxLength
+) {
+    public DeadLetterConfig {
+        if (maxDeliveries < 1) {
+            throw new IllegalArgumentException("Dead letter max deliveries must be positive");
+        }
+        if (maxBackoff == null || maxBackoff.isNegative() || maxBackoff.isZero()) {
+            throw new IllegalArgumentException("Dead letter max backoff must be positive");
+        }
+        if (maxLength < 1) {
+            throw new IllegalArgumentException("Dead letter max length must be positive");
+        }
+    }
+}
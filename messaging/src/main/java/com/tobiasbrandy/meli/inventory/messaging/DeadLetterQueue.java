@@ -0,0 +1,198 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import com.tobiasbrandy.meli.inventory.model.EventType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.RedisStreamCommands.XAddOptions;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dead-letter streams of the consumed streams, where entries that can't be handled end up.
+ * <p>
+ * An entry is dead-lettered when it can't be decoded, or once it failed {@link DeadLetterConfig#maxDeliveries()} times.
+ * It's added to {@code <stream>:dead-letter} with its original fields, along with {@value #META_PREFIX} prefixed
+ * fields describing the failure: original stream and entry id, deliveries, last error and time. Dead-lettered entries
+ * are counted by the {@code consumer.dead.lettered} counter.
+ * <p>
+ * Dead-lettered entries can be replayed, adding them back to their stream with their original fields,
+ * e.g. once the handler bug got fixed. Only events that apply a change are replayed, see {@link #replay}.
+ */
+@Slf4j
+@Component
+public class DeadLetterQueue {
+    static final String META_PREFIX = "dead-letter.";
+    private static final int MAX_TRACKED_ERRORS = 10_000;
+
+    private final RedisTemplate<String, byte[]> redis;
+    private final DeadLetterConfig config;
+    private final EventCodec codec;
+    private final List<String> streams;
+    private final MeterRegistry meterRegistry;
+    /** Last error of recently failed entries, so it can be recorded once they are dead-lettered. */
+    private final LinkedHashMap<String, String> lastErrors = new LinkedHashMap<>();
+
+    DeadLetterQueue(
+        final RedisTemplate<String, byte[]> redis,
+        final DeadLetterConfig config,
+        final EventCodec codec,
+        @Qualifier("consumerStreams") final List<String> streams,
+        final MeterRegistry meterRegistry
+    ) {
+        this.redis = redis;
+        this.config = config;
+        this.codec = codec;
+        this.streams = streams;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public static String deadLetterStream(final String stream) {
+        return stream + ":dead-letter";
+    }
+
+    /**
+     * Size of the dead-letter stream of every consumed stream.
+     */
+    public Map<String, Long> sizes() {
+        final StreamOperations<String, String, byte[]> ops = redis.opsForStream();
+        final Map<String, Long> sizes = new LinkedHashMap<>();
+        for (val stream : streams) {
+            val size = ops.size(deadLetterStream(stream));
+            sizes.put(stream, size == null ? 0 : size);
+        }
+        return sizes;
+    }
+
+    /**
+     * Notes why handling the entry failed, to be recorded if it ends up dead-lettered.
+     */
+    void recordFailure(final MapRecord<String, String, byte[]> entry, final Exception error) {
+        synchronized (lastErrors) {
+            lastErrors.put(errorKey(entry), error.toString());
+            if (lastErrors.size() > MAX_TRACKED_ERRORS) {
+                lastErrors.pollFirstEntry();
+            }
+        }
+    }
+
+    /**
+     * Moves the entry to the dead-letter stream of its stream. The entry must be acknowledged afterward.
+     *
+     * @param deliveries how many times the entry was delivered.
+     * @param error why the entry failed, or null to use the last failure recorded for it, if any.
+     * @return whether the entry was dead-lettered.
+     */
+    boolean deadLetter(final MapRecord<String, String, byte[]> entry, final long deliveries, final String error) {
+        final String reason;
+        synchronized (lastErrors) {
+            val last = lastErrors.remove(errorKey(entry));
+            reason = error != null ? error : last != null ? last : "unknown";
+        }
+
+        final Map<String, byte[]> fields = new HashMap<>(entry.getValue());
+        fields.put(META_PREFIX + "stream", bytes(entry.getStream()));
+        fields.put(META_PREFIX + "id", bytes(entry.getId().getValue()));
+        fields.put(META_PREFIX + "deliveries", bytes(String.valueOf(deliveries)));
+        fields.put(META_PREFIX + "error", bytes(reason));
+        fields.put(META_PREFIX + "failedAt", bytes(Instant.now().toString()));
+        try {
+            redis.<String, byte[]>opsForStream().add(StreamRecords.newRecord().in(deadLetterStream(entry.getStream())).ofMap(fields),
+                XAddOptions.maxlen(config.maxLength()).approximateTrimming(true));
+        } catch (final Exception e) {
+            log.error("Error dead-lettering entry {} of stream {}", entry.getId(), entry.getStream(), e);
+            return false;
+        }
+
+        log.warn("Dead-lettered entry {} of stream {} after {} deliveries: {}", entry.getId(), entry.getStream(), deliveries, reason);
+        Counter.builder("consumer.dead.lettered")
+            .description("Entries moved to the dead-letter stream")
+            .tag("stream", entry.getStream())
+            .register(meterRegistry)
+            .increment();
+        return true;
+    }
+
+    /**
+     * Outcome of a {@link #replay}.
+     *
+     * @param skipped entries left dead-lettered, as they carry the absolute state of their item.
+     */
+    public record Replay(int replayed, int skipped) {
+    }
+
+    /**
+     * Adds up to {@code count} of the oldest dead-lettered entries of the stream back to it, with their original fields.
+     * <p>
+     * Replayed entries are handled after every newer entry of the stream, which is only safe for events that apply a
+     * change, e.g. a remote purchase. Events of {@link EventType#isAbsoluteState() absolute state} types would set their
+     * item back to the state it had when they failed, so they are skipped, and stay dead-lettered for inspection.
+     * Entries that can't be decoded are replayed, as the codec may have been fixed since.
+     */
+    public Replay replay(final String stream, final int count) {
+        if (!streams.contains(stream)) {
+            throw new IllegalArgumentException("Stream " + stream + " isn't consumed");
+        }
+
+        final StreamOperations<String, String, byte[]> ops = redis.opsForStream();
+        val deadLetterStream = deadLetterStream(stream);
+        int replayed = 0;
+        int skipped = 0;
+        Range<String> range = Range.unbounded();
+        while (replayed < count) {
+            val entries = ops.range(deadLetterStream, range, Limit.limit().count(count - replayed));
+            if (entries == null || entries.isEmpty()) {
+                break;
+            }
+
+            for (val entry : entries) {
+                final Map<String, byte[]> fields = new HashMap<>(entry.getValue());
+                fields.keySet().removeIf(field -> field.startsWith(META_PREFIX));
+                if (holdsAbsoluteState(stream, fields)) {
+                    skipped++;
+                    continue;
+                }
+                ops.add(StreamRecords.newRecord().in(stream).ofMap(fields));
+                ops.delete(deadLetterStream, entry.getId());
+                replayed++;
+            }
+            // Skipped entries are still there, so read on past them
+            range = Range.rightUnbounded(Range.Bound.exclusive(entries.getLast().getId().getValue()));
+        }
+
+        if (replayed > 0 || skipped > 0) {
+            log.info("Replayed {} dead-lettered entries of stream {}, skipped {} holding absolute state", replayed, stream, skipped);
+        }
+        return new Replay(replayed, skipped);
+    }
+
+    private boolean holdsAbsoluteState(final String stream, final Map<String, byte[]> fields) {
+        try {
+            return codec.decodeEntry(stream, fields).type().isAbsoluteState();
+        } catch (final IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static String errorKey(final MapRecord<String, String, byte[]> entry) {
+        return entry.getStream() + " " + entry.getId().getValue();
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,62 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tobiasbrandy.meli.inventory.model.Event;
+import com.tobiasbrandy.meli.inventory.model.EventType;
+import lombok.val;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * {@link EventCodec} that encodes with the configured {@link EventCodecConfig.Format}, and decodes every format.
+ * <p>
+ * Payloads and entries are told apart by their layout, so events stored or published before switching the format
+ * keep being readable. A payload stored with another format is transcoded when building its stream entry.
+ */
+@Component
+public class DelegatingEventCodec implements EventCodec {
+    private final JsonEventCodec json;
+    private final BinaryEventCodec binary;
+    private final EventCodec encoder;
+
+    public DelegatingEventCodec(final ObjectMapper mapper, final EventCodecConfig config) {
+        this.json = new JsonEventCodec(mapper);
+        this.binary = new BinaryEventCodec(config.compressionThreshold());
+        this.encoder = switch (config.format()) {
+            case JSON -> json;
+            case BINARY -> binary;
+        };
+    }
+
+    private EventCodec payloadCodec(final byte[] payload) {
+        return BinaryEventCodec.isBinaryPayload(payload) ? binary : json;
+    }
+
+    @Override
+    public byte[] encodePayload(final EventType type, final Object payload) {
+        return encoder.encodePayload(type, payload);
+    }
+
+    @Override
+    public Object decodePayload(final EventType type, final byte[] payload) {
+        return payloadCodec(payload).decodePayload(type, payload);
+    }
+
+    @Override
+    public Map<String, byte[]> encodeEntry(final String eventId, final Instant createdAt, final EventType type, final byte[] payload) {
+        val payloadCodec = payloadCodec(payload);
+        val encodedPayload = payloadCodec == encoder
+            ? payload
+            : encoder.encodePayload(type, payloadCodec.decodePayload(type, payload));
+        return encoder.encodeEntry(eventId, createdAt, type, encodedPayload);
+    }
+
+    @Override
+    public Event<Object> decodeEntry(final String stream, final Map<String, byte[]> entry) {
+        // A single lookup, as this runs for every consumed entry
+        val value = entry.get(BinaryEventCodec.ENTRY_FIELD);
+        return value != null ? binary.decodeEntry(stream, value) : json.decodeEntry(stream, entry);
+    }
+}
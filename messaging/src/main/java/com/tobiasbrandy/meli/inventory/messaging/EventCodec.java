@@ -0,0 +1,26 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import com.tobiasbrandy.meli.inventory.model.Event;
+import com.tobiasbrandy.meli.inventory.model.EventType;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Encodes event payloads, as stored in the outbox, and Redis Stream entries, as read by the {@link EventListener}.
+ * <p>
+ * Every method throws {@link IllegalArgumentException} when the input can't be encoded or decoded.
+ */
+public interface EventCodec {
+
+    byte[] encodePayload(EventType type, Object payload);
+
+    Object decodePayload(EventType type, byte[] payload);
+
+    /**
+     * Builds the stream entry of an event, given its already encoded payload.
+     */
+    Map<String, byte[]> encodeEntry(String eventId, Instant createdAt, EventType type, byte[] payload);
+
+    Event<Object> decodeEntry(String stream, Map<String, byte[]> entry);
+}
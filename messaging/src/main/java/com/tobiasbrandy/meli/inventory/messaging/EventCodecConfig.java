@@ -0,0 +1,32 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Event encoding settings.
+ * <p>
+ * Events are encoded with {@code format}, both in the outbox and in Redis Streams. Every format is always decoded,
+ * so it can be switched at any time. {@link Format#JSON} is meant for debugging, as {@link Format#BINARY} entries
+ * take a fraction of the space and are cheaper to encode and decode.
+ * <p>
+ * Binary payloads of at least {@code compressionThreshold} bytes are deflated.
+ */
+@ConfigurationProperties(prefix = "codec")
+public record EventCodecConfig(
+    Format format,
+    int compressionThreshold
+) {
+    public enum Format {
+        JSON,
+        BINARY,
+    }
+
+    public EventCodecConfig {
+        if (format == null) {
+            throw new IllegalArgumentException("Event codec format is required");
+        }
+        if (compressionThreshold < 1) {
+            throw new IllegalArgumentException("Event codec compression threshold must be positive");
+        }
+    }
+}
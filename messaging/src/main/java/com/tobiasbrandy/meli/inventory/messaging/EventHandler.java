@@ -3,6 +3,7 @@ package com.tobiasbrandy.meli.inventory.messaging;
 import com.tobiasbrandy.meli.inventory.model.Event;
 import com.tobiasbrandy.meli.inventory.model.EventType;
 
+import java.util.List;
 import java.util.function.Consumer;
 
 /**
@@ -15,6 +16,18 @@ public interface EventHandler<T> {
 
     void handleEvent(Event<T> event);
 
+    /**
+     * Handles consecutive events of a single poll at once, in stream order. Handlers that can apply events in bulk,
+     * e.g. in a single transaction, should override it. By default, events are handled one by one.
+     * <p>
+     * If it throws, none of the events is considered processed, and they are retried one by one through {@link #handleEvent}.
+     */
+    default void handleEvents(final List<Event<T>> events) {
+        for (final Event<T> event : events) {
+            handleEvent(event);
+        }
+    }
+
     /**
      * Creates an {@link EventHandler} from a full event consumer.
      */
@@ -43,4 +56,31 @@ public interface EventHandler<T> {
     static <T> EventHandler<T> ofPayload(final EventType eventType, final Class<T> payloadType, final Consumer<T> handler) {
         return of(eventType, payloadType, event -> handler.accept(event.payload()));
     }
+
+    /**
+     * Creates a batch {@link EventHandler} from a payload list consumer. A single event is handled as a batch of one.
+     */
+    static <T> EventHandler<T> ofPayloads(final EventType eventType, final Class<T> payloadType, final Consumer<List<T>> handler) {
+        return new EventHandler<>() {
+            @Override
+            public EventType eventType() {
+                return eventType;
+            }
+
+            @Override
+            public Class<T> payloadType() {
+                return payloadType;
+            }
+
+            @Override
+            public void handleEvent(Event<T> event) {
+                handler.accept(List.of(event.payload()));
+            }
+
+            @Override
+            public void handleEvents(final List<Event<T>> events) {
+                handler.accept(events.stream().map(Event::payload).toList());
+            }
+        };
+    }
 }
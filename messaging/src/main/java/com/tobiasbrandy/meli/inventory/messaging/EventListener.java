@@ -1,41 +1,106 @@
 package com.tobiasbrandy.meli.inventory.messaging;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.tobiasbrandy.meli.inventory.model.Event;
+import com.tobiasbrandy.meli.inventory.model.EventPriority;
 import com.tobiasbrandy.meli.inventory.model.EventType;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemEvent;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.springframework.data.redis.connection.stream.MapRecord;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.connection.stream.RecordId;
 import org.springframework.data.redis.stream.StreamListener;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Redis Stream listener that delegates events to all {@link EventHandler} beans.
  * <p>
- * Ensures idempotency via Redis SETNX on the event id, validates event type and
- * payload.
+ * Decodes entries of any format through the {@link EventCodec}, drops duplicates through the {@link IdempotencyStore},
+ * and validates event type and payload. Events are only recorded as processed once handled.
+ * <p>
+ * Records of a whole poll are handled through {@link #onMessages}, handing each run of consecutive events
+ * of the same type to its handler at once (see {@link EventHandler#handleEvents}). It returns the records
+ * that are done with, to be acknowledged, while failed ones are left pending to be reclaimed later.
+ * Invalid records would fail forever, so they are moved to the {@link DeadLetterQueue} right away.
+ * <p>
+ * Reclaimed records may have failed while later entries of their item were applied. Reclaimed events of an
+ * {@link EventType#isAbsoluteState() absolute state} type are then dropped, as they would set their item back to a
+ * stale state. The last entry applied per item is only known by this instance, so entries applied by the previous
+ * owner of a stream don't count.
+ * <p>
+ * A run is split by inventory item among {@link ConsumerConfig#dispatchParallelism()} workers, each one handing its
+ * share to the handler on its own. Events of an item always land on the same worker, so they keep their stream order,
+ * while different items are applied in parallel. Runs are still applied one after the other.
+ * Workers take shares of higher {@link EventPriority} first, so urgent events don't queue behind bulk ones.
+ * A share is only overtaken by the next {@value #PRIORITY_AGING} shares of each higher priority though,
+ * so a steady flow of urgent events can't starve the rest.
+ * <p>
+ * The time from an event's creation to its application is exposed as the {@code consumer.latency} timer,
+ * per {@link EventPriority}, and shares waiting for a worker as the {@code consumer.dispatch.queued} gauge.
  */
 @Slf4j
 @Component
-public class EventListener implements StreamListener<String, MapRecord<String, String, String>> {
+public class EventListener implements StreamListener<String, MapRecord<String, String, byte[]>> {
+    /** Later shares one priority class above that may be taken before a share. */
+    static final int PRIORITY_AGING = 8;
+
     private final Map<EventType, EventHandler<?>> handlers;
-    private final ObjectMapper mapper;
-    private final StringRedisTemplate redis;
+    private final EventCodec codec;
+    private final IdempotencyStore idempotencyStore;
+    private final DeadLetterQueue deadLetterQueue;
+    private final int parallelism;
+    /** Workers applying the shares of a run, besides the calling thread. Null when not applied in parallel. */
+    private final ThreadPoolExecutor dispatcher;
+    private final AtomicLong submitted = new AtomicLong();
+    private final Map<EventPriority, Timer> latencies = new EnumMap<>(EventPriority.class);
+    /** Last entry applied per stream and inventory item. */
+    private final Map<String, RecordId> itemWatermarks = new ConcurrentHashMap<>();
 
     public EventListener(
         final List<EventHandler<?>> handlers,
-        final ObjectMapper mapper,
-        final StringRedisTemplate redis
+        final EventCodec codec,
+        final IdempotencyStore idempotencyStore,
+        final DeadLetterQueue deadLetterQueue,
+        final ConsumerConfig config,
+        final MeterRegistry meterRegistry
     ) {
-        this.mapper = mapper;
-        this.redis = redis;
+        this.codec = codec;
+        this.idempotencyStore = idempotencyStore;
+        this.deadLetterQueue = deadLetterQueue;
+        this.parallelism = config.dispatchParallelism();
+        this.dispatcher = parallelism > 1
+            ? new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(),
+                Thread.ofPlatform().name("event-dispatch-", 0).daemon().factory())
+            : null;
+        if (dispatcher != null) {
+            Gauge.builder("consumer.dispatch.queued", dispatcher, d -> d.getQueue().size())
+                .description("Shares of runs waiting for a dispatch worker")
+                .register(meterRegistry);
+        }
+        for (val priority : EventPriority.values()) {
+            latencies.put(priority, Timer.builder("consumer.latency")
+                .description("Time from the creation of an event to its application")
+                .tag("priority", priority.name().toLowerCase())
+                .register(meterRegistry));
+        }
 
         this.handlers = new ConcurrentHashMap<>(handlers.size());
         for (EventHandler<?> h : handlers) {
@@ -43,46 +108,267 @@ public class EventListener implements StreamListener<String, MapRecord<String, S
         }
     }
 
+    /**
+     * A decoded record, along with its handler.
+     */
+    private record Received(MapRecord<String, String, byte[]> msg, Event<Object> event, EventHandler<Object> handler) {
+    }
+
+    /**
+     * Share of a run applied by a worker. Taken in submission order, each priority class below the highest one
+     * pushing a share back by {@link #PRIORITY_AGING} shares.
+     */
+    private final class Share extends FutureTask<List<RecordId>> implements Comparable<Share> {
+        private final EventPriority priority;
+        private final long sequence = submitted.getAndIncrement();
+        private final long rank;
+
+        Share(final List<Received> share) {
+            super(() -> {
+                final List<RecordId> done = new ArrayList<>(share.size());
+                apply(share, done);
+                return done;
+            });
+            this.priority = share.getFirst().event().type().getPriority();
+            this.rank = sequence + (long) priority.ordinal() * PRIORITY_AGING;
+        }
+
+        @Override
+        public int compareTo(final Share other) {
+            val byRank = Long.compare(rank, other.rank);
+            if (byRank != 0) {
+                return byRank;
+            }
+            val byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+
     @Override
-    public void onMessage(final MapRecord<String, String, String> msg) {
-        val stream = msg.getStream();
-        val eventMap = msg.getValue();
-        val eventId = eventMap.get("id");
-        val createdAt = Instant.parse(eventMap.get("createdAt"));
+    public void onMessage(final MapRecord<String, String, byte[]> msg) {
+        val received = receive(msg, true);
+        if (received == null) {
+            return;
+        }
 
-        // Idempotency check
-        if (!Boolean.TRUE.equals(redis.opsForValue().setIfAbsent(eventId, eventId))) {
-            log.info("Skipping duplicate event {}", eventId);
+        received.handler().handleEvent(received.event());
+        processed(received);
+    }
+
+    /**
+     * Handles every record of a poll, in order.
+     * <p>
+     * Invalid records are dead-lettered. If a handler fails on a run of events, they are retried one by one,
+     * so a single bad event doesn't fail the others.
+     *
+     * @return ids of the records done with: handled, duplicated or dead-lettered.
+     */
+    public List<RecordId> onMessages(final List<MapRecord<String, String, byte[]>> msgs) {
+        return handle(msgs, true);
+    }
+
+    /**
+     * Same as {@link #onMessages}, for records delivered again after being left pending.
+     * They are only checked for duplicates by event id, since they may have failed while later entries succeeded,
+     * and absolute state events superseded by a later entry of their item are dropped.
+     */
+    public List<RecordId> onReclaimed(final List<MapRecord<String, String, byte[]>> msgs) {
+        return handle(msgs, false);
+    }
+
+    private List<RecordId> handle(final List<MapRecord<String, String, byte[]>> msgs, final boolean inOrder) {
+        final List<RecordId> done = new ArrayList<>(msgs.size());
+        final List<Received> run = new ArrayList<>();
+        val eventIds = new HashSet<String>(msgs.size());
+        for (val msg : msgs) {
+            final Received received;
+            try {
+                received = receive(msg, inOrder);
+            } catch (final IllegalArgumentException e) {
+                log.error("Invalid entry {} of stream {}", msg.getId(), msg.getStream(), e);
+                // Left pending if it couldn't be dead-lettered, to try again once reclaimed
+                if (deadLetterQueue.deadLetter(msg, 1, e.toString())) {
+                    done.add(msg.getId());
+                }
+                continue;
+            }
+            // Duplicates within the poll aren't recorded as processed yet
+            if (received == null || !eventIds.add(received.event().id())) {
+                done.add(msg.getId());
+                continue;
+            }
+
+            if (!run.isEmpty() && run.getFirst().event().type() != received.event().type()) {
+                handleRun(run, done);
+                run.clear();
+            }
+            run.add(received);
+        }
+        if (!run.isEmpty()) {
+            handleRun(run, done);
+        }
+        return done;
+    }
+
+    /**
+     * Applies the run, split by inventory item among the workers. The calling thread applies the first share.
+     */
+    private void handleRun(final List<Received> run, final List<RecordId> done) {
+        if (dispatcher == null || run.size() == 1) {
+            apply(run, done);
             return;
         }
 
-        final EventType type;
+        final List<List<Received>> shares = new ArrayList<>(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            shares.add(new ArrayList<>());
+        }
+        for (val received : run) {
+            shares.get(Math.floorMod(itemHash(received.event()), parallelism)).add(received);
+        }
+
+        final List<Share> applied = new ArrayList<>(parallelism);
+        List<Received> inline = null;
+        for (val share : shares) {
+            if (share.isEmpty()) {
+                continue;
+            }
+            if (inline == null) {
+                inline = share;
+            } else {
+                val task = new Share(share);
+                dispatcher.execute(task);
+                applied.add(task);
+            }
+        }
+        apply(inline, done);
+
+        for (val share : applied) {
+            try {
+                done.addAll(share.get());
+            } catch (final InterruptedException e) {
+                // Entries of unfinished shares are left pending, to be reclaimed
+                Thread.currentThread().interrupt();
+                return;
+            } catch (final ExecutionException e) {
+                log.error("Error applying {} events", run.getFirst().event().type(), e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Hash of the inventory item of the event. Events of other kinds all hash the same, so they keep their order.
+     */
+    private static int itemHash(final Event<Object> event) {
+        if (event.payload() instanceof InventoryItemEvent item) {
+            return 31 * item.storeId().hashCode() + item.productId().hashCode();
+        }
+        return 0;
+    }
+
+    private void apply(final List<Received> run, final List<RecordId> done) {
+        val handler = run.getFirst().handler();
         try {
-            type = EventType.valueOf(eventMap.get("type"));
-        } catch (final IllegalArgumentException e) {
-            throw new IllegalArgumentException("Invalid event type");
+            handler.handleEvents(run.stream().map(Received::event).toList());
+            for (val received : run) {
+                processed(received);
+                done.add(received.msg().getId());
+            }
+        } catch (final Exception e) {
+            if (run.size() == 1) {
+                log.error("Error handling event {}", run.getFirst().event(), e);
+                deadLetterQueue.recordFailure(run.getFirst().msg(), e);
+                return;
+            }
+
+            log.warn("Error handling {} {} events at once, retrying them one by one", run.size(), run.getFirst().event().type(), e);
+            for (val received : run) {
+                try {
+                    handler.handleEvent(received.event());
+                    processed(received);
+                    done.add(received.msg().getId());
+                } catch (final Exception ex) {
+                    log.error("Error handling event {}", received.event(), ex);
+                    deadLetterQueue.recordFailure(received.msg(), ex);
+                }
+            }
         }
+    }
+
+    /**
+     * Decodes and validates the record.
+     *
+     * @param inOrder whether the record is delivered in stream order, so the entry id can be checked for duplicates.
+     * @return the record with its handler, or null if it's a duplicate or superseded.
+     * @throws IllegalArgumentException if the record is invalid or has no handler.
+     */
+    private Received receive(final MapRecord<String, String, byte[]> msg, final boolean inOrder) {
+        val event = codec.decodeEntry(msg.getStream(), msg.getValue());
+        val eventId = event.id();
 
-        val eventHandler = handlers.get(type);
+        // Idempotency check
+        val duplicate = inOrder
+            ? idempotencyStore.isDuplicate(msg.getStream(), msg.getId(), eventId)
+            : idempotencyStore.isDuplicate(msg.getStream(), eventId);
+        if (duplicate) {
+            log.info("Skipping duplicate event {}", eventId);
+            return null;
+        }
+        if (!inOrder && event.type().isAbsoluteState() && superseded(msg, event)) {
+            log.warn("Dropping reclaimed event {}, a later entry of its item was already applied", eventId);
+            return null;
+        }
+
+        val eventHandler = handlers.get(event.type());
         if (eventHandler == null) {
             throw new IllegalArgumentException("Event type not found");
         }
-        if (type.getPayloadType() != eventHandler.payloadType()) {
+        if (event.type().getPayloadType() != eventHandler.payloadType()) {
             throw new IllegalArgumentException("Event type does not match handler payload type");
         }
 
-        final Object payload;
-        try {
-            payload = mapper.readValue(eventMap.get("payload"), type.getPayloadType());
-        } catch (final JsonProcessingException e) {
-            throw new IllegalArgumentException("Failed to serialize event payload", e);
-        }
-
         @SuppressWarnings("unchecked")
         final EventHandler<Object> rawHandler = (EventHandler<Object>) eventHandler;
-        final Event<Object> event = new Event<>(stream, eventId, createdAt, type, payload);
-        rawHandler.handleEvent(event);
+        return new Received(msg, event, rawHandler);
+    }
+
+    /**
+     * Whether a later entry of the item of the event was already applied.
+     */
+    private boolean superseded(final MapRecord<String, String, byte[]> msg, final Event<Object> event) {
+        val key = itemKey(msg, event);
+        if (key == null) {
+            return false;
+        }
+        val watermark = itemWatermarks.get(key);
+        return watermark != null && IdempotencyStore.compare(watermark, msg.getId()) > 0;
+    }
 
-        log.info("Processed event {}", event);
+    /**
+     * Key of the item of the event within its stream, or null if it's not of a single item or its entry has no id.
+     */
+    private static String itemKey(final MapRecord<String, String, byte[]> msg, final Event<Object> event) {
+        if (!(event.payload() instanceof InventoryItemEvent item) || msg.getId().shouldBeAutoGenerated()) {
+            return null;
+        }
+        return msg.getStream() + " " + item.storeId() + " " + item.productId();
+    }
+
+    @PreDestroy
+    void close() {
+        if (dispatcher != null) {
+            dispatcher.shutdownNow();
+        }
+    }
+
+    private void processed(final Received received) {
+        val event = received.event();
+        latencies.get(event.type().getPriority()).record(Duration.between(event.createdAt(), Instant.now()));
+        idempotencyStore.markProcessed(received.msg().getStream(), received.msg().getId(), event.id());
+        val key = itemKey(received.msg(), event);
+        if (key != null) {
+            itemWatermarks.merge(key, received.msg().getId(), (a, b) -> IdempotencyStore.compare(a, b) >= 0 ? a : b);
+        }
+        log.debug("Processed event {}", event);
     }
 }
@@ -1,11 +1,18 @@
 package com.tobiasbrandy.meli.inventory.messaging;
 
+import com.tobiasbrandy.meli.inventory.model.EventPriority;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Stream key templates for Redis Streams.
  * <p>
  * Provides helpers to render keys by substituting placeholders like {storeId}.
+ * <p>
+ * Every stream is split by {@link EventPriority}: {@link EventPriority#NORMAL} events go to the stream itself, and
+ * the rest to a {@code <stream>:<priority>} stream next to it (see {@link #prioritized}), which consumers read on its own.
  */
 @ConfigurationProperties(prefix = "streams")
 public record EventStreams(
@@ -37,4 +44,18 @@ public record EventStreams(
     public String storeBroadcast(final String storeId) {
         return storeBroadcast.replace("{storeId}", String.valueOf(storeId));
     }
+
+    /**
+     * The stream events of the priority published to the stream actually go to.
+     */
+    public static String prioritized(final String stream, final EventPriority priority) {
+        return priority == EventPriority.NORMAL ? stream : stream + ":" + priority.name().toLowerCase();
+    }
+
+    /**
+     * Every stream events published to the stream go to, highest priority first. These are the streams to consume.
+     */
+    public static List<String> prioritized(final String stream) {
+        return Arrays.stream(EventPriority.values()).map(priority -> prioritized(stream, priority)).toList();
+    }
 }
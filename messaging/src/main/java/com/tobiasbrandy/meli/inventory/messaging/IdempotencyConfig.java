@@ -0,0 +1,35 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Consumer idempotency settings.
+ * <p>
+ * Duplicates are detected within {@code window}. Up to {@code localCapacity} recent event ids are kept in memory,
+ * and every processed id is also stored in Redis, in one set per {@code bucket} that expires once out of the window.
+ * Ids are written to Redis every {@code flushInterval}.
+ */
+@ConfigurationProperties(prefix = "idempotency")
+public record IdempotencyConfig(
+    Duration window,
+    Duration bucket,
+    int localCapacity,
+    Duration flushInterval
+) {
+    public IdempotencyConfig {
+        if (window == null || window.isNegative() || window.isZero()) {
+            throw new IllegalArgumentException("Idempotency window must be positive");
+        }
+        if (bucket == null || bucket.isNegative() || bucket.isZero() || bucket.compareTo(window) > 0) {
+            throw new IllegalArgumentException("Idempotency bucket must be positive and no longer than the window");
+        }
+        if (localCapacity < 1) {
+            throw new IllegalArgumentException("Idempotency local capacity must be positive");
+        }
+        if (flushInterval == null || flushInterval.isNegative() || flushInterval.isZero()) {
+            throw new IllegalArgumentException("Idempotency flush interval must be positive");
+        }
+    }
+}
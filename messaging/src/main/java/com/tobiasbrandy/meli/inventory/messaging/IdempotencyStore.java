@@ -0,0 +1,240 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Bounded idempotency store of the events processed by this consumer group.
+ * <p>
+ * A processed event is recorded in three places:
+ * <ul>
+ *     <li>The per-stream watermark, the highest entry id processed, so redelivered entries are dropped right away.
+ *     It relies on entries of a stream being processed in order, as a stream is consumed by a single instance at a time.
+ *     Reclaimed entries, which may have failed while later ones succeeded, are only checked by event id.</li>
+ *     <li>A local cache of the most recent event ids, catching events the outbox published more than once.</li>
+ *     <li>Redis sets, one per {@link IdempotencyConfig#bucket()}, that expire once out of the window.
+ *     Ids are buffered and written every {@link IdempotencyConfig#flushInterval()}.</li>
+ * </ul>
+ * Once the local cache covers the whole window of a stream, i.e. this instance has owned the stream for longer than the
+ * window and no id processed within it was evicted, a cache miss means a new event, so no network call is needed.
+ * Otherwise, like right after a restart or taking over a stream from another instance, misses are checked against
+ * the Redis sets, shared by every instance of the group.
+ * <p>
+ * Memory is bounded on both sides: {@link IdempotencyConfig#localCapacity()} ids locally, and a window of ids in Redis.
+ * In exchange, duplicates older than the window, or of events processed right before a crash, may go undetected.
+ */
+@Slf4j
+@Component
+public class IdempotencyStore {
+    static final RedisScript<Long> CONTAINS_SCRIPT = new DefaultRedisScript<>("""
+        for i = 1, #KEYS do
+            if redis.call('SISMEMBER', KEYS[i], ARGV[1]) == 1 then
+                return 1
+            end
+        end
+        return 0
+        """, Long.class);
+
+    private final StringRedisTemplate redis;
+    private final Clock clock;
+    private final String keyPrefix;
+    private final long windowMillis;
+    private final long bucketMillis;
+    private final int localCapacity;
+
+    private final Map<String, RecordId> watermarks = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, Long> recent = new LinkedHashMap<>();
+    private final Queue<String> unflushed = new ConcurrentLinkedQueue<>();
+    /** When this instance acquired each stream, before that its events may have been processed by others. */
+    private final Map<String, Long> acquiredAt = new ConcurrentHashMap<>();
+    /** Every id processed since then is in the local cache. */
+    private volatile long coveredSince;
+
+    private final Counter watermarkDuplicates;
+    private final Counter localDuplicates;
+    private final Counter remoteDuplicates;
+    private final Counter remoteChecks;
+
+    @Autowired
+    public IdempotencyStore(
+        final IdempotencyConfig config,
+        final StringRedisTemplate redis,
+        @Qualifier("consumerGroup") final String consumerGroup,
+        final MeterRegistry meterRegistry
+    ) {
+        this(config, redis, consumerGroup, meterRegistry, Clock.systemUTC());
+    }
+
+    IdempotencyStore(
+        final IdempotencyConfig config,
+        final StringRedisTemplate redis,
+        final String consumerGroup,
+        final MeterRegistry meterRegistry,
+        final Clock clock
+    ) {
+        this.redis = redis;
+        this.clock = clock;
+        // Hash tag keeps every bucket of the group in the same cluster slot, as the script reads them together
+        this.keyPrefix = "idempotency:{" + consumerGroup + "}:";
+        this.windowMillis = config.window().toMillis();
+        this.bucketMillis = config.bucket().toMillis();
+        this.localCapacity = config.localCapacity();
+        this.coveredSince = clock.millis();
+
+        this.watermarkDuplicates = duplicates(meterRegistry, "watermark");
+        this.localDuplicates = duplicates(meterRegistry, "local");
+        this.remoteDuplicates = duplicates(meterRegistry, "remote");
+        this.remoteChecks = Counter.builder("idempotency.remote.checks")
+            .description("Events checked against Redis because the local cache didn't cover the window")
+            .register(meterRegistry);
+    }
+
+    private static Counter duplicates(final MeterRegistry meterRegistry, final String source) {
+        return Counter.builder("idempotency.duplicates")
+            .description("Duplicate events dropped, by where they were detected")
+            .tag("source", source)
+            .register(meterRegistry);
+    }
+
+    /**
+     * Whether the event was already processed, either as this same stream entry or as another one.
+     */
+    public boolean isDuplicate(final String stream, final RecordId entryId, final String eventId) {
+        val watermark = watermarks.get(stream);
+        if (watermark != null && !entryId.shouldBeAutoGenerated() && compare(entryId, watermark) <= 0) {
+            watermarkDuplicates.increment();
+            return true;
+        }
+        return isDuplicate(stream, eventId);
+    }
+
+    /**
+     * Whether the event of the stream was already processed, regardless of its stream entry.
+     */
+    public boolean isDuplicate(final String stream, final String eventId) {
+        val now = clock.millis();
+        synchronized (recent) {
+            if (recent.containsKey(eventId)) {
+                localDuplicates.increment();
+                return true;
+            }
+        }
+        if (Math.max(coveredSince, acquiredAt.getOrDefault(stream, 0L)) <= now - windowMillis) {
+            return false;
+        }
+
+        remoteChecks.increment();
+        val found = Long.valueOf(1).equals(redis.execute(CONTAINS_SCRIPT, bucketKeys(now), eventId));
+        if (found) {
+            remoteDuplicates.increment();
+        }
+        return found;
+    }
+
+    /**
+     * Notes that this instance just started consuming the stream, so its events may have been processed by others.
+     */
+    public void streamAcquired(final String stream) {
+        acquiredAt.put(stream, clock.millis());
+    }
+
+    /**
+     * Records the event as processed.
+     */
+    public void markProcessed(final String stream, final RecordId entryId, final String eventId) {
+        if (!entryId.shouldBeAutoGenerated()) {
+            watermarks.merge(stream, entryId, (a, b) -> compare(a, b) >= 0 ? a : b);
+        }
+
+        val now = clock.millis();
+        synchronized (recent) {
+            recent.put(eventId, now);
+            if (recent.size() > localCapacity) {
+                val eldest = recent.entrySet().iterator();
+                val processedAt = eldest.next().getValue();
+                eldest.remove();
+                if (processedAt >= coveredSince) {
+                    coveredSince = processedAt + 1;
+                }
+            }
+        }
+        unflushed.add(eventId);
+    }
+
+    /**
+     * Writes the ids processed since the last flush to the current bucket. They are kept for the next flush on failure.
+     */
+    @Scheduled(fixedDelayString = "${idempotency.flushInterval}")
+    @PreDestroy
+    public void flush() {
+        final List<String> ids = new ArrayList<>();
+        String id;
+        while ((id = unflushed.poll()) != null) {
+            ids.add(id);
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        val bucket = clock.millis() / bucketMillis;
+        val key = keyPrefix + bucket;
+        // The bucket must outlive the window of its last id
+        val expireAt = (bucket + 1) * bucketMillis + windowMillis;
+        try {
+            redis.executePipelined(new SessionCallback<>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(final RedisOperations<K, V> operations) {
+                    val ops = (RedisOperations<String, String>) operations;
+                    ops.opsForSet().add(key, ids.toArray(String[]::new));
+                    ops.expireAt(key, Instant.ofEpochMilli(expireAt));
+                    return null;
+                }
+            });
+        } catch (final Exception e) {
+            log.error("Error flushing {} processed event ids", ids.size(), e);
+            unflushed.addAll(ids);
+        }
+    }
+
+    /**
+     * Keys of every bucket that may hold ids processed within the window.
+     */
+    private List<String> bucketKeys(final long now) {
+        val first = (now - windowMillis) / bucketMillis;
+        val last = now / bucketMillis;
+        final List<String> keys = new ArrayList<>((int) (last - first + 1));
+        for (long bucket = first; bucket <= last; bucket++) {
+            keys.add(keyPrefix + bucket);
+        }
+        return keys;
+    }
+
+    static int compare(final RecordId a, final RecordId b) {
+        val byTimestamp = Long.compare(a.getTimestamp(), b.getTimestamp());
+        return byTimestamp != 0 ? byTimestamp : Long.compare(a.getSequence(), b.getSequence());
+    }
+}
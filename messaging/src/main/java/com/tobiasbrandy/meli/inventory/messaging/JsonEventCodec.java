@@ -0,0 +1,105 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.tobiasbrandy.meli.inventory.model.Event;
+import com.tobiasbrandy.meli.inventory.model.EventType;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Human-readable codec: JSON payloads, and stream entries with an {@code id}, {@code createdAt} (ISO-8601),
+ * {@code type} and {@code payload} text fields. Handy for debugging with {@code redis-cli}.
+ * <p>
+ * Payload readers are resolved once per {@link EventType}, and types are matched by their raw bytes,
+ * so decoding doesn't resolve deserializers nor build type names for every entry.
+ */
+final class JsonEventCodec implements EventCodec {
+    private static final EventType[] TYPES = EventType.values();
+    private static final byte[][] TYPE_NAMES = Arrays.stream(TYPES)
+        .map(type -> type.name().getBytes(StandardCharsets.UTF_8))
+        .toArray(byte[][]::new);
+
+    private final ObjectMapper mapper;
+    private final Map<EventType, ObjectReader> readers = new EnumMap<>(EventType.class);
+
+    JsonEventCodec(final ObjectMapper mapper) {
+        this.mapper = mapper;
+        for (final EventType type : TYPES) {
+            readers.put(type, mapper.readerFor(type.getPayloadType()));
+        }
+    }
+
+    @Override
+    public byte[] encodePayload(final EventType type, final Object payload) {
+        try {
+            return mapper.writeValueAsBytes(payload);
+        } catch (final JsonProcessingException e) {
+            throw new IllegalArgumentException("Failed to serialize event payload", e);
+        }
+    }
+
+    @Override
+    public Object decodePayload(final EventType type, final byte[] payload) {
+        try {
+            return readers.get(type).readValue(payload);
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("Failed to deserialize event payload", e);
+        }
+    }
+
+    @Override
+    public Map<String, byte[]> encodeEntry(final String eventId, final Instant createdAt, final EventType type, final byte[] payload) {
+        return Map.of(
+            "id", eventId.getBytes(StandardCharsets.UTF_8),
+            "createdAt", createdAt.toString().getBytes(StandardCharsets.UTF_8),
+            "type", type.name().getBytes(StandardCharsets.UTF_8),
+            "payload", payload
+        );
+    }
+
+    @Override
+    public Event<Object> decodeEntry(final String stream, final Map<String, byte[]> entry) {
+        final EventType type = type(entry.get("type"));
+
+        final Instant createdAt;
+        try {
+            createdAt = Instant.parse(field(entry, "createdAt"));
+        } catch (final DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid event creation time", e);
+        }
+
+        final byte[] payload = entry.get("payload");
+        if (payload == null) {
+            throw new IllegalArgumentException("Missing event field payload");
+        }
+        return new Event<>(stream, field(entry, "id"), createdAt, type, decodePayload(type, payload));
+    }
+
+    private static EventType type(final byte[] name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Missing event field type");
+        }
+        for (int i = 0; i < TYPE_NAMES.length; i++) {
+            if (Arrays.equals(TYPE_NAMES[i], name)) {
+                return TYPES[i];
+            }
+        }
+        throw new IllegalArgumentException("Invalid event type");
+    }
+
+    private static String field(final Map<String, byte[]> entry, final String name) {
+        final byte[] value = entry.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing event field " + name);
+        }
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}
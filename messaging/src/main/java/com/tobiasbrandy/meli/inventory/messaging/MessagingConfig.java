@@ -1,66 +1,31 @@
 package com.tobiasbrandy.meli.inventory.messaging;
 
 import lombok.val;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
-import org.springframework.data.redis.connection.stream.Consumer;
-import org.springframework.data.redis.connection.stream.MapRecord;
-import org.springframework.data.redis.connection.stream.ReadOffset;
-import org.springframework.data.redis.connection.stream.StreamOffset;
-import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.stream.StreamMessageListenerContainer;
-import org.springframework.data.redis.stream.Subscription;
-
-import java.time.Duration;
-import java.util.ArrayList;
-import java.util.List;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
 
 /**
- * Wires Redis Stream consumption with a single-consumer-per-group setup.
+ * Redis Stream wiring. Streams are consumed by the {@link StreamConsumer}.
  * <p>
- * Creates consumer groups if absent and subscribes the {@link EventListener} to
- * the configured streams.
+ * Stream entry values are raw bytes, as encoded by the {@link EventCodec}.
  */
 @Configuration
 class MessagingConfig {
 
-    @Bean(initMethod = "start", destroyMethod = "stop")
-    StreamMessageListenerContainer<String, MapRecord<String, String, String>> container(final RedisConnectionFactory cf) {
-        return StreamMessageListenerContainer.create(cf, StreamMessageListenerContainer.StreamMessageListenerContainerOptions
-            .builder()
-            .pollTimeout(Duration.ofSeconds(1))
-            .batchSize(10)
-            .build());
-    }
-
+    /**
+     * Template for stream entries, with string keys and fields but binary values.
+     */
     @Bean
-    List<Subscription> subscriptions(
-        final StreamMessageListenerContainer<String, MapRecord<String, String, String>> container,
-        final StringRedisTemplate redis,
-        final EventListener listener,
-        @Qualifier("consumerGroup") final String consumerGroup,
-        @Qualifier("consumerStreams") final List<String> consumerStreams
-    ) {
-        final List<Subscription> subscriptions = new ArrayList<>(consumerStreams.size());
-
-        for (val stream : consumerStreams) {
-            try {
-                redis.opsForStream().createGroup(stream, ReadOffset.from("0"), consumerGroup);
-            } catch (final Exception e) {
-                // Group already exists
-            }
-
-            val sub = container.receiveAutoAck(
-                Consumer.from(consumerGroup, consumerGroup), // We use the same since we only have 1 consumer per consumer group
-                StreamOffset.create(stream, ReadOffset.lastConsumed()),
-                listener
-            );
-
-            subscriptions.add(sub);
-        }
-
-        return subscriptions;
+    RedisTemplate<String, byte[]> eventRedisTemplate(final RedisConnectionFactory cf) {
+        val template = new RedisTemplate<String, byte[]>();
+        template.setConnectionFactory(cf);
+        template.setKeySerializer(RedisSerializer.string());
+        template.setValueSerializer(RedisSerializer.byteArray());
+        template.setHashKeySerializer(RedisSerializer.string());
+        template.setHashValueSerializer(RedisSerializer.byteArray());
+        return template;
     }
 }
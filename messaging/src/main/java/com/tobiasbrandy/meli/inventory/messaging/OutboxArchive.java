@@ -0,0 +1,191 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tobiasbrandy.meli.inventory.model.EventType;
+import com.tobiasbrandy.meli.inventory.model.OutboxEvent;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Append-only archive of published outbox events, stored as gzip compressed JSON-lines segment files.
+ * <p>
+ * Every {@link #append} writes a new gzip member at the end of the current segment and syncs it to disk.
+ * Segments are named after their sequence number, increasing with every new segment, and the first event id they
+ * contain. A failed append is truncated away, and a fresh segment is started after it as well as on every restart,
+ * so a write torn by a crash can only affect the tail of an old segment.
+ * <p>
+ * Events may be appended more than once if archiving them succeeds but purging them doesn't, be it because the
+ * process died or the delete failed. They are appended again by the next batch, so {@link #read} skips ids repeated
+ * within the last two {@link OutboxRetentionConfig#batchSize() batches} of events read.
+ */
+@Slf4j
+@Component
+public class OutboxArchive {
+    private static final String SEGMENT_PREFIX = "outbox-";
+    private static final String SEGMENT_SUFFIX = ".jsonl.gz";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ObjectMapper objectMapper;
+    private final Path directory;
+    private final long segmentMaxBytes;
+    private final int dedupWindow;
+    private Path currentSegment;
+    private long nextSequence = -1;
+
+    public OutboxArchive(final ObjectMapper objectMapper, final OutboxRetentionConfig config) {
+        this.objectMapper = objectMapper;
+        this.directory = Path.of(config.directory());
+        this.segmentMaxBytes = config.segmentMaxBytes();
+        this.dedupWindow = 2 * config.batchSize();
+    }
+
+    /**
+     * Archived outbox event.
+     */
+    public record Entry(
+        long id,
+        String eventId,
+        String stream,
+        String createdAt, // ISO-8601
+        EventType type,
+        byte[] payload // As encoded by the EventCodec, stored as base64
+    ) {
+        static Entry of(final OutboxEvent event) {
+            return new Entry(
+                event.getId(),
+                event.getEventId(),
+                event.getStream(),
+                event.getCreatedAt().toString(),
+                event.getType(),
+                event.getPayload()
+            );
+        }
+    }
+
+    /**
+     * Appends events, sorted by id, to the archive. Returns once they are durable on disk.
+     */
+    public synchronized void append(final List<OutboxEvent> events) throws IOException {
+        if (events.isEmpty()) {
+            return;
+        }
+
+        val segment = segmentFor(events.getFirst().getId());
+        try (final FileChannel channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            val size = channel.size();
+            try {
+                val gzip = new GZIPOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+                for (val event : events) {
+                    gzip.write(objectMapper.writeValueAsBytes(Entry.of(event)));
+                    gzip.write('\n');
+                }
+                gzip.finish();
+                channel.force(true);
+            } catch (final IOException | RuntimeException e) {
+                // Drops what was written, so the members after it can still be read
+                try {
+                    channel.truncate(size);
+                    channel.force(true);
+                } catch (final IOException te) {
+                    e.addSuppressed(te);
+                }
+                throw e;
+            }
+        } catch (final IOException | RuntimeException e) {
+            // In case the truncate failed too, later appends go to a new segment
+            currentSegment = null;
+            throw e;
+        }
+    }
+
+    private Path segmentFor(final long firstId) throws IOException {
+        if (currentSegment == null || Files.size(currentSegment) >= segmentMaxBytes) {
+            Files.createDirectories(directory);
+            if (nextSequence < 0) {
+                val segments = segments();
+                nextSequence = segments.isEmpty() ? 0 : sequence(segments.getLast()) + 1;
+            }
+            currentSegment = directory.resolve(String.format("%s%010d-%020d%s", SEGMENT_PREFIX, nextSequence++, firstId, SEGMENT_SUFFIX));
+            log.info("Starting outbox archive segment {}", currentSegment);
+        }
+        return currentSegment;
+    }
+
+    private static long sequence(final Path segment) {
+        val name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.indexOf('-', SEGMENT_PREFIX.length())));
+    }
+
+    /**
+     * Archive segment files, in sequence order.
+     */
+    public List<Path> segments() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                .filter(f -> {
+                    val name = f.getFileName().toString();
+                    return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+                })
+                .sorted()
+                .toList();
+        }
+    }
+
+    /**
+     * Reads every archived event with id greater or equal to {@code fromId}, once each.
+     * Useful for audits, or to replay events into a stream.
+     * <p>
+     * Events are read in archive order: segments by sequence, and events in the order they were appended. That follows
+     * ids within each {@link #append}, but not across them: events are published, and so archived, out of id order
+     * (e.g. by parallel lanes, or transactions committing out of id order), so a lower id may be archived after a
+     * higher one.
+     */
+    public void read(final long fromId, final Consumer<Entry> consumer) throws IOException {
+        // Ids of the last events read: a repeated batch repeats the one before it, which it can't be further from
+        final Set<Long> recent = new LinkedHashSet<>();
+        for (val segment : segments()) {
+            try (final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(segment), BUFFER_SIZE), StandardCharsets.UTF_8
+            ))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    val entry = objectMapper.readValue(line, Entry.class);
+                    if (!recent.add(entry.id())) {
+                        continue;
+                    }
+                    if (recent.size() > dedupWindow) {
+                        recent.remove(recent.iterator().next());
+                    }
+                    if (entry.id() >= fromId) {
+                        consumer.accept(entry);
+                    }
+                }
+            } catch (final EOFException | ZipException e) {
+                log.warn("Outbox archive segment {} ends with a torn write, skipping its tail", segment);
+            }
+        }
+    }
+}
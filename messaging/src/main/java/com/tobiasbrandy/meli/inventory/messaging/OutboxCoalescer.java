@@ -0,0 +1,80 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import com.tobiasbrandy.meli.inventory.model.EventType;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemEvent;
+import com.tobiasbrandy.meli.inventory.model.OutboxEvent;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Drops {@link EventType#INVENTORY_ITEM_UPDATED} events superseded by a later update of the same item.
+ * <p>
+ * Updates carry an absolute quantity, so only the last one of a run matters.
+ * Any other event of the same item (e.g. its creation) ends the run, so kept events are never reordered
+ * relative to it. Events are expected in publishing order, and the last event is never dropped.
+ */
+@Slf4j
+@RequiredArgsConstructor
+final class OutboxCoalescer {
+    private final EventCodec codec;
+
+    private record ItemKey(String storeId, String productId) {
+    }
+
+    /**
+     * Returns the events that must be published, in their original order.
+     */
+    List<OutboxEvent> coalesce(final List<OutboxEvent> events) {
+        final Set<ItemKey> updated = new HashSet<>();
+        final boolean[] keep = new boolean[events.size()];
+        int kept = 0;
+
+        // Walk backwards, so the first update seen of every item is the one that supersedes the rest
+        for (int i = events.size() - 1; i >= 0; i--) {
+            val event = events.get(i);
+            val key = itemKey(event);
+            if (key == null) {
+                keep[i] = true;
+            } else if (event.getType() == EventType.INVENTORY_ITEM_UPDATED) {
+                keep[i] = updated.add(key);
+            } else {
+                updated.remove(key);
+                keep[i] = true;
+            }
+            if (keep[i]) {
+                kept++;
+            }
+        }
+
+        if (kept == events.size()) {
+            return events;
+        }
+        final List<OutboxEvent> result = new ArrayList<>(kept);
+        for (int i = 0; i < events.size(); i++) {
+            if (keep[i]) {
+                result.add(events.get(i));
+            }
+        }
+        return result;
+    }
+
+    private ItemKey itemKey(final OutboxEvent event) {
+        val payloadType = event.getType().getPayloadType();
+        if (!InventoryItemEvent.class.isAssignableFrom(payloadType)) {
+            return null;
+        }
+        try {
+            val payload = (InventoryItemEvent) codec.decodePayload(event.getType(), event.getPayload());
+            return new ItemKey(payload.storeId(), payload.productId());
+        } catch (final IllegalArgumentException e) {
+            log.warn("Failed to deserialize outbox event {} payload, it won't be coalesced", event.getEventId(), e);
+            return null;
+        }
+    }
+}
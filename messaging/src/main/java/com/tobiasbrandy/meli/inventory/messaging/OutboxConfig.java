@@ -0,0 +1,45 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Outbox publishing settings.
+ * <p>
+ * The publisher fetches between {@code minBatchSize} and {@code maxBatchSize} events per round trip,
+ * growing the batch while there is backlog and shrinking it back when idle.
+ * When {@code pipelined} is set, every batch is written to Redis in a single pipelined round trip.
+ * <p>
+ * The publisher is woken up by every committed event, {@code pollInterval} is only a safety net
+ * for wakeups that got lost (e.g. events inserted by another process).
+ * <p>
+ * Each stream is published by its own lane, with up to {@code laneParallelism} lanes publishing at a time.
+ * <p>
+ * When {@code coalesceUpdates} is set, item updates superseded by a later update in the same batch are not sent.
+ * <p>
+ * When {@code directPublish} is set, events are sent right after their transaction commits, without reading them
+ * back from the outbox, as long as the stream has no backlog. The outbox stays the fallback on any failure.
+ */
+@ConfigurationProperties(prefix = "outbox")
+public record OutboxConfig(
+    boolean pipelined,
+    int minBatchSize,
+    int maxBatchSize,
+    Duration pollInterval,
+    int laneParallelism,
+    boolean coalesceUpdates,
+    boolean directPublish
+) {
+    public OutboxConfig {
+        if (minBatchSize < 1 || maxBatchSize < minBatchSize) {
+            throw new IllegalArgumentException("Outbox batch sizes must satisfy 1 <= minBatchSize <= maxBatchSize");
+        }
+        if (pollInterval == null || pollInterval.isNegative() || pollInterval.isZero()) {
+            throw new IllegalArgumentException("Outbox poll interval must be positive");
+        }
+        if (laneParallelism < 1) {
+            throw new IllegalArgumentException("Outbox lane parallelism must be positive");
+        }
+    }
+}
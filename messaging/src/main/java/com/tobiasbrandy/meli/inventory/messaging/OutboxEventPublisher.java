@@ -1,40 +1,110 @@
 package com.tobiasbrandy.meli.inventory.messaging;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.tobiasbrandy.meli.inventory.model.Event;
 import com.tobiasbrandy.meli.inventory.model.EventType;
 import com.tobiasbrandy.meli.inventory.model.OutboxEvent;
 import com.tobiasbrandy.meli.inventory.repository.OutboxEventRepository;
-import jakarta.transaction.Transactional;
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.SmartLifecycle;
 import org.springframework.data.domain.PageRequest;
-import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Outbox-based event publisher.
  * <p>
- * Stores events in the database, then a scheduled job publishes them to Redis Streams.
+ * Stores events in the database, then background workers publish them to Redis Streams.
  * This ensures eventual consistency, and avoids dropping messages upon a connectivity problem.
+ * <p>
+ * Publishing is partitioned into one {@link OutboxLane} per stream. Lanes are drained in parallel
+ * (up to {@link OutboxConfig#laneParallelism()} at a time), and events are only ordered within their stream,
+ * so a huge or slow stream doesn't delay the others.
+ * Events above normal priority are published to a stream of their own (see {@link EventStreams#prioritized}),
+ * so they don't wait behind bulk traffic either.
+ * A lane is drained as soon as the transaction that stored an event for it commits, and every lane with
+ * backlog is drained every {@link OutboxConfig#pollInterval()} as a safety net.
+ * While a lane has no backlog, committed events can skip the outbox read and be sent right away
+ * (see {@link OutboxConfig#directPublish()}), falling back to the outbox drain on any failure.
+ * Events are published in adaptive batches, optionally pipelined (see {@link OutboxConfig}).
+ * Superseded item updates can be coalesced before publishing (see {@link OutboxCoalescer}).
+ * Payloads are stored and published as encoded by the {@link EventCodec}.
+ * Several instances can share the outbox, each publishing the streams it holds the lease of (see {@link OutboxLeases}).
  * Payload types are enforced to match {@link EventType} definitions.
  */
 @Slf4j
 @Service
-@RequiredArgsConstructor
-public class OutboxEventPublisher implements EventPublisher {
-    private final ObjectMapper objectMapper;
+public class OutboxEventPublisher implements EventPublisher, SmartLifecycle {
+    private final EventCodec codec;
     private final OutboxEventRepository outboxEventRepository;
-    private final StringRedisTemplate redis;
+    private final RedisTemplate<String, byte[]> redis;
+    private final TransactionTemplate transactionTemplate;
+    private final OutboxConfig config;
+    private final OutboxLeases leases;
+    private final MeterRegistry meterRegistry;
+    private final Executor laneExecutor;
+    private final OutboxCoalescer coalescer;
+    private final Map<String, OutboxLane> lanes = new ConcurrentHashMap<>();
     private final AtomicBoolean disconnected = new AtomicBoolean(false);
+    private final Semaphore wakeups = new Semaphore(0);
+    private volatile boolean running;
+    private Thread worker;
+
+    @Autowired
+    public OutboxEventPublisher(
+        final EventCodec codec,
+        final OutboxEventRepository outboxEventRepository,
+        final RedisTemplate<String, byte[]> redis,
+        final TransactionTemplate transactionTemplate,
+        final OutboxConfig config,
+        final OutboxLeases leases,
+        final MeterRegistry meterRegistry
+    ) {
+        this(codec, outboxEventRepository, redis, transactionTemplate, config, leases, meterRegistry,
+            Executors.newFixedThreadPool(config.laneParallelism(), Thread.ofPlatform().name("outbox-lane-", 0).daemon().factory()));
+    }
+
+    OutboxEventPublisher(
+        final EventCodec codec,
+        final OutboxEventRepository outboxEventRepository,
+        final RedisTemplate<String, byte[]> redis,
+        final TransactionTemplate transactionTemplate,
+        final OutboxConfig config,
+        final OutboxLeases leases,
+        final MeterRegistry meterRegistry,
+        final Executor laneExecutor
+    ) {
+        this.codec = codec;
+        this.outboxEventRepository = outboxEventRepository;
+        this.redis = redis;
+        this.transactionTemplate = transactionTemplate;
+        this.config = config;
+        this.leases = leases;
+        this.meterRegistry = meterRegistry;
+        this.laneExecutor = laneExecutor;
+        this.coalescer = config.coalesceUpdates() ? new OutboxCoalescer(codec) : null;
+    }
 
     @Override
     public <T> Event<T> publishEvent(final String stream, final EventType type, final T payload) {
@@ -42,52 +112,315 @@ public class OutboxEventPublisher implements EventPublisher {
             throw new IllegalArgumentException("Payload of event " + type.name() + " must be of type " + type.getPayloadType().getSimpleName());
         }
 
-        final String deserializedPayload;
+        // Each priority gets its own stream, and so its own lane, so urgent events aren't stuck behind bulk ones
+        val target = EventStreams.prioritized(stream, type.getPriority());
+        val encodedPayload = codec.encodePayload(type, payload);
+        val outboxEvent = outboxEventRepository.save(new OutboxEvent(target, type, encodedPayload));
+        drainAfterCommit(lane(target), outboxEvent);
+
+        val event = new Event<>(target, outboxEvent.getEventId(), outboxEvent.getCreatedAt(), type, payload);
+        log.info("Published event {}", event);
+        return event;
+    }
+
+    private OutboxLane lane(final String stream) {
+        return lanes.computeIfAbsent(stream, s -> {
+            val lane = new OutboxLane(s, config);
+            FunctionCounter.builder("outbox.lane.published", lane, OutboxLane::published)
+                .description("Events published to Redis by the outbox lane")
+                .tag("stream", s)
+                .register(meterRegistry);
+            FunctionCounter.builder("outbox.lane.coalesced", lane, OutboxLane::coalesced)
+                .description("Superseded events dropped by the outbox lane instead of being published")
+                .tag("stream", s)
+                .register(meterRegistry);
+            Gauge.builder("outbox.lane.backlog", lane, OutboxLane::backlog)
+                .description("Estimated unpublished events of the outbox lane")
+                .tag("stream", s)
+                .register(meterRegistry);
+            Gauge.builder("outbox.lane.throughput", lane, OutboxLane::eventsPerSecond)
+                .description("Events per second published by the last drain of the outbox lane")
+                .tag("stream", s)
+                .register(meterRegistry);
+            return lane;
+        });
+    }
+
+    /**
+     * Drains the lane once the current transaction commits, so the event is already visible when
+     * the outbox is read. Without a transaction the event is already committed, so drain right away.
+     */
+    private void drainAfterCommit(final OutboxLane lane, final OutboxEvent event) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            committed(lane, event);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                committed(lane, event);
+            }
+        });
+    }
+
+    private void committed(final OutboxLane lane, final OutboxEvent event) {
+        if (config.directPublish()) {
+            lane.offer(event);
+        }
+        scheduleDrain(lane);
+    }
+
+    private void scheduleDrain(final OutboxLane lane) {
+        if (lane.requestDrain()) {
+            laneExecutor.execute(() -> runLane(lane));
+        }
+    }
+
+    private void runLane(final OutboxLane lane) {
+        do {
+            lane.beginDrain();
+            try {
+                drainLane(lane);
+            } catch (final Exception e) {
+                log.error("Error draining outbox lane {}", lane.stream(), e);
+            }
+        } while (lane.endDrain());
+    }
+
+    /**
+     * Drains unpublished events of the lane's stream to Redis.
+     * <p>
+     * Keeps publishing batches while they come back full, so a backlog is drained in a single run.
+     * Each batch is published and marked in its own transaction. A failed batch ends the run.
+     * The stream lease is renewed before every batch, and released at the end of the run, so the stream is skipped
+     * while another instance drains it.
+     * <p>
+     * If the lane is clean, events committed since the last run are sent directly instead, and the outbox is only
+     * read if that fails. Otherwise they are dropped, as the outbox read picks them up.
+     */
+    void drainLane(final OutboxLane lane) {
+        val fresh = lane.takeFresh();
+        if (!leases.acquire(lane.stream())) {
+            lane.setClean(false);
+            return;
+        }
         try {
-            deserializedPayload = objectMapper.writeValueAsString(payload);
-        } catch (final JsonProcessingException e) {
-            throw new IllegalArgumentException("Failed to serialize event payload", e);
+            if (!fresh.isEmpty() && lane.isClean() && !disconnected.get() && publishFresh(lane, fresh)) {
+                return;
+            }
+            drainLeasedLane(lane);
+        } finally {
+            leases.release(lane.stream());
         }
+    }
 
-        val outboxEvent = outboxEventRepository.save(new OutboxEvent(stream, type, deserializedPayload));
+    /**
+     * Sends events right after their transaction committed, and marks them as published.
+     * The lane is left dirty if any of them isn't, so the next run drains the outbox.
+     *
+     * @return whether every event was published.
+     */
+    private boolean publishFresh(final OutboxLane lane, final List<OutboxEvent> events) {
+        val start = System.nanoTime();
+        val sent = send(lane.stream(), events);
+        if (sent > 0) {
+            val sentEventIds = events.subList(0, sent).stream().map(OutboxEvent::getId).toList();
+            try {
+                transactionTemplate.executeWithoutResult(status -> outboxEventRepository.markPublished(sentEventIds));
+            } catch (final Exception e) {
+                // Already sent, so they will be sent again by the drain and dropped by consumers as duplicates
+                log.error("Error marking events of stream {} as published", lane.stream(), e);
+                lane.setClean(false);
+                return false;
+            }
+        }
+        lane.recordDrain(sent, 0, System.nanoTime() - start, false);
+        if (sent < events.size()) {
+            lane.setClean(false);
+            return false;
+        }
+        return true;
+    }
 
-        val event = new Event<>(stream, outboxEvent.getEventId(), outboxEvent.getCreatedAt(), type, payload);
-        log.info("Published event {}", event);
-        return event;
+    private void drainLeasedLane(final OutboxLane lane) {
+        lane.setClean(false);
+        val start = System.nanoTime();
+        long published = 0;
+        long coalesced = 0;
+        boolean backlog = true;
+        boolean drained = false;
+        while (backlog && !disconnected.get() && leases.acquire(lane.stream())) {
+            val size = lane.batchSize().get();
+            val batch = transactionTemplate.execute(status -> publishBatch(lane.stream(), size));
+            if (batch == null) {
+                break;
+            }
+            published += batch.published();
+            coalesced += batch.coalesced();
+            backlog = lane.batchSize().record(batch.published());
+            drained = batch.fetched() < size && batch.published() == batch.fetched();
+        }
+        lane.recordDrain(published, coalesced, System.nanoTime() - start, drained);
+        lane.setClean(drained);
     }
 
     /**
-     * Periodically publishes unpublished outbox events to Redis Streams and marks
-     * them as published.
+     * Wakes up the poller to look for backlog on every stream.
      */
-    @Scheduled(fixedDelay = 200)
-    @Transactional
-    protected void publish() {
-        val events = outboxEventRepository.findByPublishedFalseOrderByIdAsc(PageRequest.ofSize(10));
-        final List<Long> publishedEventIds = new ArrayList<>(events.size());
+    void wakeup() {
+        wakeups.release();
+    }
+
+    private void runWorker() {
+        while (running) {
+            try {
+                publish();
+            } catch (final Exception e) {
+                log.error("Error polling outbox", e);
+            }
+
+            try {
+                // Coalesce every wakeup received meanwhile into the next poll
+                wakeups.tryAcquire(config.pollInterval().toMillis(), TimeUnit.MILLISECONDS);
+                wakeups.drainPermits();
+            } catch (final InterruptedException e) {
+                return;
+            }
+        }
+    }
 
+    /**
+     * Schedules a drain of every stream with unpublished events, refreshing their backlog stats.
+     */
+    protected void publish() {
         if (disconnected.get()) {
             return;
         }
+        for (val backlog : outboxEventRepository.countUnpublishedByStream()) {
+            val lane = lane(backlog.getStream());
+            lane.setBacklog(backlog.getBacklog());
+            // Events the poller finds unpublished must be drained from the outbox, ahead of any newer one
+            lane.setClean(false);
+            scheduleDrain(lane);
+        }
+    }
 
-        try {
-            for (val event : events) {
-                redis.opsForStream().add(event.getStream(), Map.of(
-                    "id", event.getEventId(),
-                    "createdAt", event.getCreatedAt().toString(),
-                    "type", event.getType().name(),
-                    "payload", event.getPayload()
-                ));
+    /**
+     * @param fetched events read from the outbox.
+     * @param published events marked as published, including coalesced ones.
+     * @param coalesced published events that were dropped instead of sent.
+     */
+    private record BatchResult(int fetched, int published, int coalesced) {
+    }
+
+    /**
+     * Publishes up to {@code batchSize} unpublished events of the stream and marks them as published.
+     * <p>
+     * On failure, events up to the last one successfully sent are still marked. Coalesced events among them
+     * are safe to mark even if the update that superseded them wasn't sent, since it will be sent later.
+     */
+    private BatchResult publishBatch(final String stream, final int batchSize) {
+        val events = outboxEventRepository.findByStreamAndPublishedFalseOrderByIdAsc(stream, PageRequest.ofSize(batchSize));
+        if (events.isEmpty()) {
+            return new BatchResult(0, 0, 0);
+        }
+        val toSend = coalescer == null ? events : coalescer.coalesce(events);
+        val sent = send(stream, toSend);
+        val lastSentId = sent == 0 ? -1 : toSend.get(sent - 1).getId();
+
+        final List<Long> publishedEventIds = new ArrayList<>(events.size());
+        for (val event : events) {
+            if (event.getId() <= lastSentId) {
                 publishedEventIds.add(event.getId());
             }
-        } catch (final Exception e) {
-            log.error("Error publishing events to stream", e);
         }
 
         outboxEventRepository.markPublished(publishedEventIds);
+        return new BatchResult(events.size(), publishedEventIds.size(), publishedEventIds.size() - sent);
+    }
+
+    /**
+     * Sends the events to Redis in order, pipelined if configured.
+     *
+     * @return how many events were sent, counting from the first one, before any failure.
+     */
+    private int send(final String stream, final List<OutboxEvent> events) {
+        int sent = 0;
+        try {
+            if (config.pipelined()) {
+                xaddPipelined(events);
+                sent = events.size();
+            } else {
+                for (val event : events) {
+                    redis.<String, byte[]>opsForStream().add(event.getStream(), toStreamEntry(event));
+                    sent++;
+                }
+            }
+        } catch (final Exception e) {
+            log.error("Error publishing events to stream {}", stream, e);
+        }
+        return sent;
+    }
+
+    /**
+     * Sends one XADD per event in a single pipelined round trip.
+     * If any command fails the whole batch is considered unpublished and retried later,
+     * duplicates are dropped by consumers through the event id.
+     */
+    private void xaddPipelined(final List<OutboxEvent> events) {
+        redis.executePipelined(new SessionCallback<>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(final RedisOperations<K, V> operations) {
+                val streamOps = ((RedisOperations<String, byte[]>) operations).<String, byte[]>opsForStream();
+                for (val event : events) {
+                    streamOps.add(event.getStream(), toStreamEntry(event));
+                }
+                return null;
+            }
+        });
+    }
+
+    private Map<String, byte[]> toStreamEntry(final OutboxEvent event) {
+        return codec.encodeEntry(event.getEventId(), event.getCreatedAt(), event.getType(), event.getPayload());
+    }
+
+    /**
+     * Publishing stats of every lane, by stream.
+     */
+    public List<OutboxLane.Stats> laneStats() {
+        return lanes.values().stream()
+            .map(OutboxLane::stats)
+            .sorted(Comparator.comparing(OutboxLane.Stats::stream))
+            .toList();
     }
 
     public void setDisconnected(final boolean disconnected) {
         this.disconnected.set(disconnected);
+        if (!disconnected) {
+            wakeup();
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        worker = Thread.ofPlatform().name("outbox-publisher").daemon().start(this::runWorker);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+        }
+        if (laneExecutor instanceof ExecutorService executorService) {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
     }
 }
@@ -0,0 +1,155 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import com.tobiasbrandy.meli.inventory.model.OutboxEvent;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishing lane of a single outbox stream.
+ * <p>
+ * At most one drain of a lane is in flight at any time, which keeps events of the stream strictly ordered,
+ * while different lanes are drained in parallel. Drain requests that arrive during a drain are coalesced
+ * into a single extra drain.
+ * <p>
+ * Freshly committed events are also handed to the lane, so they can be published without reading them back
+ * from the outbox while the lane is clean, i.e. every older event of the stream is known to be published.
+ */
+public final class OutboxLane {
+    private final String stream;
+    private final AdaptiveBatchSize batchSize;
+
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final AtomicBoolean pending = new AtomicBoolean(false);
+    private final Queue<OutboxEvent> fresh = new ConcurrentLinkedQueue<>();
+    private volatile boolean clean = false;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong backlog = new AtomicLong();
+    private volatile double eventsPerSecond;
+
+    /**
+     * Snapshot of the lane publishing stats.
+     *
+     * @param published total events published since startup, including coalesced ones.
+     * @param coalesced total superseded events dropped instead of sent since startup.
+     * @param backlog estimated unpublished events.
+     * @param eventsPerSecond throughput of the last drain.
+     */
+    public record Stats(String stream, long published, long coalesced, long backlog, double eventsPerSecond) {
+    }
+
+    OutboxLane(final String stream, final OutboxConfig config) {
+        this.stream = stream;
+        this.batchSize = new AdaptiveBatchSize(config.minBatchSize(), config.maxBatchSize());
+    }
+
+    String stream() {
+        return stream;
+    }
+
+    AdaptiveBatchSize batchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Requests a drain of the lane.
+     *
+     * @return whether the caller must schedule the drain, false if one is already in flight and will pick it up.
+     */
+    boolean requestDrain() {
+        pending.set(true);
+        return scheduled.compareAndSet(false, true);
+    }
+
+    /**
+     * Called by the drain before reading the outbox, every request made from now on requires another drain.
+     */
+    void beginDrain() {
+        pending.set(false);
+    }
+
+    /**
+     * Called by the drain once done.
+     *
+     * @return whether a request arrived meanwhile, and the caller must drain again.
+     */
+    boolean endDrain() {
+        if (pending.get()) {
+            return true;
+        }
+        scheduled.set(false);
+        // A request may have arrived right before releasing the lane, without scheduling a drain
+        return pending.get() && scheduled.compareAndSet(false, true);
+    }
+
+    /**
+     * Hands over an event whose transaction just committed.
+     */
+    void offer(final OutboxEvent event) {
+        fresh.add(event);
+    }
+
+    /**
+     * Takes every event handed over since the last call, sorted by id.
+     */
+    List<OutboxEvent> takeFresh() {
+        final List<OutboxEvent> events = new ArrayList<>();
+        OutboxEvent event;
+        while ((event = fresh.poll()) != null) {
+            events.add(event);
+        }
+        events.sort(Comparator.comparingLong(OutboxEvent::getId));
+        return events;
+    }
+
+    /**
+     * Whether every event of the stream older than the fresh ones is known to be published.
+     */
+    boolean isClean() {
+        return clean;
+    }
+
+    void setClean(final boolean clean) {
+        this.clean = clean;
+    }
+
+    void recordDrain(final long publishedEvents, final long coalescedEvents, final long elapsedNanos, final boolean drained) {
+        published.addAndGet(publishedEvents);
+        coalesced.addAndGet(coalescedEvents);
+        backlog.updateAndGet(b -> drained ? 0 : Math.max(0, b - publishedEvents));
+        if (publishedEvents > 0 && elapsedNanos > 0) {
+            eventsPerSecond = publishedEvents * 1e9 / elapsedNanos;
+        }
+    }
+
+    void setBacklog(final long backlog) {
+        this.backlog.set(backlog);
+    }
+
+    long published() {
+        return published.get();
+    }
+
+    long coalesced() {
+        return coalesced.get();
+    }
+
+    long backlog() {
+        return backlog.get();
+    }
+
+    double eventsPerSecond() {
+        return eventsPerSecond;
+    }
+
+    Stats stats() {
+        return new Stats(stream, published(), coalesced(), backlog(), eventsPerSecond());
+    }
+}
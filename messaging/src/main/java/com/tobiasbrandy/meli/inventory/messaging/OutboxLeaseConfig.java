@@ -0,0 +1,23 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Outbox leasing settings, for running several publisher instances over the same database.
+ * <p>
+ * When {@code enabled}, an instance must hold the lease of a stream to publish its events. Leases of a crashed
+ * instance are taken over by others once they go {@code timeout} without being renewed.
+ */
+@ConfigurationProperties(prefix = "outbox.lease")
+public record OutboxLeaseConfig(
+    boolean enabled,
+    Duration timeout
+) {
+    public OutboxLeaseConfig {
+        if (enabled && (timeout == null || timeout.isNegative() || timeout.isZero())) {
+            throw new IllegalArgumentException("Outbox lease timeout must be positive");
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import com.tobiasbrandy.meli.inventory.repository.OutboxLeaseRepository;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-stream leases that let several publisher instances share the outbox.
+ * <p>
+ * Streams, not rows, are leased, so events of a stream are always published in order by a single instance,
+ * while different streams are published by different instances. A lease is renewed as the stream is drained,
+ * and released once done. If its owner dies, the lease is claimable again after {@link OutboxLeaseConfig#timeout()}.
+ * <p>
+ * An owner stalled for longer than the timeout may publish a batch that the new owner publishes again,
+ * consumers drop such duplicates through the event id.
+ * When leasing is disabled, every stream is always owned.
+ */
+@Slf4j
+@Component
+public class OutboxLeases {
+    private final OutboxLeaseConfig config;
+    private final OutboxLeaseRepository leaseRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final String owner;
+    private final Map<String, Instant> held = new ConcurrentHashMap<>();
+
+    public OutboxLeases(
+        final OutboxLeaseConfig config,
+        final OutboxLeaseRepository leaseRepository,
+        final TransactionTemplate transactionTemplate
+    ) {
+        this.config = config;
+        this.leaseRepository = leaseRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.owner = ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    String owner() {
+        return owner;
+    }
+
+    /**
+     * Acquires the lease of the stream, or renews it if already held and past half its timeout.
+     *
+     * @return whether the lease is held, false if another instance owns it.
+     */
+    boolean acquire(final String stream) {
+        if (!config.enabled()) {
+            return true;
+        }
+
+        val now = Instant.now();
+        val renewAt = held.get(stream);
+        if (renewAt != null && now.isBefore(renewAt)) {
+            return true;
+        }
+
+        val expiresAt = now.plus(config.timeout());
+        boolean claimed;
+        try {
+            claimed = Boolean.TRUE.equals(transactionTemplate.execute(status ->
+                leaseRepository.claim(stream, owner, now, expiresAt) > 0
+                    || !leaseRepository.existsById(stream) && leaseRepository.create(stream, owner, expiresAt) > 0
+            ));
+        } catch (final DataAccessException | TransactionException e) {
+            // Most likely another instance created the lease first
+            log.debug("Failed to claim lease of outbox stream {}", stream, e);
+            claimed = false;
+        }
+        if (!claimed) {
+            held.remove(stream);
+            return false;
+        }
+
+        held.put(stream, now.plus(config.timeout().dividedBy(2)));
+        return true;
+    }
+
+    /**
+     * Releases the lease of the stream, if held, so any instance can claim it right away.
+     */
+    void release(final String stream) {
+        if (!config.enabled() || held.remove(stream) == null) {
+            return;
+        }
+        try {
+            transactionTemplate.execute(status -> leaseRepository.release(stream, owner, Instant.now()));
+        } catch (final DataAccessException | TransactionException e) {
+            log.warn("Error releasing lease of outbox stream {}, it will expire on its own", stream, e);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import com.tobiasbrandy.meli.inventory.model.OutboxEvent;
+import com.tobiasbrandy.meli.inventory.repository.OutboxEventRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+
+/**
+ * Keeps the outbox table bounded by the unpublished backlog.
+ * <p>
+ * Periodically moves published events into the {@link OutboxArchive} and deletes them from the table.
+ * Events are first made durable in the archive and only then deleted, so a crash can at worst archive them twice.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class OutboxRetention {
+    private final OutboxRetentionConfig config;
+    private final OutboxEventRepository outboxEventRepository;
+    private final OutboxArchive archive;
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Archives and purges every published event.
+     *
+     * @return the number of purged events.
+     */
+    @Scheduled(fixedDelayString = "${outbox.retention.interval}")
+    public int purge() {
+        if (!config.enabled()) {
+            return 0;
+        }
+
+        int purged = 0;
+        while (true) {
+            val events = outboxEventRepository.findByPublishedTrueOrderByIdAsc(PageRequest.ofSize(config.batchSize()));
+            if (events.isEmpty()) {
+                break;
+            }
+
+            try {
+                archive.append(events);
+            } catch (final IOException e) {
+                log.error("Error archiving outbox events, keeping them in the outbox", e);
+                break;
+            }
+
+            val ids = events.stream().map(OutboxEvent::getId).toList();
+            val deleted = transactionTemplate.execute(status -> outboxEventRepository.deletePublished(ids));
+            purged += deleted == null ? 0 : deleted;
+
+            if (events.size() < config.batchSize()) {
+                break;
+            }
+        }
+
+        if (purged > 0) {
+            log.info("Archived and purged {} published outbox events", purged);
+        }
+        return purged;
+    }
+}
@@ -0,0 +1,18 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Outbox retention settings.
+ * <p>
+ * Published events are moved out of the outbox table in batches of {@code batchSize} into gzip segment
+ * files under {@code directory}, rolling to a new segment once the current one reaches {@code segmentMaxBytes}.
+ */
+@ConfigurationProperties(prefix = "outbox.retention")
+public record OutboxRetentionConfig(
+    boolean enabled,
+    String directory,
+    long segmentMaxBytes,
+    int batchSize
+) {
+}
@@ -0,0 +1,176 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands.XClaimOptions;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Takes back entries left pending on the consumed streams, and handles them again.
+ * <p>
+ * Entries stay pending when their handling failed, or when their consumer died before acknowledging them.
+ * Pending entries are listed in pages of {@link ConsumerConfig#maxBatchSize()} with XPENDING, and the ones idle for at least
+ * {@link ConsumerConfig#reclaimMinIdle()} are claimed in bulk with XCLAIM and handed to the {@link StreamConsumer}.
+ * Only streams owned by this instance are reclaimed, so entries of a stream are still handled by a single instance.
+ * <p>
+ * Entries that keep failing are retried with exponential backoff, waiting twice as long after every delivery,
+ * up to {@link DeadLetterConfig#maxBackoff()}. Once delivered {@link DeadLetterConfig#maxDeliveries()} times,
+ * they are moved to the {@link DeadLetterQueue} and acknowledged instead.
+ * <p>
+ * Pending entries of every stream are exposed as the {@code consumer.pending} gauge, and reclaimed ones
+ * as the {@code consumer.reclaimed} counter.
+ */
+@Slf4j
+@Component
+public class PendingReclaimer {
+    private final RedisTemplate<String, byte[]> redis;
+    private final StreamConsumer streamConsumer;
+    private final ConsumerConfig config;
+    private final DeadLetterQueue deadLetterQueue;
+    private final DeadLetterConfig deadLetterConfig;
+    private final List<String> streams;
+    private final Map<String, AtomicLong> pending = new HashMap<>();
+    private final Map<String, Counter> reclaimed = new HashMap<>();
+
+    PendingReclaimer(
+        final RedisTemplate<String, byte[]> redis,
+        final StreamConsumer streamConsumer,
+        final ConsumerConfig config,
+        final DeadLetterQueue deadLetterQueue,
+        final DeadLetterConfig deadLetterConfig,
+        @Qualifier("consumerStreams") final List<String> streams,
+        final MeterRegistry meterRegistry
+    ) {
+        this.redis = redis;
+        this.streamConsumer = streamConsumer;
+        this.config = config;
+        this.deadLetterQueue = deadLetterQueue;
+        this.deadLetterConfig = deadLetterConfig;
+        this.streams = streams;
+
+        for (val stream : streams) {
+            val streamPending = new AtomicLong();
+            pending.put(stream, streamPending);
+            Gauge.builder("consumer.pending", streamPending, AtomicLong::get)
+                .description("Entries delivered to the consumer group but not acknowledged yet")
+                .tag("stream", stream)
+                .register(meterRegistry);
+            reclaimed.put(stream, Counter.builder("consumer.reclaimed")
+                .description("Pending entries claimed back and handled again")
+                .tag("stream", stream)
+                .register(meterRegistry));
+        }
+    }
+
+    /**
+     * Reclaims idle pending entries of every consumed stream.
+     *
+     * @return how many entries were reclaimed.
+     */
+    @Scheduled(fixedDelayString = "${consumer.reclaimInterval}")
+    public long reclaim() {
+        long total = 0;
+        for (val stream : streams) {
+            try {
+                total += reclaim(stream);
+            } catch (final Exception e) {
+                log.error("Error reclaiming pending entries of stream {}", stream, e);
+            }
+        }
+        return total;
+    }
+
+    int reclaim(final String stream) {
+        final StreamOperations<String, String, byte[]> ops = redis.opsForStream();
+        val group = streamConsumer.consumerGroup();
+        val minIdle = config.reclaimMinIdle();
+
+        val summary = ops.pending(stream, group);
+        pending.get(stream).set(summary == null ? 0 : summary.getTotalPendingMessages());
+        if (summary == null || summary.getTotalPendingMessages() == 0 || !streamConsumer.owns(stream)) {
+            return 0;
+        }
+
+        int total = 0;
+        Range<String> range = Range.unbounded();
+        while (true) {
+            val page = ops.pending(stream, group, range, config.maxBatchSize());
+            val exhausted = new ArrayList<RecordId>();
+            val retried = new ArrayList<RecordId>();
+            for (val entry : page) {
+                if (entry.getElapsedTimeSinceLastDelivery().compareTo(backoff(entry.getTotalDeliveryCount())) < 0) {
+                    continue;
+                }
+                if (entry.getTotalDeliveryCount() >= deadLetterConfig.maxDeliveries()) {
+                    exhausted.add(entry.getId());
+                } else {
+                    retried.add(entry.getId());
+                }
+            }
+            if (!exhausted.isEmpty()) {
+                deadLetter(ops, stream, exhausted);
+            }
+            if (!retried.isEmpty()) {
+                val idle = retried.toArray(RecordId[]::new);
+                // Claiming checks the idle time again, so entries just taken by another consumer are skipped
+                val records = ops.claim(stream, group, streamConsumer.consumer().getName(),
+                    XClaimOptions.minIdle(minIdle).ids(idle));
+                if (!records.isEmpty()) {
+                    streamConsumer.handle(stream, records, true);
+                    reclaimed.get(stream).increment(records.size());
+                    total += records.size();
+                }
+            }
+
+            if (page.size() < config.maxBatchSize()) {
+                break;
+            }
+            range = Range.rightUnbounded(Range.Bound.exclusive(page.get(page.size() - 1).getIdAsString()));
+        }
+
+        if (total > 0) {
+            log.info("Reclaimed {} pending entries of stream {}", total, stream);
+        }
+        return total;
+    }
+
+    /**
+     * How long an entry delivered that many times must stay pending before being retried.
+     */
+    Duration backoff(final long deliveries) {
+        val doublings = Math.min(Math.max(deliveries - 1, 0), 30);
+        val backoff = config.reclaimMinIdle().multipliedBy(1L << doublings);
+        return backoff.compareTo(deadLetterConfig.maxBackoff()) > 0 ? deadLetterConfig.maxBackoff() : backoff;
+    }
+
+    private void deadLetter(final StreamOperations<String, String, byte[]> ops, final String stream, final List<RecordId> ids) {
+        val group = streamConsumer.consumerGroup();
+        // Claimed first, so entries just taken by another consumer are left to it
+        val records = ops.claim(stream, group, streamConsumer.consumer().getName(),
+            XClaimOptions.minIdle(config.reclaimMinIdle()).ids(ids.toArray(RecordId[]::new)));
+        val deadLettered = records.stream()
+            .filter(record -> deadLetterQueue.deadLetter(record, deadLetterConfig.maxDeliveries(), null))
+            .map(MapRecord::getId)
+            .toArray(RecordId[]::new);
+        if (deadLettered.length > 0) {
+            ops.acknowledge(stream, group, deadLettered);
+        }
+    }
+}
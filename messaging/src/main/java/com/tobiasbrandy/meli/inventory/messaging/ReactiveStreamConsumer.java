@@ -0,0 +1,171 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.serializer.RedisSerializationContext.SerializationPair;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.stream.StreamReceiver;
+import org.springframework.data.redis.stream.StreamReceiver.StreamReceiverOptions;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Backpressured alternative to the polling modes of the {@link StreamConsumer}, enabled by
+ * {@link ConsumerConfig.Mode#REACTIVE}.
+ * <p>
+ * Each owned stream is read by a reactive {@link StreamReceiver}, which only reads from Redis when there's demand.
+ * Entries are grouped in batches of up to {@link ConsumerConfig#maxBatchSize()}, and batches of a stream are handled
+ * one after the other, keeping their order. At most {@link ConsumerConfig#maxInFlight()} batches are handled at a time,
+ * across every stream. So, when handlers slow down, e.g. because the database is overloaded, demand stops and
+ * so do reads, instead of piling up work.
+ * <p>
+ * Leases are still acquired, and batches still handled and acknowledged, through the {@link StreamConsumer}.
+ * Streams are checked every {@link ConsumerConfig#pollTimeout()}, subscribing to newly owned ones and cancelling lost ones.
+ */
+@Slf4j
+@Component
+class ReactiveStreamConsumer implements SmartLifecycle {
+    private final StreamConsumer streamConsumer;
+    private final ConsumerConfig config;
+    private final List<String> streams;
+    private final StreamReceiver<String, MapRecord<String, String, byte[]>> receiver;
+    private final Scheduler scheduler;
+    private final Map<String, Disposable> subscriptions = new ConcurrentHashMap<>();
+    private Thread supervisor;
+    private volatile boolean running;
+
+    @Autowired
+    ReactiveStreamConsumer(
+        final ReactiveRedisConnectionFactory connectionFactory,
+        final StreamConsumer streamConsumer,
+        final ConsumerConfig config,
+        @Qualifier("consumerStreams") final List<String> streams
+    ) {
+        this(StreamReceiver.create(connectionFactory, options(config)), streamConsumer, config, streams);
+    }
+
+    ReactiveStreamConsumer(
+        final StreamReceiver<String, MapRecord<String, String, byte[]>> receiver,
+        final StreamConsumer streamConsumer,
+        final ConsumerConfig config,
+        final List<String> streams
+    ) {
+        this.receiver = receiver;
+        this.streamConsumer = streamConsumer;
+        this.config = config;
+        this.streams = streams;
+        // Threads are only created on demand, and evicted once idle
+        this.scheduler = Schedulers.newBoundedElastic(config.maxInFlight(), Math.max(1, streams.size()), "stream-receiver");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static StreamReceiverOptions<String, MapRecord<String, String, byte[]>> options(final ConsumerConfig config) {
+        final StreamReceiverOptions<?, ?> options = StreamReceiverOptions.builder()
+            .pollTimeout(config.pollTimeout())
+            .batchSize(config.maxBatchSize())
+            .keySerializer(SerializationPair.fromSerializer(RedisSerializer.string()))
+            .hashKeySerializer(SerializationPair.fromSerializer(RedisSerializer.string()))
+            .hashValueSerializer(SerializationPair.fromSerializer(RedisSerializer.byteArray()))
+            .build();
+        return (StreamReceiverOptions<String, MapRecord<String, String, byte[]>>) options;
+    }
+
+    private void supervise() {
+        streams.forEach(streamConsumer::createGroup);
+        while (running) {
+            for (val stream : streams) {
+                try {
+                    if (streamConsumer.acquire(stream)) {
+                        val subscription = subscriptions.get(stream);
+                        // Subscriptions end on Redis errors, e.g. if the stream was deleted along with its group
+                        if (subscription == null || subscription.isDisposed()) {
+                            streamConsumer.createGroup(stream);
+                            subscriptions.put(stream, receive(stream).subscribe(
+                                acknowledged -> {},
+                                e -> log.error("Error receiving stream {}, subscribing again", stream, e)
+                            ));
+                        }
+                    } else {
+                        cancel(stream);
+                    }
+                } catch (final Exception e) {
+                    log.error("Error supervising stream {}", stream, e);
+                }
+            }
+
+            try {
+                Thread.sleep(config.pollTimeout());
+            } catch (final InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads and handles the entries of the stream, in order, as long as there's demand.
+     *
+     * @return how many entries were acknowledged, per batch.
+     */
+    Flux<Integer> receive(final String stream) {
+        return receiver.receive(streamConsumer.consumer(), StreamOffset.create(stream, ReadOffset.lastConsumed()))
+            .bufferTimeout(config.maxBatchSize(), config.pollTimeout(), true)
+            .concatMap(batch -> Mono.fromCallable(() -> streamConsumer.handle(stream, batch, false))
+                .subscribeOn(scheduler)
+                .onErrorResume(e -> {
+                    log.error("Error handling {} entries of stream {}, leaving them pending", batch.size(), stream, e);
+                    return Mono.just(0);
+                }), 1);
+    }
+
+    private void cancel(final String stream) {
+        val subscription = subscriptions.remove(stream);
+        if (subscription != null) {
+            subscription.dispose();
+        }
+    }
+
+    @Override
+    public void start() {
+        if (config.mode() != ConsumerConfig.Mode.REACTIVE) {
+            return;
+        }
+        running = true;
+        supervisor = Thread.ofVirtual().name("stream-receiver").start(this::supervise);
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        supervisor.interrupt();
+        List.copyOf(subscriptions.keySet()).forEach(this::cancel);
+    }
+
+    @PreDestroy
+    void close() {
+        scheduler.dispose();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
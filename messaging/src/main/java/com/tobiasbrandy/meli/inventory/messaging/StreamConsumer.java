@@ -0,0 +1,422 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands.XClaimOptions;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consumes the configured streams, handing every poll to the {@link EventListener} as a whole,
+ * so handlers can apply it in bulk.
+ * <p>
+ * Every instance joins the consumer group under its own name, and only consumes the streams it holds the
+ * {@link ConsumerLeases lease} of, up to its fair share of them. Adding instances spreads the streams among them,
+ * while entries of each stream are still handled one batch at a time, in order.
+ * Consumer groups are created if absent.
+ * <p>
+ * With {@link ConsumerConfig.Mode#PLATFORM_THREADS}, each stream is polled by its own platform thread.
+ * With {@link ConsumerConfig.Mode#VIRTUAL_THREADS}, a single thread polls every stream at once, and each batch is
+ * handled on a virtual thread. A stream is only polled again once its last batch is handled, so threads and connections
+ * stay flat however many streams are consumed, while its lease keeps being renewed meanwhile. Either way, batches adapt to the lag of each stream,
+ * see {@link AdaptiveBatchSize}. With {@link ConsumerConfig.Mode#REACTIVE}, streams are read by the
+ * {@link ReactiveStreamConsumer} instead, which still relies on this consumer for leases and acknowledgements.
+ * <p>
+ * Entries are acknowledged once the listener is done with them, failed ones are left pending for the
+ * {@link PendingReclaimer}. When this consumer acquires a stream, be it on startup or from a dead instance,
+ * the entries left pending by every consumer of the group are handled first.
+ */
+@Slf4j
+@Component
+class StreamConsumer implements SmartLifecycle {
+    private final RedisTemplate<String, byte[]> redis;
+    private final EventListener listener;
+    private final IdempotencyStore idempotencyStore;
+    private final ConsumerLeases leases;
+    private final ConsumerConfig config;
+    private final String consumerGroup;
+    private final String consumerName;
+    private final List<String> streams;
+    private final Set<String> owned = ConcurrentHashMap.newKeySet();
+    private final Map<String, AdaptiveBatchSize> batchSizes = new HashMap<>();
+    /** Streams with a batch being handled, when polling them all at once. */
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final Semaphore handled = new Semaphore(0);
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running;
+
+    StreamConsumer(
+        final RedisTemplate<String, byte[]> redis,
+        final EventListener listener,
+        final IdempotencyStore idempotencyStore,
+        final ConsumerLeases leases,
+        final ConsumerConfig config,
+        @Qualifier("consumerGroup") final String consumerGroup,
+        @Qualifier("consumerStreams") final List<String> streams
+    ) {
+        this.redis = redis;
+        this.listener = listener;
+        this.idempotencyStore = idempotencyStore;
+        this.leases = leases;
+        this.config = config;
+        this.consumerGroup = consumerGroup;
+        this.consumerName = config.name() != null && !config.name().isBlank()
+            ? config.name()
+            : consumerGroup + "-" + ManagementFactory.getRuntimeMXBean().getName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+        this.streams = streams;
+        for (val stream : streams) {
+            batchSizes.put(stream, new AdaptiveBatchSize(config.minBatchSize(), config.maxBatchSize()));
+        }
+    }
+
+    Consumer consumer() {
+        return Consumer.from(consumerGroup, consumerName);
+    }
+
+    String consumerGroup() {
+        return consumerGroup;
+    }
+
+    /**
+     * Whether this consumer currently owns the stream, so no other consumer of the group reads it.
+     */
+    boolean owns(final String stream) {
+        return owned.contains(stream);
+    }
+
+    private void consume(final String stream) {
+        createGroup(stream);
+        while (running) {
+            try {
+                if (!acquire(stream)) {
+                    Thread.sleep(config.pollTimeout());
+                    continue;
+                }
+                poll(stream);
+            } catch (final InterruptedException e) {
+                return;
+            } catch (final Exception e) {
+                if (!running) {
+                    return;
+                }
+                log.error("Error consuming stream {}", stream, e);
+                // The stream, along with its group, may have been deleted
+                createGroup(stream);
+                try {
+                    Thread.sleep(config.pollTimeout());
+                } catch (final InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Polls every owned stream in a single read, handing each batch to its own virtual thread.
+     */
+    private void consumeAll() {
+        streams.forEach(this::createGroup);
+        while (running) {
+            try {
+                final List<String> ready = new ArrayList<>(streams.size());
+                for (val stream : streams) {
+                    if (inFlight.contains(stream)) {
+                        renew(stream);
+                    } else if (acquire(stream)) {
+                        ready.add(stream);
+                    }
+                }
+                if (ready.isEmpty()) {
+                    awaitHandled();
+                    continue;
+                }
+                // While batches are being handled, don't block on idle streams, but wait for a batch to be done
+                val block = inFlight.isEmpty();
+                if (pollAll(ready, block) == 0 && !block) {
+                    awaitHandled();
+                }
+            } catch (final InterruptedException e) {
+                return;
+            } catch (final Exception e) {
+                if (!running) {
+                    return;
+                }
+                log.error("Error consuming streams {}", streams, e);
+                streams.forEach(this::createGroup);
+                try {
+                    Thread.sleep(config.pollTimeout());
+                } catch (final InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void awaitHandled() throws InterruptedException {
+        handled.tryAcquire(config.pollTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        handled.drainPermits();
+    }
+
+    /**
+     * Reads the next entries of every given stream in a single round trip, and hands the batch of each stream to
+     * a virtual thread. The stream stays in flight, and isn't polled, until its batch is handled.
+     *
+     * @param block whether to block up to the poll timeout while there are no entries.
+     * @return how many entries were read.
+     */
+    @SuppressWarnings("unchecked")
+    int pollAll(final List<String> ready, final boolean block) {
+        // The count applies to each stream, so the largest batch size of the polled streams is used
+        val count = ready.stream().mapToInt(stream -> batchSizes.get(stream).get()).max().orElse(config.minBatchSize());
+        val options = StreamReadOptions.empty().count(count);
+        final StreamOffset<String>[] offsets = ready.stream()
+            .map(stream -> StreamOffset.create(stream, ReadOffset.lastConsumed()))
+            .toArray(StreamOffset[]::new);
+        val records = redis.<String, byte[]>opsForStream().read(
+            consumer(),
+            block ? options.block(config.pollTimeout()) : options,
+            offsets
+        );
+
+        final Map<String, List<MapRecord<String, String, byte[]>>> byStream = new LinkedHashMap<>();
+        if (records != null) {
+            for (val record : records) {
+                byStream.computeIfAbsent(record.getStream(), s -> new ArrayList<>()).add(record);
+            }
+        }
+        for (val stream : ready) {
+            batchSizes.get(stream).record(byStream.getOrDefault(stream, List.of()).size());
+        }
+
+        byStream.forEach((stream, batch) -> {
+            inFlight.add(stream);
+            Thread.ofVirtual().name("stream-consumer-" + stream).start(() -> {
+                try {
+                    handle(stream, batch, false);
+                } catch (final Exception e) {
+                    log.error("Error handling {} entries of stream {}, leaving them pending", batch.size(), stream, e);
+                } finally {
+                    inFlight.remove(stream);
+                    handled.release();
+                }
+            });
+        });
+        return records == null ? 0 : records.size();
+    }
+
+    /**
+     * Acquires or renews the lease of the stream. When newly acquired, takes over the entries left pending on it.
+     * Streams past the fair share of this consumer are not acquired, and released if owned.
+     *
+     * @return whether this consumer owns the stream.
+     */
+    boolean acquire(final String stream) {
+        final boolean acquired;
+        // Streams are acquired by their own thread in PLATFORM_THREADS mode, so the share is checked and taken at once
+        synchronized (owned) {
+            val live = Math.max(1, leases.liveConsumers(consumerName));
+            val fairShare = (streams.size() + live - 1) / live;
+            if (owned.contains(stream) ? owned.size() > fairShare : owned.size() >= fairShare) {
+                if (owned.remove(stream)) {
+                    log.info("Consumer {} released stream {}, it owns more than its share", consumerName, stream);
+                    leases.release(stream, consumerName);
+                }
+                return false;
+            }
+            if (!leases.acquire(stream, consumerName)) {
+                if (owned.remove(stream)) {
+                    log.warn("Lost lease of stream {}, another consumer took it over", stream);
+                }
+                return false;
+            }
+            acquired = owned.add(stream);
+        }
+        if (acquired) {
+            log.info("Consumer {} acquired stream {}", consumerName, stream);
+            idempotencyStore.streamAcquired(stream);
+            try {
+                claimPending(stream);
+                recoverPending(stream);
+            } catch (final Exception e) {
+                log.error("Error recovering pending entries of stream {}, leaving them to the reclaimer", stream, e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Renews the lease of a stream with a batch being handled, so it doesn't expire under a slow batch.
+     * Unlike {@link #acquire}, it never takes over pending entries, as they may be the ones being handled.
+     *
+     * @return whether this consumer still owns the stream.
+     */
+    boolean renew(final String stream) {
+        leases.liveConsumers(consumerName);
+        if (leases.acquire(stream, consumerName)) {
+            return true;
+        }
+        if (owned.remove(stream)) {
+            log.warn("Lost lease of stream {} while handling a batch, another consumer took it over", stream);
+        }
+        return false;
+    }
+
+    /**
+     * Reads the next entries of the stream, if any, and hands them to the listener.
+     *
+     * @return how many entries were read.
+     */
+    @SuppressWarnings("unchecked")
+    int poll(final String stream) {
+        val batchSize = batchSizes.get(stream);
+        val records = redis.<String, byte[]>opsForStream().read(
+            consumer(),
+            StreamReadOptions.empty().count(batchSize.get()).block(config.pollTimeout()),
+            StreamOffset.create(stream, ReadOffset.lastConsumed())
+        );
+        batchSize.record(records == null ? 0 : records.size());
+        if (records == null || records.isEmpty()) {
+            return 0;
+        }
+
+        handle(stream, records, false);
+        return records.size();
+    }
+
+    /**
+     * Claims the entries left pending on the stream by other consumers, e.g. the previous owner of the stream,
+     * so they are handled before any new entry.
+     *
+     * @return how many entries were claimed.
+     */
+    int claimPending(final String stream) {
+        final StreamOperations<String, String, byte[]> ops = redis.opsForStream();
+        int claimed = 0;
+        Range<String> range = Range.unbounded();
+        while (true) {
+            val page = ops.pending(stream, consumerGroup, range, config.maxBatchSize());
+            val others = page.stream()
+                .filter(p -> !consumerName.equals(p.getConsumerName()))
+                .map(PendingMessage::getId)
+                .toArray(RecordId[]::new);
+            if (others.length > 0) {
+                claimed += ops.claim(stream, consumerGroup, consumerName, XClaimOptions.minIdle(Duration.ZERO).ids(others)).size();
+            }
+
+            if (page.size() < config.maxBatchSize()) {
+                break;
+            }
+            range = Range.rightUnbounded(Range.Bound.exclusive(page.get(page.size() - 1).getIdAsString()));
+        }
+        return claimed;
+    }
+
+    /**
+     * Handles the entries pending on this consumer, e.g. because it crashed mid-batch on its last run,
+     * or because they were just claimed from another consumer.
+     *
+     * @return how many entries were read.
+     */
+    @SuppressWarnings("unchecked")
+    int recoverPending(final String stream) {
+        int recovered = 0;
+        ReadOffset offset = ReadOffset.from("0");
+        while (true) {
+            val records = redis.<String, byte[]>opsForStream().read(
+                consumer(),
+                StreamReadOptions.empty().count(config.maxBatchSize()),
+                StreamOffset.create(stream, offset)
+            );
+            if (records == null || records.isEmpty()) {
+                break;
+            }
+
+            handle(stream, records, true);
+            recovered += records.size();
+            offset = ReadOffset.from(records.getLast().getId());
+        }
+        if (recovered > 0) {
+            log.info("Recovered {} pending entries of stream {}", recovered, stream);
+        }
+        return recovered;
+    }
+
+    /**
+     * Hands the records to the listener, and acknowledges the ones it's done with.
+     *
+     * @param redelivered whether the records were pending, instead of read for the first time.
+     * @return how many records were acknowledged.
+     */
+    int handle(final String stream, final List<MapRecord<String, String, byte[]>> records, final boolean redelivered) {
+        val done = redelivered ? listener.onReclaimed(records) : listener.onMessages(records);
+        if (!done.isEmpty()) {
+            redis.opsForStream().acknowledge(stream, consumerGroup, done.toArray(RecordId[]::new));
+        }
+        return done.size();
+    }
+
+    void createGroup(final String stream) {
+        try {
+            redis.opsForStream().createGroup(stream, ReadOffset.from("0"), consumerGroup);
+        } catch (final Exception e) {
+            // Group already exists
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        switch (config.mode()) {
+            case PLATFORM_THREADS -> {
+                for (val stream : streams) {
+                    workers.add(Thread.ofPlatform().name("stream-consumer-" + stream).daemon().start(() -> consume(stream)));
+                }
+            }
+            case VIRTUAL_THREADS -> workers.add(Thread.ofVirtual().name("stream-consumer").start(this::consumeAll));
+            case REACTIVE -> {
+                // Streams are read by the ReactiveStreamConsumer
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        workers.forEach(Thread::interrupt);
+        workers.clear();
+        for (val stream : streams) {
+            owned.remove(stream);
+            leases.release(stream, consumerName);
+        }
+        leases.leave(consumerName);
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
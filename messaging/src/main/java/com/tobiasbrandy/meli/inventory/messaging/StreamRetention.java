@@ -0,0 +1,163 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Keeps consumed Redis Streams bounded by their backlog rather than by their history.
+ * <p>
+ * Periodically trims every consumed stream up to the oldest entry some consumer group still needs:
+ * its oldest pending entry, or the one after its last delivered entry. The {@link StreamRetentionConfig} length
+ * and age caps are applied on top. Trimming is approximate (whole stream nodes), so a few extra entries may be kept.
+ */
+@Slf4j
+@Service
+public class StreamRetention {
+    /**
+     * Trims a stream and reports the trimmed entries and the bytes reclaimed, as estimated by {@code MEMORY USAGE}.
+     * ARGV[1] is the minimum id to keep (empty for none), ARGV[2] the max length (0 for none).
+     */
+    @SuppressWarnings("unchecked") // Integer replies come back as Long
+    static final RedisScript<List<Long>> TRIM_SCRIPT = (RedisScript<List<Long>>) (RedisScript<?>) new DefaultRedisScript<>("""
+        local before = redis.call('MEMORY', 'USAGE', KEYS[1]) or 0
+        local trimmed = 0
+        if ARGV[1] ~= '' then
+            trimmed = trimmed + redis.call('XTRIM', KEYS[1], 'MINID', '~', ARGV[1])
+        end
+        if tonumber(ARGV[2]) > 0 then
+            trimmed = trimmed + redis.call('XTRIM', KEYS[1], 'MAXLEN', '~', ARGV[2])
+        end
+        local after = redis.call('MEMORY', 'USAGE', KEYS[1]) or 0
+        return {trimmed, before - after}
+        """, List.class);
+
+    private static final Comparator<RecordId> ID_ORDER = Comparator
+        .comparing(RecordId::getTimestamp)
+        .thenComparing(RecordId::getSequence);
+
+    private final StreamRetentionConfig config;
+    private final StringRedisTemplate redis;
+    private final List<String> streams;
+    private final MeterRegistry meterRegistry;
+
+    public StreamRetention(
+        final StreamRetentionConfig config,
+        final StringRedisTemplate redis,
+        @Qualifier("consumerStreams") final List<String> streams,
+        final MeterRegistry meterRegistry
+    ) {
+        this.config = config;
+        this.redis = redis;
+        this.streams = streams;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Result of trimming a stream.
+     *
+     * @param trimmed entries removed.
+     * @param reclaimedBytes estimated memory released.
+     */
+    public record TrimResult(String stream, long trimmed, long reclaimedBytes) {
+    }
+
+    /**
+     * Trims every consumed stream.
+     *
+     * @return the estimated bytes reclaimed.
+     */
+    @Scheduled(fixedDelayString = "${streams.retention.interval}")
+    public long trim() {
+        if (!config.enabled()) {
+            return 0;
+        }
+
+        long reclaimed = 0;
+        for (val stream : streams) {
+            try {
+                val result = trim(stream);
+                reclaimed += result.reclaimedBytes();
+            } catch (final Exception e) {
+                log.error("Error trimming stream {}", stream, e);
+            }
+        }
+        return reclaimed;
+    }
+
+    TrimResult trim(final String stream) {
+        if (!Boolean.TRUE.equals(redis.hasKey(stream))) {
+            return new TrimResult(stream, 0, 0);
+        }
+
+        val consumed = consumedUpTo(stream);
+        var minId = consumed;
+        if (config.maxAge() != null) {
+            val ageCap = RecordId.of(Instant.now().minus(config.maxAge()).toEpochMilli(), 0);
+            if (minId == null || ID_ORDER.compare(ageCap, minId) > 0) {
+                if (minId != null) {
+                    log.warn("Consumers of stream {} lag behind its max age, dropping entries before {} unread", stream, ageCap);
+                }
+                minId = ageCap;
+            }
+        }
+
+        val reply = redis.execute(TRIM_SCRIPT, List.of(stream),
+            minId == null ? "" : minId.getValue(), String.valueOf(config.maxLength()));
+        val result = new TrimResult(
+            stream,
+            reply == null ? 0 : reply.get(0),
+            reply == null ? 0 : Math.max(0, reply.get(1))
+        );
+
+        if (result.trimmed() > 0) {
+            Counter.builder("streams.retention.trimmed")
+                .description("Entries trimmed from the stream")
+                .tag("stream", stream)
+                .register(meterRegistry)
+                .increment(result.trimmed());
+            Counter.builder("streams.retention.reclaimed")
+                .description("Estimated memory reclaimed by trimming the stream")
+                .baseUnit("bytes")
+                .tag("stream", stream)
+                .register(meterRegistry)
+                .increment(result.reclaimedBytes());
+            log.info("Trimmed {} entries from stream {}, reclaiming ~{} bytes", result.trimmed(), stream, result.reclaimedBytes());
+        }
+        return result;
+    }
+
+    /**
+     * Oldest entry of the stream still needed by some consumer group, or null if the stream has no groups.
+     */
+    private RecordId consumedUpTo(final String stream) {
+        final StreamInfo.XInfoGroups groups = redis.opsForStream().groups(stream);
+        RecordId min = null;
+        for (val group : groups.stream().toList()) {
+            final RecordId needed;
+            if (group.pendingCount() > 0) {
+                needed = RecordId.of(redis.opsForStream().pending(stream, group.groupName()).minMessageId());
+            } else {
+                val lastDelivered = RecordId.of(group.lastDeliveredId());
+                needed = RecordId.of(lastDelivered.getTimestamp(), lastDelivered.getSequence() + 1);
+            }
+            if (min == null || ID_ORDER.compare(needed, min) < 0) {
+                min = needed;
+            }
+        }
+        return min;
+    }
+}
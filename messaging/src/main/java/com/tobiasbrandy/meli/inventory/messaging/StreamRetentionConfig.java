@@ -0,0 +1,28 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Stream retention settings.
+ * <p>
+ * Consumed streams are trimmed up to the position every consumer group has acknowledged. On top of that,
+ * streams never keep more than {@code maxLength} entries (0 for no limit), nor entries older than {@code maxAge}
+ * (unset for no limit), even if some consumer group didn't read them yet.
+ */
+@ConfigurationProperties(prefix = "streams.retention")
+public record StreamRetentionConfig(
+    boolean enabled,
+    long maxLength,
+    Duration maxAge
+) {
+    public StreamRetentionConfig {
+        if (maxLength < 0) {
+            throw new IllegalArgumentException("Stream retention max length can't be negative");
+        }
+        if (maxAge != null && (maxAge.isNegative() || maxAge.isZero())) {
+            throw new IllegalArgumentException("Stream retention max age must be positive");
+        }
+    }
+}
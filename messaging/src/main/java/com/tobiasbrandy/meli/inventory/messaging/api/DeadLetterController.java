@@ -0,0 +1,54 @@
+package com.tobiasbrandy.meli.inventory.messaging.api;
+
+import com.tobiasbrandy.meli.inventory.messaging.DeadLetterQueue;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import org.springframework.http.HttpStatus;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Map;
+
+/**
+ * REST API for the dead-letter streams of the consumed streams.
+ * <p>
+ * Endpoints:
+ * <ul>
+ * <li>GET /dead-letters — dead-lettered entries per consumed stream</li>
+ * <li>POST /dead-letters/replay?stream={stream} — add the oldest dead-lettered entries back to their stream
+ * (defaults: count=100; maxcount=10000). Absolute inventory updates are skipped and stay dead-lettered, since
+ * replaying them could roll an item back past later updates.</li>
+ * </ul>
+ * Served by every server that consumes streams.
+ */
+@RestController
+@Validated
+@RequiredArgsConstructor
+public class DeadLetterController {
+    public static final int MAX_REPLAY_COUNT = 10_000;
+    public static final int DEFAULT_REPLAY_COUNT = 100;
+
+    private final DeadLetterQueue deadLetterQueue;
+
+    @GetMapping("/dead-letters")
+    public Map<String, Long> deadLetters() {
+        return deadLetterQueue.sizes();
+    }
+
+    public record Replayed(String stream, int replayed, int skipped) {}
+    @PostMapping("/dead-letters/replay")
+    public Replayed replay(
+        @RequestParam final String stream,
+        @RequestParam(required = false) @Min(1) @Max(MAX_REPLAY_COUNT) final Integer count
+    ) {
+        try {
+            val replay = deadLetterQueue.replay(stream, count == null ? DEFAULT_REPLAY_COUNT : count);
+            return new Replayed(stream, replay.replayed(), replay.skipped());
+        } catch (final IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import com.tobiasbrandy.meli.inventory.model.EventType;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemCreateEvent;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemRemotePurchaseEvent;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemUpdateEvent;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemsRemotePurchaseEvent;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryEventCodecTest {
+
+    private final BinaryEventCodec codec = new BinaryEventCodec(64);
+
+    @Test
+    void payloadsRoundTripForEveryType() {
+        final Map<EventType, Object> payloads = Map.of(
+                EventType.ECHO, "héllo",
+                EventType.INVENTORY_ITEM_CREATED, new InventoryItemCreateEvent("store-1", "p1"),
+                EventType.INVENTORY_ITEM_UPDATED, new InventoryItemUpdateEvent("store-1", "p1", 42),
+                EventType.INVENTORY_ITEM_REMOTE_PURCHASE, new InventoryItemRemotePurchaseEvent("store-1", "p1", -3),
+                EventType.INVENTORY_ITEMS_REMOTE_PURCHASE, new InventoryItemsRemotePurchaseEvent("store-1", List.of(
+                        new InventoryItemRemotePurchaseEvent("store-1", "p1", 2),
+                        new InventoryItemRemotePurchaseEvent("store-1", "p2", 5))));
+
+        payloads.forEach((type, payload) -> {
+            final var encoded = codec.encodePayload(type, payload);
+            assertTrue(BinaryEventCodec.isBinaryPayload(encoded));
+            assertEquals(payload, codec.decodePayload(type, encoded));
+        });
+    }
+
+    @Test
+    void largePayloadsAreCompressed() {
+        final var payload = "stock ".repeat(100);
+
+        final var encoded = codec.encodePayload(EventType.ECHO, payload);
+
+        assertTrue(encoded.length < payload.length() / 4);
+        assertEquals(payload, codec.decodePayload(EventType.ECHO, encoded));
+    }
+
+    @Test
+    void entriesRoundTripWithUuidAndPlainIds() {
+        final var createdAt = Instant.parse("2024-05-01T10:15:30.123456789Z");
+        final var payload = new InventoryItemUpdateEvent("store-1", "p1", 5);
+        final var encodedPayload = codec.encodePayload(EventType.INVENTORY_ITEM_UPDATED, payload);
+
+        for (final var eventId : new String[]{UUID.randomUUID().toString(), "event-1"}) {
+            final var entry = codec.encodeEntry(eventId, createdAt, EventType.INVENTORY_ITEM_UPDATED, encodedPayload);
+            assertTrue(entry.containsKey(BinaryEventCodec.ENTRY_FIELD));
+
+            final var event = codec.decodeEntry("stream", entry);
+            assertEquals("stream", event.stream());
+            assertEquals(eventId, event.id());
+            assertEquals(createdAt, event.createdAt());
+            assertEquals(EventType.INVENTORY_ITEM_UPDATED, event.type());
+            assertEquals(payload, event.payload());
+        }
+    }
+
+    @Test
+    void rejectsMalformedData() {
+        final var encoded = codec.encodePayload(EventType.INVENTORY_ITEM_CREATED, new InventoryItemCreateEvent("store-1", "p1"));
+        final var entry = codec.encodeEntry(UUID.randomUUID().toString(), Instant.now(), EventType.INVENTORY_ITEM_CREATED, encoded);
+        final var truncatedEntry = Map.of(BinaryEventCodec.ENTRY_FIELD, Arrays.copyOf(entry.get(BinaryEventCodec.ENTRY_FIELD), 10));
+
+        assertThrows(IllegalArgumentException.class, () -> codec.decodePayload(EventType.INVENTORY_ITEM_CREATED, "{}".getBytes()));
+        assertThrows(IllegalArgumentException.class,
+                () -> codec.decodePayload(EventType.INVENTORY_ITEM_CREATED, Arrays.copyOf(encoded, encoded.length - 1)));
+        assertThrows(IllegalArgumentException.class, () -> codec.decodeEntry("stream", truncatedEntry));
+        assertThrows(IllegalArgumentException.class,
+                () -> codec.encodePayload(EventType.INVENTORY_ITEM_CREATED, new InventoryItemUpdateEvent("store-1", "p1", 1)));
+    }
+}
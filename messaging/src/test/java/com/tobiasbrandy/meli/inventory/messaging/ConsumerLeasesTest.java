@@ -0,0 +1,90 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ConsumerLeasesTest {
+
+    private StringRedisTemplate redis;
+    private ConsumerLeases leases;
+
+    @BeforeEach
+    void setUp() {
+        redis = mock(StringRedisTemplate.class);
+        leases = new ConsumerLeases(redis,
+                new ConsumerConfig(10, 100, Duration.ofSeconds(1), Duration.ofSeconds(10), "me", Duration.ofSeconds(30), ConsumerConfig.Mode.PLATFORM_THREADS, 4, 1), "group");
+    }
+
+    private void givenAcquireReturns(final Long result) {
+        when(redis.execute(eq(ConsumerLeases.ACQUIRE_SCRIPT), anyList(), any(), any())).thenReturn(result);
+    }
+
+    @Test
+    void acquire_claimsLeaseForTheConsumer() {
+        givenAcquireReturns(1L);
+
+        assertTrue(leases.acquire("s", "me"));
+        verify(redis).execute(ConsumerLeases.ACQUIRE_SCRIPT, List.of("consumer:lease:group:s"), "me", "30000");
+    }
+
+    @Test
+    void acquire_renewsOnlyPastHalfTheTimeout() {
+        givenAcquireReturns(1L);
+
+        assertTrue(leases.acquire("s", "me"));
+        assertTrue(leases.acquire("s", "me"));
+
+        verify(redis, times(1)).execute(eq(ConsumerLeases.ACQUIRE_SCRIPT), anyList(), any(), any());
+    }
+
+    @Test
+    void acquire_failsWhileAnotherConsumerHoldsTheLease() {
+        givenAcquireReturns(0L);
+
+        assertFalse(leases.acquire("s", "me"));
+    }
+
+    @Test
+    void acquire_failsWhenRedisIsDown() {
+        when(redis.execute(eq(ConsumerLeases.ACQUIRE_SCRIPT), anyList(), any(), any())).thenThrow(new RuntimeException("boom"));
+
+        assertFalse(leases.acquire("s", "me"));
+    }
+
+    @Test
+    void liveConsumers_heartbeatsOnlyPastHalfTheTimeout() {
+        when(redis.execute(eq(ConsumerLeases.HEARTBEAT_SCRIPT), anyList(), any(), any(), any(), any())).thenReturn(3L);
+
+        assertEquals(3, leases.liveConsumers("me"));
+        assertEquals(3, leases.liveConsumers("me"));
+
+        verify(redis, times(1)).execute(eq(ConsumerLeases.HEARTBEAT_SCRIPT), eq(List.of("consumer:members:group")),
+                eq("me"), any(), any(), eq("30000"));
+    }
+
+    @Test
+    void liveConsumers_countsItselfWhenRedisIsDown() {
+        when(redis.execute(eq(ConsumerLeases.HEARTBEAT_SCRIPT), anyList(), any(), any(), any(), any())).thenThrow(new RuntimeException("boom"));
+
+        assertEquals(1, leases.liveConsumers("me"));
+    }
+
+    @Test
+    void release_onlyDeletesHeldLeases() {
+        leases.release("s", "me");
+        verifyNoInteractions(redis);
+
+        givenAcquireReturns(1L);
+        leases.acquire("s", "me");
+        leases.release("s", "me");
+        verify(redis).execute(ConsumerLeases.RELEASE_SCRIPT, List.of("consumer:lease:group:s"), "me");
+    }
+}
@@ -0,0 +1,150 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Consumption of many streams with an artificially slow handler, for every {@link ConsumerConfig.Mode},
+ * against a local Redis (localhost:6379).
+ * <p>
+ * Handling a batch takes {@value #BATCH_COST_MILLIS}ms per batch being handled at the same time, like a database that
+ * slows down under concurrent load. Reports throughput and the peak of batches handled at once.
+ * Run with {@code ./mvnw -pl messaging test -Dtest=ConsumerModeBenchmark -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class ConsumerModeBenchmark {
+    private static final int STREAMS = 32;
+    private static final int ENTRIES_PER_STREAM = 2_000;
+    private static final int BATCH_COST_MILLIS = 2;
+    private static final String GROUP = "benchmark-mode-group";
+    private static final String STREAM_PREFIX = "benchmark:mode:stream:";
+    private static final byte[] ENTRY = "{\"storeId\":\"store-1\",\"productId\":\"p1\",\"quantity\":10}".getBytes(StandardCharsets.UTF_8);
+
+    private static LettuceConnectionFactory connectionFactory;
+    private static RedisTemplate<String, byte[]> redis;
+    private static StringRedisTemplate stringRedis;
+
+    @BeforeAll
+    static void connect() {
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("localhost", 6379));
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        redis = new RedisTemplate<>();
+        redis.setConnectionFactory(connectionFactory);
+        redis.setKeySerializer(RedisSerializer.string());
+        redis.setHashKeySerializer(RedisSerializer.string());
+        redis.setHashValueSerializer(RedisSerializer.byteArray());
+        redis.afterPropertiesSet();
+        stringRedis = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void disconnect() {
+        redis.delete(streams());
+        connectionFactory.destroy();
+    }
+
+    private static List<String> streams() {
+        final List<String> streams = new ArrayList<>();
+        for (int i = 0; i < STREAMS; i++) {
+            streams.add(STREAM_PREFIX + i);
+        }
+        return streams;
+    }
+
+    @Test
+    void platformThreads() throws InterruptedException {
+        run(ConsumerConfig.Mode.PLATFORM_THREADS);
+    }
+
+    @Test
+    void virtualThreads() throws InterruptedException {
+        run(ConsumerConfig.Mode.VIRTUAL_THREADS);
+    }
+
+    @Test
+    void reactive() throws InterruptedException {
+        run(ConsumerConfig.Mode.REACTIVE);
+    }
+
+    private void run(final ConsumerConfig.Mode mode) throws InterruptedException {
+        redis.delete(streams());
+        produce();
+
+        final var config = new ConsumerConfig(10, 100, Duration.ofMillis(100), Duration.ofSeconds(10), null, Duration.ofSeconds(1), mode, 4, 1);
+        final var handled = new AtomicInteger();
+        final var handling = new AtomicInteger();
+        final var peakHandling = new AtomicInteger();
+        final var consumer = new StreamConsumer(redis, slowListener(handled, handling, peakHandling), mock(IdempotencyStore.class),
+            new ConsumerLeases(stringRedis, config, GROUP), config, GROUP, streams());
+        final var reactive = new ReactiveStreamConsumer(connectionFactory, consumer, config, streams());
+
+        final long start = System.nanoTime();
+        consumer.start();
+        reactive.start();
+        while (handled.get() < STREAMS * ENTRIES_PER_STREAM) {
+            Thread.sleep(1);
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        reactive.stop();
+        reactive.close();
+        consumer.stop();
+
+        assertEquals(STREAMS * ENTRIES_PER_STREAM, handled.get());
+        System.out.printf("[%s] consumed %d entries in %.2fs: %.0f entries/s, at most %d batches handled at once%n",
+            mode, handled.get(), seconds, handled.get() / seconds, peakHandling.get());
+    }
+
+    private static EventListener slowListener(final AtomicInteger handled, final AtomicInteger handling, final AtomicInteger peakHandling) {
+        final var listener = mock(EventListener.class);
+        when(listener.onMessages(anyList())).thenAnswer(inv -> {
+            final List<MapRecord<String, String, byte[]>> records = inv.getArgument(0);
+            final int concurrent = handling.incrementAndGet();
+            peakHandling.accumulateAndGet(concurrent, Math::max);
+            try {
+                LockSupport.parkNanos(Duration.ofMillis((long) BATCH_COST_MILLIS * concurrent).toNanos());
+            } finally {
+                handling.decrementAndGet();
+            }
+            handled.addAndGet(records.size());
+            return records.stream().map(MapRecord::getId).toList();
+        });
+        when(listener.onReclaimed(anyList())).thenReturn(List.of());
+        return listener;
+    }
+
+    private static void produce() {
+        redis.executePipelined((RedisCallback<Object>) connection -> {
+            for (int n = 0; n < ENTRIES_PER_STREAM; n++) {
+                for (final var stream : streams()) {
+                    connection.streamCommands().xAdd(StreamRecords.rawBytes(Map.of("e".getBytes(StandardCharsets.UTF_8), ENTRY))
+                        .withStreamKey(stream.getBytes(StandardCharsets.UTF_8)));
+                }
+            }
+            return null;
+        });
+    }
+}
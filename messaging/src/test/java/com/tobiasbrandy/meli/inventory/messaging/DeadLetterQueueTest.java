@@ -0,0 +1,132 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tobiasbrandy.meli.inventory.model.EventType;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemRemotePurchaseEvent;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemUpdateEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.RedisStreamCommands.XAddOptions;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StreamOperations;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class DeadLetterQueueTest {
+
+    private StreamOperations<String, String, byte[]> streamOps;
+    private SimpleMeterRegistry meterRegistry;
+    private EventCodec codec;
+    private DeadLetterQueue deadLetterQueue;
+
+    @SuppressWarnings("unchecked")
+    @BeforeEach
+    void setUp() {
+        final RedisTemplate<String, byte[]> redis = mock(RedisTemplate.class);
+        streamOps = mock(StreamOperations.class);
+        meterRegistry = new SimpleMeterRegistry();
+        when(redis.opsForStream()).thenReturn((StreamOperations) streamOps);
+        codec = new DelegatingEventCodec(new ObjectMapper(), new EventCodecConfig(EventCodecConfig.Format.BINARY, 512));
+        deadLetterQueue = new DeadLetterQueue(redis, new DeadLetterConfig(3, Duration.ofMinutes(1), 1000), codec, List.of("s"), meterRegistry);
+    }
+
+    private static String string(final byte[] value) {
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void deadLettersWithTheLastRecordedFailure() {
+        final var entry = MapRecord.create("s", Map.of("e", new byte[]{1})).withId(RecordId.of("1-0"));
+        deadLetterQueue.recordFailure(entry, new IllegalStateException("boom"));
+
+        assertTrue(deadLetterQueue.deadLetter(entry, 3, null));
+
+        final ArgumentCaptor<MapRecord<String, String, byte[]>> added = ArgumentCaptor.forClass(MapRecord.class);
+        final var options = ArgumentCaptor.forClass(XAddOptions.class);
+        verify(streamOps).add(added.capture(), options.capture());
+        assertEquals("s:dead-letter", added.getValue().getStream());
+        assertArrayEquals(new byte[]{1}, added.getValue().getValue().get("e"));
+        assertEquals("s", string(added.getValue().getValue().get("dead-letter.stream")));
+        assertEquals("1-0", string(added.getValue().getValue().get("dead-letter.id")));
+        assertEquals("3", string(added.getValue().getValue().get("dead-letter.deliveries")));
+        assertEquals("java.lang.IllegalStateException: boom", string(added.getValue().getValue().get("dead-letter.error")));
+        assertEquals(1000L, options.getValue().getMaxlen());
+        assertEquals(1.0, meterRegistry.get("consumer.dead.lettered").tag("stream", "s").counter().count());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void failedWriteIsReported() {
+        when(streamOps.add(any(MapRecord.class), any(XAddOptions.class))).thenThrow(new RuntimeException("down"));
+
+        assertFalse(deadLetterQueue.deadLetter(MapRecord.create("s", Map.of("e", new byte[]{1})).withId(RecordId.of("1-0")), 1, "bad"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void replaysOriginalFieldsAndRemovesThemFromTheDeadLetterStream() {
+        final var deadLettered = MapRecord.create("s:dead-letter", Map.of(
+                "e", new byte[]{1},
+                "dead-letter.error", "boom".getBytes(StandardCharsets.UTF_8))).withId(RecordId.of("5-0"));
+        when(streamOps.range(eq("s:dead-letter"), any(Range.class), any(Limit.class))).thenReturn(List.of(deadLettered), List.of());
+
+        assertEquals(new DeadLetterQueue.Replay(1, 0), deadLetterQueue.replay("s", 10));
+
+        final ArgumentCaptor<MapRecord<String, String, byte[]>> added = ArgumentCaptor.forClass(MapRecord.class);
+        verify(streamOps).add(added.capture());
+        assertEquals("s", added.getValue().getStream());
+        assertEquals(1, added.getValue().getValue().size());
+        assertArrayEquals(new byte[]{1}, added.getValue().getValue().get("e"));
+        verify(streamOps).delete("s:dead-letter", RecordId.of("5-0"));
+    }
+
+    @Test
+    void onlyConsumedStreamsCanBeReplayed() {
+        assertThrows(IllegalArgumentException.class, () -> deadLetterQueue.replay("other", 10));
+    }
+
+    private MapRecord<String, String, byte[]> deadLettered(final String id, final EventType type, final Object payload) {
+        final Map<String, byte[]> fields = new HashMap<>(codec.encodeEntry(id, Instant.now(), type, codec.encodePayload(type, payload)));
+        fields.put("dead-letter.error", "boom".getBytes(StandardCharsets.UTF_8));
+        return MapRecord.create("s:dead-letter", fields).withId(RecordId.of(id + "-0"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void absoluteUpdatesAreSkippedAndLeftDeadLettered() {
+        final var update = deadLettered("1", EventType.INVENTORY_ITEM_UPDATED, new InventoryItemUpdateEvent("store-1", "p1", 5));
+        final var purchase = deadLettered("2", EventType.INVENTORY_ITEM_REMOTE_PURCHASE, new InventoryItemRemotePurchaseEvent("store-1", "p1", 2));
+        final var laterPurchase = deadLettered("3", EventType.INVENTORY_ITEM_REMOTE_PURCHASE, new InventoryItemRemotePurchaseEvent("store-1", "p2", 1));
+        when(streamOps.range(eq("s:dead-letter"), any(Range.class), any(Limit.class)))
+                .thenReturn(List.of(update, purchase), List.of(laterPurchase));
+
+        assertEquals(new DeadLetterQueue.Replay(2, 1), deadLetterQueue.replay("s", 2));
+
+        verify(streamOps, times(2)).add(any(MapRecord.class));
+        verify(streamOps, never()).delete("s:dead-letter", RecordId.of("1-0"));
+        verify(streamOps).delete("s:dead-letter", RecordId.of("2-0"));
+        verify(streamOps).delete("s:dead-letter", RecordId.of("3-0"));
+        // The second page starts past the skipped entries
+        final ArgumentCaptor<Range<String>> ranges = ArgumentCaptor.forClass(Range.class);
+        final ArgumentCaptor<Limit> limits = ArgumentCaptor.forClass(Limit.class);
+        verify(streamOps, times(2)).range(eq("s:dead-letter"), ranges.capture(), limits.capture());
+        assertEquals(Range.rightUnbounded(Range.Bound.exclusive("2-0")), ranges.getAllValues().get(1));
+        assertEquals(1, limits.getAllValues().get(1).getCount());
+    }
+}
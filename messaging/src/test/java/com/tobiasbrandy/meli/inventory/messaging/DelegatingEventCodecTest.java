@@ -0,0 +1,65 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tobiasbrandy.meli.inventory.model.EventType;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemUpdateEvent;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DelegatingEventCodecTest {
+
+    private static final InventoryItemUpdateEvent PAYLOAD = new InventoryItemUpdateEvent("store-1", "p1", 5);
+
+    private static DelegatingEventCodec codec(final EventCodecConfig.Format format) {
+        return new DelegatingEventCodec(new ObjectMapper(), new EventCodecConfig(format, 512));
+    }
+
+    @Test
+    void encodesWithConfiguredFormat() {
+        final var json = codec(EventCodecConfig.Format.JSON).encodePayload(EventType.INVENTORY_ITEM_UPDATED, PAYLOAD);
+        final var binary = codec(EventCodecConfig.Format.BINARY).encodePayload(EventType.INVENTORY_ITEM_UPDATED, PAYLOAD);
+
+        assertEquals('{', json[0]);
+        assertTrue(BinaryEventCodec.isBinaryPayload(binary));
+        assertTrue(binary.length < json.length);
+    }
+
+    @Test
+    void decodesEveryFormatRegardlessOfConfiguration() {
+        final var json = codec(EventCodecConfig.Format.JSON);
+        final var binary = codec(EventCodecConfig.Format.BINARY);
+        final var createdAt = Instant.now();
+
+        for (final var encoder : new DelegatingEventCodec[]{json, binary}) {
+            final var payload = encoder.encodePayload(EventType.INVENTORY_ITEM_UPDATED, PAYLOAD);
+            final var entry = encoder.encodeEntry("event-1", createdAt, EventType.INVENTORY_ITEM_UPDATED, payload);
+            for (final var decoder : new DelegatingEventCodec[]{json, binary}) {
+                assertEquals(PAYLOAD, decoder.decodePayload(EventType.INVENTORY_ITEM_UPDATED, payload));
+                final var event = decoder.decodeEntry("stream", entry);
+                assertEquals("event-1", event.id());
+                assertEquals(createdAt, event.createdAt());
+                assertEquals(PAYLOAD, event.payload());
+            }
+        }
+    }
+
+    @Test
+    void transcodesPayloadsStoredWithAnotherFormat() {
+        final var json = codec(EventCodecConfig.Format.JSON);
+        final var binary = codec(EventCodecConfig.Format.BINARY);
+
+        final var storedAsJson = json.encodePayload(EventType.INVENTORY_ITEM_UPDATED, PAYLOAD);
+        final var binaryEntry = binary.encodeEntry("event-1", Instant.now(), EventType.INVENTORY_ITEM_UPDATED, storedAsJson);
+        assertEquals(Set.of(BinaryEventCodec.ENTRY_FIELD), binaryEntry.keySet());
+        assertEquals(PAYLOAD, binary.decodeEntry("stream", binaryEntry).payload());
+
+        final var storedAsBinary = binary.encodePayload(EventType.INVENTORY_ITEM_UPDATED, PAYLOAD);
+        final var jsonEntry = json.encodeEntry("event-1", Instant.now(), EventType.INVENTORY_ITEM_UPDATED, storedAsBinary);
+        assertEquals('{', jsonEntry.get("payload")[0]);
+        assertEquals(PAYLOAD, json.decodeEntry("stream", jsonEntry).payload());
+    }
+}
@@ -0,0 +1,123 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tobiasbrandy.meli.inventory.model.Event;
+import com.tobiasbrandy.meli.inventory.model.EventType;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemUpdateEvent;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.ToIntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Size and speed of every event codec format, for a typical item update.
+ * <p>
+ * Entry size counts field names and values, which is what a stream entry costs in Redis on top of its fixed overhead.
+ * Decoding also reports the bytes allocated per event, and is compared against the former JSON decoding path, which
+ * parsed every field as a string and looked up the payload deserializer on every entry.
+ * Run with {@code ./mvnw -pl messaging test -Dtest=EventCodecBenchmark -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class EventCodecBenchmark {
+    private static final int WARMUP = 200_000;
+    private static final int ITERATIONS = 1_000_000;
+    private static final InventoryItemUpdateEvent PAYLOAD = new InventoryItemUpdateEvent("store-1", "product-12345", 42);
+
+    @Test
+    void json() {
+        run(EventCodecConfig.Format.JSON);
+    }
+
+    @Test
+    void binary() {
+        run(EventCodecConfig.Format.BINARY);
+    }
+
+    @Test
+    void formerJsonDecoding() {
+        final var mapper = new ObjectMapper();
+        final var codec = new DelegatingEventCodec(mapper, new EventCodecConfig(EventCodecConfig.Format.JSON, 512));
+        final var entry = encode(codec, UUID.randomUUID().toString(), Instant.now());
+        assertEquals(PAYLOAD, formerJsonDecode(mapper, entry).payload());
+
+        final var decode = measure(e -> formerJsonDecode(mapper, e).id().length(), entry);
+        System.out.printf("[former JSON] decode %.0f ns/event, %.0f bytes/event%n", decode[0], decode[1]);
+    }
+
+    private static void run(final EventCodecConfig.Format format) {
+        final var codec = new DelegatingEventCodec(new ObjectMapper(), new EventCodecConfig(format, 512));
+        final var eventId = UUID.randomUUID().toString();
+        final var createdAt = Instant.now();
+
+        final var payload = codec.encodePayload(EventType.INVENTORY_ITEM_UPDATED, PAYLOAD);
+        final var entry = codec.encodeEntry(eventId, createdAt, EventType.INVENTORY_ITEM_UPDATED, payload);
+        assertEquals(PAYLOAD, codec.decodeEntry("stream", entry).payload());
+
+        final var encode = measure(e -> encode(codec, eventId, createdAt).size(), entry);
+        final var decode = measure(e -> codec.decodeEntry("stream", e).id().length(), entry);
+        System.out.printf("[%s] payload %d bytes, entry %d bytes, encode %.0f ns/event, decode %.0f ns/event, %.0f bytes/event%n",
+            format, payload.length, entrySize(entry), encode[0], decode[0], decode[1]);
+    }
+
+    /**
+     * Runs the operation after warming it up.
+     *
+     * @return nanos and bytes allocated, per operation.
+     */
+    private static double[] measure(final ToIntFunction<Map<String, byte[]>> op, final Map<String, byte[]> entry) {
+        final var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final var thread = Thread.currentThread().threadId();
+
+        long sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += op.applyAsInt(entry);
+        }
+
+        final long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += op.applyAsInt(entry);
+        }
+        final long nanos = System.nanoTime() - start;
+        final long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+
+        if (sink == 42) {
+            System.out.println(sink);
+        }
+        return new double[]{(double) nanos / ITERATIONS, (double) allocated / ITERATIONS};
+    }
+
+    /**
+     * JSON entry decoding as done before payload readers were cached per event type.
+     */
+    private static Event<Object> formerJsonDecode(final ObjectMapper mapper, final Map<String, byte[]> entry) {
+        final var type = EventType.valueOf(new String(entry.get("type"), StandardCharsets.UTF_8));
+        final var createdAt = Instant.parse(new String(entry.get("createdAt"), StandardCharsets.UTF_8));
+        try {
+            final Object payload = mapper.readValue(new String(entry.get("payload"), StandardCharsets.UTF_8), type.getPayloadType());
+            return new Event<>("stream", new String(entry.get("id"), StandardCharsets.UTF_8), createdAt, type, payload);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Map<String, byte[]> encode(final EventCodec codec, final String eventId, final Instant createdAt) {
+        final var payload = codec.encodePayload(EventType.INVENTORY_ITEM_UPDATED, PAYLOAD);
+        return codec.encodeEntry(eventId, createdAt, EventType.INVENTORY_ITEM_UPDATED, payload);
+    }
+
+    private static int entrySize(final Map<String, byte[]> entry) {
+        return entry.entrySet().stream()
+            .mapToInt(e -> e.getKey().getBytes(StandardCharsets.UTF_8).length + e.getValue().length)
+            .sum();
+    }
+}
@@ -4,17 +4,28 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.tobiasbrandy.meli.inventory.model.Event;
 import com.tobiasbrandy.meli.inventory.model.EventType;
 import com.tobiasbrandy.meli.inventory.model.InventoryItemCreateEvent;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemRemotePurchaseEvent;
 import com.tobiasbrandy.meli.inventory.model.InventoryItemUpdateEvent;
+import com.tobiasbrandy.meli.inventory.model.OutboxEvent;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.data.redis.connection.stream.MapRecord;
-import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.connection.stream.RecordId;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -22,17 +33,35 @@ import static org.mockito.Mockito.*;
 
 class EventListenerTest {
 
-    private StringRedisTemplate redis;
-    private ValueOperations<String, String> valueOps;
-    private ObjectMapper mapper;
+    private IdempotencyStore idempotencyStore;
+    private DeadLetterQueue deadLetterQueue;
+    private EventCodec codec;
+    private SimpleMeterRegistry meterRegistry;
 
-    @SuppressWarnings("unchecked")
     @BeforeEach
     void setUp() {
-        redis = mock(StringRedisTemplate.class);
-        valueOps = mock(ValueOperations.class);
-        when(redis.opsForValue()).thenReturn(valueOps);
-        mapper = new ObjectMapper();
+        idempotencyStore = mock(IdempotencyStore.class);
+        deadLetterQueue = mock(DeadLetterQueue.class);
+        meterRegistry = new SimpleMeterRegistry();
+        when(deadLetterQueue.deadLetter(any(), anyLong(), any())).thenReturn(true);
+        codec = new DelegatingEventCodec(new ObjectMapper(), new EventCodecConfig(EventCodecConfig.Format.JSON, 512));
+    }
+
+    private static ConsumerConfig config(final int dispatchParallelism) {
+        return new ConsumerConfig(10, 100, Duration.ofSeconds(1), Duration.ofSeconds(10), "me", Duration.ofSeconds(30),
+                ConsumerConfig.Mode.PLATFORM_THREADS, 4, dispatchParallelism);
+    }
+
+    private static MapRecord<String, String, byte[]> jsonRecord(final String type, final String payload) {
+        return jsonRecord("event-1", type, payload);
+    }
+
+    private static MapRecord<String, String, byte[]> jsonRecord(final String eventId, final String type, final String payload) {
+        return MapRecord.create("stream", Map.of(
+                "id", eventId.getBytes(StandardCharsets.UTF_8),
+                "createdAt", Instant.now().toString().getBytes(StandardCharsets.UTF_8),
+                "type", type.getBytes(StandardCharsets.UTF_8),
+                "payload", payload.getBytes(StandardCharsets.UTF_8)));
     }
 
     @Test
@@ -40,45 +69,32 @@ class EventListenerTest {
         var counter = new AtomicInteger(0);
         var handler = EventHandler.ofPayload(EventType.INVENTORY_ITEM_CREATED, InventoryItemCreateEvent.class,
                 e -> counter.incrementAndGet());
-        var listener = new EventListener(java.util.List.of(handler), mapper, redis);
+        var listener = new EventListener(java.util.List.of(handler), codec, idempotencyStore, deadLetterQueue, config(1), meterRegistry);
 
-        when(valueOps.setIfAbsent(anyString(), anyString())).thenReturn(false);
+        when(idempotencyStore.isDuplicate(eq("stream"), any(), eq("event-1"))).thenReturn(true);
 
-        var record = MapRecord.create("stream", Map.of(
-                "id", "event-1",
-                "createdAt", Instant.now().toString(),
-                "type", EventType.INVENTORY_ITEM_CREATED.name(),
-                "payload", "{\"storeId\":\"s\",\"productId\":\"p\"}"));
+        var record = jsonRecord(EventType.INVENTORY_ITEM_CREATED.name(), "{\"storeId\":\"s\",\"productId\":\"p\"}");
 
         listener.onMessage(record);
 
         assertEquals(0, counter.get());
+        verify(idempotencyStore, never()).markProcessed(anyString(), any(), anyString());
     }
 
     @Test
     void throwsOnInvalidEventType() {
-        var listener = new EventListener(java.util.List.of(), mapper, redis);
-        when(valueOps.setIfAbsent(anyString(), anyString())).thenReturn(true);
+        var listener = new EventListener(java.util.List.of(), codec, idempotencyStore, deadLetterQueue, config(1), meterRegistry);
 
-        var record = MapRecord.create("stream", Map.of(
-                "id", "event-1",
-                "createdAt", Instant.now().toString(),
-                "type", "UNKNOWN",
-                "payload", "{}"));
+        var record = jsonRecord("UNKNOWN", "{}");
 
         assertThrows(IllegalArgumentException.class, () -> listener.onMessage(record));
     }
 
     @Test
     void throwsWhenHandlerNotFound() {
-        var listener = new EventListener(java.util.List.of(), mapper, redis);
-        when(valueOps.setIfAbsent(anyString(), anyString())).thenReturn(true);
+        var listener = new EventListener(java.util.List.of(), codec, idempotencyStore, deadLetterQueue, config(1), meterRegistry);
 
-        var record = MapRecord.create("stream", Map.of(
-                "id", "event-1",
-                "createdAt", Instant.now().toString(),
-                "type", EventType.INVENTORY_ITEM_CREATED.name(),
-                "payload", "{\"storeId\":\"s\",\"productId\":\"p\"}"));
+        var record = jsonRecord(EventType.INVENTORY_ITEM_CREATED.name(), "{\"storeId\":\"s\",\"productId\":\"p\"}");
 
         assertThrows(IllegalArgumentException.class, () -> listener.onMessage(record));
     }
@@ -89,14 +105,9 @@ class EventListenerTest {
         var badHandler = EventHandler.of(EventType.INVENTORY_ITEM_CREATED, InventoryItemUpdateEvent.class,
                 (Event<InventoryItemUpdateEvent> e) -> {
                 });
-        var listener = new EventListener(java.util.List.of(badHandler), mapper, redis);
-        when(valueOps.setIfAbsent(anyString(), anyString())).thenReturn(true);
+        var listener = new EventListener(java.util.List.of(badHandler), codec, idempotencyStore, deadLetterQueue, config(1), meterRegistry);
 
-        var record = MapRecord.create("stream", Map.of(
-                "id", "event-1",
-                "createdAt", Instant.now().toString(),
-                "type", EventType.INVENTORY_ITEM_CREATED.name(),
-                "payload", "{\"storeId\":\"s\",\"productId\":\"p\"}"));
+        var record = jsonRecord(EventType.INVENTORY_ITEM_CREATED.name(), "{\"storeId\":\"s\",\"productId\":\"p\"}");
 
         assertThrows(IllegalArgumentException.class, () -> listener.onMessage(record));
     }
@@ -106,15 +117,10 @@ class EventListenerTest {
         var payloadRef = new AtomicReference<InventoryItemCreateEvent>();
         var handler = EventHandler.ofPayload(EventType.INVENTORY_ITEM_CREATED, InventoryItemCreateEvent.class,
                 payloadRef::set);
-        var listener = new EventListener(java.util.List.of(handler), mapper, redis);
-        when(valueOps.setIfAbsent(anyString(), anyString())).thenReturn(true);
+        var listener = new EventListener(java.util.List.of(handler), codec, idempotencyStore, deadLetterQueue, config(1), meterRegistry);
 
         var payloadJson = "{\"storeId\":\"s\",\"productId\":\"p\"}";
-        var record = MapRecord.create("stream", Map.of(
-                "id", "event-1",
-                "createdAt", Instant.now().toString(),
-                "type", EventType.INVENTORY_ITEM_CREATED.name(),
-                "payload", payloadJson));
+        var record = jsonRecord(EventType.INVENTORY_ITEM_CREATED.name(), payloadJson);
 
         listener.onMessage(record);
 
@@ -122,4 +128,262 @@ class EventListenerTest {
         assertEquals("s", payloadRef.get().storeId());
         assertEquals("p", payloadRef.get().productId());
     }
+
+    @Test
+    void decodesBinaryEntries() {
+        var payloadRef = new AtomicReference<InventoryItemUpdateEvent>();
+        var handler = EventHandler.ofPayload(EventType.INVENTORY_ITEM_UPDATED, InventoryItemUpdateEvent.class,
+                payloadRef::set);
+        var listener = new EventListener(java.util.List.of(handler), codec, idempotencyStore, deadLetterQueue, config(1), meterRegistry);
+
+        var binary = new DelegatingEventCodec(new ObjectMapper(), new EventCodecConfig(EventCodecConfig.Format.BINARY, 512));
+        var payload = new InventoryItemUpdateEvent("s", "p", 7);
+        var outboxEvent = new OutboxEvent("stream", EventType.INVENTORY_ITEM_UPDATED,
+                binary.encodePayload(EventType.INVENTORY_ITEM_UPDATED, payload));
+        var record = MapRecord.create("stream", binary.encodeEntry(outboxEvent.getEventId(), outboxEvent.getCreatedAt(),
+                outboxEvent.getType(), outboxEvent.getPayload()));
+
+        listener.onMessage(record);
+
+        assertEquals(payload, payloadRef.get());
+        verify(idempotencyStore).markProcessed("stream", record.getId(), outboxEvent.getEventId());
+    }
+
+    @Test
+    void failedEventIsNotMarkedAsProcessed() {
+        var handler = EventHandler.ofPayload(EventType.INVENTORY_ITEM_CREATED, InventoryItemCreateEvent.class,
+                e -> {
+                    throw new IllegalStateException("boom");
+                });
+        var listener = new EventListener(java.util.List.of(handler), codec, idempotencyStore, deadLetterQueue, config(1), meterRegistry);
+
+        var record = jsonRecord(EventType.INVENTORY_ITEM_CREATED.name(), "{\"storeId\":\"s\",\"productId\":\"p\"}");
+
+        assertThrows(IllegalStateException.class, () -> listener.onMessage(record));
+        verify(idempotencyStore, never()).markProcessed(anyString(), any(), anyString());
+    }
+
+    private static MapRecord<String, String, byte[]> updateRecord(final String eventId, final int quantity) {
+        return updateRecord(eventId, "p", quantity);
+    }
+
+    private static MapRecord<String, String, byte[]> updateRecord(final String eventId, final String productId, final int quantity) {
+        return jsonRecord(eventId, EventType.INVENTORY_ITEM_UPDATED.name(),
+                "{\"storeId\":\"s\",\"productId\":\"" + productId + "\",\"quantity\":" + quantity + "}");
+    }
+
+    @Test
+    void onMessagesHandsConsecutiveEventsOfATypeAtOnce() {
+        var batches = new ArrayList<List<?>>();
+        var updated = EventHandler.ofPayloads(EventType.INVENTORY_ITEM_UPDATED, InventoryItemUpdateEvent.class, batches::add);
+        var created = EventHandler.ofPayloads(EventType.INVENTORY_ITEM_CREATED, InventoryItemCreateEvent.class, batches::add);
+        var listener = new EventListener(List.of(updated, created), codec, idempotencyStore, deadLetterQueue, config(1), meterRegistry);
+
+        listener.onMessages(List.of(
+                updateRecord("e1", 1),
+                updateRecord("e2", 2),
+                jsonRecord("e3", EventType.INVENTORY_ITEM_CREATED.name(), "{\"storeId\":\"s\",\"productId\":\"q\"}"),
+                updateRecord("e4", 4),
+                updateRecord("e4", 4)));
+
+        // Runs keep stream order, and the repeated event is only handled once
+        assertEquals(List.of(
+                List.of(new InventoryItemUpdateEvent("s", "p", 1), new InventoryItemUpdateEvent("s", "p", 2)),
+                List.of(new InventoryItemCreateEvent("s", "q")),
+                List.of(new InventoryItemUpdateEvent("s", "p", 4))), batches);
+        verify(idempotencyStore, times(4)).markProcessed(eq("stream"), any(), anyString());
+    }
+
+    @Test
+    void onMessagesRetriesFailedBatchOneByOne() {
+        var handled = new ArrayList<Integer>();
+        var handler = EventHandler.ofPayloads(EventType.INVENTORY_ITEM_UPDATED, InventoryItemUpdateEvent.class, updates -> {
+            if (updates.stream().anyMatch(u -> u.quantity() < 0)) {
+                throw new IllegalStateException("boom");
+            }
+            updates.forEach(u -> handled.add(u.quantity()));
+        });
+        var listener = new EventListener(List.of(handler), codec, idempotencyStore, deadLetterQueue, config(1), meterRegistry);
+
+        var done = listener.onMessages(List.of(updateRecord("e1", 1), updateRecord("e2", -1), updateRecord("e3", 3)));
+
+        assertEquals(List.of(1, 3), handled);
+        assertEquals(2, done.size());
+        verify(deadLetterQueue).recordFailure(argThat(r -> "e2".equals(new String(r.getValue().get("id"), StandardCharsets.UTF_8))),
+                any(IllegalStateException.class));
+        verify(idempotencyStore).markProcessed(eq("stream"), any(), eq("e1"));
+        verify(idempotencyStore, never()).markProcessed(eq("stream"), any(), eq("e2"));
+        verify(idempotencyStore).markProcessed(eq("stream"), any(), eq("e3"));
+    }
+
+    @Test
+    void onMessagesDeadLettersInvalidRecords() {
+        var handled = new ArrayList<InventoryItemUpdateEvent>();
+        var handler = EventHandler.ofPayloads(EventType.INVENTORY_ITEM_UPDATED, InventoryItemUpdateEvent.class, handled::addAll);
+        var listener = new EventListener(List.of(handler), codec, idempotencyStore, deadLetterQueue, config(1), meterRegistry);
+        var invalid = jsonRecord("e1", "UNKNOWN", "{}");
+
+        var done = listener.onMessages(List.of(invalid, updateRecord("e2", 2)));
+
+        assertEquals(List.of(new InventoryItemUpdateEvent("s", "p", 2)), handled);
+        // Invalid records would fail forever, so they are done with too
+        assertEquals(2, done.size());
+        verify(deadLetterQueue).deadLetter(same(invalid), eq(1L), anyString());
+    }
+
+    @Test
+    void onMessagesLeavesInvalidRecordPendingIfItCanNotBeDeadLettered() {
+        var listener = new EventListener(List.of(), codec, idempotencyStore, deadLetterQueue, config(1), meterRegistry);
+        when(deadLetterQueue.deadLetter(any(), anyLong(), any())).thenReturn(false);
+
+        var done = listener.onMessages(List.of(jsonRecord("e1", "UNKNOWN", "{}")));
+
+        assertTrue(done.isEmpty());
+    }
+
+    @Test
+    void onMessagesAppliesItemsInParallelKeepingTheirOrder() {
+        var applied = new ConcurrentHashMap<String, List<Integer>>();
+        var threads = ConcurrentHashMap.<String>newKeySet();
+        var handler = EventHandler.ofPayloads(EventType.INVENTORY_ITEM_UPDATED, InventoryItemUpdateEvent.class, updates -> {
+            threads.add(Thread.currentThread().getName());
+            updates.forEach(u -> applied.computeIfAbsent(u.productId(), p -> new CopyOnWriteArrayList<>()).add(u.quantity()));
+        });
+        var listener = new EventListener(List.of(handler), codec, idempotencyStore, deadLetterQueue, config(4), meterRegistry);
+
+        var records = new ArrayList<MapRecord<String, String, byte[]>>();
+        for (int i = 0; i < 100; i++) {
+            records.add(updateRecord("e" + i, "p" + i % 10, i));
+        }
+        var done = listener.onMessages(records);
+        listener.close();
+
+        assertEquals(100, done.size());
+        for (int p = 0; p < 10; p++) {
+            final int product = p;
+            assertEquals(IntStream.range(0, 10).map(i -> i * 10 + product).boxed().toList(), applied.get("p" + p));
+        }
+        assertTrue(threads.size() > 1);
+    }
+
+    @Test
+    void recordsLatencyPerPriority() {
+        var handler = EventHandler.ofPayloads(EventType.INVENTORY_ITEM_UPDATED, InventoryItemUpdateEvent.class, updates -> {});
+        var listener = new EventListener(List.of(handler), codec, idempotencyStore, deadLetterQueue, config(1), meterRegistry);
+
+        listener.onMessages(List.of(updateRecord("e1", 1), updateRecord("e2", 2)));
+
+        assertEquals(2, meterRegistry.get("consumer.latency").tag("priority", "normal").timer().count());
+        assertEquals(0, meterRegistry.get("consumer.latency").tag("priority", "high").timer().count());
+    }
+
+    @Test
+    void onReclaimedChecksDuplicatesByEventIdOnly() {
+        var handled = new ArrayList<InventoryItemUpdateEvent>();
+        var handler = EventHandler.ofPayloads(EventType.INVENTORY_ITEM_UPDATED, InventoryItemUpdateEvent.class, handled::addAll);
+        var listener = new EventListener(List.of(handler), codec, idempotencyStore, deadLetterQueue, config(1), meterRegistry);
+        when(idempotencyStore.isDuplicate("stream", "e1")).thenReturn(true);
+
+        var done = listener.onReclaimed(List.of(updateRecord("e1", 1), updateRecord("e2", 2)));
+
+        assertEquals(List.of(new InventoryItemUpdateEvent("s", "p", 2)), handled);
+        assertEquals(2, done.size());
+        verify(idempotencyStore, never()).isDuplicate(anyString(), any(), anyString());
+    }
+
+    @Test
+    void onReclaimedDropsUpdatesSupersededByALaterEntryOfTheirItem() {
+        var handled = new ArrayList<InventoryItemUpdateEvent>();
+        var handler = EventHandler.ofPayloads(EventType.INVENTORY_ITEM_UPDATED, InventoryItemUpdateEvent.class, updates -> {
+            if (updates.stream().anyMatch(u -> u.quantity() == 1) && handled.isEmpty()) {
+                throw new IllegalStateException("boom");
+            }
+            handled.addAll(updates);
+        });
+        var listener = new EventListener(List.of(handler), codec, idempotencyStore, deadLetterQueue, config(1), meterRegistry);
+        var failed = updateRecord("e1", 1).withId(RecordId.of("1-0"));
+        var other = updateRecord("e2", "q", 5).withId(RecordId.of("2-0"));
+        var later = updateRecord("e3", 3).withId(RecordId.of("3-0"));
+
+        assertTrue(listener.onMessages(List.of(failed)).isEmpty());
+        listener.onMessages(List.of(other, later));
+        var done = listener.onReclaimed(List.of(failed));
+
+        // The failed update is done with, without setting the item back to 1
+        assertEquals(List.of(failed.getId()), done);
+        assertEquals(List.of(new InventoryItemUpdateEvent("s", "q", 5), new InventoryItemUpdateEvent("s", "p", 3)), handled);
+        verify(idempotencyStore, never()).markProcessed(eq("stream"), any(), eq("e1"));
+    }
+
+    @Test
+    void onReclaimedAppliesUpdatesNotSupersededByTheirItem() {
+        var handled = new ArrayList<InventoryItemUpdateEvent>();
+        var handler = EventHandler.ofPayloads(EventType.INVENTORY_ITEM_UPDATED, InventoryItemUpdateEvent.class, handled::addAll);
+        var listener = new EventListener(List.of(handler), codec, idempotencyStore, deadLetterQueue, config(1), meterRegistry);
+
+        listener.onMessages(List.of(updateRecord("e2", "q", 5).withId(RecordId.of("2-0"))));
+        listener.onReclaimed(List.of(updateRecord("e1", 1).withId(RecordId.of("1-0"))));
+
+        assertEquals(List.of(new InventoryItemUpdateEvent("s", "q", 5), new InventoryItemUpdateEvent("s", "p", 1)), handled);
+    }
+
+    private static MapRecord<String, String, byte[]> purchaseRecord(final String eventId, final String productId) {
+        return jsonRecord(eventId, EventType.INVENTORY_ITEM_REMOTE_PURCHASE.name(),
+                "{\"storeId\":\"s\",\"productId\":\"" + productId + "\",\"quantityDelta\":1}");
+    }
+
+    @Test
+    void normalSharesAreNotStarvedByAFlowOfHighOnes() throws InterruptedException {
+        // Both workers are held until every share is queued
+        var gate = new CountDownLatch(1);
+        var busy = new CountDownLatch(2);
+        var taken = new CopyOnWriteArrayList<EventType>();
+        EventHandler<?> updates = EventHandler.ofPayloads(EventType.INVENTORY_ITEM_UPDATED, InventoryItemUpdateEvent.class, u -> taken(taken, EventType.INVENTORY_ITEM_UPDATED, busy, gate));
+        EventHandler<?> purchases = EventHandler.ofPayloads(EventType.INVENTORY_ITEM_REMOTE_PURCHASE, InventoryItemRemotePurchaseEvent.class, p -> taken(taken, EventType.INVENTORY_ITEM_REMOTE_PURCHASE, busy, gate));
+        var listener = new EventListener(List.of(updates, purchases), codec, idempotencyStore, deadLetterQueue, config(2), meterRegistry);
+        var queued = meterRegistry.get("consumer.dispatch.queued").gauge();
+
+        // Every run has an item per worker, so one share of it is queued
+        var callers = new ArrayList<Thread>();
+        for (int i = 0; i < 2; i++) {
+            final int run = i;
+            callers.add(Thread.ofPlatform().start(() -> listener.onMessages(List.of(purchaseRecord("b" + run + "-0", "p0"), purchaseRecord("b" + run + "-1", "p1")))));
+        }
+        busy.await();
+        callers.add(Thread.ofPlatform().start(() -> listener.onMessages(List.of(updateRecord("n-0", "p0", 1), updateRecord("n-1", "p1", 1)))));
+        awaitQueued(queued, 1);
+        for (int i = 0; i < 20; i++) {
+            final int run = i;
+            callers.add(Thread.ofPlatform().start(() -> listener.onMessages(List.of(purchaseRecord("h" + run + "-0", "p0"), purchaseRecord("h" + run + "-1", "p1")))));
+            awaitQueued(queued, 2 + i);
+        }
+        gate.countDown();
+        for (var caller : callers) {
+            caller.join();
+        }
+        listener.close();
+
+        // Taken after at most PRIORITY_AGING of the later purchases, besides the ones already taken
+        assertEquals(23, taken.size());
+        assertTrue(taken.indexOf(EventType.INVENTORY_ITEM_UPDATED) <= 2 + EventListener.PRIORITY_AGING, taken.toString());
+    }
+
+    private static void taken(final List<EventType> taken, final EventType type, final CountDownLatch busy, final CountDownLatch gate) {
+        if (!Thread.currentThread().getName().startsWith("event-dispatch-")) {
+            return;
+        }
+        busy.countDown();
+        try {
+            gate.await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        taken.add(type);
+    }
+
+    private static void awaitQueued(final Gauge queued, final int shares) {
+        while (queued.value() < shares) {
+            Thread.onSpinWait();
+        }
+    }
 }
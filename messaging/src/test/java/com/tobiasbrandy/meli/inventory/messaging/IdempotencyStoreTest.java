@@ -0,0 +1,146 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class IdempotencyStoreTest {
+    private static final long START = 1_700_000_000_000L;
+    private static final Duration WINDOW = Duration.ofHours(1);
+
+    private StringRedisTemplate redis;
+    private Clock clock;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        redis = mock(StringRedisTemplate.class);
+        clock = mock(Clock.class);
+        meterRegistry = new SimpleMeterRegistry();
+        when(clock.millis()).thenReturn(START);
+    }
+
+    private IdempotencyStore store(final int localCapacity) {
+        return new IdempotencyStore(new IdempotencyConfig(WINDOW, Duration.ofMinutes(5), localCapacity, Duration.ofSeconds(1)),
+                redis, "group", meterRegistry, clock);
+    }
+
+    /**
+     * Store whose local cache already covers the whole window.
+     */
+    private IdempotencyStore warmStore(final int localCapacity) {
+        final var store = store(localCapacity);
+        when(clock.millis()).thenReturn(START + WINDOW.toMillis());
+        return store;
+    }
+
+    private void givenRemoteContains(final String eventId, final boolean contains) {
+        when(redis.execute(eq(IdempotencyStore.CONTAINS_SCRIPT), anyList(), eq(eventId))).thenReturn(contains ? 1L : 0L);
+    }
+
+    @Test
+    void redeliveredEntryIsDroppedByWatermark() {
+        final var store = warmStore(10);
+        store.markProcessed("s", RecordId.of("5-0"), "e5");
+
+        assertTrue(store.isDuplicate("s", RecordId.of("4-1"), "e4"));
+        assertTrue(store.isDuplicate("s", RecordId.of("5-0"), "e5"));
+        assertFalse(store.isDuplicate("s", RecordId.of("5-1"), "e6"));
+        assertFalse(store.isDuplicate("other", RecordId.of("4-0"), "e4"));
+        verifyNoInteractions(redis);
+    }
+
+    @Test
+    void eventIdOnlyCheckIgnoresWatermark() {
+        final var store = warmStore(10);
+        store.markProcessed("s", RecordId.of("5-0"), "e5");
+
+        // A reclaimed entry below the watermark may have failed while later ones succeeded
+        assertFalse(store.isDuplicate("s", "e4"));
+        assertTrue(store.isDuplicate("s", "e5"));
+    }
+
+    @Test
+    void republishedEventIsDroppedByLocalCache() {
+        final var store = warmStore(10);
+        store.markProcessed("s", RecordId.of("5-0"), "e1");
+
+        assertTrue(store.isDuplicate("s", RecordId.of("6-0"), "e1"));
+        assertEquals(1.0, meterRegistry.get("idempotency.duplicates").tag("source", "local").counter().count());
+        verifyNoInteractions(redis);
+    }
+
+    @Test
+    void checksRedisUntilLocalCacheCoversWindow() {
+        final var store = store(10);
+        givenRemoteContains("e1", true);
+        givenRemoteContains("e2", false);
+
+        assertTrue(store.isDuplicate("s", RecordId.of("1-0"), "e1"));
+        assertFalse(store.isDuplicate("s", RecordId.of("2-0"), "e2"));
+
+        // Every bucket of the window is checked at once
+        final ArgumentCaptor<List<String>> keys = ArgumentCaptor.forClass(List.class);
+        verify(redis).execute(eq(IdempotencyStore.CONTAINS_SCRIPT), keys.capture(), eq("e1"));
+        assertEquals(13, keys.getValue().size());
+        assertEquals("idempotency:{group}:" + START / Duration.ofMinutes(5).toMillis(), keys.getValue().getLast());
+
+        when(clock.millis()).thenReturn(START + WINDOW.toMillis());
+        assertFalse(store.isDuplicate("s", RecordId.of("3-0"), "e3"));
+        verify(redis, never()).execute(eq(IdempotencyStore.CONTAINS_SCRIPT), anyList(), eq("e3"));
+        assertEquals(2.0, meterRegistry.get("idempotency.remote.checks").counter().count());
+    }
+
+    @Test
+    void acquiredStreamIsCheckedAgainstRedisForAWindow() {
+        final var store = warmStore(10);
+        givenRemoteContains("e1", true);
+        store.streamAcquired("s");
+
+        // Another instance may have processed the events of the stream before
+        assertTrue(store.isDuplicate("s", RecordId.of("1-0"), "e1"));
+        assertFalse(store.isDuplicate("other", RecordId.of("1-0"), "e1"));
+
+        when(clock.millis()).thenReturn(START + 2 * WINDOW.toMillis());
+        assertFalse(store.isDuplicate("s", RecordId.of("2-0"), "e1"));
+        verify(redis, times(1)).execute(eq(IdempotencyStore.CONTAINS_SCRIPT), anyList(), eq("e1"));
+    }
+
+    @Test
+    void evictingIdsWithinWindowFallsBackToRedis() {
+        final var store = warmStore(1);
+        givenRemoteContains("e1", true);
+        store.markProcessed("s", RecordId.of("1-0"), "e1");
+        store.markProcessed("s", RecordId.of("2-0"), "e2");
+
+        assertTrue(store.isDuplicate("s", RecordId.of("3-0"), "e1"));
+        verify(redis).execute(eq(IdempotencyStore.CONTAINS_SCRIPT), anyList(), eq("e1"));
+    }
+
+    @Test
+    void flushWritesProcessedIdsOnceAndRetriesOnFailure() {
+        final var store = warmStore(10);
+        when(redis.executePipelined(any(SessionCallback.class)))
+                .thenThrow(new RuntimeException("boom"))
+                .thenReturn(List.of());
+
+        store.markProcessed("s", RecordId.of("1-0"), "e1");
+        store.flush();
+        store.flush();
+        store.flush();
+
+        verify(redis, times(2)).executePipelined(any(SessionCallback.class));
+    }
+}
@@ -0,0 +1,148 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tobiasbrandy.meli.inventory.model.EventType;
+import com.tobiasbrandy.meli.inventory.model.OutboxEvent;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboxArchiveTest {
+
+    @TempDir
+    private Path dir;
+
+    private OutboxArchive archive(final long segmentMaxBytes) {
+        return new OutboxArchive(new ObjectMapper(), new OutboxRetentionConfig(true, dir.toString(), segmentMaxBytes, 100));
+    }
+
+    private static List<OutboxEvent> events(final long fromId, final long toId) {
+        return LongStream.rangeClosed(fromId, toId).mapToObj(id -> {
+            final var e = new OutboxEvent("s", EventType.ECHO, ("\"p" + id + "\"").getBytes(StandardCharsets.UTF_8));
+            e.setId(id);
+            return e;
+        }).toList();
+    }
+
+    private static List<Long> readIds(final OutboxArchive archive, final long fromId) throws Exception {
+        final var ids = new ArrayList<Long>();
+        archive.read(fromId, e -> ids.add(e.id()));
+        return ids;
+    }
+
+    @Test
+    void appendThenRead_roundTripsEvents() throws Exception {
+        final var archive = archive(1 << 20);
+        archive.append(events(1, 3));
+        archive.append(events(4, 5));
+
+        final var entries = new ArrayList<OutboxArchive.Entry>();
+        archive.read(0, entries::add);
+
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L), entries.stream().map(OutboxArchive.Entry::id).toList());
+        assertEquals("\"p1\"", new String(entries.getFirst().payload(), StandardCharsets.UTF_8));
+        assertEquals(EventType.ECHO, entries.getFirst().type());
+        assertEquals(1, archive.segments().size());
+    }
+
+    @Test
+    void rollsSegmentsAndReadsFromId() throws Exception {
+        final var archive = archive(1);
+        archive.append(events(1, 3));
+        archive.append(events(4, 6));
+        archive.append(events(7, 9));
+
+        assertEquals(3, archive.segments().size());
+        assertEquals(List.of(5L, 6L, 7L, 8L, 9L), readIds(archive, 5));
+    }
+
+    @Test
+    void readSkipsEventsArchivedTwice() throws Exception {
+        final var archive = archive(1 << 20);
+        archive.append(events(1, 3));
+        // Crash after archiving but before purging, a restarted archive writes them again
+        final var restarted = archive(1 << 20);
+        restarted.append(events(2, 4));
+
+        assertEquals(List.of(1L, 2L, 3L, 4L), readIds(restarted, 0));
+    }
+
+    @Test
+    void readKeepsEventsArchivedOutOfIdOrder() throws Exception {
+        final var archive = archive(1 << 20);
+        archive.append(events(5, 6));
+        // Published by another lane, or committed later, so purged after higher ids
+        archive.append(events(3, 4));
+        final var rolled = archive(1);
+        rolled.append(events(7, 7));
+        rolled.append(events(1, 2));
+
+        // Segments are read in the order they were started, whatever their first id
+        assertEquals(List.of(5L, 6L, 3L, 4L, 7L, 1L, 2L), readIds(rolled, 0));
+        assertEquals(List.of(5L, 6L, 3L, 4L, 7L, 2L), readIds(rolled, 2));
+    }
+
+    @Test
+    void readSkipsTornTail() throws Exception {
+        final var archive = archive(1 << 20);
+        archive.append(events(1, 3));
+        archive.append(events(4, 6));
+        final var segment = archive.segments().getFirst();
+        final var bytes = Files.readAllBytes(segment);
+        Files.write(segment, Arrays.copyOf(bytes, bytes.length - 12));
+
+        final var ids = readIds(archive, 0);
+
+        assertEquals(List.of(1L, 2L, 3L), ids.subList(0, 3));
+    }
+
+    @Test
+    void failedAppendIsTruncatedAndLaterAppendsGoToANewSegment() throws Exception {
+        final var failOn = new AtomicLong(-1);
+        final var mapper = new ObjectMapper() {
+            @Override
+            public byte[] writeValueAsBytes(final Object value) throws JsonProcessingException {
+                if (value instanceof OutboxArchive.Entry entry && entry.id() == failOn.get()) {
+                    throw new JsonProcessingException("disk full") {};
+                }
+                return super.writeValueAsBytes(value);
+            }
+        };
+        final var archive = new OutboxArchive(mapper, new OutboxRetentionConfig(true, dir.toString(), 1 << 30, 100));
+        archive.append(events(1, 3));
+        final var segment = archive.segments().getFirst();
+        final var size = Files.size(segment);
+
+        // Big enough for part of the batch to reach the file before failing
+        final var random = new Random(1);
+        final var big = LongStream.rangeClosed(4, 8).mapToObj(id -> {
+            final var payload = new byte[64 * 1024];
+            random.nextBytes(payload);
+            final var e = new OutboxEvent("s", EventType.ECHO, payload);
+            e.setId(id);
+            return e;
+        }).toList();
+        failOn.set(8);
+        assertThrows(IOException.class, () -> archive.append(big));
+        assertEquals(size, Files.size(segment));
+
+        failOn.set(-1);
+        archive.append(events(4, 6));
+
+        assertEquals(2, archive.segments().size());
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L), readIds(archive, 0));
+    }
+}
@@ -0,0 +1,77 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tobiasbrandy.meli.inventory.model.EventType;
+import com.tobiasbrandy.meli.inventory.model.OutboxEvent;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboxCoalescerTest {
+
+    private final OutboxCoalescer coalescer = new OutboxCoalescer(
+            new DelegatingEventCodec(new ObjectMapper(), new EventCodecConfig(EventCodecConfig.Format.JSON, 512)));
+    private final List<OutboxEvent> events = new ArrayList<>();
+
+    private void add(final EventType type, final String payload) {
+        final var e = new OutboxEvent("s", type, payload.getBytes(StandardCharsets.UTF_8));
+        e.setId(events.size() + 1L);
+        events.add(e);
+    }
+
+    private void created(final String productId) {
+        add(EventType.INVENTORY_ITEM_CREATED, "{\"storeId\":\"store-1\",\"productId\":\"" + productId + "\"}");
+    }
+
+    private void updated(final String productId, final int quantity) {
+        add(EventType.INVENTORY_ITEM_UPDATED,
+                "{\"storeId\":\"store-1\",\"productId\":\"" + productId + "\",\"quantity\":" + quantity + "}");
+    }
+
+    private List<Long> coalescedIds() {
+        return coalescer.coalesce(events).stream().map(OutboxEvent::getId).toList();
+    }
+
+    @Test
+    void keepsOnlyLastUpdateOfEachItem() {
+        updated("p1", 1);
+        updated("p2", 1);
+        updated("p1", 2);
+        updated("p2", 2);
+        updated("p1", 3);
+
+        assertEquals(List.of(4L, 5L), coalescedIds());
+    }
+
+    @Test
+    void creationsEndTheRunOfUpdates() {
+        updated("p1", 1);
+        created("p1");
+        updated("p1", 2);
+        updated("p1", 3);
+
+        assertEquals(List.of(1L, 2L, 4L), coalescedIds());
+    }
+
+    @Test
+    void keepsEventsWithoutItemAndUnreadablePayloads() {
+        add(EventType.ECHO, "\"hello\"");
+        add(EventType.INVENTORY_ITEM_UPDATED, "not json");
+        updated("p1", 1);
+        add(EventType.ECHO, "\"bye\"");
+
+        assertEquals(List.of(1L, 2L, 3L, 4L), coalescedIds());
+    }
+
+    @Test
+    void returnsSameListWhenNothingIsCoalesced() {
+        created("p1");
+        updated("p1", 1);
+
+        assertSame(events, coalescer.coalesce(events));
+    }
+}
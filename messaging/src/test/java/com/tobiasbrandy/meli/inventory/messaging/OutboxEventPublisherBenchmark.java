@@ -0,0 +1,128 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tobiasbrandy.meli.inventory.model.EventType;
+import com.tobiasbrandy.meli.inventory.model.OutboxEvent;
+import com.tobiasbrandy.meli.inventory.repository.OutboxEventRepository;
+import com.tobiasbrandy.meli.inventory.repository.OutboxLeaseRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Sustained outbox drain throughput against a local Redis (localhost:6379).
+ * <p>
+ * The outbox table is replaced by an in-memory map, so only the Redis side is measured.
+ * Run with {@code ./mvnw -pl messaging test -Dtest=OutboxEventPublisherBenchmark -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class OutboxEventPublisherBenchmark {
+    private static final int EVENTS = 100_000;
+    private static final String STREAM = "benchmark:outbox:stream";
+    private static final byte[] PAYLOAD = "{\"storeId\":\"store-1\",\"productId\":\"p1\",\"quantity\":10}".getBytes(StandardCharsets.UTF_8);
+
+    private static LettuceConnectionFactory connectionFactory;
+    private static RedisTemplate<String, byte[]> redis;
+
+    @BeforeAll
+    static void connect() {
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("localhost", 6379));
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        redis = new RedisTemplate<>();
+        redis.setConnectionFactory(connectionFactory);
+        redis.setKeySerializer(RedisSerializer.string());
+        redis.setHashKeySerializer(RedisSerializer.string());
+        redis.setHashValueSerializer(RedisSerializer.byteArray());
+        redis.afterPropertiesSet();
+    }
+
+    @AfterAll
+    static void disconnect() {
+        redis.delete(STREAM);
+        connectionFactory.destroy();
+    }
+
+    @Test
+    void sequential() {
+        run("sequential", new OutboxConfig(false, 10, 10, Duration.ofSeconds(5), 1, false, false));
+    }
+
+    @Test
+    void pipelinedAdaptive() {
+        run("pipelined adaptive", new OutboxConfig(true, 10, 1000, Duration.ofSeconds(5), 1, false, false));
+    }
+
+    private void run(final String name, final OutboxConfig config) {
+        redis.delete(STREAM);
+        final var outbox = new ConcurrentSkipListMap<Long, OutboxEvent>();
+        for (long id = 1; id <= EVENTS; id++) {
+            final var event = new OutboxEvent(STREAM, EventType.INVENTORY_ITEM_UPDATED, PAYLOAD);
+            event.setId(id);
+            outbox.put(id, event);
+        }
+
+        final var publisher = new OutboxEventPublisher(
+                new DelegatingEventCodec(new ObjectMapper(), new EventCodecConfig(EventCodecConfig.Format.JSON, 512)),
+                inMemoryRepository(outbox), redis,
+                new TransactionTemplate(mock(PlatformTransactionManager.class)), config,
+                new OutboxLeases(new OutboxLeaseConfig(false, null), mock(OutboxLeaseRepository.class),
+                        new TransactionTemplate(mock(PlatformTransactionManager.class))),
+                new SimpleMeterRegistry(), Runnable::run);
+
+        final long start = System.nanoTime();
+        while (!outbox.isEmpty()) {
+            publisher.publish();
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        assertEquals(EVENTS, redis.opsForStream().size(STREAM));
+        System.out.printf("[%s] published %d events in %.2fs: %.0f events/s%n", name, EVENTS, seconds, EVENTS / seconds);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static OutboxEventRepository inMemoryRepository(final NavigableMap<Long, OutboxEvent> outbox) {
+        final var repository = mock(OutboxEventRepository.class);
+        when(repository.countUnpublishedByStream()).thenAnswer(inv -> List.of(new OutboxEventRepository.StreamBacklog() {
+            @Override
+            public String getStream() {
+                return STREAM;
+            }
+
+            @Override
+            public long getBacklog() {
+                return outbox.size();
+            }
+        }));
+        when(repository.findByStreamAndPublishedFalseOrderByIdAsc(eq(STREAM), any())).thenAnswer(inv ->
+                outbox.values().stream().limit(inv.<Pageable>getArgument(1).getPageSize()).toList());
+        when(repository.markPublished(anyList())).thenAnswer(inv -> {
+            final var ids = (List<Long>) inv.getArgument(0);
+            ids.forEach(outbox::remove);
+            return ids.size();
+        });
+        return repository;
+    }
+}
@@ -5,19 +5,30 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.tobiasbrandy.meli.inventory.model.Event;
 import com.tobiasbrandy.meli.inventory.model.EventType;
 import com.tobiasbrandy.meli.inventory.model.InventoryItemCreateEvent;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemRemotePurchaseEvent;
 import com.tobiasbrandy.meli.inventory.model.InventoryItemUpdateEvent;
 import com.tobiasbrandy.meli.inventory.model.OutboxEvent;
 import com.tobiasbrandy.meli.inventory.repository.OutboxEventRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.springframework.data.domain.PageRequest;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.time.Instant;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.LongStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -27,8 +38,10 @@ class OutboxEventPublisherTest {
 
     private ObjectMapper objectMapper;
     private OutboxEventRepository outboxRepo;
-    private StringRedisTemplate redis;
-    private StreamOperations<String, String, String> streamOps;
+    private RedisTemplate<String, byte[]> redis;
+    private StreamOperations<String, String, byte[]> streamOps;
+    private OutboxLeases leases;
+    private SimpleMeterRegistry meterRegistry;
     private OutboxEventPublisher publisher;
 
     @SuppressWarnings("unchecked")
@@ -36,10 +49,61 @@ class OutboxEventPublisherTest {
     void setUp() {
         objectMapper = mock(ObjectMapper.class);
         outboxRepo = mock(OutboxEventRepository.class);
-        redis = mock(StringRedisTemplate.class);
+        redis = mock(RedisTemplate.class);
         streamOps = mock(StreamOperations.class);
+        leases = mock(OutboxLeases.class);
+        meterRegistry = new SimpleMeterRegistry();
         when(redis.opsForStream()).thenReturn((StreamOperations) streamOps);
-        publisher = new OutboxEventPublisher(objectMapper, outboxRepo, redis);
+        when(leases.acquire(anyString())).thenReturn(true);
+        publisher = newPublisher(false);
+    }
+
+    /**
+     * Publisher that drains lanes synchronously on the calling thread, encoding events as JSON.
+     */
+    private OutboxEventPublisher newPublisher(final boolean pipelined) {
+        return newPublisher(pipelined, false);
+    }
+
+    private OutboxEventPublisher newPublisher(final boolean pipelined, final boolean directPublish) {
+        return new OutboxEventPublisher(new DelegatingEventCodec(objectMapper, new EventCodecConfig(EventCodecConfig.Format.JSON, 512)),
+                outboxRepo, redis,
+                new TransactionTemplate(mock(PlatformTransactionManager.class)),
+                new OutboxConfig(pipelined, 10, 40, Duration.ofHours(1), 1, true, directPublish),
+                leases, meterRegistry, Runnable::run);
+    }
+
+    private static OutboxEvent outboxEvent(final String stream, final long id) {
+        final var e = new OutboxEvent(stream, EventType.ECHO, utf8("\"p" + id + "\""));
+        e.setId(id);
+        e.setEventId("id-" + id);
+        return e;
+    }
+
+    private static byte[] utf8(final String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<OutboxEvent> outboxEvents(final String stream, final long fromId, final long toId) {
+        return LongStream.rangeClosed(fromId, toId).mapToObj(id -> outboxEvent(stream, id)).toList();
+    }
+
+    private static OutboxEventRepository.StreamBacklog backlog(final String stream, final long backlog) {
+        return new OutboxEventRepository.StreamBacklog() {
+            @Override
+            public String getStream() {
+                return stream;
+            }
+
+            @Override
+            public long getBacklog() {
+                return backlog;
+            }
+        };
+    }
+
+    private void givenBatch(final String stream, final int size, final List<OutboxEvent> events) {
+        when(outboxRepo.findByStreamAndPublishedFalseOrderByIdAsc(stream, PageRequest.ofSize(size))).thenReturn(events);
     }
 
     @Test
@@ -51,7 +115,7 @@ class OutboxEventPublisherTest {
     @Test
     void publishEvent_throwsWhenSerializationFails() throws Exception {
         final var payload = new InventoryItemCreateEvent("store-1", "p1");
-        when(objectMapper.writeValueAsString(payload)).thenThrow(new JsonProcessingException("fail") {
+        when(objectMapper.writeValueAsBytes(payload)).thenThrow(new JsonProcessingException("fail") {
         });
 
         assertThrows(IllegalArgumentException.class,
@@ -61,23 +125,18 @@ class OutboxEventPublisherTest {
     @Test
     void publishEvent_persistsOutboxAndReturnsEvent() throws Exception {
         final var payload = new InventoryItemCreateEvent("store-1", "p1");
-        when(objectMapper.writeValueAsString(payload)).thenReturn("{json}");
+        when(objectMapper.writeValueAsBytes(payload)).thenReturn(utf8("{json}"));
 
-        final var saved = new OutboxEvent();
-        saved.setId(10L);
-        saved.setEventId("uuid-1");
-        saved.setStream("stream");
+        final var saved = outboxEvent("stream", 10);
         saved.setType(EventType.INVENTORY_ITEM_CREATED);
-        saved.setPayload("{json}");
-        saved.setCreatedAt(Instant.now());
-
+        saved.setPayload(utf8("{json}"));
         when(outboxRepo.save(any(OutboxEvent.class))).thenReturn(saved);
 
         Event<InventoryItemCreateEvent> event = publisher.publishEvent("stream", EventType.INVENTORY_ITEM_CREATED,
                 payload);
 
         assertEquals("stream", event.stream());
-        assertEquals("uuid-1", event.id());
+        assertEquals("id-10", event.id());
         assertEquals(EventType.INVENTORY_ITEM_CREATED, event.type());
         assertEquals(payload, event.payload());
         assertNotNull(event.createdAt());
@@ -86,16 +145,47 @@ class OutboxEventPublisherTest {
         verify(outboxRepo).save(captor.capture());
         assertEquals("stream", captor.getValue().getStream());
         assertEquals(EventType.INVENTORY_ITEM_CREATED, captor.getValue().getType());
-        assertEquals("{json}", captor.getValue().getPayload());
+        assertArrayEquals(utf8("{json}"), captor.getValue().getPayload());
+    }
+
+    @Test
+    void publishEvent_routesHighPriorityEventsToTheirOwnStream() throws Exception {
+        final var payload = new InventoryItemRemotePurchaseEvent("store-1", "p1", 1);
+        when(objectMapper.writeValueAsBytes(payload)).thenReturn(utf8("{json}"));
+        when(outboxRepo.save(any(OutboxEvent.class))).thenAnswer(inv -> inv.getArgument(0));
+
+        final var event = publisher.publishEvent("stream", EventType.INVENTORY_ITEM_REMOTE_PURCHASE, payload);
+
+        assertEquals("stream:high", event.stream());
+        final ArgumentCaptor<OutboxEvent> captor = ArgumentCaptor.forClass(OutboxEvent.class);
+        verify(outboxRepo).save(captor.capture());
+        assertEquals("stream:high", captor.getValue().getStream());
+    }
+
+    @Test
+    void publishEvent_drainsLaneOnlyAfterCommit() throws Exception {
+        final var payload = new InventoryItemCreateEvent("store-1", "p1");
+        when(objectMapper.writeValueAsBytes(payload)).thenReturn(utf8("{json}"));
+        when(outboxRepo.save(any(OutboxEvent.class))).thenAnswer(inv -> inv.getArgument(0));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            publisher.publishEvent("stream", EventType.INVENTORY_ITEM_CREATED, payload);
+            verify(outboxRepo, never()).findByStreamAndPublishedFalseOrderByIdAsc(anyString(), any());
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+            verify(outboxRepo).findByStreamAndPublishedFalseOrderByIdAsc(eq("stream"), any());
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
     }
 
     @Test
     void scheduledPublish_noopWhenDisconnected() {
         publisher.setDisconnected(true);
-        when(outboxRepo.findByPublishedFalseOrderByIdAsc(PageRequest.ofSize(10))).thenReturn(List.of(
-                new OutboxEvent("s", EventType.ECHO, "p")));
+        when(outboxRepo.countUnpublishedByStream()).thenReturn(List.of(backlog("s", 1)));
+        givenBatch("s", 10, List.of(outboxEvent("s", 1)));
 
-        // call
         // noinspection CallToProtectedMethod
         publisher.publish();
 
@@ -104,48 +194,245 @@ class OutboxEventPublisherTest {
     }
 
     @Test
-    void scheduledPublish_happyPathPublishesAndMarks() {
-        final var a = new OutboxEvent("s1", EventType.ECHO, "p1");
-        a.setId(1L);
-        a.setEventId("id-1");
-        a.setCreatedAt(Instant.now());
-        final var b = new OutboxEvent("s2", EventType.ECHO, "p2");
-        b.setId(2L);
-        b.setEventId("id-2");
-        b.setCreatedAt(Instant.now());
-        when(outboxRepo.findByPublishedFalseOrderByIdAsc(PageRequest.ofSize(10))).thenReturn(List.of(a, b));
-
-        // noinspection unchecked
-        when(redis.opsForStream()).thenReturn((StreamOperations) streamOps);
+    void scheduledPublish_happyPathPublishesAndMarksEveryLane() {
+        when(outboxRepo.countUnpublishedByStream()).thenReturn(List.of(backlog("s1", 1), backlog("s2", 1)));
+        givenBatch("s1", 10, List.of(outboxEvent("s1", 1)));
+        givenBatch("s2", 10, List.of(outboxEvent("s2", 2)));
 
-        // call
         // noinspection CallToProtectedMethod
         publisher.publish();
 
-        verify(streamOps, times(2)).add(anyString(), any(Map.class));
-        verify(outboxRepo).markPublished(List.of(1L, 2L));
+        verify(streamOps).add(eq("s1"), any(Map.class));
+        verify(streamOps).add(eq("s2"), any(Map.class));
+        verify(outboxRepo).markPublished(List.of(1L));
+        verify(outboxRepo).markPublished(List.of(2L));
     }
 
     @Test
     void scheduledPublish_onRedisFailureStillMarksProcessedOnes() {
-        final var a = new OutboxEvent("s1", EventType.ECHO, "p1");
-        a.setId(1L);
-        a.setEventId("id-1");
-        a.setCreatedAt(Instant.now());
-        when(outboxRepo.findByPublishedFalseOrderByIdAsc(PageRequest.ofSize(10))).thenReturn(List.of(a));
-
-        // fail on add
-        doThrow(new RuntimeException("boom")).when(streamOps).add(anyString(), any(Map.class));
-        // noinspection unchecked
-        when(redis.opsForStream()).thenReturn((StreamOperations) streamOps);
+        when(outboxRepo.countUnpublishedByStream()).thenReturn(List.of(backlog("s1", 2)));
+        givenBatch("s1", 10, outboxEvents("s1", 1, 2));
+
+        // fail on the second add
+        when(streamOps.add(anyString(), any(Map.class))).thenReturn(null).thenThrow(new RuntimeException("boom"));
+
+        // noinspection CallToProtectedMethod
+        publisher.publish();
+
+        verify(outboxRepo).markPublished(List.of(1L));
+        assertEquals(1, publisher.laneStats().getFirst().backlog());
+    }
+
+    @Test
+    void scheduledPublish_failingLaneDoesNotBlockOthers() {
+        when(outboxRepo.countUnpublishedByStream()).thenReturn(List.of(backlog("bad", 1), backlog("good", 1)));
+        givenBatch("bad", 10, List.of(outboxEvent("bad", 1)));
+        givenBatch("good", 10, List.of(outboxEvent("good", 2)));
+        when(streamOps.add(eq("bad"), any(Map.class))).thenThrow(new RuntimeException("boom"));
+
+        // noinspection CallToProtectedMethod
+        publisher.publish();
+
+        verify(outboxRepo).markPublished(List.of());
+        verify(outboxRepo).markPublished(List.of(2L));
+    }
+
+    @Test
+    void scheduledPublish_drainsBacklogGrowingTheBatch() {
+        when(outboxRepo.countUnpublishedByStream()).thenReturn(List.of(backlog("s", 13)));
+        givenBatch("s", 10, outboxEvents("s", 1, 10));
+        givenBatch("s", 20, outboxEvents("s", 11, 13));
 
-        // call
         // noinspection CallToProtectedMethod
         publisher.publish();
 
-        // Since the failure happens before adding, no ids should be marked
-        ArgumentCaptor<List<Long>> idsCaptor = ArgumentCaptor.forClass(List.class);
-        verify(outboxRepo).markPublished(idsCaptor.capture());
-        assertTrue(idsCaptor.getValue().isEmpty());
+        verify(streamOps, times(13)).add(anyString(), any(Map.class));
+        verify(outboxRepo).markPublished(LongStream.rangeClosed(1, 10).boxed().toList());
+        verify(outboxRepo).markPublished(List.of(11L, 12L, 13L));
+    }
+
+    @Test
+    void scheduledPublish_pipelinedSendsWholeBatchInOneRoundTrip() {
+        publisher = newPublisher(true);
+        when(outboxRepo.countUnpublishedByStream()).thenReturn(List.of(backlog("s", 3)));
+        givenBatch("s", 10, outboxEvents("s", 1, 3));
+        when(redis.executePipelined(any(SessionCallback.class))).thenAnswer(inv -> {
+            inv.<SessionCallback<?>>getArgument(0).execute(redis);
+            return List.of();
+        });
+
+        // noinspection CallToProtectedMethod
+        publisher.publish();
+
+        verify(redis, times(1)).executePipelined(any(SessionCallback.class));
+        verify(streamOps, times(3)).add(anyString(), any(Map.class));
+        verify(outboxRepo).markPublished(List.of(1L, 2L, 3L));
+    }
+
+    @Test
+    void scheduledPublish_pipelinedFailureMarksNothing() {
+        publisher = newPublisher(true);
+        when(outboxRepo.countUnpublishedByStream()).thenReturn(List.of(backlog("s", 10)));
+        givenBatch("s", 10, outboxEvents("s", 1, 10));
+        when(redis.executePipelined(any(SessionCallback.class))).thenThrow(new RuntimeException("boom"));
+
+        // noinspection CallToProtectedMethod
+        publisher.publish();
+
+        // A failed batch ends the drain, even if it was full
+        verify(outboxRepo, times(1)).findByStreamAndPublishedFalseOrderByIdAsc(anyString(), any());
+        verify(outboxRepo).markPublished(List.of());
+    }
+
+    @Test
+    void laneStats_reportPublishedAndBacklogPerStream() {
+        when(outboxRepo.countUnpublishedByStream()).thenReturn(List.of(backlog("s1", 3), backlog("s2", 1)));
+        givenBatch("s1", 10, outboxEvents("s1", 1, 3));
+        givenBatch("s2", 10, List.of(outboxEvent("s2", 4)));
+
+        // noinspection CallToProtectedMethod
+        publisher.publish();
+
+        final var stats = publisher.laneStats();
+        assertEquals(List.of("s1", "s2"), stats.stream().map(OutboxLane.Stats::stream).toList());
+        assertEquals(3, stats.get(0).published());
+        assertEquals(0, stats.get(0).backlog());
+        assertEquals(1, stats.get(1).published());
+        assertEquals(3.0, meterRegistry.get("outbox.lane.published").tag("stream", "s1").functionCounter().count());
+    }
+
+    @Test
+    void worker_pollsOnStartupAndOnReconnect() {
+        when(outboxRepo.countUnpublishedByStream()).thenReturn(List.of());
+
+        publisher.start();
+        try {
+            verify(outboxRepo, timeout(1000).times(1)).countUnpublishedByStream();
+
+            publisher.setDisconnected(false);
+            verify(outboxRepo, timeout(1000).times(2)).countUnpublishedByStream();
+        } finally {
+            publisher.stop();
+        }
+        assertFalse(publisher.isRunning());
+    }
+
+    @Test
+    void scheduledPublish_coalescesSupersededUpdates() {
+        final var created = new OutboxEvent("s", EventType.INVENTORY_ITEM_CREATED, utf8("{\"storeId\":\"store-1\",\"productId\":\"p1\"}"));
+        created.setId(1L);
+        final var updates = LongStream.rangeClosed(2, 5).mapToObj(id -> {
+            final var e = new OutboxEvent("s", EventType.INVENTORY_ITEM_UPDATED,
+                    utf8("{\"storeId\":\"store-1\",\"productId\":\"p1\",\"quantity\":" + id + "}"));
+            e.setId(id);
+            return e;
+        }).toList();
+        final var batch = new ArrayList<OutboxEvent>();
+        batch.add(created);
+        batch.addAll(updates);
+
+        objectMapper = new ObjectMapper();
+        publisher = newPublisher(false);
+        when(outboxRepo.countUnpublishedByStream()).thenReturn(List.of(backlog("s", 5)));
+        givenBatch("s", 10, batch);
+
+        // noinspection CallToProtectedMethod
+        publisher.publish();
+
+        // Only the creation and the last update are sent, but every event is marked
+        final ArgumentCaptor<Map<String, byte[]>> entries = ArgumentCaptor.forClass(Map.class);
+        verify(streamOps, times(2)).add(eq("s"), entries.capture());
+        assertEquals(List.of(created.getEventId(), updates.getLast().getEventId()),
+                entries.getAllValues().stream().map(e -> new String(e.get("id"), StandardCharsets.UTF_8)).toList());
+        verify(outboxRepo).markPublished(List.of(1L, 2L, 3L, 4L, 5L));
+        assertEquals(3, publisher.laneStats().getFirst().coalesced());
+    }
+
+    @Test
+    void scheduledPublish_transcodesPayloadsStoredWithAnotherFormat() {
+        publisher = new OutboxEventPublisher(new DelegatingEventCodec(new ObjectMapper(), new EventCodecConfig(EventCodecConfig.Format.BINARY, 512)),
+                outboxRepo, redis, new TransactionTemplate(mock(PlatformTransactionManager.class)),
+                new OutboxConfig(false, 10, 40, Duration.ofHours(1), 1, false, false), leases, meterRegistry, Runnable::run);
+        when(outboxRepo.countUnpublishedByStream()).thenReturn(List.of(backlog("s", 1)));
+        givenBatch("s", 10, List.of(outboxEvent("s", 1)));
+
+        // noinspection CallToProtectedMethod
+        publisher.publish();
+
+        final ArgumentCaptor<Map<String, byte[]>> entry = ArgumentCaptor.forClass(Map.class);
+        verify(streamOps).add(eq("s"), entry.capture());
+        assertEquals(Set.of(BinaryEventCodec.ENTRY_FIELD), entry.getValue().keySet());
+        verify(outboxRepo).markPublished(List.of(1L));
+    }
+
+    @Test
+    void scheduledPublish_skipsStreamsLeasedByAnotherInstance() {
+        when(leases.acquire("mine")).thenReturn(true);
+        when(leases.acquire("theirs")).thenReturn(false);
+        when(outboxRepo.countUnpublishedByStream()).thenReturn(List.of(backlog("mine", 1), backlog("theirs", 1)));
+        givenBatch("mine", 10, List.of(outboxEvent("mine", 1)));
+
+        // noinspection CallToProtectedMethod
+        publisher.publish();
+
+        verify(outboxRepo, never()).findByStreamAndPublishedFalseOrderByIdAsc(eq("theirs"), any());
+        verify(outboxRepo).markPublished(List.of(1L));
+        verify(leases).release("mine");
+        verify(leases, never()).release("theirs");
+    }
+
+    /**
+     * Direct publishing publisher whose lane for {@code s} was just drained empty, and saves events with the given id.
+     */
+    private void givenDrainedDirectPublisher(final long savedId) throws Exception {
+        publisher = newPublisher(false, true);
+        when(objectMapper.writeValueAsBytes(any())).thenReturn(utf8("\"p\""));
+        when(outboxRepo.save(any(OutboxEvent.class))).thenAnswer(inv -> {
+            final OutboxEvent e = inv.getArgument(0);
+            e.setId(savedId);
+            return e;
+        });
+        when(outboxRepo.countUnpublishedByStream()).thenReturn(List.of(backlog("s", 0)));
+
+        // noinspection CallToProtectedMethod
+        publisher.publish();
+        clearInvocations(outboxRepo);
+    }
+
+    @Test
+    void publishEvent_directlySendsCommittedEventWithoutReadingOutbox() throws Exception {
+        givenDrainedDirectPublisher(7L);
+
+        final var event = publisher.publishEvent("s", EventType.ECHO, "p");
+
+        final ArgumentCaptor<Map<String, byte[]>> entry = ArgumentCaptor.forClass(Map.class);
+        verify(streamOps).add(eq("s"), entry.capture());
+        assertEquals(event.id(), new String(entry.getValue().get("id"), StandardCharsets.UTF_8));
+        verify(outboxRepo).markPublished(List.of(7L));
+        verify(outboxRepo, never()).findByStreamAndPublishedFalseOrderByIdAsc(anyString(), any());
+        assertEquals(1, publisher.laneStats().getFirst().published());
+    }
+
+    @Test
+    void publishEvent_failedDirectSendFallsBackToOutboxDrain() throws Exception {
+        givenDrainedDirectPublisher(7L);
+        when(streamOps.add(anyString(), any(Map.class))).thenThrow(new RuntimeException("boom"));
+
+        publisher.publishEvent("s", EventType.ECHO, "p");
+
+        verify(outboxRepo, never()).markPublished(anyList());
+        // The same run drains the outbox instead, starting from the failed event
+        verify(outboxRepo).findByStreamAndPublishedFalseOrderByIdAsc(eq("s"), any());
+    }
+
+    @Test
+    void publishEvent_noDirectSendWhenDisconnected() throws Exception {
+        givenDrainedDirectPublisher(7L);
+        publisher.setDisconnected(true);
+
+        publisher.publishEvent("s", EventType.ECHO, "p");
+
+        verify(streamOps, never()).add(anyString(), any(Map.class));
+        verify(outboxRepo, never()).markPublished(anyList());
     }
 }
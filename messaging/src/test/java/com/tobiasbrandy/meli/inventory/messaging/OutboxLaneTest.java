@@ -0,0 +1,69 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import com.tobiasbrandy.meli.inventory.model.EventType;
+import com.tobiasbrandy.meli.inventory.model.OutboxEvent;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboxLaneTest {
+
+    private static OutboxLane lane() {
+        return new OutboxLane("s", new OutboxConfig(true, 10, 100, Duration.ofSeconds(5), 1, false, false));
+    }
+
+    @Test
+    void onlyOneDrainIsScheduledAtATime() {
+        final var lane = lane();
+        assertTrue(lane.requestDrain());
+        assertFalse(lane.requestDrain());
+
+        lane.beginDrain();
+        assertFalse(lane.endDrain());
+
+        // Lane is released, the next request schedules a new drain
+        assertTrue(lane.requestDrain());
+    }
+
+    @Test
+    void requestsDuringDrainAreCoalescedIntoOneMoreDrain() {
+        final var lane = lane();
+        assertTrue(lane.requestDrain());
+        lane.beginDrain();
+
+        assertFalse(lane.requestDrain());
+        assertFalse(lane.requestDrain());
+
+        assertTrue(lane.endDrain());
+        lane.beginDrain();
+        assertFalse(lane.endDrain());
+    }
+
+    @Test
+    void recordDrainTracksPublishedAndBacklog() {
+        final var lane = lane();
+        lane.setBacklog(100);
+
+        lane.recordDrain(40, 0, 1_000_000_000L, false);
+        assertEquals(new OutboxLane.Stats("s", 40, 0, 60, 40.0), lane.stats());
+
+        lane.recordDrain(60, 10, 500_000_000L, true);
+        assertEquals(new OutboxLane.Stats("s", 100, 10, 0, 120.0), lane.stats());
+    }
+
+    @Test
+    void takeFreshReturnsOfferedEventsOnceSortedById() {
+        final var lane = lane();
+        for (final long id : new long[]{3, 1, 2}) {
+            final var event = new OutboxEvent("s", EventType.ECHO, new byte[0]);
+            event.setId(id);
+            lane.offer(event);
+        }
+
+        assertEquals(List.of(1L, 2L, 3L), lane.takeFresh().stream().map(OutboxEvent::getId).toList());
+        assertTrue(lane.takeFresh().isEmpty());
+    }
+}
@@ -0,0 +1,95 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import com.tobiasbrandy.meli.inventory.repository.OutboxLeaseRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class OutboxLeasesTest {
+
+    private OutboxLeaseRepository leaseRepo;
+
+    @BeforeEach
+    void setUp() {
+        leaseRepo = mock(OutboxLeaseRepository.class);
+    }
+
+    private OutboxLeases leases(final boolean enabled) {
+        return new OutboxLeases(new OutboxLeaseConfig(enabled, Duration.ofSeconds(30)), leaseRepo,
+                new TransactionTemplate(mock(PlatformTransactionManager.class)));
+    }
+
+    @Test
+    void disabledAlwaysOwnsEveryStream() {
+        final var leases = leases(false);
+
+        assertTrue(leases.acquire("s"));
+        leases.release("s");
+        verifyNoInteractions(leaseRepo);
+    }
+
+    @Test
+    void acquire_createsMissingLease() {
+        final var leases = leases(true);
+        when(leaseRepo.claim(eq("s"), eq(leases.owner()), any(), any())).thenReturn(0);
+        when(leaseRepo.existsById("s")).thenReturn(false);
+        when(leaseRepo.create(eq("s"), eq(leases.owner()), any())).thenReturn(1);
+
+        assertTrue(leases.acquire("s"));
+    }
+
+    @Test
+    void acquire_failsWhileAnotherOwnerHoldsTheLease() {
+        final var leases = leases(true);
+        when(leaseRepo.claim(eq("s"), anyString(), any(), any())).thenReturn(0);
+        when(leaseRepo.existsById("s")).thenReturn(true);
+
+        assertFalse(leases.acquire("s"));
+        verify(leaseRepo, never()).create(anyString(), anyString(), any());
+    }
+
+    @Test
+    void acquire_failsWhenAnotherOwnerCreatesTheLeaseFirst() {
+        final var leases = leases(true);
+        when(leaseRepo.claim(eq("s"), anyString(), any(), any())).thenReturn(0);
+        when(leaseRepo.existsById("s")).thenReturn(false);
+        when(leaseRepo.create(eq("s"), anyString(), any())).thenThrow(new DataIntegrityViolationException("duplicate"));
+
+        assertFalse(leases.acquire("s"));
+    }
+
+    @Test
+    void acquire_renewsOnlyPastHalfTheTimeout() {
+        final var leases = leases(true);
+        when(leaseRepo.claim(eq("s"), anyString(), any(), any())).thenReturn(1);
+
+        assertTrue(leases.acquire("s"));
+        assertTrue(leases.acquire("s"));
+        verify(leaseRepo, times(1)).claim(eq("s"), anyString(), any(), any());
+    }
+
+    @Test
+    void release_onlyReleasesHeldLeases() {
+        final var leases = leases(true);
+        when(leaseRepo.claim(eq("s"), anyString(), any(), any())).thenReturn(1);
+
+        leases.release("s");
+        verify(leaseRepo, never()).release(anyString(), anyString(), any());
+
+        leases.acquire("s");
+        leases.release("s");
+        verify(leaseRepo).release(eq("s"), eq(leases.owner()), any());
+
+        // Released leases must be claimed again
+        leases.acquire("s");
+        verify(leaseRepo, times(2)).claim(eq("s"), anyString(), any(), any());
+    }
+}
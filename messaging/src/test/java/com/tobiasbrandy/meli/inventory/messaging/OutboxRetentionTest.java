@@ -0,0 +1,72 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import com.tobiasbrandy.meli.inventory.model.EventType;
+import com.tobiasbrandy.meli.inventory.model.OutboxEvent;
+import com.tobiasbrandy.meli.inventory.repository.OutboxEventRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class OutboxRetentionTest {
+
+    private OutboxEventRepository outboxRepo;
+    private OutboxArchive archive;
+
+    @BeforeEach
+    void setUp() {
+        outboxRepo = mock(OutboxEventRepository.class);
+        archive = mock(OutboxArchive.class);
+    }
+
+    private OutboxRetention retention(final boolean enabled) {
+        return new OutboxRetention(new OutboxRetentionConfig(enabled, "unused", 1, 2), outboxRepo, archive,
+                new TransactionTemplate(mock(PlatformTransactionManager.class)));
+    }
+
+    private static OutboxEvent published(final long id) {
+        final var e = new OutboxEvent("s", EventType.ECHO, new byte[]{'p'});
+        e.setId(id);
+        e.setPublished(true);
+        return e;
+    }
+
+    @Test
+    void purge_disabledDoesNothing() {
+        assertEquals(0, retention(false).purge());
+        verifyNoInteractions(outboxRepo, archive);
+    }
+
+    @Test
+    void purge_archivesBeforeDeletingEveryBatch() throws Exception {
+        final var first = List.of(published(1), published(2));
+        final var second = List.of(published(3));
+        when(outboxRepo.findByPublishedTrueOrderByIdAsc(PageRequest.ofSize(2))).thenReturn(first, second);
+        when(outboxRepo.deletePublished(anyList())).thenAnswer(inv -> inv.<List<Long>>getArgument(0).size());
+
+        assertEquals(3, retention(true).purge());
+
+        final var inOrder = inOrder(archive, outboxRepo);
+        inOrder.verify(archive).append(first);
+        inOrder.verify(outboxRepo).deletePublished(List.of(1L, 2L));
+        inOrder.verify(archive).append(second);
+        inOrder.verify(outboxRepo).deletePublished(List.of(3L));
+    }
+
+    @Test
+    void purge_keepsEventsWhenArchivingFails() throws Exception {
+        when(outboxRepo.findByPublishedTrueOrderByIdAsc(any())).thenReturn(List.of(published(1)));
+        doThrow(new IOException("disk full")).when(archive).append(anyList());
+
+        assertEquals(0, retention(true).purge());
+        verify(outboxRepo, never()).deletePublished(anyList());
+    }
+}
@@ -0,0 +1,167 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands.XClaimOptions;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StreamOperations;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PendingReclaimerTest {
+
+    private StreamOperations<String, String, byte[]> streamOps;
+    private StreamConsumer streamConsumer;
+    private DeadLetterQueue deadLetterQueue;
+    private SimpleMeterRegistry meterRegistry;
+    private PendingReclaimer reclaimer;
+
+    @SuppressWarnings("unchecked")
+    @BeforeEach
+    void setUp() {
+        final RedisTemplate<String, byte[]> redis = mock(RedisTemplate.class);
+        streamOps = mock(StreamOperations.class);
+        streamConsumer = mock(StreamConsumer.class);
+        deadLetterQueue = mock(DeadLetterQueue.class);
+        meterRegistry = new SimpleMeterRegistry();
+        when(redis.opsForStream()).thenReturn((StreamOperations) streamOps);
+        when(streamConsumer.consumerGroup()).thenReturn("group");
+        when(streamConsumer.consumer()).thenReturn(Consumer.from("group", "me"));
+        when(streamConsumer.owns("s")).thenReturn(true);
+        reclaimer = new PendingReclaimer(redis, streamConsumer,
+                new ConsumerConfig(2, 2, Duration.ofSeconds(1), Duration.ofSeconds(10), "me", Duration.ofSeconds(30), ConsumerConfig.Mode.PLATFORM_THREADS, 4, 1),
+                deadLetterQueue, new DeadLetterConfig(3, Duration.ofSeconds(30), 1000), List.of("s"), meterRegistry);
+    }
+
+    private static PendingMessage pending(final String id, final Duration idle) {
+        return pending(id, idle, 1);
+    }
+
+    private static PendingMessage pending(final String id, final Duration idle, final long deliveries) {
+        return new PendingMessage(RecordId.of(id), Consumer.from("group", "dead"), idle, deliveries);
+    }
+
+    private static MapRecord<String, String, byte[]> record(final String id) {
+        return MapRecord.create("s", Map.of("e", new byte[]{0})).withId(RecordId.of(id));
+    }
+
+    private void givenPendingCount(final long count) {
+        when(streamOps.pending("s", "group")).thenReturn(new PendingMessagesSummary("group", count, Range.unbounded(), Map.of()));
+    }
+
+    @Test
+    void nothingPendingIsANoop() {
+        givenPendingCount(0);
+
+        assertEquals(0, reclaimer.reclaim());
+
+        verify(streamOps, never()).pending(anyString(), anyString(), any(Range.class), anyLong());
+        assertEquals(0.0, meterRegistry.get("consumer.pending").tag("stream", "s").gauge().value());
+    }
+
+    @Test
+    void claimsIdleEntriesPageByPageAndHandlesThemAgain() {
+        givenPendingCount(3);
+        when(streamOps.pending(eq("s"), eq("group"), any(Range.class), eq(2L)))
+                .thenReturn(new PendingMessages("group", List.of(pending("1-0", Duration.ofSeconds(30)), pending("2-0", Duration.ofSeconds(1)))))
+                .thenReturn(new PendingMessages("group", List.of(pending("3-0", Duration.ofSeconds(30)))));
+        final var first = List.of(record("1-0"));
+        final var second = List.of(record("3-0"));
+        when(streamOps.claim(eq("s"), eq("group"), eq("me"), any(XClaimOptions.class))).thenReturn(first, second);
+
+        assertEquals(2, reclaimer.reclaim());
+
+        // Only idle entries are claimed
+        final var options = ArgumentCaptor.forClass(XClaimOptions.class);
+        verify(streamOps, times(2)).claim(eq("s"), eq("group"), eq("me"), options.capture());
+        assertEquals(List.of(RecordId.of("1-0")), options.getAllValues().get(0).getIds());
+        assertEquals(List.of(RecordId.of("3-0")), options.getAllValues().get(1).getIds());
+        assertEquals(Duration.ofSeconds(10), options.getAllValues().get(0).getMinIdleTime());
+
+        verify(streamConsumer).handle("s", first, true);
+        verify(streamConsumer).handle("s", second, true);
+        assertEquals(3.0, meterRegistry.get("consumer.pending").tag("stream", "s").gauge().value());
+        assertEquals(2.0, meterRegistry.get("consumer.reclaimed").tag("stream", "s").counter().count());
+    }
+
+    @Test
+    void backoffDoublesOnEveryDeliveryUpToTheMax() {
+        assertEquals(Duration.ofSeconds(10), reclaimer.backoff(1));
+        assertEquals(Duration.ofSeconds(20), reclaimer.backoff(2));
+        assertEquals(Duration.ofSeconds(30), reclaimer.backoff(3));
+        assertEquals(Duration.ofSeconds(30), reclaimer.backoff(1000));
+    }
+
+    @Test
+    void failedEntriesWaitForTheirBackoff() {
+        givenPendingCount(2);
+        when(streamOps.pending(eq("s"), eq("group"), any(Range.class), eq(2L)))
+                .thenReturn(new PendingMessages("group", List.of(
+                        pending("1-0", Duration.ofSeconds(15), 2), pending("2-0", Duration.ofSeconds(25), 2))))
+                // Full page, so the next one is read too
+                .thenReturn(new PendingMessages("group", List.of()));
+        final var retried = List.of(record("2-0"));
+        when(streamOps.claim(eq("s"), eq("group"), eq("me"), any(XClaimOptions.class))).thenReturn(retried);
+
+        assertEquals(1, reclaimer.reclaim());
+
+        final var options = ArgumentCaptor.forClass(XClaimOptions.class);
+        verify(streamOps).claim(eq("s"), eq("group"), eq("me"), options.capture());
+        assertEquals(List.of(RecordId.of("2-0")), options.getValue().getIds());
+        verify(streamConsumer).handle("s", retried, true);
+    }
+
+    @Test
+    void entriesOutOfDeliveriesAreDeadLettered() {
+        givenPendingCount(2);
+        when(streamOps.pending(eq("s"), eq("group"), any(Range.class), eq(2L)))
+                .thenReturn(new PendingMessages("group", List.of(
+                        pending("1-0", Duration.ofMinutes(1), 3), pending("2-0", Duration.ofMinutes(1), 3))))
+                // Full page, so the next one is read too
+                .thenReturn(new PendingMessages("group", List.of()));
+        final var poison = record("1-0");
+        final var failing = record("2-0");
+        when(streamOps.claim(eq("s"), eq("group"), eq("me"), any(XClaimOptions.class))).thenReturn(List.of(poison, failing));
+        when(deadLetterQueue.deadLetter(poison, 3, null)).thenReturn(true);
+        when(deadLetterQueue.deadLetter(failing, 3, null)).thenReturn(false);
+
+        assertEquals(0, reclaimer.reclaim());
+
+        // Entries that couldn't be dead-lettered stay pending
+        verify(streamOps).acknowledge("s", "group", RecordId.of("1-0"));
+        verify(streamConsumer, never()).handle(anyString(), anyList(), anyBoolean());
+    }
+
+    @Test
+    void streamOwnedByAnotherInstanceIsLeftToIt() {
+        givenPendingCount(3);
+        when(streamConsumer.owns("s")).thenReturn(false);
+
+        assertEquals(0, reclaimer.reclaim());
+
+        verify(streamOps, never()).pending(anyString(), anyString(), any(Range.class), anyLong());
+        assertEquals(3.0, meterRegistry.get("consumer.pending").tag("stream", "s").gauge().value());
+    }
+
+    @Test
+    void failingStreamDoesNotStopTheRun() {
+        when(streamOps.pending("s", "group")).thenThrow(new RuntimeException("boom"));
+
+        assertEquals(0, reclaimer.reclaim());
+    }
+}
@@ -0,0 +1,88 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.stream.StreamReceiver;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ReactiveStreamConsumerTest {
+
+    private StreamReceiver<String, MapRecord<String, String, byte[]>> receiver;
+    private StreamConsumer streamConsumer;
+    private ReactiveStreamConsumer reactive;
+
+    @SuppressWarnings("unchecked")
+    @BeforeEach
+    void setUp() {
+        receiver = mock(StreamReceiver.class);
+        streamConsumer = mock(StreamConsumer.class);
+        when(streamConsumer.consumer()).thenReturn(Consumer.from("group", "me"));
+        reactive = new ReactiveStreamConsumer(receiver, streamConsumer,
+                new ConsumerConfig(1, 2, Duration.ofSeconds(1), Duration.ofSeconds(10), "me", Duration.ofSeconds(30), ConsumerConfig.Mode.REACTIVE, 2, 1),
+                List.of("s"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        reactive.close();
+    }
+
+    private static MapRecord<String, String, byte[]> record(final String id) {
+        return MapRecord.create("s", Map.of("e", new byte[]{0})).withId(RecordId.of(id));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void handlesEntriesInBatchesInOrder() {
+        final var first = record("1-0");
+        final var second = record("2-0");
+        final var third = record("3-0");
+        when(receiver.receive(eq(Consumer.from("group", "me")), any(StreamOffset.class))).thenReturn(Flux.just(first, second, third));
+        when(streamConsumer.handle(eq("s"), anyList(), eq(false))).thenAnswer(inv -> inv.<List<?>>getArgument(1).size());
+
+        assertEquals(List.of(2, 1), reactive.receive("s").collectList().block(Duration.ofSeconds(5)));
+
+        final InOrder inOrder = inOrder(streamConsumer);
+        inOrder.verify(streamConsumer).handle("s", List.of(first, second), false);
+        inOrder.verify(streamConsumer).handle("s", List.of(third), false);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void failedBatchIsLeftPendingWithoutEndingTheStream() {
+        when(receiver.receive(any(Consumer.class), any(StreamOffset.class)))
+                .thenReturn(Flux.just(record("1-0"), record("2-0"), record("3-0")));
+        when(streamConsumer.handle(eq("s"), anyList(), eq(false)))
+                .thenThrow(new RuntimeException("boom"))
+                .thenReturn(1);
+
+        assertEquals(List.of(0, 1), reactive.receive("s").collectList().block(Duration.ofSeconds(5)));
+    }
+
+    @Test
+    void startsOnlyInReactiveMode() {
+        final var polling = new ReactiveStreamConsumer(receiver, streamConsumer,
+                new ConsumerConfig(1, 2, Duration.ofSeconds(1), Duration.ofSeconds(10), "me", Duration.ofSeconds(30), ConsumerConfig.Mode.VIRTUAL_THREADS, 2, 1),
+                List.of("s"));
+
+        polling.start();
+
+        assertFalse(polling.isRunning());
+        verifyNoInteractions(receiver);
+        polling.close();
+    }
+}
@@ -0,0 +1,166 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Ingest throughput of a consumer group as instances are added, against a local Redis (localhost:6379).
+ * <p>
+ * Each instance handles a batch at a time, taking {@value #BATCH_COST_MILLIS}ms, standing for the transaction that
+ * applies it to the database of the node, the ingest ceiling of a single instance.
+ * Entries of every stream are also checked to be handled in order.
+ * Run with {@code ./mvnw -pl messaging test -Dtest=StreamConsumerBenchmark -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class StreamConsumerBenchmark {
+    private static final int STREAMS = 8;
+    private static final int ENTRIES_PER_STREAM = 5_000;
+    private static final int BATCH_COST_MILLIS = 5;
+    private static final String GROUP = "benchmark-group";
+    private static final String STREAM_PREFIX = "benchmark:consumer:stream:";
+    private static final byte[] ENTRY = "{\"storeId\":\"store-1\",\"productId\":\"p1\",\"quantity\":10}".getBytes(StandardCharsets.UTF_8);
+    private static final ConsumerConfig CONFIG =
+        new ConsumerConfig(10, 100, Duration.ofMillis(100), Duration.ofSeconds(10), null, Duration.ofSeconds(1), ConsumerConfig.Mode.PLATFORM_THREADS, 4, 1);
+
+    private static LettuceConnectionFactory connectionFactory;
+    private static RedisTemplate<String, byte[]> redis;
+    private static StringRedisTemplate stringRedis;
+
+    @BeforeAll
+    static void connect() {
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("localhost", 6379));
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        redis = new RedisTemplate<>();
+        redis.setConnectionFactory(connectionFactory);
+        redis.setKeySerializer(RedisSerializer.string());
+        redis.setHashKeySerializer(RedisSerializer.string());
+        redis.setHashValueSerializer(RedisSerializer.byteArray());
+        redis.afterPropertiesSet();
+        stringRedis = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void disconnect() {
+        redis.delete(streams());
+        connectionFactory.destroy();
+    }
+
+    private static List<String> streams() {
+        final List<String> streams = new ArrayList<>();
+        for (int i = 0; i < STREAMS; i++) {
+            streams.add(STREAM_PREFIX + i);
+        }
+        return streams;
+    }
+
+    @Test
+    void scaleOut() throws InterruptedException {
+        for (final int instances : List.of(1, 2, 4, 8)) {
+            run(instances);
+        }
+    }
+
+    private void run(final int instances) throws InterruptedException {
+        redis.delete(streams());
+        final var handled = new AtomicInteger();
+        final var outOfOrder = new AtomicInteger();
+        final Map<String, RecordId> lastHandled = new ConcurrentHashMap<>();
+        final List<StreamConsumer> consumers = new ArrayList<>();
+        for (int i = 0; i < instances; i++) {
+            final var consumer = new StreamConsumer(redis, listener(handled, outOfOrder, lastHandled),
+                mock(IdempotencyStore.class), new ConsumerLeases(stringRedis, CONFIG, GROUP), CONFIG, GROUP, streams());
+            consumers.add(consumer);
+            consumer.start();
+        }
+        // Let instances heartbeat and spread the streams among them
+        Thread.sleep(3 * CONFIG.leaseTimeout().toMillis());
+
+        final long start = System.nanoTime();
+        produce();
+        while (handled.get() < STREAMS * ENTRIES_PER_STREAM) {
+            Thread.sleep(1);
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        consumers.forEach(StreamConsumer::stop);
+
+        assertEquals(STREAMS * ENTRIES_PER_STREAM, handled.get());
+        assertEquals(0, outOfOrder.get());
+        System.out.printf("[%d instances] consumed %d entries in %.2fs: %.0f entries/s%n",
+            instances, handled.get(), seconds, handled.get() / seconds);
+    }
+
+    /**
+     * Listener of a single instance, handling a batch at a time, which counts entries of a stream handled out of order.
+     */
+    private static EventListener listener(final AtomicInteger handled, final AtomicInteger outOfOrder,
+                                          final Map<String, RecordId> lastHandled) {
+        final var database = new Semaphore(1);
+        final var listener = mock(EventListener.class);
+        when(listener.onMessages(anyList())).thenAnswer(inv -> {
+            final List<MapRecord<String, String, byte[]>> records = inv.getArgument(0);
+            database.acquireUninterruptibly();
+            try {
+                LockSupport.parkNanos(Duration.ofMillis(BATCH_COST_MILLIS).toNanos());
+            } finally {
+                database.release();
+            }
+            for (final var record : records) {
+                lastHandled.merge(record.getStream(), record.getId(), (last, id) -> {
+                    if (last.getTimestamp() > id.getTimestamp()
+                        || last.getTimestamp() == id.getTimestamp() && last.getSequence() >= id.getSequence()) {
+                        outOfOrder.incrementAndGet();
+                    }
+                    return id;
+                });
+            }
+            handled.addAndGet(records.size());
+            return records.stream().map(MapRecord::getId).toList();
+        });
+        when(listener.onReclaimed(anyList())).thenReturn(List.of());
+        return listener;
+    }
+
+    private static void produce() {
+        redis.executePipelined((RedisCallback<Object>) connection -> {
+            for (int n = 0; n < ENTRIES_PER_STREAM; n++) {
+                for (final var stream : streams()) {
+                    add(connection, stream);
+                }
+            }
+            return null;
+        });
+    }
+
+    private static void add(final RedisConnection connection, final String stream) {
+        connection.streamCommands().xAdd(StreamRecords.rawBytes(Map.of("e".getBytes(StandardCharsets.UTF_8), ENTRY))
+            .withStreamKey(stream.getBytes(StandardCharsets.UTF_8)));
+    }
+}
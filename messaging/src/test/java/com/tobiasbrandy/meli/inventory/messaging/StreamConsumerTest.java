@@ -0,0 +1,262 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands.XClaimOptions;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StreamOperations;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class StreamConsumerTest {
+
+    private StreamOperations<String, String, byte[]> streamOps;
+    private EventListener listener;
+    private IdempotencyStore idempotencyStore;
+    private ConsumerLeases leases;
+    private StreamConsumer consumer;
+
+    @SuppressWarnings("unchecked")
+    @BeforeEach
+    void setUp() {
+        final RedisTemplate<String, byte[]> redis = mock(RedisTemplate.class);
+        streamOps = mock(StreamOperations.class);
+        listener = mock(EventListener.class);
+        idempotencyStore = mock(IdempotencyStore.class);
+        leases = mock(ConsumerLeases.class);
+        when(redis.opsForStream()).thenReturn((StreamOperations) streamOps);
+        consumer = new StreamConsumer(redis, listener, idempotencyStore, leases,
+                new ConsumerConfig(10, 100, Duration.ofSeconds(1), Duration.ofSeconds(10), "me", Duration.ofSeconds(30), ConsumerConfig.Mode.PLATFORM_THREADS, 4, 1), "group", List.of("s"));
+    }
+
+    private static MapRecord<String, String, byte[]> record(final String id) {
+        return MapRecord.create("s", Map.of("e", new byte[]{0})).withId(RecordId.of(id));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void pollHandsWholeReadToListenerAndAcknowledgesDoneRecords() {
+        final var records = List.of(record("1-0"), record("2-0"));
+        when(streamOps.read(any(Consumer.class), any(StreamReadOptions.class), any(StreamOffset.class))).thenReturn(records);
+        when(listener.onMessages(records)).thenReturn(List.of(RecordId.of("1-0")));
+
+        assertEquals(2, consumer.poll("s"));
+
+        final var options = ArgumentCaptor.forClass(StreamReadOptions.class);
+        verify(streamOps).read(eq(Consumer.from("group", "me")), options.capture(), any(StreamOffset.class));
+        assertEquals(10L, options.getValue().getCount());
+        assertEquals(1000L, options.getValue().getBlock());
+        assertFalse(options.getValue().isNoack());
+        // The failed record is left pending
+        verify(streamOps).acknowledge("s", "group", RecordId.of("1-0"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void recoverPendingHandlesOwnPendingEntriesUntilNoneLeft() {
+        final var first = List.of(record("1-0"), record("2-0"));
+        final var second = List.of(record("3-0"));
+        when(streamOps.read(any(Consumer.class), any(StreamReadOptions.class), any(StreamOffset.class)))
+                .thenReturn(first, second, List.of());
+        when(listener.onReclaimed(anyList())).thenReturn(List.of());
+
+        assertEquals(3, consumer.recoverPending("s"));
+
+        final var offsets = ArgumentCaptor.forClass(StreamOffset.class);
+        verify(streamOps, times(3)).read(any(Consumer.class), any(StreamReadOptions.class), offsets.capture());
+        assertEquals(List.of("0", "2-0", "3-0"),
+                offsets.getAllValues().stream().map(o -> ((StreamOffset<?>) o).getOffset().getOffset()).toList());
+        verify(listener).onReclaimed(first);
+        verify(listener).onReclaimed(second);
+        verify(listener, never()).onMessages(anyList());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void pollGrowsBatchWhileBehindAndShrinksOnceCaughtUp() {
+        final List<MapRecord<String, String, byte[]>> full = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            full.add(record(i + "-0"));
+        }
+        when(streamOps.read(any(Consumer.class), any(StreamReadOptions.class), any(StreamOffset.class)))
+                .thenReturn(full, List.of(record("11-0")), List.of());
+        when(listener.onMessages(anyList())).thenReturn(List.of());
+
+        consumer.poll("s");
+        consumer.poll("s");
+        consumer.poll("s");
+
+        final var options = ArgumentCaptor.forClass(StreamReadOptions.class);
+        verify(streamOps, times(3)).read(any(Consumer.class), options.capture(), any(StreamOffset.class));
+        assertEquals(List.of(10L, 20L, 10L), options.getAllValues().stream().map(StreamReadOptions::getCount).toList());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void pollAllReadsEveryStreamAtOnceAndHandlesEachBatchOnItsOwn() {
+        final var s1 = List.of(MapRecord.create("s1", Map.of("e", new byte[]{0})).withId(RecordId.of("1-0")));
+        final var s2 = List.of(MapRecord.create("s2", Map.of("e", new byte[]{0})).withId(RecordId.of("1-0")));
+        when(streamOps.read(any(Consumer.class), any(StreamReadOptions.class), any(StreamOffset[].class)))
+                .thenReturn(List.of(s1.getFirst(), s2.getFirst()));
+        when(listener.onMessages(anyList())).thenReturn(List.of(RecordId.of("1-0")));
+        final var multi = new StreamConsumer(redisMock(), listener, idempotencyStore, leases,
+                new ConsumerConfig(10, 100, Duration.ofSeconds(1), Duration.ofSeconds(10), "me", Duration.ofSeconds(30), ConsumerConfig.Mode.VIRTUAL_THREADS, 4, 1), "group", List.of("s1", "s2"));
+
+        assertEquals(2, multi.pollAll(List.of("s1", "s2"), false));
+
+        // Non blocking, since other batches may be in flight
+        final var options = ArgumentCaptor.forClass(StreamReadOptions.class);
+        verify(streamOps).read(any(Consumer.class), options.capture(), any(StreamOffset[].class));
+        assertNull(options.getValue().getBlock());
+        verify(listener, timeout(1000)).onMessages(s1);
+        verify(listener, timeout(1000)).onMessages(s2);
+        verify(streamOps, timeout(1000)).acknowledge("s1", "group", RecordId.of("1-0"));
+        verify(streamOps, timeout(1000)).acknowledge("s2", "group", RecordId.of("1-0"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private RedisTemplate<String, byte[]> redisMock() {
+        final RedisTemplate<String, byte[]> redis = mock(RedisTemplate.class);
+        when(redis.opsForStream()).thenReturn((StreamOperations) streamOps);
+        return redis;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void pollSkipsListenerWhenNothingWasRead() {
+        when(streamOps.read(any(Consumer.class), any(StreamReadOptions.class), any(StreamOffset.class))).thenReturn(List.of());
+
+        assertEquals(0, consumer.poll("s"));
+
+        verifyNoInteractions(listener);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void generatesUniqueConsumerNamesWhenNotConfigured() {
+        final var config = new ConsumerConfig(10, 100, Duration.ofSeconds(1), Duration.ofSeconds(10), "", Duration.ofSeconds(30), ConsumerConfig.Mode.PLATFORM_THREADS, 4, 1);
+        final var a = new StreamConsumer(mock(RedisTemplate.class), listener, idempotencyStore, leases, config, "group", List.of("s"));
+        final var b = new StreamConsumer(mock(RedisTemplate.class), listener, idempotencyStore, leases, config, "group", List.of("s"));
+
+        assertEquals("group", a.consumer().getGroup());
+        assertNotEquals(a.consumer().getName(), b.consumer().getName());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void acquiringStreamTakesOverEntriesPendingOnOtherConsumers() {
+        when(leases.acquire("s", "me")).thenReturn(true);
+        when(streamOps.pending(eq("s"), eq("group"), any(Range.class), eq(100L))).thenReturn(new PendingMessages("group", List.of(
+                new PendingMessage(RecordId.of("1-0"), Consumer.from("group", "dead"), Duration.ofSeconds(1), 1),
+                new PendingMessage(RecordId.of("2-0"), Consumer.from("group", "me"), Duration.ofSeconds(1), 1))));
+        when(streamOps.claim(eq("s"), eq("group"), eq("me"), any(XClaimOptions.class))).thenReturn(List.of(record("1-0")));
+        final var pending = List.of(record("1-0"), record("2-0"));
+        when(streamOps.read(any(Consumer.class), any(StreamReadOptions.class), any(StreamOffset.class))).thenReturn(pending, List.of());
+        when(listener.onReclaimed(pending)).thenReturn(List.of(RecordId.of("1-0"), RecordId.of("2-0")));
+
+        assertTrue(consumer.acquire("s"));
+        assertTrue(consumer.owns("s"));
+
+        final var options = ArgumentCaptor.forClass(XClaimOptions.class);
+        verify(streamOps).claim(eq("s"), eq("group"), eq("me"), options.capture());
+        assertEquals(List.of(RecordId.of("1-0")), options.getValue().getIds());
+        verify(idempotencyStore).streamAcquired("s");
+        verify(streamOps).acknowledge("s", "group", RecordId.of("1-0"), RecordId.of("2-0"));
+
+        // Renewing an owned stream takes nothing over
+        assertTrue(consumer.acquire("s"));
+        verify(streamOps, times(1)).claim(anyString(), anyString(), anyString(), any(XClaimOptions.class));
+    }
+
+    @Test
+    void streamLeasedByAnotherConsumerIsNotOwned() {
+        when(leases.acquire("s", "me")).thenReturn(true, false);
+        when(streamOps.pending(eq("s"), eq("group"), any(Range.class), anyLong())).thenReturn(new PendingMessages("group", List.of()));
+
+        assertTrue(consumer.acquire("s"));
+        assertFalse(consumer.acquire("s"));
+
+        assertFalse(consumer.owns("s"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void keepsToItsFairShareOfStreams() {
+        when(streamOps.pending(anyString(), eq("group"), any(Range.class), anyLong())).thenReturn(new PendingMessages("group", List.of()));
+        when(leases.acquire(anyString(), eq("me"))).thenReturn(true);
+        when(leases.liveConsumers("me")).thenReturn(1);
+        final var shared = new StreamConsumer(redisMock(), listener, idempotencyStore, leases,
+                new ConsumerConfig(10, 100, Duration.ofSeconds(1), Duration.ofSeconds(10), "me", Duration.ofSeconds(30), ConsumerConfig.Mode.PLATFORM_THREADS, 4, 1), "group", List.of("s1", "s2"));
+
+        assertTrue(shared.acquire("s1"));
+        assertTrue(shared.acquire("s2"));
+
+        // Another instance joins, so one of the streams is left to it
+        when(leases.liveConsumers("me")).thenReturn(2);
+        assertFalse(shared.acquire("s2"));
+        assertTrue(shared.acquire("s1"));
+        assertFalse(shared.owns("s2"));
+        verify(leases).release("s2", "me");
+    }
+
+    @Test
+    void renewingAStreamInFlightKeepsItsLeaseWithoutTakingOverEntries() {
+        when(leases.acquire("s", "me")).thenReturn(true, true, false);
+        when(streamOps.pending(eq("s"), eq("group"), any(Range.class), anyLong())).thenReturn(new PendingMessages("group", List.of()));
+        assertTrue(consumer.acquire("s"));
+        clearInvocations(streamOps);
+
+        assertTrue(consumer.renew("s"));
+        verifyNoInteractions(streamOps);
+        verify(leases, times(2)).liveConsumers("me");
+
+        // Taken over by another consumer mid-batch
+        assertFalse(consumer.renew("s"));
+        assertFalse(consumer.owns("s"));
+    }
+
+    @Test
+    void concurrentAcquiresKeepToTheFairShare() throws InterruptedException {
+        when(streamOps.pending(anyString(), eq("group"), any(Range.class), anyLong())).thenReturn(new PendingMessages("group", List.of()));
+        when(leases.acquire(anyString(), eq("me"))).thenReturn(true);
+        when(leases.liveConsumers("me")).thenReturn(4);
+        final var streams = IntStream.range(0, 16).mapToObj(i -> "s" + i).toList();
+        final var shared = new StreamConsumer(redisMock(), listener, idempotencyStore, leases,
+                new ConsumerConfig(10, 100, Duration.ofSeconds(1), Duration.ofSeconds(10), "me", Duration.ofSeconds(30), ConsumerConfig.Mode.PLATFORM_THREADS, 4, 1), "group", streams);
+
+        // One thread per stream, as in PLATFORM_THREADS mode
+        final var go = new CountDownLatch(1);
+        final var threads = streams.stream().map(stream -> Thread.ofPlatform().start(() -> {
+            try {
+                go.await();
+            } catch (final InterruptedException e) {
+                return;
+            }
+            shared.acquire(stream);
+        })).toList();
+        go.countDown();
+        for (final var thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(4, streams.stream().filter(shared::owns).count());
+    }
+}
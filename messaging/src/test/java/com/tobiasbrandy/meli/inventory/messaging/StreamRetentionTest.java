@@ -0,0 +1,126 @@
+package com.tobiasbrandy.meli.inventory.messaging;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class StreamRetentionTest {
+
+    private StringRedisTemplate redis;
+    private StreamOperations<String, Object, Object> streamOps;
+    private SimpleMeterRegistry meterRegistry;
+
+    @SuppressWarnings("unchecked")
+    @BeforeEach
+    void setUp() {
+        redis = mock(StringRedisTemplate.class);
+        streamOps = mock(StreamOperations.class);
+        meterRegistry = new SimpleMeterRegistry();
+        when(redis.opsForStream()).thenReturn((StreamOperations) streamOps);
+        when(redis.hasKey("s")).thenReturn(true);
+    }
+
+    private StreamRetention retention(final boolean enabled, final long maxLength, final Duration maxAge) {
+        return new StreamRetention(new StreamRetentionConfig(enabled, maxLength, maxAge), redis, List.of("s"), meterRegistry);
+    }
+
+    private static StreamInfo.XInfoGroup group(final String name, final long pending, final String lastDeliveredId) {
+        final var group = mock(StreamInfo.XInfoGroup.class);
+        when(group.groupName()).thenReturn(name);
+        when(group.pendingCount()).thenReturn(pending);
+        when(group.lastDeliveredId()).thenReturn(lastDeliveredId);
+        return group;
+    }
+
+    private void givenGroups(final StreamInfo.XInfoGroup... groups) {
+        final var infoGroups = mock(StreamInfo.XInfoGroups.class);
+        when(infoGroups.stream()).thenAnswer(inv -> Stream.of(groups));
+        when(streamOps.groups("s")).thenReturn(infoGroups);
+    }
+
+    private void givenTrimReply(final long trimmed, final long reclaimed) {
+        when(redis.execute(eq(StreamRetention.TRIM_SCRIPT), eq(List.of("s")), any(), any()))
+                .thenReturn(List.of(trimmed, reclaimed));
+    }
+
+    @Test
+    void trim_disabledDoesNothing() {
+        assertEquals(0, retention(false, 0, null).trim());
+        verifyNoInteractions(redis);
+    }
+
+    @Test
+    void trim_skipsMissingStreams() {
+        when(redis.hasKey("s")).thenReturn(false);
+
+        assertEquals(0, retention(true, 0, null).trim());
+        verify(redis, never()).opsForStream();
+    }
+
+    @Test
+    void trim_keepsEverythingTheSlowestGroupStillNeeds() {
+        final var pending = mock(PendingMessagesSummary.class);
+        when(pending.minMessageId()).thenReturn("3-1");
+        when(streamOps.pending("s", "lagging")).thenReturn(pending);
+        givenGroups(group("upToDate", 0, "5-0"), group("lagging", 2, "4-0"));
+        givenTrimReply(7, 1024);
+
+        assertEquals(1024, retention(true, 0, null).trim());
+
+        verify(redis).execute(StreamRetention.TRIM_SCRIPT, List.of("s"), "3-1", "0");
+        assertEquals(7.0, meterRegistry.get("streams.retention.trimmed").tag("stream", "s").counter().count());
+        assertEquals(1024.0, meterRegistry.get("streams.retention.reclaimed").tag("stream", "s").counter().count());
+    }
+
+    @Test
+    void trim_dropsEntriesDeliveredToEveryGroup() {
+        givenGroups(group("a", 0, "5-0"), group("b", 0, "9-2"));
+        givenTrimReply(5, 100);
+
+        retention(true, 0, null).trim();
+
+        verify(redis).execute(StreamRetention.TRIM_SCRIPT, List.of("s"), "5-1", "0");
+    }
+
+    @Test
+    void trim_capsByAgeAndLengthEvenIfConsumersLag() {
+        givenGroups(group("lagging", 0, "1-0"));
+        givenTrimReply(0, 0);
+
+        final var before = Instant.now().minus(Duration.ofHours(1)).toEpochMilli();
+        retention(true, 100, Duration.ofHours(1)).trim();
+        final var after = Instant.now().minus(Duration.ofHours(1)).toEpochMilli();
+
+        final var minId = ArgumentCaptor.forClass(Object.class);
+        verify(redis).execute(eq(StreamRetention.TRIM_SCRIPT), eq(List.of("s")), minId.capture(), eq("100"));
+        final var ageCap = RecordId.of((String) minId.getValue());
+        assertTrue(ageCap.getTimestamp() >= before && ageCap.getTimestamp() <= after);
+        assertEquals(0, ageCap.getSequence());
+    }
+
+    @Test
+    void trim_withoutGroupsOnlyAppliesCaps() {
+        givenGroups();
+        givenTrimReply(0, 0);
+
+        retention(true, 100, null).trim();
+
+        verify(redis).execute(StreamRetention.TRIM_SCRIPT, List.of("s"), "", "100");
+    }
+}
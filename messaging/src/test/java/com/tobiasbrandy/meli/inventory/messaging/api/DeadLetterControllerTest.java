@@ -0,0 +1,50 @@
+package com.tobiasbrandy.meli.inventory.messaging.api;
+
+import com.tobiasbrandy.meli.inventory.messaging.DeadLetterQueue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.Map;
+
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class DeadLetterControllerTest {
+
+    private MockMvc mvc;
+    private DeadLetterQueue deadLetterQueue;
+
+    @BeforeEach
+    void setUp() {
+        deadLetterQueue = mock(DeadLetterQueue.class);
+        mvc = MockMvcBuilders.standaloneSetup(new DeadLetterController(deadLetterQueue)).build();
+    }
+
+    @Test
+    void listsDeadLettersPerStream() throws Exception {
+        when(deadLetterQueue.sizes()).thenReturn(Map.of("s", 3L));
+        mvc.perform(get("/dead-letters"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.s", is(3)));
+    }
+
+    @Test
+    void replay_defaults() throws Exception {
+        when(deadLetterQueue.replay("s", 100)).thenReturn(new DeadLetterQueue.Replay(2, 1));
+        mvc.perform(post("/dead-letters/replay").param("stream", "s"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.replayed", is(2)))
+                .andExpect(jsonPath("$.skipped", is(1)));
+    }
+
+    @Test
+    void replay_unknownStream() throws Exception {
+        when(deadLetterQueue.replay("other", 100)).thenThrow(new IllegalArgumentException("Stream other isn't consumed"));
+        mvc.perform(post("/dead-letters/replay").param("stream", "other")).andExpect(status().isBadRequest());
+    }
+}
@@ -0,0 +1,12 @@
+package com.tobiasbrandy.meli.inventory.model;
+
+/**
+ * Priority class of an {@link EventType}, highest first.
+ * <p>
+ * Events above {@link #NORMAL} travel on their own stream, next to the one they are published to,
+ * so they aren't stuck behind bulk traffic. Events are only ordered among the ones of the same priority.
+ */
+public enum EventPriority {
+    HIGH,
+    NORMAL,
+}
@@ -5,11 +5,37 @@ import lombok.RequiredArgsConstructor;
 
 @RequiredArgsConstructor @Getter
 public enum EventType {
-    ECHO(String.class),
-    INVENTORY_ITEM_CREATED(InventoryItemCreateEvent.class),
-    INVENTORY_ITEM_UPDATED(InventoryItemUpdateEvent.class),
-    INVENTORY_ITEM_REMOTE_PURCHASE(InventoryItemRemotePurchaseEvent.class),
+    ECHO(0, String.class, EventPriority.NORMAL),
+    INVENTORY_ITEM_CREATED(1, InventoryItemCreateEvent.class, EventPriority.NORMAL),
+    INVENTORY_ITEM_UPDATED(2, InventoryItemUpdateEvent.class, EventPriority.NORMAL),
+    // A customer is waiting on it
+    INVENTORY_ITEM_REMOTE_PURCHASE(3, InventoryItemRemotePurchaseEvent.class, EventPriority.HIGH),
+    INVENTORY_ITEMS_REMOTE_PURCHASE(4, InventoryItemsRemotePurchaseEvent.class, EventPriority.HIGH),
     ;
 
+    private static final EventType[] BY_CODE = new EventType[values().length];
+    static {
+        for (final EventType type : values()) {
+            BY_CODE[type.code] = type;
+        }
+    }
+
+    private final int code; // Stable id used by binary encodings, never reuse nor change one
     private final Class<?> payloadType;
+    private final EventPriority priority;
+
+    public static EventType fromCode(final int code) {
+        if (code < 0 || code >= BY_CODE.length || BY_CODE[code] == null) {
+            throw new IllegalArgumentException("Invalid event type code " + code);
+        }
+        return BY_CODE[code];
+    }
+
+    /**
+     * Whether events of the type carry the whole state of their item, rather than a change to it.
+     * Applied after a later event of the same item, they set it back to a stale state.
+     */
+    public boolean isAbsoluteState() {
+        return this == INVENTORY_ITEM_UPDATED;
+    }
 }
@@ -14,7 +14,8 @@ import lombok.Setter;
 @Getter @Setter @NoArgsConstructor @AllArgsConstructor
 public class InventoryItem {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "inventory_item_seq")
+    @SequenceGenerator(name = "inventory_item_seq", sequenceName = "inventory_item_seq", allocationSize = 50) // Pooled, so inserts can be batched
     private long id;
 
     @Column(nullable=false)
@@ -26,6 +27,9 @@ public class InventoryItem {
     @Column(nullable=false)
     private int quantity;
 
+    @Version // Concurrent writes of an item fail, instead of overwriting each other
+    private long version;
+
     public InventoryItem(String storeId, String productId, int quantity) {
         this.storeId = storeId;
         this.productId = productId;
@@ -1,4 +1,4 @@
 package com.tobiasbrandy.meli.inventory.model;
 
-public record InventoryItemCreateEvent(String storeId, String productId) {
+public record InventoryItemCreateEvent(String storeId, String productId) implements InventoryItemEvent {
 }
@@ -0,0 +1,10 @@
+package com.tobiasbrandy.meli.inventory.model;
+
+/**
+ * Event payload concerning a single inventory item.
+ */
+public interface InventoryItemEvent {
+    String storeId();
+
+    String productId();
+}
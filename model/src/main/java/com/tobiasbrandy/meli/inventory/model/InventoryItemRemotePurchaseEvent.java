@@ -1,4 +1,4 @@
 package com.tobiasbrandy.meli.inventory.model;
 
-public record InventoryItemRemotePurchaseEvent(String storeId, String productId, int quantityDelta) {
+public record InventoryItemRemotePurchaseEvent(String storeId, String productId, int quantityDelta) implements InventoryItemEvent {
 }
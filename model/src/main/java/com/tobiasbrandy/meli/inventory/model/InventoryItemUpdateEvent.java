@@ -1,4 +1,4 @@
 package com.tobiasbrandy.meli.inventory.model;
 
-public record InventoryItemUpdateEvent(String storeId, String productId, int quantity) {
+public record InventoryItemUpdateEvent(String storeId, String productId, int quantity) implements InventoryItemEvent {
 }
@@ -0,0 +1,12 @@
+package com.tobiasbrandy.meli.inventory.model;
+
+import java.util.List;
+
+/**
+ * Remote purchases of several items of a store, decided together, so they are applied together.
+ */
+public record InventoryItemsRemotePurchaseEvent(String storeId, List<InventoryItemRemotePurchaseEvent> purchases) {
+    public InventoryItemsRemotePurchaseEvent {
+        purchases = List.copyOf(purchases);
+    }
+}
@@ -10,10 +10,21 @@ import java.time.Instant;
 import java.util.UUID;
 
 @Entity
-@Table(name = "outbox_event", uniqueConstraints = @UniqueConstraint(columnNames = "eventId"))
+@Table(
+    name = "outbox_event",
+    uniqueConstraints = @UniqueConstraint(columnNames = "eventId"),
+    indexes = {
+        @Index(name = "idx_outbox_event_published", columnList = "published, id"),
+        @Index(name = "idx_outbox_event_stream", columnList = "stream, published, id")
+    }
+)
 @Getter @Setter @NoArgsConstructor @AllArgsConstructor
 public class OutboxEvent {
-    @Id @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // Pooled, so inserts can be batched. Ids are handed out in blocks per instance, so they only grow within an instance,
+    // which keeps a stream ordered as long as it's written by a single instance
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "outbox_event_seq")
+    @SequenceGenerator(name = "outbox_event_seq", sequenceName = "outbox_event_seq", allocationSize = 50)
     private long id;
 
     @Column(nullable=false, unique=true)
@@ -29,12 +40,12 @@ public class OutboxEvent {
     private EventType type;
 
     @Lob @Column(nullable=false)
-    private String payload;
+    private byte[] payload; // Encoded by the messaging event codec
 
     @Column(nullable=false)
     private boolean published = false;
 
-    public OutboxEvent(final String stream, final EventType type, final String payload) {
+    public OutboxEvent(final String stream, final EventType type, final byte[] payload) {
         this.eventId = UUID.randomUUID().toString();
         this.stream = stream;
         this.type = type;
@@ -0,0 +1,26 @@
+package com.tobiasbrandy.meli.inventory.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.Instant;
+
+/**
+ * Lease of an outbox stream, granting a single publisher instance the right to publish its events.
+ */
+@Entity
+@Table(name = "outbox_lease")
+@Getter @Setter @NoArgsConstructor @AllArgsConstructor
+public class OutboxLease {
+    @Id
+    private String stream;
+
+    @Column(nullable=false)
+    private String owner;
+
+    @Column(nullable=false)
+    private Instant expiresAt;
+}
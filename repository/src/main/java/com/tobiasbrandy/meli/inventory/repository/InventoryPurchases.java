@@ -0,0 +1,81 @@
+package com.tobiasbrandy.meli.inventory.repository;
+
+import com.tobiasbrandy.meli.inventory.exceptions.InsufficientStockException;
+import com.tobiasbrandy.meli.inventory.exceptions.ProductNotFoundException;
+import com.tobiasbrandy.meli.inventory.model.InventoryItem;
+import jakarta.transaction.Transactional;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+
+/**
+ * Takes purchased stock out of inventory items, with the {@link PurchaseConfig.Strategy} set in {@link PurchaseConfig}.
+ * <p>
+ * A purchase never leaves an item with negative stock, and concurrent purchases of an item never overwrite each other.
+ */
+@Component
+@RequiredArgsConstructor
+public class InventoryPurchases {
+    private final InventoryRepository inventoryRepository;
+    private final PurchaseConfig config;
+
+    /**
+     * Takes {@code quantity} units out of the item.
+     *
+     * @return the item, with its resulting quantity.
+     * @throws OptimisticLockingFailureException if the item kept being updated concurrently, after every retry.
+     */
+    @Transactional(Transactional.TxType.MANDATORY)
+    public InventoryItem purchase(final String storeId, final String productId, final int quantity) throws ProductNotFoundException, InsufficientStockException {
+        return switch (config.strategy()) {
+            case CONDITIONAL_UPDATE -> conditionalUpdate(storeId, productId, quantity);
+            case OPTIMISTIC -> optimistic(storeId, productId, quantity);
+            case PESSIMISTIC -> pessimistic(storeId, productId, quantity);
+        };
+    }
+
+    private InventoryItem conditionalUpdate(final String storeId, final String productId, final int quantity) {
+        val decremented = inventoryRepository.decrementQuantity(storeId, productId, quantity) == 1;
+
+        // Read after the update, which already cleared the persistence context, so it's the resulting quantity
+        val item = inventoryRepository.findByStoreIdAndProductId(storeId, productId)
+            .orElseThrow(() -> new ProductNotFoundException(storeId, productId));
+        if (!decremented) {
+            throw new InsufficientStockException(storeId, productId, item.getQuantity(), quantity);
+        }
+        return item;
+    }
+
+    private InventoryItem optimistic(final String storeId, final String productId, final int quantity) {
+        for (int attempt = 0; attempt <= config.maxRetries(); attempt++) {
+            val item = inventoryRepository.findByStoreIdAndProductId(storeId, productId)
+                .orElseThrow(() -> new ProductNotFoundException(storeId, productId));
+            if (item.getQuantity() < quantity) {
+                throw new InsufficientStockException(storeId, productId, item.getQuantity(), quantity);
+            }
+
+            val resultingQuantity = item.getQuantity() - quantity;
+            if (inventoryRepository.updateQuantityIfVersion(item.getId(), item.getVersion(), resultingQuantity) == 1) {
+                // Detached by the update, so this only reflects the written state
+                item.setQuantity(resultingQuantity);
+                item.setVersion(item.getVersion() + 1);
+                return item;
+            }
+        }
+        throw new OptimisticLockingFailureException(
+            "Item " + productId + " of store " + storeId + " kept being updated concurrently, after " + config.maxRetries() + " retries");
+    }
+
+    private InventoryItem pessimistic(final String storeId, final String productId, final int quantity) {
+        val item = inventoryRepository.findForUpdate(storeId, productId)
+            .orElseThrow(() -> new ProductNotFoundException(storeId, productId));
+        if (item.getQuantity() < quantity) {
+            throw new InsufficientStockException(storeId, productId, item.getQuantity(), quantity);
+        }
+
+        // Flushed on commit, while the row is still locked
+        item.setQuantity(item.getQuantity() - quantity);
+        return item;
+    }
+}
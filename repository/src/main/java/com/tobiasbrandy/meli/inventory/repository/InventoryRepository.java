@@ -1,20 +1,56 @@
 package com.tobiasbrandy.meli.inventory.repository;
 
 import com.tobiasbrandy.meli.inventory.model.InventoryItem;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface InventoryRepository extends JpaRepository<InventoryItem, Long> {
     Optional<InventoryItem> findByStoreIdAndProductId(String storeId, String productId);
 
+    List<InventoryItem> findByStoreIdAndProductIdIn(String storeId, Collection<String> productIds);
+
+    /**
+     * Reads the item with {@code SELECT ... FOR UPDATE}, so it stays locked until the transaction ends.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("""
+        SELECT i FROM InventoryItem i
+        WHERE i.storeId = :storeId
+          AND i.productId = :productId
+    """)
+    Optional<InventoryItem> findForUpdate(
+        @Param("storeId") String storeId,
+        @Param("productId") String productId
+    );
+
+    /**
+     * Reads the items with {@code SELECT ... FOR UPDATE}, in product order, so concurrent readers of overlapping
+     * items lock them in the same order.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("""
+        SELECT i FROM InventoryItem i
+        WHERE i.storeId = :storeId
+          AND i.productId IN :productIds
+        ORDER BY i.productId
+    """)
+    List<InventoryItem> findForUpdate(
+        @Param("storeId") String storeId,
+        @Param("productIds") Collection<String> productIds
+    );
+
     @Modifying(flushAutomatically = true, clearAutomatically = true)
     @Query("""
         UPDATE InventoryItem i
-        SET i.quantity = :qty
+        SET i.quantity = :qty, i.version = i.version + 1
         WHERE i.storeId = :storeId
           AND i.productId = :productId
     """)
@@ -23,4 +59,41 @@ public interface InventoryRepository extends JpaRepository<InventoryItem, Long>
         @Param("productId") String productId,
         @Param("qty") int qty
     );
+
+    /**
+     * Takes {@code qty} units out of the item, only if it has at least that many.
+     *
+     * @return 1 if the item was decremented, 0 if it's missing or doesn't have enough stock.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("""
+        UPDATE InventoryItem i
+        SET i.quantity = i.quantity - :qty, i.version = i.version + 1
+        WHERE i.storeId = :storeId
+          AND i.productId = :productId
+          AND i.quantity >= :qty
+    """)
+    int decrementQuantity(
+        @Param("storeId") String storeId,
+        @Param("productId") String productId,
+        @Param("qty") int qty
+    );
+
+    /**
+     * Sets the quantity of the item, only if it's still at the given version.
+     *
+     * @return 1 if the item was updated, 0 if it's missing or was updated since.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("""
+        UPDATE InventoryItem i
+        SET i.quantity = :qty, i.version = i.version + 1
+        WHERE i.id = :id
+          AND i.version = :version
+    """)
+    int updateQuantityIfVersion(
+        @Param("id") long id,
+        @Param("version") long version,
+        @Param("qty") int qty
+    );
 }
@@ -12,7 +12,28 @@ import java.util.List;
 public interface OutboxEventRepository extends JpaRepository<OutboxEvent, String> {
     List<OutboxEvent> findByPublishedFalseOrderByIdAsc(Pageable pageable);
 
+    List<OutboxEvent> findByStreamAndPublishedFalseOrderByIdAsc(String stream, Pageable pageable);
+
+    interface StreamBacklog {
+        String getStream();
+        long getBacklog();
+    }
+
+    @Query("""
+        SELECT e.stream AS stream, COUNT(e) AS backlog
+        FROM OutboxEvent e
+        WHERE e.published = false
+        GROUP BY e.stream
+    """)
+    List<StreamBacklog> countUnpublishedByStream();
+
+    List<OutboxEvent> findByPublishedTrueOrderByIdAsc(Pageable pageable);
+
     @Modifying(flushAutomatically = true, clearAutomatically = true)
     @Query("UPDATE OutboxEvent e SET e.published = true WHERE e.id IN :ids")
     int markPublished(@Param("ids") List<Long> ids);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("DELETE FROM OutboxEvent e WHERE e.published = true AND e.id IN :ids")
+    int deletePublished(@Param("ids") List<Long> ids);
 }
@@ -0,0 +1,38 @@
+package com.tobiasbrandy.meli.inventory.repository;
+
+import com.tobiasbrandy.meli.inventory.model.OutboxLease;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+
+public interface OutboxLeaseRepository extends JpaRepository<OutboxLease, String> {
+
+    /**
+     * Takes or renews the lease of a stream, if it's free, expired or already owned.
+     *
+     * @return 1 if the lease was claimed, 0 if it's held by another owner or doesn't exist yet.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("""
+        UPDATE OutboxLease l SET l.owner = :owner, l.expiresAt = :expiresAt
+        WHERE l.stream = :stream AND (l.owner = :owner OR l.expiresAt < :now)
+    """)
+    int claim(@Param("stream") String stream, @Param("owner") String owner, @Param("now") Instant now, @Param("expiresAt") Instant expiresAt);
+
+    /**
+     * Creates the lease of a stream. Fails with a constraint violation if another owner created it first.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("INSERT INTO OutboxLease (stream, owner, expiresAt) VALUES (:stream, :owner, :expiresAt)")
+    int create(@Param("stream") String stream, @Param("owner") String owner, @Param("expiresAt") Instant expiresAt);
+
+    /**
+     * Expires the lease of a stream right away, if still owned.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE OutboxLease l SET l.expiresAt = :now WHERE l.stream = :stream AND l.owner = :owner")
+    int release(@Param("stream") String stream, @Param("owner") String owner, @Param("now") Instant now);
+}
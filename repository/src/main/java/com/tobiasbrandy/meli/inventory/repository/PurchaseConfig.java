@@ -0,0 +1,37 @@
+package com.tobiasbrandy.meli.inventory.repository;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * How purchases take stock out of an item, safely under concurrent purchases of it.
+ * <p>
+ * Concurrent purchases are serialized as set by {@code strategy}:
+ * <ul>
+ *     <li>{@link Strategy#CONDITIONAL_UPDATE}: a single {@code UPDATE ... WHERE quantity >= :qty} statement,
+ *     so the row is only locked while it runs.</li>
+ *     <li>{@link Strategy#OPTIMISTIC}: the item is read and written back only if its version didn't change meanwhile,
+ *     retrying up to {@code maxRetries} times.</li>
+ *     <li>{@link Strategy#PESSIMISTIC}: the item is read with {@code SELECT ... FOR UPDATE}, so the row stays locked
+ *     until commit.</li>
+ * </ul>
+ */
+@ConfigurationProperties(prefix = "inventory.purchase")
+public record PurchaseConfig(
+    Strategy strategy,
+    int maxRetries
+) {
+    public enum Strategy {
+        CONDITIONAL_UPDATE,
+        OPTIMISTIC,
+        PESSIMISTIC,
+    }
+
+    public PurchaseConfig {
+        if (strategy == null) {
+            throw new IllegalArgumentException("Purchase strategy must be set");
+        }
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("Purchase max retries can't be negative");
+        }
+    }
+}
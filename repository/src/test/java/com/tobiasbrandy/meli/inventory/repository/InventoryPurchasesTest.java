@@ -0,0 +1,50 @@
+package com.tobiasbrandy.meli.inventory.repository;
+
+import com.tobiasbrandy.meli.inventory.exceptions.InsufficientStockException;
+import com.tobiasbrandy.meli.inventory.exceptions.ProductNotFoundException;
+import com.tobiasbrandy.meli.inventory.model.InventoryItem;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+@org.springframework.test.context.ContextConfiguration(classes = RepositoryTestApplication.class)
+class InventoryPurchasesTest {
+
+    @Autowired
+    private InventoryRepository repository;
+
+    private InventoryPurchases purchases(final PurchaseConfig.Strategy strategy) {
+        return new InventoryPurchases(repository, new PurchaseConfig(strategy, 3));
+    }
+
+    private void purchaseDecrementsAndRejectsOverselling(final PurchaseConfig.Strategy strategy) {
+        repository.save(new InventoryItem("store-1", "p1", 5));
+        var purchases = purchases(strategy);
+
+        assertEquals(2, purchases.purchase("store-1", "p1", 3).getQuantity());
+        var e = assertThrows(InsufficientStockException.class, () -> purchases.purchase("store-1", "p1", 3));
+        assertEquals(2, e.getCurrentStock());
+        assertThrows(ProductNotFoundException.class, () -> purchases.purchase("store-1", "missing", 1));
+
+        repository.flush();
+        assertEquals(2, repository.findByStoreIdAndProductId("store-1", "p1").orElseThrow().getQuantity());
+    }
+
+    @Test
+    void conditionalUpdate() {
+        purchaseDecrementsAndRejectsOverselling(PurchaseConfig.Strategy.CONDITIONAL_UPDATE);
+    }
+
+    @Test
+    void optimistic() {
+        purchaseDecrementsAndRejectsOverselling(PurchaseConfig.Strategy.OPTIMISTIC);
+    }
+
+    @Test
+    void pessimistic() {
+        purchaseDecrementsAndRejectsOverselling(PurchaseConfig.Strategy.PESSIMISTIC);
+    }
+}
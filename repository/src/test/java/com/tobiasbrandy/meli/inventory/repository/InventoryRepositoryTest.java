@@ -6,6 +6,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.dao.DataIntegrityViolationException;
 
+import java.util.List;
+import java.util.Set;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 @DataJpaTest
@@ -32,10 +35,62 @@ class InventoryRepositoryTest {
         assertEquals(0, updated);
     }
 
+    @Test
+    void decrementQuantity_decrementsWhenEnoughStock() {
+        repository.save(new InventoryItem("store-1", "p1", 10));
+
+        assertEquals(1, repository.decrementQuantity("store-1", "p1", 10));
+
+        var reloaded = repository.findByStoreIdAndProductId("store-1", "p1").orElseThrow();
+        assertEquals(0, reloaded.getQuantity());
+        assertEquals(1, reloaded.getVersion());
+    }
+
+    @Test
+    void decrementQuantity_leavesItemWhenNotEnoughStock() {
+        repository.save(new InventoryItem("store-1", "p1", 2));
+
+        assertEquals(0, repository.decrementQuantity("store-1", "p1", 3));
+        assertEquals(2, repository.findByStoreIdAndProductId("store-1", "p1").orElseThrow().getQuantity());
+    }
+
+    @Test
+    void updateQuantityIfVersion_onlyUpdatesTheGivenVersion() {
+        var saved = repository.saveAndFlush(new InventoryItem("store-1", "p1", 10));
+
+        assertEquals(1, repository.updateQuantityIfVersion(saved.getId(), saved.getVersion(), 7));
+        assertEquals(0, repository.updateQuantityIfVersion(saved.getId(), saved.getVersion(), 4));
+        assertEquals(7, repository.findByStoreIdAndProductId("store-1", "p1").orElseThrow().getQuantity());
+    }
+
     @Test
     void uniqueConstraintOnStoreIdAndProductId() {
         repository.save(new InventoryItem("store-1", "p1", 1));
         assertThrows(DataIntegrityViolationException.class,
                 () -> repository.saveAndFlush(new InventoryItem("store-1", "p1", 2)));
     }
+
+    @Test
+    void findByStoreIdAndProductIdIn_returnsOnlyThatStoresItems() {
+        repository.save(new InventoryItem("store-1", "p1", 1));
+        repository.save(new InventoryItem("store-1", "p2", 2));
+        repository.save(new InventoryItem("store-2", "p1", 3));
+
+        var items = repository.findByStoreIdAndProductIdIn("store-1", List.of("p1", "p2", "missing"));
+
+        assertEquals(Set.of("p1", "p2"), Set.copyOf(items.stream().map(InventoryItem::getProductId).toList()));
+        assertTrue(items.stream().allMatch(i -> i.getStoreId().equals("store-1")));
+    }
+
+    @Test
+    void findForUpdate_returnsThatStoresItemsInProductOrder() {
+        repository.save(new InventoryItem("store-1", "p2", 2));
+        repository.save(new InventoryItem("store-1", "p1", 1));
+        repository.save(new InventoryItem("store-2", "p1", 3));
+
+        var items = repository.findForUpdate("store-1", Set.of("p2", "p1", "missing"));
+
+        assertEquals(List.of("p1", "p2"), items.stream().map(InventoryItem::getProductId).toList());
+        assertTrue(items.stream().allMatch(i -> i.getStoreId().equals("store-1")));
+    }
 }
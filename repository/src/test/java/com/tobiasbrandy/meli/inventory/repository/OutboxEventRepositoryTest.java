@@ -7,6 +7,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.data.domain.PageRequest;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -20,16 +21,16 @@ class OutboxEventRepositoryTest {
 
     @Test
     void findByPublishedFalseOrderByIdAsc_returnsOrdered() {
-        var e1 = repository.save(new OutboxEvent("s1", EventType.ECHO, "p1"));
-        var e2 = repository.save(new OutboxEvent("s2", EventType.ECHO, "p2"));
+        var e1 = repository.save(new OutboxEvent("s1", EventType.ECHO, "p1".getBytes(StandardCharsets.UTF_8)));
+        var e2 = repository.save(new OutboxEvent("s2", EventType.ECHO, "p2".getBytes(StandardCharsets.UTF_8)));
         var page = repository.findByPublishedFalseOrderByIdAsc(PageRequest.ofSize(10));
         assertEquals(List.of(e1, e2), page);
     }
 
     @Test
     void markPublished_setsFlag() {
-        var e1 = repository.save(new OutboxEvent("s1", EventType.ECHO, "p1"));
-        var e2 = repository.save(new OutboxEvent("s2", EventType.ECHO, "p2"));
+        var e1 = repository.save(new OutboxEvent("s1", EventType.ECHO, "p1".getBytes(StandardCharsets.UTF_8)));
+        var e2 = repository.save(new OutboxEvent("s2", EventType.ECHO, "p2".getBytes(StandardCharsets.UTF_8)));
 
         int cnt = repository.markPublished(List.of(e1.getId(), e2.getId()));
         assertEquals(2, cnt);
@@ -37,4 +38,34 @@ class OutboxEventRepositoryTest {
         var remaining = repository.findByPublishedFalseOrderByIdAsc(PageRequest.ofSize(10));
         assertTrue(remaining.isEmpty());
     }
+
+    @Test
+    void deletePublished_onlyRemovesPublishedRows() {
+        var e1 = repository.save(new OutboxEvent("s1", EventType.ECHO, "p1".getBytes(StandardCharsets.UTF_8)));
+        var e2 = repository.save(new OutboxEvent("s2", EventType.ECHO, "p2".getBytes(StandardCharsets.UTF_8)));
+        repository.markPublished(List.of(e1.getId()));
+
+        var published = repository.findByPublishedTrueOrderByIdAsc(PageRequest.ofSize(10));
+        assertEquals(List.of(e1.getId()), published.stream().map(OutboxEvent::getId).toList());
+
+        int deleted = repository.deletePublished(List.of(e1.getId(), e2.getId()));
+        assertEquals(1, deleted);
+        assertEquals(List.of(e2.getId()), repository.findAll().stream().map(OutboxEvent::getId).toList());
+    }
+
+    @Test
+    void unpublishedByStream_filtersAndCounts() {
+        var a1 = repository.save(new OutboxEvent("a", EventType.ECHO, "p1".getBytes(StandardCharsets.UTF_8)));
+        var b1 = repository.save(new OutboxEvent("b", EventType.ECHO, "p2".getBytes(StandardCharsets.UTF_8)));
+        var a2 = repository.save(new OutboxEvent("a", EventType.ECHO, "p3".getBytes(StandardCharsets.UTF_8)));
+        repository.markPublished(List.of(b1.getId()));
+
+        var page = repository.findByStreamAndPublishedFalseOrderByIdAsc("a", PageRequest.ofSize(10));
+        assertEquals(List.of(a1.getId(), a2.getId()), page.stream().map(OutboxEvent::getId).toList());
+
+        var backlog = repository.countUnpublishedByStream();
+        assertEquals(1, backlog.size());
+        assertEquals("a", backlog.getFirst().getStream());
+        assertEquals(2, backlog.getFirst().getBacklog());
+    }
 }
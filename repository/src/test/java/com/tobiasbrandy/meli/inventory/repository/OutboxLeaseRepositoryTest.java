@@ -0,0 +1,49 @@
+package com.tobiasbrandy.meli.inventory.repository;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+@org.springframework.test.context.ContextConfiguration(classes = RepositoryTestApplication.class)
+class OutboxLeaseRepositoryTest {
+
+    @Autowired
+    private OutboxLeaseRepository repository;
+
+    @Test
+    void claim_missingLeaseClaimsNothing() {
+        final var now = Instant.now();
+        assertEquals(0, repository.claim("s", "a", now, now.plusSeconds(30)));
+    }
+
+    @Test
+    void claim_onlyOwnerRenewsUntilExpired() {
+        final var now = Instant.now();
+        assertEquals(1, repository.create("s", "a", now.plusSeconds(30)));
+
+        assertEquals(0, repository.claim("s", "b", now, now.plusSeconds(30)));
+        assertEquals(1, repository.claim("s", "a", now, now.plusSeconds(60)));
+
+        final var later = now.plus(Duration.ofMinutes(2));
+        assertEquals(1, repository.claim("s", "b", later, later.plusSeconds(30)));
+        assertEquals("b", repository.findById("s").orElseThrow().getOwner());
+    }
+
+    @Test
+    void release_letsOthersClaim() {
+        final var now = Instant.now();
+        repository.create("s", "a", now.plusSeconds(30));
+
+        assertEquals(0, repository.release("s", "b", now));
+        assertEquals(1, repository.release("s", "a", now));
+
+        final var later = now.plusMillis(1);
+        assertEquals(1, repository.claim("s", "b", later, later.plusSeconds(30)));
+    }
+}
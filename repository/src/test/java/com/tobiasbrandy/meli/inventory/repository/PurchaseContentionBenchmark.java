@@ -0,0 +1,111 @@
+package com.tobiasbrandy.meli.inventory.repository;
+
+import com.tobiasbrandy.meli.inventory.exceptions.InsufficientStockException;
+import com.tobiasbrandy.meli.inventory.model.InventoryItem;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Purchases per second of a single hot item under {@value #BUYERS} concurrent buyers, for every
+ * {@link PurchaseConfig.Strategy}, against the in-memory database.
+ * <p>
+ * Buyers ask for more units than the item has, so the run also checks correctness: every unit is sold exactly once,
+ * and every other purchase is rejected for insufficient stock. Purchases that fail otherwise (optimistic retries
+ * exhausted, lock timeouts) are reported apart.
+ * Run with {@code ./mvnw -pl repository -am test -Dtest=PurchaseContentionBenchmark -Dsurefire.failIfNoSpecifiedTests=false -Dbenchmark=true}.
+ */
+@SpringBootTest(
+    classes = RepositoryTestApplication.class,
+    properties = "spring.datasource.url=jdbc:h2:mem:contention;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000"
+)
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class PurchaseContentionBenchmark {
+    private static final String STORE = "store-1";
+    private static final int BUYERS = 8;
+    private static final int PURCHASES_PER_BUYER = 2_000;
+    private static final int STOCK = BUYERS * PURCHASES_PER_BUYER * 3 / 4;
+
+    @Autowired
+    private InventoryRepository repository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void conditionalUpdate() throws InterruptedException {
+        run(PurchaseConfig.Strategy.CONDITIONAL_UPDATE);
+    }
+
+    @Test
+    void optimistic() throws InterruptedException {
+        run(PurchaseConfig.Strategy.OPTIMISTIC);
+    }
+
+    @Test
+    void pessimistic() throws InterruptedException {
+        run(PurchaseConfig.Strategy.PESSIMISTIC);
+    }
+
+    private void run(final PurchaseConfig.Strategy strategy) throws InterruptedException {
+        final var productId = "contention-" + strategy;
+        repository.save(new InventoryItem(STORE, productId, STOCK));
+
+        final var purchases = new InventoryPurchases(repository, new PurchaseConfig(strategy, 100));
+        final var transactions = new TransactionTemplate(transactionManager);
+        final var sold = new AtomicInteger();
+        final var rejected = new AtomicInteger();
+        final var failed = new AtomicInteger();
+        final var ready = new CountDownLatch(BUYERS);
+        final var go = new CountDownLatch(1);
+
+        final List<Thread> buyers = new ArrayList<>();
+        for (int b = 0; b < BUYERS; b++) {
+            buyers.add(Thread.ofPlatform().start(() -> {
+                ready.countDown();
+                try {
+                    go.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < PURCHASES_PER_BUYER; i++) {
+                    try {
+                        transactions.executeWithoutResult(tx -> purchases.purchase(STORE, productId, 1));
+                        sold.incrementAndGet();
+                    } catch (final InsufficientStockException e) {
+                        rejected.incrementAndGet();
+                    } catch (final RuntimeException e) {
+                        failed.incrementAndGet();
+                    }
+                }
+            }));
+        }
+
+        ready.await();
+        final long start = System.nanoTime();
+        go.countDown();
+        for (final var buyer : buyers) {
+            buyer.join();
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        final int remaining = repository.findByStoreIdAndProductId(STORE, productId).orElseThrow().getQuantity();
+        System.out.printf("[%s] %d purchases by %d buyers in %.2fs: %.0f purchases/s, %d sold, %d rejected, %d failed, %d left of %d%n",
+            strategy, BUYERS * PURCHASES_PER_BUYER, BUYERS, seconds, BUYERS * PURCHASES_PER_BUYER / seconds,
+            sold.get(), rejected.get(), failed.get(), remaining, STOCK);
+
+        assertEquals(STOCK - sold.get(), remaining);
+        assertEquals(BUYERS * PURCHASES_PER_BUYER, sold.get() + rejected.get() + failed.get());
+    }
+}
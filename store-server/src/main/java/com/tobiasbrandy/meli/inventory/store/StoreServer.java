@@ -11,6 +11,7 @@ import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 import org.springframework.scheduling.annotation.EnableScheduling;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 @SpringBootApplication(scanBasePackages = "com.tobiasbrandy.meli.inventory")
 @EntityScan(basePackages = "com.tobiasbrandy.meli.inventory")
@@ -29,9 +30,9 @@ public class StoreServer {
 
     @Bean
     public List<String> consumerStreams(final AppConfig appConfig, final EventStreams streams) {
-        return List.of(
+        return Stream.of(
             streams.centralToStore(appConfig.storeId()),
             streams.storeToStore(appConfig.storeId(), appConfig.storeId())
-        );
+        ).flatMap(stream -> EventStreams.prioritized(stream).stream()).toList();
     }
 }
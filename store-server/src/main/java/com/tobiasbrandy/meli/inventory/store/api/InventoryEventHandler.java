@@ -3,6 +3,7 @@ package com.tobiasbrandy.meli.inventory.store.api;
 import com.tobiasbrandy.meli.inventory.messaging.EventHandler;
 import com.tobiasbrandy.meli.inventory.model.EventType;
 import com.tobiasbrandy.meli.inventory.model.InventoryItemRemotePurchaseEvent;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemsRemotePurchaseEvent;
 import com.tobiasbrandy.meli.inventory.store.service.InventoryService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -20,10 +21,20 @@ public class InventoryEventHandler {
 
     @Bean
     public EventHandler<InventoryItemRemotePurchaseEvent> remotePurchase() {
-        return EventHandler.ofPayload(
+        return EventHandler.ofPayloads(
             EventType.INVENTORY_ITEM_REMOTE_PURCHASE,
             InventoryItemRemotePurchaseEvent.class,
-            event -> inventoryService.processPurchase(event.productId(), event.quantityDelta())
+            inventoryService::processPurchases
+        );
+    }
+
+    @Bean
+    public EventHandler<InventoryItemsRemotePurchaseEvent> remotePurchases() {
+        return EventHandler.ofPayloads(
+            EventType.INVENTORY_ITEMS_REMOTE_PURCHASE,
+            InventoryItemsRemotePurchaseEvent.class,
+            // Every purchase of the batch is applied in a single transaction, like consecutive single purchases
+            batches -> inventoryService.processPurchases(batches.stream().flatMap(b -> b.purchases().stream()).toList())
         );
     }
 }
@@ -4,6 +4,7 @@ import com.tobiasbrandy.meli.inventory.exceptions.InsufficientStockException;
 import com.tobiasbrandy.meli.inventory.exceptions.ProductAlreadyExistsException;
 import com.tobiasbrandy.meli.inventory.exceptions.ProductNotFoundException;
 import lombok.val;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ProblemDetail;
 import org.springframework.web.ErrorResponse;
@@ -34,6 +35,11 @@ public final class GlobalExceptionHandler {
         return errorResponse(HttpStatus.CONFLICT, "Product Already Exists", e);
     }
 
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ProblemDetail concurrentUpdate(final OptimisticLockingFailureException e) {
+        return errorResponse(HttpStatus.CONFLICT, "Concurrent Update", e);
+    }
+
     @ExceptionHandler(Exception.class)
     public ProblemDetail fallbackHandler(final Exception e) {
         if (e instanceof ErrorResponse) {
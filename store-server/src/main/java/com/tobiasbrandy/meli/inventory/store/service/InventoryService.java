@@ -4,6 +4,7 @@ import com.tobiasbrandy.meli.inventory.exceptions.InsufficientStockException;
 import com.tobiasbrandy.meli.inventory.exceptions.ProductAlreadyExistsException;
 import com.tobiasbrandy.meli.inventory.exceptions.ProductNotFoundException;
 import com.tobiasbrandy.meli.inventory.model.InventoryItem;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemRemotePurchaseEvent;
 
 import java.util.List;
 
@@ -18,4 +19,10 @@ public interface InventoryService {
     void setInventoryItemQuantity(String productId, int quantity) throws ProductNotFoundException;
 
     InventoryItem processPurchase(String productId, int quantity) throws ProductNotFoundException, InsufficientStockException;
+
+    /**
+     * Applies every purchase in a single transaction, publishing one update per purchased item.
+     * If any purchase fails, none is applied.
+     */
+    List<InventoryItem> processPurchases(List<InventoryItemRemotePurchaseEvent> purchases) throws ProductNotFoundException, InsufficientStockException;
 }
@@ -13,11 +13,17 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Emits periodic heartbeat timestamps to Redis to signal store availability.
+ * <p>
+ * Heartbeats are kept in a single hash of every store, so central can read them all at once, and published, so
+ * central learns about them as they happen. A disconnection removes the heartbeat and publishes it with no timestamp.
  */
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class HeartbeatServiceImpl implements HeartbeatService {
+    public static final String HEARTBEATS_KEY = "store:heartbeats";
+    public static final String HEARTBEATS_CHANNEL = "store:heartbeats";
+
     private final AppConfig appConfig;
     private final StringRedisTemplate redis;
     private final AtomicBoolean disconnected = new AtomicBoolean(false);
@@ -31,15 +37,16 @@ public class HeartbeatServiceImpl implements HeartbeatService {
     }
 
     public void emitHeartbeat() {
-        val key = "store:" + appConfig.storeId() + ":heartbeat";
-        redis.opsForValue().set(key, String.valueOf(System.currentTimeMillis()));
+        val heartbeat = String.valueOf(System.currentTimeMillis());
+        redis.opsForHash().put(HEARTBEATS_KEY, appConfig.storeId(), heartbeat);
+        redis.convertAndSend(HEARTBEATS_CHANNEL, heartbeat + ":" + appConfig.storeId());
     }
 
     public void setDisconnected(final boolean disconnected) {
         this.disconnected.set(disconnected);
         if (disconnected) {
-            val key = "store:" + appConfig.storeId() + ":heartbeat";
-            redis.opsForValue().getAndDelete(key);
+            redis.opsForHash().delete(HEARTBEATS_KEY, appConfig.storeId());
+            redis.convertAndSend(HEARTBEATS_CHANNEL, ":" + appConfig.storeId());
         } else {
             emitHeartbeat();
         }
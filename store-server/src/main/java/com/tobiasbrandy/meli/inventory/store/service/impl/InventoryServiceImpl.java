@@ -8,7 +8,9 @@ import com.tobiasbrandy.meli.inventory.messaging.EventStreams;
 import com.tobiasbrandy.meli.inventory.model.EventType;
 import com.tobiasbrandy.meli.inventory.model.InventoryItem;
 import com.tobiasbrandy.meli.inventory.model.InventoryItemCreateEvent;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemRemotePurchaseEvent;
 import com.tobiasbrandy.meli.inventory.model.InventoryItemUpdateEvent;
+import com.tobiasbrandy.meli.inventory.repository.InventoryPurchases;
 import com.tobiasbrandy.meli.inventory.repository.InventoryRepository;
 import com.tobiasbrandy.meli.inventory.store.config.AppConfig;
 import com.tobiasbrandy.meli.inventory.store.service.InventoryService;
@@ -20,7 +22,9 @@ import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Central inventory service implementation.
@@ -38,6 +42,7 @@ import java.util.List;
 public class InventoryServiceImpl implements InventoryService {
     private final AppConfig appConfig;
     private final InventoryRepository inventoryRepository;
+    private final InventoryPurchases inventoryPurchases;
     private final EventPublisher eventPublisher;
     private final EventStreams eventStreams;
 
@@ -52,7 +57,8 @@ public class InventoryServiceImpl implements InventoryService {
     public InventoryItem createInventoryItem(final String productId) throws ProductAlreadyExistsException {
         log.info("Creating product {}", productId);
         try {
-            val item = inventoryRepository.save(new InventoryItem(appConfig.storeId(), productId, 0));
+            // Flushed right away, so a duplicate fails here rather than at commit
+            val item = inventoryRepository.saveAndFlush(new InventoryItem(appConfig.storeId(), productId, 0));
             eventPublisher.publishEvent(
                 eventStreams.storeToCentral(appConfig.storeId()),
                 EventType.INVENTORY_ITEM_CREATED,
@@ -83,15 +89,7 @@ public class InventoryServiceImpl implements InventoryService {
     @Transactional
     public InventoryItem processPurchase(final String productId, final int quantity) throws ProductNotFoundException, InsufficientStockException {
         val storeId = appConfig.storeId();
-        val item = inventoryRepository.findByStoreIdAndProductId(storeId, productId)
-            .orElseThrow(() -> new ProductNotFoundException(storeId, productId));
-
-        if (item.getQuantity() < quantity) {
-            throw new InsufficientStockException(storeId, productId, item.getQuantity(), quantity);
-        }
-
-        item.setQuantity(item.getQuantity() - quantity);
-        val savedItem = inventoryRepository.save(item);
+        val savedItem = inventoryPurchases.purchase(storeId, productId, quantity);
 
         eventPublisher.publishEvent(
             eventStreams.storeToCentral(storeId),
@@ -107,6 +105,43 @@ public class InventoryServiceImpl implements InventoryService {
         return savedItem;
     }
 
+    @Override
+    @Transactional
+    public List<InventoryItem> processPurchases(final List<InventoryItemRemotePurchaseEvent> purchases) throws ProductNotFoundException, InsufficientStockException {
+        val storeId = appConfig.storeId();
+        final Map<String, InventoryItem> items = new LinkedHashMap<>();
+        for (val purchase : purchases) {
+            items.put(purchase.productId(), null);
+        }
+        for (val item : inventoryRepository.findByStoreIdAndProductIdIn(storeId, items.keySet())) {
+            items.put(item.getProductId(), item);
+        }
+
+        for (val purchase : purchases) {
+            val item = items.get(purchase.productId());
+            if (item == null) {
+                throw new ProductNotFoundException(storeId, purchase.productId());
+            }
+            if (item.getQuantity() < purchase.quantityDelta()) {
+                throw new InsufficientStockException(storeId, purchase.productId(), item.getQuantity(), purchase.quantityDelta());
+            }
+            item.setQuantity(item.getQuantity() - purchase.quantityDelta());
+        }
+
+        // Updates carry the resulting quantity, so one per item is enough.
+        // Dirty items and outbox events are flushed on commit, as JDBC batched statements
+        for (val item : items.values()) {
+            eventPublisher.publishEvent(
+                eventStreams.storeToCentral(storeId),
+                EventType.INVENTORY_ITEM_UPDATED,
+                new InventoryItemUpdateEvent(storeId, item.getProductId(), item.getQuantity())
+            );
+        }
+
+        log.info("Processed {} remote purchases of {} products", purchases.size(), items.size());
+        return List.copyOf(items.values());
+    }
+
     @Override
     public List<InventoryItem> listInventoryItems(final int page, final int size) {
         return inventoryRepository.findAll(PageRequest.of(page, size)).toList();
@@ -1,10 +1,12 @@
 package com.tobiasbrandy.meli.inventory.store.api;
 
 import com.tobiasbrandy.meli.inventory.model.InventoryItemRemotePurchaseEvent;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemsRemotePurchaseEvent;
 import com.tobiasbrandy.meli.inventory.store.service.InventoryService;
 import org.junit.jupiter.api.Test;
 
-import static org.mockito.ArgumentMatchers.eq;
+import java.util.List;
+
 import static org.mockito.Mockito.*;
 
 class InventoryEventHandlerTest {
@@ -19,6 +21,25 @@ class InventoryEventHandlerTest {
                 com.tobiasbrandy.meli.inventory.model.EventType.INVENTORY_ITEM_REMOTE_PURCHASE,
                 new InventoryItemRemotePurchaseEvent("store-1", "p1", 3)));
 
-        verify(service).processPurchase(eq("p1"), eq(3));
+        verify(service).processPurchases(List.of(new InventoryItemRemotePurchaseEvent("store-1", "p1", 3)));
+    }
+
+    @Test
+    void remotePurchasesHandlerAppliesEveryBatchAtOnce() {
+        var service = mock(InventoryService.class);
+        var handler = new InventoryEventHandler(service).remotePurchases();
+        var p1 = new InventoryItemRemotePurchaseEvent("store-1", "p1", 3);
+        var p2 = new InventoryItemRemotePurchaseEvent("store-1", "p2", 1);
+        var p3 = new InventoryItemRemotePurchaseEvent("store-1", "p3", 2);
+
+        handler.handleEvents(List.of(
+                new com.tobiasbrandy.meli.inventory.model.Event<>("s", "id-1", java.time.Instant.now(),
+                        com.tobiasbrandy.meli.inventory.model.EventType.INVENTORY_ITEMS_REMOTE_PURCHASE,
+                        new InventoryItemsRemotePurchaseEvent("store-1", List.of(p1, p2))),
+                new com.tobiasbrandy.meli.inventory.model.Event<>("s", "id-2", java.time.Instant.now(),
+                        com.tobiasbrandy.meli.inventory.model.EventType.INVENTORY_ITEMS_REMOTE_PURCHASE,
+                        new InventoryItemsRemotePurchaseEvent("store-1", List.of(p3)))));
+
+        verify(service).processPurchases(List.of(p1, p2, p3));
     }
 }
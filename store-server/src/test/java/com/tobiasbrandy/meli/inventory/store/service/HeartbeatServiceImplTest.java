@@ -3,36 +3,38 @@ package com.tobiasbrandy.meli.inventory.store.service;
 import com.tobiasbrandy.meli.inventory.store.config.AppConfig;
 import com.tobiasbrandy.meli.inventory.store.service.impl.HeartbeatServiceImpl;
 import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.HashOperations;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.ValueOperations;
 
-import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
 class HeartbeatServiceImplTest {
     @Test
-    void emitHeartbeat_setsTimestamp() {
+    void emitHeartbeat_storesAndPublishesTimestamp() {
         var appConfig = new AppConfig("store-1");
         var redis = mock(StringRedisTemplate.class);
-        var valueOps = mock(ValueOperations.class);
-        when(redis.opsForValue()).thenReturn(valueOps);
+        HashOperations<String, Object, Object> hashOps = mock(HashOperations.class);
+        when(redis.<Object, Object>opsForHash()).thenReturn(hashOps);
 
         var svc = new HeartbeatServiceImpl(appConfig, redis);
         svc.emitHeartbeat();
 
-        verify(valueOps).set(eq("store:store-1:heartbeat"), anyString());
+        verify(hashOps).put(eq("store:heartbeats"), eq("store-1"), anyString());
+        verify(redis).convertAndSend(eq("store:heartbeats"), endsWith(":store-1"));
     }
 
     @Test
     void scheduledHeartbeat_skipsWhenDisconnected() {
         var appConfig = new AppConfig("store-1");
         var redis = mock(StringRedisTemplate.class);
-        var valueOps = mock(ValueOperations.class);
-        when(redis.opsForValue()).thenReturn(valueOps);
+        HashOperations<String, Object, Object> hashOps = mock(HashOperations.class);
+        when(redis.<Object, Object>opsForHash()).thenReturn(hashOps);
         var svc = new HeartbeatServiceImpl(appConfig, redis);
         svc.setDisconnected(true);
-        verify(valueOps).getAndDelete("store:store-1:heartbeat");
+        verify(hashOps).delete("store:heartbeats", "store-1");
+        verify(redis).convertAndSend("store:heartbeats", ":store-1");
         svc.scheduledHeartbeat();
-        verify(valueOps, never()).set(anyString(), anyString());
+        verify(hashOps, never()).put(anyString(), any(), any());
     }
 }
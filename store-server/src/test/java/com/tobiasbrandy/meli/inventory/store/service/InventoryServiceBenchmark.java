@@ -0,0 +1,61 @@
+package com.tobiasbrandy.meli.inventory.store.service;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Mutations per second of the inventory service, against the in-memory database and a local Redis (localhost:6379).
+ * <p>
+ * Also reports the JDBC statements prepared per mutation, which is what JDBC batching and pooled sequence ids cut down.
+ * Run with {@code ./mvnw -pl store-server -am test -Dtest=InventoryServiceBenchmark -Dsurefire.failIfNoSpecifiedTests=false -Dbenchmark=true}.
+ */
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class InventoryServiceBenchmark {
+    private static final int ITEMS = 5_000;
+    private static final int PURCHASES = 20_000;
+
+    @Autowired
+    private InventoryService inventoryService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Test
+    void createAndPurchase() {
+        final var stats = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        stats.clear();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITEMS; i++) {
+            inventoryService.createInventoryItem("benchmark-" + i);
+        }
+        report("createInventoryItem", ITEMS, start, stats);
+
+        for (int i = 0; i < ITEMS; i++) {
+            inventoryService.setInventoryItemQuantity("benchmark-" + i, PURCHASES);
+        }
+
+        stats.clear();
+        start = System.nanoTime();
+        for (int i = 0; i < PURCHASES; i++) {
+            inventoryService.processPurchase("benchmark-" + (i % ITEMS), 1);
+        }
+        report("processPurchase", PURCHASES, start, stats);
+
+        assertEquals(PURCHASES - PURCHASES / ITEMS, inventoryService.getInventoryItem("benchmark-0").getQuantity());
+    }
+
+    private static void report(final String name, final int mutations, final long start, final Statistics stats) {
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("[%s] %d mutations in %.2fs: %.0f mutations/s, %.2f statements/mutation%n",
+            name, mutations, seconds, mutations / seconds, (double) stats.getPrepareStatementCount() / mutations);
+    }
+}
@@ -8,7 +8,9 @@ import com.tobiasbrandy.meli.inventory.messaging.EventStreams;
 import com.tobiasbrandy.meli.inventory.model.EventType;
 import com.tobiasbrandy.meli.inventory.model.InventoryItem;
 import com.tobiasbrandy.meli.inventory.model.InventoryItemCreateEvent;
+import com.tobiasbrandy.meli.inventory.model.InventoryItemRemotePurchaseEvent;
 import com.tobiasbrandy.meli.inventory.model.InventoryItemUpdateEvent;
+import com.tobiasbrandy.meli.inventory.repository.InventoryPurchases;
 import com.tobiasbrandy.meli.inventory.repository.InventoryRepository;
 import com.tobiasbrandy.meli.inventory.store.config.AppConfig;
 import com.tobiasbrandy.meli.inventory.store.service.impl.InventoryServiceImpl;
@@ -28,6 +30,7 @@ import static org.mockito.Mockito.*;
 class InventoryServiceImplTest {
     private AppConfig appConfig;
     private InventoryRepository repository;
+    private InventoryPurchases purchases;
     private EventPublisher publisher;
     private EventStreams streams;
     private InventoryService service;
@@ -36,11 +39,12 @@ class InventoryServiceImplTest {
     void setUp() {
         appConfig = new AppConfig("store-1");
         repository = mock(InventoryRepository.class);
+        purchases = mock(InventoryPurchases.class);
         publisher = mock(EventPublisher.class);
         streams = mock(EventStreams.class);
         when(streams.storeToCentral("store-1")).thenReturn("s:store-1");
 
-        service = new InventoryServiceImpl(appConfig, repository, publisher, streams);
+        service = new InventoryServiceImpl(appConfig, repository, purchases, publisher, streams);
     }
 
     @Test
@@ -59,7 +63,7 @@ class InventoryServiceImplTest {
     @Test
     void createInventoryItem_savesAndPublishesCreated() {
         var saved = new InventoryItem("store-1", "p1", 0);
-        when(repository.save(any(InventoryItem.class))).thenReturn(saved);
+        when(repository.saveAndFlush(any(InventoryItem.class))).thenReturn(saved);
 
         var result = service.createInventoryItem("p1");
         assertSame(saved, result);
@@ -72,7 +76,7 @@ class InventoryServiceImplTest {
 
     @Test
     void createInventoryItem_duplicateThrows() {
-        when(repository.save(any(InventoryItem.class))).thenThrow(new DataIntegrityViolationException("dup"));
+        when(repository.saveAndFlush(any(InventoryItem.class))).thenThrow(new DataIntegrityViolationException("dup"));
         assertThrows(ProductAlreadyExistsException.class, () -> service.createInventoryItem("p1"));
     }
 
@@ -96,9 +100,7 @@ class InventoryServiceImplTest {
 
     @Test
     void processPurchase_happyPathDecrementsAndPublishesUpdated() {
-        var item = new InventoryItem("store-1", "p1", 10);
-        when(repository.findByStoreIdAndProductId("store-1", "p1")).thenReturn(Optional.of(item));
-        when(repository.save(any(InventoryItem.class))).thenAnswer(inv -> inv.getArgument(0));
+        when(purchases.purchase("store-1", "p1", 3)).thenReturn(new InventoryItem("store-1", "p1", 7));
 
         var saved = service.processPurchase("p1", 3);
         assertEquals(7, saved.getQuantity());
@@ -110,15 +112,16 @@ class InventoryServiceImplTest {
 
     @Test
     void processPurchase_insufficientThrows() {
-        var item = new InventoryItem("store-1", "p1", 2);
-        when(repository.findByStoreIdAndProductId("store-1", "p1")).thenReturn(Optional.of(item));
+        when(purchases.purchase("store-1", "p1", 3)).thenThrow(new InsufficientStockException("store-1", "p1", 2, 3));
         assertThrows(InsufficientStockException.class, () -> service.processPurchase("p1", 3));
+        verifyNoInteractions(publisher);
     }
 
     @Test
     void processPurchase_notFoundThrows() {
-        when(repository.findByStoreIdAndProductId("store-1", "p1")).thenReturn(Optional.empty());
+        when(purchases.purchase("store-1", "p1", 1)).thenThrow(new ProductNotFoundException("store-1", "p1"));
         assertThrows(ProductNotFoundException.class, () -> service.processPurchase("p1", 1));
+        verifyNoInteractions(publisher);
     }
 
     @Test
@@ -128,4 +131,42 @@ class InventoryServiceImplTest {
         var list = service.listInventoryItems(0, 20);
         assertNotNull(list);
     }
+
+    @Test
+    void processPurchases_appliesAllAndPublishesOneUpdatePerItem() {
+        var p1 = new InventoryItem("store-1", "p1", 10);
+        var p2 = new InventoryItem("store-1", "p2", 10);
+        when(repository.findByStoreIdAndProductIdIn(eq("store-1"), anyCollection())).thenReturn(List.of(p2, p1));
+
+        var items = service.processPurchases(List.of(
+                new InventoryItemRemotePurchaseEvent("store-1", "p1", 3),
+                new InventoryItemRemotePurchaseEvent("store-1", "p2", 1),
+                new InventoryItemRemotePurchaseEvent("store-1", "p1", 2)));
+
+        assertEquals(List.of(p1, p2), items);
+        assertEquals(5, p1.getQuantity());
+        assertEquals(9, p2.getQuantity());
+        ArgumentCaptor<InventoryItemUpdateEvent> payload = ArgumentCaptor.forClass(InventoryItemUpdateEvent.class);
+        verify(publisher, times(2)).publishEvent(eq("s:store-1"), eq(EventType.INVENTORY_ITEM_UPDATED), payload.capture());
+        assertEquals(List.of(new InventoryItemUpdateEvent("store-1", "p1", 5), new InventoryItemUpdateEvent("store-1", "p2", 9)),
+                payload.getAllValues());
+    }
+
+    @Test
+    void processPurchases_insufficientStockOnAnyThrows() {
+        var p1 = new InventoryItem("store-1", "p1", 4);
+        when(repository.findByStoreIdAndProductIdIn(eq("store-1"), anyCollection())).thenReturn(List.of(p1));
+
+        assertThrows(InsufficientStockException.class, () -> service.processPurchases(List.of(
+                new InventoryItemRemotePurchaseEvent("store-1", "p1", 3),
+                new InventoryItemRemotePurchaseEvent("store-1", "p1", 2))));
+        verify(publisher, never()).publishEvent(anyString(), any(), any());
+    }
+
+    @Test
+    void processPurchases_notFoundThrows() {
+        when(repository.findByStoreIdAndProductIdIn(eq("store-1"), anyCollection())).thenReturn(List.of());
+        assertThrows(ProductNotFoundException.class, () -> service.processPurchases(List.of(
+                new InventoryItemRemotePurchaseEvent("store-1", "p1", 1))));
+    }
 }